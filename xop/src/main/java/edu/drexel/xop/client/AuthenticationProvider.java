@@ -24,11 +24,11 @@ public class AuthenticationProvider {
 
     public boolean authenticate(JID jid, String password) {
         if( logger.isLoggable(Level.FINE) ) logger.fine("Authenticate: (" + jid.toBareJID() + ", [password masked])");
-        boolean retVal = !clientManager.clientExists(jid) || !clientManager.getAvailableClientJIDs().contains(jid);
+        boolean retVal = !clientManager.clientExists(jid) || !clientManager.clientAvailable(jid);
         logger.fine("authenticated? "+retVal
                 + "; !clientManager.clientExists(jid) " + (!clientManager.clientExists(jid))
-                + "; !clientManager.getAvailableClientJIDs().contains(jid)"
-                + (!clientManager.getAvailableClientJIDs().contains(jid)));
+                + "; !clientManager.clientAvailable(jid)"
+                + (!clientManager.clientAvailable(jid)));
         return retVal;
     }
 
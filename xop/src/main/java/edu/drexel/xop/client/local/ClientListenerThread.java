@@ -3,10 +3,14 @@ package edu.drexel.xop.client.local;
 import edu.drexel.xop.client.XOPConnection;
 import edu.drexel.xop.core.ClientManager;
 import edu.drexel.xop.packet.LocalPacketProcessor;
+import edu.drexel.xop.util.XOP;
 import edu.drexel.xop.util.logger.LogUtils;
+import mil.navy.nrl.xop.client.ClientConnectionKt;
+import mil.navy.nrl.xop.client.NioClientEngine;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
@@ -21,12 +25,17 @@ public class ClientListenerThread implements Runnable {
     private ServerSocket ss;
     private ClientManager clientManager;
     private LocalPacketProcessor localPacketProcessor;
+    private NioClientEngine nioEngine = null;
 
     public ClientListenerThread(InetAddress bindAddress, int port, ClientManager clientManager,
                                 LocalPacketProcessor localPacketProcessor) throws IOException {
         this.clientManager = clientManager;
         this.localPacketProcessor = localPacketProcessor;
-        ss = new ServerSocket();
+        if (ClientConnectionKt.NIO_ENGINE.equals(XOP.CLIENT.ENGINE)) {
+            nioEngine = new NioClientEngine(clientManager, localPacketProcessor, XOP.DOMAIN, XOP.CLIENT.IO_THREADS);
+        }
+        // opened through a channel so accepted sockets can be handed to the nio engine
+        ss = ServerSocketChannel.open().socket();
         ss.setReuseAddress(true);
         ss.bind(new InetSocketAddress(bindAddress, port));
         logger.info("listening on " + ss.getLocalSocketAddress() + " inet " + ss.getInetAddress());
@@ -44,6 +53,11 @@ public class ClientListenerThread implements Runnable {
                 // ClientConnection clientConnection = new ClientConnection(sock);
                 // new Thread(clientConnection).start();
                 //
+                if (nioEngine != null) {
+                    nioEngine.register(sock.getChannel());
+                    continue;
+                }
+
                 // pass off to the handler
                 XOPConnection xopConnection = createNewClientConnection(sock);
                 new Thread(xopConnection).start();
@@ -70,6 +84,9 @@ public class ClientListenerThread implements Runnable {
 
     public void stopClientListener() {
         killSwitch.set(true);
+        if (nioEngine != null) {
+            nioEngine.shutdown();
+        }
     }
 
     private XOPConnection createNewClientConnection(Socket sock) {
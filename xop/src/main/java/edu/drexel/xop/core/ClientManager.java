@@ -1,10 +1,12 @@
 package edu.drexel.xop.core;
 
 import edu.drexel.xop.client.XOPConnection;
+import edu.drexel.xop.packet.LocalRecipientFilter;
 import edu.drexel.xop.util.logger.LogUtils;
 import org.xmpp.packet.JID;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,28 +22,44 @@ public class ClientManager {
     // public static ClientManager instance = null;
 
     private final Map<JID, XMPPClient> xmppClients;
-    private Map<JID, XMPPClient> remoteClients;
-    private Map<JID, XMPPClient> localClients;
-    private Set<JID> availableClients;
+    private final Map<JID, XMPPClient> remoteClients;
+    private final Map<JID, XMPPClient> localClients;
+    private final Set<JID> availableClients;
+
+    // reverse index, so a closing stream finds its client without scanning every client
+    private final Map<XOPConnection, JID> connectionToJID;
+    // bare JID to the full JIDs (resources) known for it
+    private final Map<JID, Set<JID>> resources;
+
+    // read only copies handed out for iteration, replaced whenever the clients change
+    private volatile Set<JID> localClientJIDs = Collections.emptySet();
+    private volatile Set<JID> remoteClientJIDs = Collections.emptySet();
+    private volatile Set<JID> availableClientJIDs = Collections.emptySet();
+    private volatile Collection<XMPPClient> xmppClientValues = Collections.emptySet();
+    // destination keys of the local clients, see LocalRecipientFilter
+    private volatile Set<Integer> localDestinationKeys = Collections.emptySet();
+
+    private final Object writeLock = new Object();
 
     public ClientManager() {
         logger.info("Creating ClientManager");
 
         /*
-        Note: we're initializing all maps here to be synchronizedMaps to force blocking access for puts and gets.
-        It's slower, however we're often iterating over the whole map and we need to block access when doing that
-        and when putting new elements in there.
-
-        https://stackoverflow.com/questions/510632/whats-the-difference-between-concurrenthashmap-and-collections-synchronizedmap
-
-        - dnn 2014-09-26
+        Lookups (isLocal, getXMPPClient, clientAvailable) are on the routing path of every stanza and go straight to
+        the concurrent maps without locking. Clients come and go rarely in comparison, so changes are serialized on
+        writeLock and each change publishes new read only snapshots for the callers that iterate over the clients.
          */
-        xmppClients = Collections.synchronizedMap(new HashMap<>());
-        remoteClients = Collections.synchronizedMap(new HashMap<>());
-        localClients = Collections.synchronizedMap(new HashMap<>());
-        availableClients = Collections.synchronizedSet(new HashSet<>());
+        xmppClients = new ConcurrentHashMap<>();
+        remoteClients = new ConcurrentHashMap<>();
+        localClients = new ConcurrentHashMap<>();
+        availableClients = ConcurrentHashMap.newKeySet();
+        connectionToJID = new ConcurrentHashMap<>();
+        resources = new ConcurrentHashMap<>();
     }
 
+    private static JID bare(JID jid) {
+        return jid.getResource() == null ? jid : jid.asBareJID();
+    }
 
     /**
      *
@@ -49,14 +67,7 @@ public class ClientManager {
      * @return the JID associated for this connection
      */
     public JID getJIDForLocalConnection(XOPConnection xopConnection) {
-        for( XMPPClient tempClient : xmppClients.values() ){
-            if( tempClient instanceof LocalXMPPClient &&
-                xopConnection.equals(((LocalXMPPClient) tempClient).getXopConnection())
-            ) {
-                return tempClient.getFullJID();
-            }
-        }
-        return null;
+        return xopConnection != null ? connectionToJID.get(xopConnection) : null;
     }
 
     /**
@@ -65,7 +76,7 @@ public class ClientManager {
      * @return the xmpp client
      */
     XMPPClient getXMPPClient(JID jid){
-        return xmppClients.get(new JID(jid.toBareJID()));
+        return xmppClients.get(bare(jid));
     }
 
     /**
@@ -74,15 +85,27 @@ public class ClientManager {
      * @return the XMPPClient or null if none found
      */
     public XMPPClient getLocalXMPPClient(JID jid) {
-        return localClients.get(new JID(jid.toBareJID()));
+        return localClients.get(bare(jid));
     }
 
     public XMPPClient getRemoteXMPPClient(JID jid) {
-        return remoteClients.get(new JID(jid.toBareJID()));
+        return remoteClients.get(bare(jid));
     }
 
+    /**
+     * @return a snapshot of all local and remote clients
+     */
     public Collection<XMPPClient> getXMPPClients(){
-        return xmppClients.values();
+        return xmppClientValues;
+    }
+
+    /**
+     * @param bareJID the bare JID
+     * @return the full JIDs of the clients known for this bare JID, empty if none
+     */
+    public Set<JID> getFullJIDs(JID bareJID) {
+        Set<JID> fullJIDs = resources.get(bare(bareJID));
+        return fullJIDs != null ? fullJIDs : Collections.<JID>emptySet();
     }
 
     /**
@@ -91,13 +114,12 @@ public class ClientManager {
      */
     public XOPConnection getConnection(JID jid) {
         //look for a xopConnection matching this JID
-        // XMPPClient xmppClient = xmppClients.get(new JID(jid.toBareJID()));
-        XMPPClient xmppClient = localClients.get(new JID(jid.toBareJID()));
+        XMPPClient xmppClient = localClients.get(bare(jid));
         if (xmppClient != null) { //&& (xmppClient instanceof LocalXMPPClient) ){
             logger.info("found a connection for this jid: "+jid);
             return ((LocalXMPPClient) xmppClient).getXopConnection();
         } else {
-            logger.warning("no connection found for JID: " + new JID(jid.toBareJID()) + ", returning null!");
+            logger.warning("no connection found for JID: " + bare(jid) + ", returning null!");
             return null;
         }
     }
@@ -107,18 +129,32 @@ public class ClientManager {
      * @param clientJID the client jid to be removed
      */
     public void removeJIDFromAvailableSet(JID clientJID){
-        availableClients.remove(clientJID);
+        if (clientJID == null) {
+            return;
+        }
+        synchronized (writeLock) {
+            if (availableClients.remove(clientJID)) {
+                availableClientJIDs = snapshot(availableClients);
+            }
+        }
     }
 
     public void addJIDToAvailableSet(JID clientJID) {
-        availableClients.add(clientJID);
+        if (clientJID == null) {
+            return;
+        }
+        synchronized (writeLock) {
+            if (availableClients.add(clientJID)) {
+                availableClientJIDs = snapshot(availableClients);
+            }
+        }
     }
 
     /**
-     * @return a copy of the availableClientJIDs (to avoid ConcurrentModificationExceptions)
+     * @return a read only snapshot of the available client JIDs, safe to iterate while clients change
      */
     public Set<JID> getAvailableClientJIDs(){
-        return new HashSet<>(availableClients);
+        return availableClientJIDs;
     }
 
     /**
@@ -126,9 +162,13 @@ public class ClientManager {
      * @param xmppClient the newly discovered to be added
      */
     public void addDiscoveredXMPPClient(XMPPClient xmppClient){
-        xmppClients.put(xmppClient.getBareJID(), xmppClient);
-        availableClients.add(xmppClient.getFullJID());
-        remoteClients.put(xmppClient.getBareJID(), xmppClient);
+        synchronized (writeLock) {
+            xmppClients.put(xmppClient.getBareJID(), xmppClient);
+            availableClients.add(xmppClient.getFullJID());
+            remoteClients.put(xmppClient.getBareJID(), xmppClient);
+            addResource(xmppClient.getFullJID());
+            updateSnapshots();
+        }
     }
 
 
@@ -137,59 +177,110 @@ public class ClientManager {
      * @param localXMPPClient the locally connected XMPP client to add
      */
     public void addLocalXMPPClient(LocalXMPPClient localXMPPClient) {
-        // System.out.println("Adding a LOCAL XMPP Client " + localXMPPClient.getFullJID()
-        //         + " on: " + localXMPPClient.getXopConnection().getHostName());
-        logger.fine("Adding a LOCAL XMPP Client " + localXMPPClient.getFullJID()
-                + " on: " + localXMPPClient.getXopConnection().getHostName());
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Adding a LOCAL XMPP Client " + localXMPPClient.getFullJID()
+                    + " on: " + localXMPPClient.getXopConnection().getHostName());
+        }
 
         //make sure that this connection is not already registered
         JID jid = localXMPPClient.getFullJID();
         JID bareJid = localXMPPClient.getBareJID();
-        if( xmppClients.containsKey(bareJid) || clientExists(jid) ) {
-            logger.fine("xmppClients: " + xmppClients.keySet());
-            logger.fine("localClients: " + localClients.keySet());
-            logger.warning("xopConnection already registered: " + jid);
-            System.out.println("xopConnection already registered: " + jid);
-            return;
+        synchronized (writeLock) {
+            if (xmppClients.containsKey(bareJid) || clientExists(jid)) {
+                logger.fine("xmppClients: " + xmppClients.keySet());
+                logger.fine("localClients: " + localClients.keySet());
+                logger.warning("xopConnection already registered: " + jid);
+                System.out.println("xopConnection already registered: " + jid);
+                return;
+            }
+            logger.fine("Adding " + bareJid + " as LocalXMPPClient");
+            xmppClients.put(bareJid, localXMPPClient);
+            localClients.put(bareJid, localXMPPClient);
+            if (localXMPPClient.getXopConnection() != null) {
+                connectionToJID.put(localXMPPClient.getXopConnection(), jid);
+            }
+            addResource(jid);
+            updateSnapshots();
         }
-        logger.fine("Adding " + bareJid + " as LocalXMPPClient");
-        xmppClients.put(bareJid, localXMPPClient);
-        localClients.put(bareJid, localXMPPClient);
         logger.fine("Exiting addLocalXMPPClient()");
     }
 
     void removeXMPPClient(JID clientJID) {
-        xmppClients.remove(new JID(clientJID.toBareJID()));
-        remoteClients.remove(clientJID);
-        localClients.remove(new JID(clientJID.toBareJID()));
-        logger.fine("After REMOVE xmppClients: " + xmppClients.keySet());
-        logger.fine("After REMOVE localClients: " + localClients.keySet());
+        JID bareJid = bare(clientJID);
+        synchronized (writeLock) {
+            xmppClients.remove(bareJid);
+            remoteClients.remove(clientJID);
+            XMPPClient localClient = localClients.remove(bareJid);
+            if (localClient instanceof LocalXMPPClient
+                    && ((LocalXMPPClient) localClient).getXopConnection() != null) {
+                connectionToJID.remove(((LocalXMPPClient) localClient).getXopConnection());
+            }
+            resources.remove(bareJid);
+            updateSnapshots();
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("After REMOVE xmppClients: " + xmppClients.keySet());
+            logger.fine("After REMOVE localClients: " + localClients.keySet());
+        }
         // availableClients.remove(clientJID); // the fulljid
     }
 
     void removeAllClients() {
-        availableClients.clear();
-        remoteClients.clear();
-        xmppClients.clear();
-        localClients.clear();
+        synchronized (writeLock) {
+            availableClients.clear();
+            remoteClients.clear();
+            xmppClients.clear();
+            localClients.clear();
+            connectionToJID.clear();
+            resources.clear();
+            updateSnapshots();
+        }
+    }
+
+    private void addResource(JID fullJID) {
+        JID bareJid = bare(fullJID);
+        Set<JID> current = resources.get(bareJid);
+        Set<JID> updated = new HashSet<>();
+        if (current != null) {
+            updated.addAll(current);
+        }
+        updated.add(fullJID);
+        resources.put(bareJid, Collections.unmodifiableSet(updated));
+    }
+
+    // called holding writeLock
+    private void updateSnapshots() {
+        localClientJIDs = snapshot(localClients.keySet());
+        remoteClientJIDs = snapshot(remoteClients.keySet());
+        availableClientJIDs = snapshot(availableClients);
+        xmppClientValues = Collections.unmodifiableList(new ArrayList<>(xmppClients.values()));
+        Set<Integer> keys = new HashSet<>();
+        for (JID jid : localClients.keySet()) {
+            keys.add(LocalRecipientFilter.keyOf(jid));
+        }
+        localDestinationKeys = Collections.unmodifiableSet(keys);
+    }
+
+    private static Set<JID> snapshot(Set<JID> jids) {
+        return Collections.unmodifiableSet(new HashSet<>(jids));
     }
 
 
     /**
      * Locally connected clients are XMPP clients connected directly to this XOP instance.
      * E.g Xabber connected to an XO instance.
-     * @return a set of JIDs of the online/offline local users
+     * @return a read only snapshot of the bare JIDs of the online/offline local users
      */
     public Set<JID> getLocalClientJIDs() {
-        return localClients.keySet();
+        return localClientJIDs;
     }
 
     /**
      *
-     * @return all the online/offline discovered local and remote clients
+     * @return a read only snapshot of all the online/offline discovered remote clients
      */
     public Set<JID> getRemoteClients() {
-        return remoteClients.keySet();
+        return remoteClientJIDs;
     }
 
     /**
@@ -198,11 +289,11 @@ public class ClientManager {
      * @return true if this JID or bare jid is registered, false otherwise
      */
     public boolean clientExists(JID jid) {
-        return xmppClients.containsKey(new JID(jid.toBareJID()) ) ;
+        return xmppClients.containsKey(bare(jid));
     }
 
     public boolean clientAvailable(JID jid) {
-        return availableClients.contains(jid);
+        return jid != null && availableClients.contains(jid);
     }
 
     /**
@@ -211,6 +302,9 @@ public class ClientManager {
      * @return true if this jid is a locally connected client, false otherwise
      */
     public boolean isLocal(JID jid) {
+        if (jid == null) {
+            return false;
+        }
         if (logger.isLoggable(Level.FINER)) {
             logger.finer("xmppClients.containsKey(jid) " + xmppClients.containsKey(jid));
             logger.finer("remoteClients.containsKey(jid) " + remoteClients.containsKey(jid));
@@ -220,6 +314,14 @@ public class ClientManager {
         return localClients.containsKey(jid);
     }
 
+    /**
+     * @param key a destination key, see {@link LocalRecipientFilter#keyOf(JID)}
+     * @return true if the key is the one of a locally connected client
+     */
+    public boolean isLocalDestination(int key) {
+        return localDestinationKeys.contains(key);
+    }
+
     public Set<XMPPClient> getLocalClients() {
         return new HashSet<>(localClients.values());
     }
@@ -0,0 +1,106 @@
+package edu.drexel.xop.core;
+
+import org.dom4j.Element;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Packet;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A stanza serialized once for delivery to many recipients.<br/>
+ * The packet is written to UTF-8 without its to, from and id attributes; {@link #bytesFor(JID, JID, String)}
+ * splices the per-recipient values in after the element name, so sending the same message, presence or roster push
+ * to N local clients costs one serialization and N array copies instead of N packet copies and N serializations.
+ */
+public class FanoutStanza {
+    private final byte[] head;
+    private final byte[] body;
+    private final JID from;
+    private final String id;
+
+    /**
+     * @param packet the stanza to send, it is not modified
+     */
+    public FanoutStanza(Packet packet) {
+        Element element = packet.getElement().createCopy();
+        removeAttribute(element, "to");
+        removeAttribute(element, "from");
+        removeAttribute(element, "id");
+
+        String xml = element.asXML();
+        String start = "<" + element.getQualifiedName();
+        head = start.getBytes(StandardCharsets.UTF_8);
+        body = xml.substring(start.length()).getBytes(StandardCharsets.UTF_8);
+        from = packet.getFrom();
+        id = packet.getID();
+    }
+
+    private static void removeAttribute(Element element, String name) {
+        if (element.attribute(name) != null) {
+            element.remove(element.attribute(name));
+        }
+    }
+
+    /**
+     * @param to the recipient
+     * @return the stanza addressed to the recipient, keeping the original from and id
+     */
+    public byte[] bytesFor(JID to) {
+        return bytesFor(to, from, id);
+    }
+
+    /**
+     * @param to the recipient, or null for none
+     * @param from the sender, or null for none
+     * @param id the stanza id, or null for none
+     * @return the serialized stanza with the given addressing
+     */
+    public byte[] bytesFor(JID to, JID from, String id) {
+        StringBuilder attributes = new StringBuilder(96);
+        appendAttribute(attributes, "to", to == null ? null : to.toString());
+        appendAttribute(attributes, "from", from == null ? null : from.toString());
+        appendAttribute(attributes, "id", id);
+        byte[] spliced = attributes.toString().getBytes(StandardCharsets.UTF_8);
+
+        byte[] bytes = new byte[head.length + spliced.length + body.length];
+        System.arraycopy(head, 0, bytes, 0, head.length);
+        System.arraycopy(spliced, 0, bytes, head.length, spliced.length);
+        System.arraycopy(body, 0, bytes, head.length + spliced.length, body.length);
+        return bytes;
+    }
+
+    public JID getFrom() {
+        return from;
+    }
+
+    public String getID() {
+        return id;
+    }
+
+    private static void appendAttribute(StringBuilder sb, String name, String value) {
+        if (value == null) {
+            return;
+        }
+        sb.append(' ').append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '"':
+                    sb.append("&quot;");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -5,6 +5,7 @@ import edu.drexel.xop.util.logger.LogUtils;
 import org.xmpp.packet.JID;
 import org.xmpp.packet.Packet;
 
+import java.nio.charset.StandardCharsets;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,6 +38,51 @@ public class ProxyUtils {
         }
     }
 
+    /**
+     * Sends the same stanza to each of the recipients, serializing it only once. The stanza keeps its from and id,
+     * the to field is set to each recipient.
+     * @param p the packet to be sent
+     * @param recipients the locally connected clients to send the packet to
+     * @param clientManager client manager
+     */
+    public static void sendPacketToLocalClients(Packet p, Iterable<JID> recipients, ClientManager clientManager) {
+        FanoutStanza stanza = null;
+        for (JID to : recipients) {
+            if (stanza == null) {
+                stanza = new FanoutStanza(p);
+            }
+            sendPacketToLocalClient(stanza, to, stanza.getFrom(), stanza.getID(), clientManager);
+        }
+    }
+
+    /**
+     * Sends a stanza that was serialized once to one of its recipients
+     * @param stanza the pre-serialized stanza
+     * @param to the recipient, a locally connected client
+     * @param from the from field for this recipient
+     * @param id the id for this recipient
+     * @param clientManager client manager
+     */
+    public static void sendPacketToLocalClient(FanoutStanza stanza, JID to, JID from, String id,
+                                               ClientManager clientManager) {
+        if( to == null ){
+            logger.warning("packet has no to field, dropping");
+            return;
+        }
+
+        XMPPClient xmppClient = clientManager.getXMPPClient(to);
+        if (xmppClient instanceof LocalXMPPClient) {
+            XOPConnection connection = ((LocalXMPPClient) xmppClient).getXopConnection();
+            byte[] bytes = stanza.bytesFor(to, from, id);
+            if (logger.isLoggable(Level.FINER))
+                logger.finer("connection is: " + connection.getAddress() + ", packet to send: {{"
+                        + new String(bytes, StandardCharsets.UTF_8) + "}}");
+            connection.writeRaw(bytes);
+        } else {
+            logger.warning("unable to find xmppClient: " + xmppClient + " for " + to);
+        }
+    }
+
     /**
      * compares two JIDs. and bare JIDs.
      * @param user1 jid1
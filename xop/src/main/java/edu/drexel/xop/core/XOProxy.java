@@ -10,7 +10,6 @@ import java.net.InetAddress;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
@@ -18,16 +17,23 @@ import java.util.logging.Logger;
 
 import edu.drexel.xop.gateway.ServerDialbackSession;
 import edu.drexel.xop.net.XopNet;
+import edu.drexel.xop.net.transport.DatagramAggregator;
+import edu.drexel.xop.net.transport.FragmentReassembler;
+import edu.drexel.xop.net.transport.MulticastChannel;
 import edu.drexel.xop.net.transport.XOPTransportService;
 import edu.drexel.xop.packet.LocalPacketProcessor;
 import edu.drexel.xop.room.Room;
 import edu.drexel.xop.room.RoomManager;
+import edu.drexel.xop.room.RoomIndex;
 import edu.drexel.xop.stream.StreamListenerThread;
+import edu.drexel.xop.util.HashedWheelTimer;
 import edu.drexel.xop.util.Utils;
 import edu.drexel.xop.util.XOP;
 import edu.drexel.xop.util.logger.LogUtils;
 import mil.navy.nrl.protosd.api.exception.InitializationException;
 import mil.navy.nrl.xop.client.ClientConnectionKt;
+import mil.navy.nrl.xop.client.OutboundQueue;
+import mil.navy.nrl.xop.transport.reliable.XopNormService;
 import mil.navy.nrl.xop.util.addressing.NetUtilsKt;
 
 /**
@@ -41,11 +47,13 @@ public class XOProxy {
     private Thread slt, serverDialbackThread;
     // private HashSet<PacketProcessor> incoming = new HashSet<>();
     private final Map<String, RoomManager> roomManagers;
+    private final RoomIndex roomIndex = new RoomIndex();
     private ServerDialbackSession serverDialbackSession;
     private ClientManager clientManager;
     private LocalPacketProcessor localPacketProcessor;
 
     private XopNet xopNet;
+    private volatile HashedWheelTimer.Timeout statisticsTimeout;
     // private RosterListManager rosterListManager;
 
     /**
@@ -56,7 +64,7 @@ public class XOProxy {
         String conferenceDomain = XOP.CONFERENCE_SUBDOMAIN + "." + XOP.DOMAIN;
         roomManagers.put(conferenceDomain,
                 new RoomManager(conferenceDomain,
-                        "XO Service for " + XOP.CONFERENCE_SUBDOMAIN));
+                        "XO Service for " + XOP.CONFERENCE_SUBDOMAIN, roomIndex));
 
         clientManager = new ClientManager();
 	}
@@ -136,6 +144,7 @@ public class XOProxy {
                 return "Unable to listen for Streams";
 			}
 		}
+        scheduleStatistics();
         logger.info("XOProxy initialized()");
 
 
@@ -155,6 +164,13 @@ public class XOProxy {
 	}
 
 	public synchronized void stop() {
+        HashedWheelTimer.Timeout timeout = statisticsTimeout;
+        statisticsTimeout = null;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        logStatistics();
+
 		// Drop all connections to TransportEngineAPI
         synchronized (roomManagers) {
             for (RoomManager manager : roomManagers.values()) {
@@ -163,6 +179,7 @@ public class XOProxy {
                 }
             }
             roomManagers.clear();
+            roomIndex.clear();
         }
         // incoming.clear();
 
@@ -204,6 +221,56 @@ public class XOProxy {
 		logger.log(Level.INFO, "Shut down complete.");
 	}
 
+    /**
+     * @return the counters of the open client queues, transports and timers, one line each
+     */
+    public static String statistics() {
+        StringBuilder sb = new StringBuilder();
+        appendStatistics(sb, "client outbound queues", OutboundQueue.statistics());
+        appendStatistics(sb, "multicast channels", MulticastChannel.statistics());
+        appendStatistics(sb, "datagram aggregators", DatagramAggregator.statistics());
+        appendStatistics(sb, "fragment reassemblers", FragmentReassembler.statistics());
+        appendStatistics(sb, "duplicate filters", XopNormService.duplicateFilterStatistics());
+        appendStatistics(sb, "worker pools", XopNormService.workerPoolStatistics());
+        appendStatistics(sb, "buffer arenas", XopNormService.bufferArenaStatistics());
+        appendStatistics(sb, "send schedulers", XopNormService.sendSchedulerStatistics());
+        appendStatistics(sb, "timers", HashedWheelTimer.statistics());
+        return sb.toString();
+    }
+
+    private static void appendStatistics(StringBuilder sb, String name, String lines) {
+        if (!lines.isEmpty()) {
+            sb.append('\n').append(name).append(":\n").append(lines);
+        }
+    }
+
+    private void logStatistics() {
+        String statistics = statistics();
+        if (!statistics.isEmpty()) {
+            logger.info("statistics:" + statistics);
+        }
+    }
+
+    /**
+     * Logs the statistics every xop.statistics.interval seconds on the shared timer
+     */
+    private void scheduleStatistics() {
+        if (XOP.STATISTICS.INTERVAL <= 0) {
+            return;
+        }
+        statisticsTimeout = HashedWheelTimer.shared().schedule(new Runnable() {
+            @Override
+            public void run() {
+                // stopped
+                if (statisticsTimeout == null) {
+                    return;
+                }
+                logStatistics();
+                scheduleStatistics();
+            }
+        }, XOP.STATISTICS.INTERVAL * 1000);
+    }
+
     public ClientManager getClientManager() {
         return clientManager;
     }
@@ -218,6 +285,24 @@ public class XOProxy {
         getRoom(roomJID, false);
     }
 
+    /**
+     * Removes a room that is no longer advertised, unless it still has occupants
+     *
+     * @param roomJID
+     *         the JID of the MUC room
+     */
+    public void removeMUCRoom(JID roomJID) {
+        RoomManager roomManager = roomManagers.get(roomJID.getDomain());
+        Room room = roomManager != null ? roomManager.getRoom(roomJID) : null;
+        if (room == null) {
+            logger.fine("no room " + roomJID + " to remove");
+        } else if (!room.getMUCOccupants().isEmpty()) {
+            logger.fine("not removing room " + roomJID + ", it still has occupants");
+        } else {
+            roomManager.removeRoom(roomJID);
+        }
+    }
+
     /**
      * @param roomJID The JID of the room to search for
      * @param advertise true if advertising a newly created room
@@ -229,7 +314,8 @@ public class XOProxy {
         if (roomManager == null) {
             logger.info(" Room manager does not exist for " + roomJID
                     + ". Creating new RoomManager with domain " + roomJID.getDomain());
-            roomManager = new RoomManager(roomJID.getDomain(), "MUC Service for " + roomJID.getDomain());
+            roomManager = new RoomManager(roomJID.getDomain(), "MUC Service for " + roomJID.getDomain(),
+                    roomIndex);
             roomManagers.put(roomJID.getDomain(), roomManager);
         }
         try {
@@ -405,32 +491,42 @@ public class XOProxy {
         return roomManagers.get(domain);
 	}
 
+    /**
+     * @return read only view of the JIDs of all rooms across all room managers
+     */
     public Set<JID> getRoomIds() {
-        HashSet<JID> ids = new HashSet<>();
-        for(RoomManager manager : roomManagers.values()) {
-            for(Room room : manager.getRooms()) {
-                ids.add(room.getRoomJid());
-            }
-        }
-        if(logger.isLoggable(Level.FINER)) logger.finer("room ids: [[" + ids + "]]");
-        return ids;
+        return roomIndex.getRoomIds();
     }
 
     /**
-     * Iterates through all RoomManagers and Rooms to add all the MUC Occupants in all rooms
-     * @return a set of all the room occupants across all rooms and room managers.
+     * @return read only view of all the room occupants across all rooms and room managers.
      */
     public Set<JID> getRoomOccupantIds() {
-        HashSet<JID> ids = new HashSet<>();
-        for(RoomManager manager : roomManagers.values()) {
-            for(Room room : manager.getRooms()) {
-                for(JID occupant : room.getMUCOccupants()){
-                    ids.add(new JID(occupant.toString()));
-                }
-            }
-        }
-        if (logger.isLoggable(Level.FINER)) logger.finer("room occupant jids: [["+ids+"]]");
-        return ids;
+        return roomIndex.getRoomOccupantIds();
+    }
+
+    /**
+     * @param jid the jid to test
+     * @return true if jid is the JID of a room in any room manager
+     */
+    public boolean isRoom(JID jid) {
+        return roomIndex.isRoom(jid);
+    }
+
+    /**
+     * @param jid the jid to test
+     * @return true if jid is the room@domain/nick JID of an occupant of any room
+     */
+    public boolean isRoomOccupant(JID jid) {
+        return roomIndex.isRoomOccupant(jid);
+    }
+
+    /**
+     * @param key a destination key, see {@link edu.drexel.xop.packet.LocalRecipientFilter#keyOf(JID)}
+     * @return true if key is the one of a room in any room manager
+     */
+    public boolean isRoomDestination(int key) {
+        return roomIndex.isRoomDestination(key);
     }
 
 	/**
@@ -2,8 +2,8 @@ package edu.drexel.xop.gateway;
 
 import edu.drexel.xop.Run;
 import edu.drexel.xop.util.CONSTANTS;
-import edu.drexel.xop.util.XOP;
 import edu.drexel.xop.util.logger.LogUtils;
+import mil.navy.nrl.xop.util.tls.TlsContextProvider;
 import org.xml.sax.InputSource;
 
 import javax.net.ssl.*;
@@ -11,8 +11,6 @@ import java.io.*;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.security.*;
-import java.security.cert.CertificateException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,7 +21,6 @@ class AuthorizingGatewayConnection extends GatewayConnection { //implements XOPC
     private static final Logger logger = LogUtils.getLogger(AuthorizingGatewayConnection.class.getName());
 
     /// From GatewayConnection
-    private static SSLSocketFactory socketFactory = null;
     private Socket socket = null;
     private boolean clientMode = true;
     private GatewayXMLProcessor processor = null;
@@ -142,7 +139,14 @@ class AuthorizingGatewayConnection extends GatewayConnection { //implements XOPC
             SSLSocket sock = transformToSSLSocket(socket);
             sock.setUseClientMode(getClientMode());
             logger.finer("Starting ssl handshake");
-            sock.startHandshake();
+            long handshakeStart = System.nanoTime();
+            try {
+                sock.startHandshake();
+            } catch (IOException e) {
+                TlsContextProvider.GATEWAY.handshakeFailed();
+                throw e;
+            }
+            TlsContextProvider.GATEWAY.handshakeCompleted(sock.getSession(), handshakeStart);
             logger.finer("Completed ssl handshake");
             // get the SSL versions from the new socket ...
             clientInputStream = sock.getInputStream();
@@ -162,94 +166,6 @@ class AuthorizingGatewayConnection extends GatewayConnection { //implements XOPC
         return true;
     }
 
-
-
-    /**
-     * Call this externally to set the keystore used for the SSLSocketFactory
-     * @param storeLocation The input stream at for the keystore location
-     * @param trustLocation the input strum of the trust store
-     * @param storePass the password for the keystore
-     * @param trustPass the passwor dfor the trust store
-     */
-    private static void setKeyStoreAndTrustStore(InputStream storeLocation, InputStream trustLocation, String storePass, String trustPass) {
-        try {
-            logger.fine("Setting up keystore...");
-            SSLContext context = SSLContext.getInstance("TLS");
-            KeyManagerFactory keyManager = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-            KeyStore keyStore = loadKeyStore(storeLocation, storePass);
-            keyManager.init(keyStore, XOP.GATEWAY.STOREPASSWORD.toCharArray());
-
-            TrustManager[] trustManagers;
-            if( XOP.GATEWAY.ACCEPT_SELF_SIGNED_CERTS ){
-                logger.info("Accepting Self-signed certificates");
-                trustManagers = new TrustManager[]{
-                        new X509TrustManager(){
-                            public java.security.cert.X509Certificate[] getAcceptedIssuers(){
-                                return null;
-                                //return new X509Certificate[0];
-                            }
-                            public void checkClientTrusted(java.security.cert.X509Certificate[] certs, String authType){}
-                            public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType){}
-                        }
-                };
-            } else {
-                logger.info("using trust store located at "+trustLocation);
-                TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-                KeyStore trustStore = loadKeyStore(trustLocation, trustPass);
-
-                trustManagerFactory.init(trustStore);
-                trustManagers = trustManagerFactory.getTrustManagers();
-            }
-
-            context.init(keyManager.getKeyManagers(), trustManagers, new SecureRandom());
-
-            socketFactory = context.getSocketFactory();
-            logger.fine("Finished setting up keystore.");
-        } catch (NoSuchAlgorithmException e) {
-            logger.severe("Error while loading KeyManagerFactory: " + e.getMessage());
-        } catch (KeyStoreException e) {
-            logger.severe("Error while setting KeyStore: " + e.getMessage());
-        } catch (UnrecoverableKeyException e) {
-            logger.severe("Could not recover key: " + e.getMessage());
-        } catch (KeyManagementException e) {
-            logger.severe("Error with KeyManager: " + e.getMessage());
-        }
-    }
-
-    /**
-     * Do not use this, it is just a utility method for setting the keystore
-     * @param location
-     * @return
-     */
-    private static KeyStore loadKeyStore(InputStream location, String password) {
-        KeyStore store = null;
-        try {
-            store = KeyStore.getInstance(KeyStore.getDefaultType());
-            if(location != null) {
-                store.load(location, password.toCharArray());
-            }
-            else {
-                logger.severe("Couldn't load null keystore");
-            }
-        } catch (KeyStoreException e) {
-            logger.severe("KeyStoreException: Unable to load keystore: " +e.getMessage());
-        } catch (CertificateException e) {
-            logger.severe("CertificateException: Unable to load keystore: " + e.getMessage());
-        } catch (NoSuchAlgorithmException e) {
-            logger.severe("NoSuchAlgorithmException: Unable to load keystore: " + e.getMessage());
-        } catch (IOException e) {
-            logger.severe("IOException: Unable to load keystore: " + e.getMessage());
-        } finally {
-            try {
-                location.close();
-            } catch (IOException e) {
-                logger.warning("Could not close file stream: " + e.getMessage());
-            }
-        }
-        return store;
-    }
-
-
     /**
      * Transforms a conventional socket into a SSL socket.
      *
@@ -258,21 +174,7 @@ class AuthorizingGatewayConnection extends GatewayConnection { //implements XOPC
      * @throws Exception if unable to create one
      */
     private static SSLSocket transformToSSLSocket(Socket socket) throws Exception {
-        if(socketFactory == null) {
-            File keystorePath = new File(XOP.GATEWAY.KEYSTORE).getAbsoluteFile();
-            File truststorePath = new File(XOP.GATEWAY.TRUSTSTORE).getAbsoluteFile();
-            if( logger.isLoggable(Level.FINE) ) logger.fine("keystorePath: " + keystorePath.getAbsolutePath());
-            if( logger.isLoggable(Level.FINE) ) logger.fine("truststorePath: " + truststorePath.getAbsolutePath());
-            setKeyStoreAndTrustStore(
-                    new FileInputStream(keystorePath),
-                    new FileInputStream(truststorePath),
-                    XOP.GATEWAY.STOREPASSWORD,
-                    XOP.GATEWAY.TRUSTSTOREPASSWORD);
-            if( logger.isLoggable(Level.FINE) ) {
-                logger.fine("using keystore: " + XOP.GATEWAY.KEYSTORE);
-                logger.fine("using truststore: " + XOP.GATEWAY.TRUSTSTORE);
-            }
-        }
+        SSLSocketFactory socketFactory = TlsContextProvider.GATEWAY.getSocketFactory();
         if(socketFactory != null) {
             InetSocketAddress remoteAddress = (InetSocketAddress) socket.getRemoteSocketAddress();
             logger.fine("creating SSL Socket");
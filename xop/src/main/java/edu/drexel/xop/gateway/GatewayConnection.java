@@ -2,37 +2,23 @@ package edu.drexel.xop.gateway;
 
 import org.xml.sax.InputSource;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.security.KeyManagementException;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.UnrecoverableKeyException;
-import java.security.cert.CertificateException;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.net.ssl.KeyManagerFactory;
-import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.TrustManagerFactory;
-import javax.net.ssl.X509TrustManager;
 
 import edu.drexel.xop.Run;
-import edu.drexel.xop.util.XOP;
 import edu.drexel.xop.util.logger.LogUtils;
+import mil.navy.nrl.xop.util.tls.TlsContextProvider;
 
 /**
  * Abstract gateway connection for Initiating and Receiving Gateway Connections
@@ -43,7 +29,6 @@ import edu.drexel.xop.util.logger.LogUtils;
 abstract class GatewayConnection implements Runnable {
     private static Logger logger = LogUtils.getLogger(GatewayConnection.class.getName());
 
-    private static SSLSocketFactory socketFactory = null;
     protected Socket socket = null;
 
     boolean clientMode = true;
@@ -69,99 +54,6 @@ abstract class GatewayConnection implements Runnable {
      */
     abstract void stop();
 
-    /**
-     * Call this externally to set the keystore used for the SSLSocketFactory
-     * @param storeLocation The input stream at for the keystore location
-     * @param trustLocation the input strum of the trust store
-     * @param storePass the password for the keystore
-     * @param trustPass the passwor dfor the trust store
-     */
-    private static void setKeyStoreAndTrustStore(InputStream storeLocation,
-                                                 InputStream trustLocation,
-                                                 String storePass, String trustPass)
-    {
-        try {
-            logger.fine("Setting up keystore...");
-            SSLContext context = SSLContext.getInstance("TLS");
-            KeyManagerFactory keyManager =
-                    KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-            KeyStore keyStore = loadStore(storeLocation, storePass);
-            keyManager.init(keyStore, XOP.GATEWAY.STOREPASSWORD.toCharArray());
-
-            TrustManager[] trustManagers;
-            if( XOP.GATEWAY.ACCEPT_SELF_SIGNED_CERTS ){
-                logger.info("Gateway connections allowing Self-signed certificates");
-                trustManagers = new TrustManager[]{
-                        new X509TrustManager(){
-                            public java.security.cert.X509Certificate[] getAcceptedIssuers(){
-                                return null;
-                            }
-                            public void checkClientTrusted(
-                                    java.security.cert.X509Certificate[] certs, String authType){}
-                            public void checkServerTrusted(
-                                    java.security.cert.X509Certificate[] certs, String authType){}
-                        }
-                };
-            } else {
-                logger.info("Gateway connection using trust store located at "+trustLocation);
-                TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-                KeyStore trustStore = loadStore(trustLocation, trustPass);
-
-                trustManagerFactory.init(trustStore);
-                trustManagers = trustManagerFactory.getTrustManagers();
-            }
-
-            context.init(keyManager.getKeyManagers(), trustManagers, new SecureRandom());
-
-            socketFactory = context.getSocketFactory();
-            logger.fine("Finished setting up keystore.");
-        } catch (NoSuchAlgorithmException e) {
-            logger.severe("Error while loading KeyManagerFactory: " + e.getMessage());
-        } catch (KeyStoreException e) {
-            logger.severe("Error while setting KeyStore: " + e.getMessage());
-        } catch (UnrecoverableKeyException e) {
-            logger.severe("Could not recover key: " + e.getMessage());
-        } catch (KeyManagementException e) {
-            logger.severe("Error with KeyManager: " + e.getMessage());
-        }
-    }
-
-    /**
-     * Utility method for setting the keystore/truststore
-     * @param location input stream for the keystore/truststore
-     * @param password the password for the keystore/truststore
-     * @return a KeyStore object
-     */
-    private static KeyStore loadStore(InputStream location, String password) {
-        KeyStore store = null;
-        try {
-            store = KeyStore.getInstance(KeyStore.getDefaultType());
-            if(location != null) {
-                store.load(location, password.toCharArray());
-            }
-            else {
-                logger.severe("Couldn't load null keystore");
-            }
-        } catch (KeyStoreException e) {
-            logger.severe("KeyStoreException: Unable to load keystore: " +e.getMessage());
-        } catch (CertificateException e) {
-            logger.severe("CertificateException: Unable to load keystore: " + e.getMessage());
-        } catch (NoSuchAlgorithmException e) {
-            logger.severe("NoSuchAlgorithmException: Unable to load keystore: " + e.getMessage());
-        } catch (IOException e) {
-            logger.severe("IOException: Unable to load keystore: " + e.getMessage());
-        } finally {
-            if (location != null) {
-                try {
-                    location.close();
-                } catch (IOException e) {
-                    logger.warning("Could not close file stream: " + e.getMessage());
-                }
-            }
-        }
-        return store;
-    }
-
     /**
      * Transforms a conventional socket into a SSL socket.
      *
@@ -170,21 +62,7 @@ abstract class GatewayConnection implements Runnable {
      * @throws IOException for missing keystore and trust store or host not found exceptions
      */
     private static SSLSocket transformToSSLSocket(Socket socket) throws IOException {
-        if(socketFactory == null) {
-            File keystorePath = new File(XOP.GATEWAY.KEYSTORE).getAbsoluteFile();
-            File truststorePath = new File(XOP.GATEWAY.TRUSTSTORE).getAbsoluteFile();
-            if( logger.isLoggable(Level.FINE) ) logger.fine("keystorePath: " + keystorePath.getAbsolutePath());
-            if( logger.isLoggable(Level.FINE) ) logger.fine("truststorePath: " + truststorePath.getAbsolutePath());
-            setKeyStoreAndTrustStore(
-                    new FileInputStream(keystorePath),
-                    new FileInputStream(truststorePath),
-                    XOP.GATEWAY.STOREPASSWORD,
-                    XOP.GATEWAY.TRUSTSTOREPASSWORD);
-            if( logger.isLoggable(Level.FINE) ) {
-                logger.fine("using keystore: " + XOP.GATEWAY.KEYSTORE);
-                logger.fine("using truststore: " + XOP.GATEWAY.TRUSTSTORE);
-            }
-        }
+        SSLSocketFactory socketFactory = TlsContextProvider.GATEWAY.getSocketFactory();
         if(socketFactory != null) {
             InetSocketAddress remoteAddress = (InetSocketAddress) socket.getRemoteSocketAddress();
             logger.fine("creating SSL Socket");
@@ -294,7 +172,14 @@ abstract class GatewayConnection implements Runnable {
             }
             sock.setUseClientMode(getClientMode());
             logger.finer("Starting ssl handshake");
-            sock.startHandshake();
+            long handshakeStart = System.nanoTime();
+            try {
+                sock.startHandshake();
+            } catch (IOException e) {
+                TlsContextProvider.GATEWAY.handshakeFailed();
+                throw e;
+            }
+            TlsContextProvider.GATEWAY.handshakeCompleted(sock.getSession(), handshakeStart);
             logger.finer("Completed ssl handshake");
             // get the SSL versions from the new socket ...
             gatewayInputStream = sock.getInputStream();
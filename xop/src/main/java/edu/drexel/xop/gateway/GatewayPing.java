@@ -4,9 +4,13 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import edu.drexel.xop.util.HashedWheelTimer;
 import edu.drexel.xop.util.Utils;
 import edu.drexel.xop.util.XOP;
 import edu.drexel.xop.util.logger.LogUtils;
@@ -14,15 +18,31 @@ import edu.drexel.xop.util.logger.LogUtils;
 /**
  * Extracted Gateway Ping Thread
  * Created by duc on 8/10/16.
+ * Pings every XOP.GATEWAY.PING milliseconds from the shared timer instead of a sleeping thread per connection. The
+ * pings are written on a small pool of threads shared by all gateway connections, a stalled connection would hold up
+ * the timer.
  */
 
-class GatewayPing extends Thread {
+class GatewayPing implements Runnable {
     private static Logger logger = LogUtils.getLogger(GatewayPing.class.getName());
+    // a connection stalled in a write holds one of them, the pings of the others are written by the rest
+    private static final int PING_WRITERS = 2;
+    private static final ExecutorService pingWriter = Executors.newFixedThreadPool(PING_WRITERS, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "gateway-ping");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     private GatewayConnection gatewayConnection;
     private String to;
     private String from;
     private Set<String> pingIds;
     private Set<String> pongIds;
+    // the ping sent last, checked for its pong before the next one
+    private String lastId;
 
     GatewayPing(GatewayConnection gatewayConnection, String to, String from) {
         this.gatewayConnection = gatewayConnection;
@@ -32,48 +52,53 @@ class GatewayPing extends Thread {
         pongIds = Collections.synchronizedSet(new HashSet<String>());
     }
 
+    /**
+     * Sends the first ping now and the next ones every XOP.GATEWAY.PING until the connection is stopped
+     */
+    void start() {
+        HashedWheelTimer.shared().schedule(this, 0, pingWriter);
+    }
+
     public void run() {
-        // try {
-        //     Thread.sleep(XOP.GATEWAY.PING);
-        // } catch (InterruptedException e) {
-        //     logger.severe("Unable to make thread sleep: " + e.getMessage());
-        // }
+        if (lastId != null) {
+            checkPong(lastId);
+        }
+        if (gatewayConnection.killSwitch.get()) {
+            logger.info("Gateway ping Ending. from: " + from + " to: " + to);
+            return;
+        }
 
-        while (!gatewayConnection.killSwitch.get()) {
-            String id = Utils.generateID(9);
-            String pingMessage = Utils.getPingMessageString(to, from, id);
-            if(logger.isLoggable(Level.FINE))
-                logger.fine("Send ping over gateway connection, " + gatewayConnection
-                        + ", id:" + id);
-            pingIds.add(id);
-            try {
-                gatewayConnection.writeRaw(pingMessage.getBytes());
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            try {
-                Thread.sleep(XOP.GATEWAY.PING);
-            } catch (InterruptedException e) {
-                logger.severe("Unable to make thread sleep: " + e.getMessage());
-            }
-            if( pongIds.contains(id) ){
-                // not received a ping response
-                pingIds.remove(id);
-                pongIds.remove(id);
-                logger.fine("Received pong with id: "+id);
-                logger.fine("pongIds size: "+pongIds.size());
-            } else {
-                logger.fine("Not received pong with id: "+id);
-                int maxPongSet = 4;
-                if( pongIds.size() >= maxPongSet){
-                    logger.fine("pongIds.size() greater than "+maxPongSet+ "stopping connection");
-                    gatewayConnection.stop();
+        String id = Utils.generateID(9);
+        String pingMessage = Utils.getPingMessageString(to, from, id);
+        if(logger.isLoggable(Level.FINE))
+            logger.fine("Send ping over gateway connection, " + gatewayConnection
+                    + ", id:" + id);
+        pingIds.add(id);
+        lastId = id;
+        try {
+            gatewayConnection.writeRaw(pingMessage.getBytes());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        HashedWheelTimer.shared().schedule(this, XOP.GATEWAY.PING, pingWriter);
+    }
 
-                }
-            }
+    private void checkPong(String id) {
+        if( pongIds.contains(id) ){
+            // not received a ping response
+            pingIds.remove(id);
+            pongIds.remove(id);
+            logger.fine("Received pong with id: "+id);
+            logger.fine("pongIds size: "+pongIds.size());
+        } else {
+            logger.fine("Not received pong with id: "+id);
+            int maxPongSet = 4;
+            if( pongIds.size() >= maxPongSet){
+                logger.fine("pongIds.size() greater than "+maxPongSet+ "stopping connection");
+                gatewayConnection.stop();
 
+            }
         }
-        logger.info("Gateway ping Ending. from: " + from + " to: " + to);
     }
 
     /**
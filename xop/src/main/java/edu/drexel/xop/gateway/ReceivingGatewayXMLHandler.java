@@ -643,7 +643,7 @@ class ReceivingGatewayXMLHandler extends DefaultHandler {
                     + XOProxy.getInstance().getRoomIds() + "]]");
         }
 
-        if (!XOProxy.getInstance().getRoomOccupantIds().contains(mucOccupantJID)) {
+        if (!XOProxy.getInstance().isRoomOccupant(mucOccupantJID)) {
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine("remoteClientJID: " + remoteClientJID
                         + ", mucOccupant, " + mucOccupantJID
@@ -688,7 +688,7 @@ class ReceivingGatewayXMLHandler extends DefaultHandler {
             p.setFrom(mucOccupantJID);
         }
 
-        if( XOProxy.getInstance().getRoomOccupantIds().contains(mucOccupantJID)) {
+        if( XOProxy.getInstance().isRoomOccupant(mucOccupantJID)) {
             JID roomJID = mucOccupantJID.asBareJID();
             logger.fine("Calling removeFromRoom " + roomJID + " on :"+p);
             XOProxy.getInstance().removeFromRoom(roomJID, p, true);
@@ -156,7 +156,7 @@ public class SDListenerImpl implements SDListener {
      * @see edu.drexel.xop.net.SDListener#roomAdded(org.xmpp.packet.JID)
      */
     public void roomAdded(JID roomJID) {
-        if (!XOProxy.getInstance().getRoomIds().contains(roomJID))
+        if (!XOProxy.getInstance().isRoom(roomJID))
             XOProxy.getInstance().addMUCRoom(roomJID);
         else
             logger.fine("room already added");
@@ -167,7 +167,7 @@ public class SDListenerImpl implements SDListener {
      * @see edu.drexel.xop.net.SDListener#roomRemoved(org.xmpp.packet.JID)
      */
     public void roomRemoved(JID roomJID) {
-        throw new UnsupportedOperationException("TODO implement roomRemoved");
+        XOProxy.getInstance().removeMUCRoom(roomJID);
     }
 
 
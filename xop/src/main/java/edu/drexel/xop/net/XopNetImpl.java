@@ -132,7 +132,8 @@ public class XopNetImpl implements XopNet {
         long nodeId = XOP.TRANSPORT.NODE_ID;
         //GroupPortPoolKt.getNodeId(NetUtilsKt.getBindAddresses(XOP.TRANSPORT.SEND_INTERFACE)[0].getHostAddress());
         return new XopNormService(nodeId, XOP.TRANSPORT.SEND_INTERFACE, XOP.TRANSPORT.RECV_INTERFACE, multicastGroup,
-                XOP.TRANSPORT.PORTRANGE, transportPacketProcessor, XOP.ENABLE.COMPRESSION);
+                XOP.TRANSPORT.PORTRANGE, transportPacketProcessor, XOP.ENABLE.COMPRESSION,
+                XOP.TRANSPORT.NORM.ROOMS);
     }
 
     private void initProtoSD() throws InvocationTargetException,
@@ -1,25 +1,35 @@
 package edu.drexel.xop.net.transport;
 
 import edu.drexel.xop.core.ClientManager;
+import edu.drexel.xop.packet.RoutingStanza;
+import edu.drexel.xop.packet.codec.StanzaCodec;
+import edu.drexel.xop.packet.codec.StanzaCodecs;
 import edu.drexel.xop.util.MessageCompressionUtils;
-import edu.drexel.xop.util.Utils;
 import edu.drexel.xop.util.XOP;
 import edu.drexel.xop.util.logger.LogUtils;
+import org.dom4j.DocumentException;
 import org.xmpp.packet.Packet;
 
 import java.io.IOException;
-import java.net.*;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * A simple UDP Multicast Socket for one-to-one messages.
- *
+ * Base of the simple transports, which send each stanza as one UDP datagram to the multicast group of a room (or of
+ * the one-to-one messages) on a {@link MulticastChannel}. Datagrams larger than the MTU are sent in fragments.
+ * Stanzas are encoded with the {@link StanzaCodec} selected by {@link XOP.TRANSPORT.SIMPLE#CODEC}, and decoded with
+ * the one their sender used.
  */
 abstract class AbstractBasicTransportService implements XOPTransportService {
 	private static final Logger logger =
             LogUtils.getLogger(AbstractBasicTransportService.class.getName());
-    private UDPSocket udpSocket;
+    private MulticastChannel channel;
+    private DatagramAggregator aggregator;
+    private final DatagramFragmenter fragmenter;
+    private final FragmentReassembler reassembler;
+    private final StanzaCodec codec;
     private String addressStr;
     private int port;
     protected ClientManager clientManager;
@@ -27,166 +37,98 @@ abstract class AbstractBasicTransportService implements XOPTransportService {
     AbstractBasicTransportService(String ifname, InetAddress group, int port,
                                   ClientManager clientManager) throws IOException {
         this.clientManager = clientManager;
-        udpSocket = new UDPSocket(ifname, group, port);
-        udpSocket.start();
+        String name = group.getHostAddress() + ":" + port;
+        channel = new MulticastChannel(ifname, group, port, new MulticastChannel.Receiver() {
+            @Override
+            public void received(byte[] data) throws Exception {
+                processDatagram(data);
+            }
+        });
+        codec = StanzaCodecs.forName(XOP.TRANSPORT.SIMPLE.CODEC);
+        fragmenter = new DatagramFragmenter(XOP.TRANSPORT.SIMPLE.MTU);
+        reassembler = new FragmentReassembler(name, XOP.TRANSPORT.SIMPLE.REASSEMBLY_TIMEOUT,
+                XOP.TRANSPORT.SIMPLE.REASSEMBLY_BYTES);
+        channel.start();
+        if (XOP.TRANSPORT.SIMPLE.AGGREGATE_WINDOW > 0) {
+            aggregator = new DatagramAggregator(name,
+                    XOP.TRANSPORT.SIMPLE.AGGREGATE_WINDOW, XOP.TRANSPORT.SIMPLE.AGGREGATE_BYTES,
+                    new DatagramAggregator.Sender() {
+                        @Override
+                        public void send(byte[] datagram) {
+                            sendDatagram(datagram);
+                        }
+                    });
+        }
         this.port = port;
         logger.info("created AbstractBasicTransportService");
         addressStr = group.getHostAddress();
 	}
 
 	public void close() {
-        logger.info("Closing UDPSocket");
-		udpSocket.close();
+        logger.info("Closing multicast channel");
+        if (aggregator != null) {
+            aggregator.close();
+        }
+		channel.close();
+        reassembler.close();
 	}
 
 	public void sendPacket(Packet packet) {
         // logger.fine("Sending string message: {{{"+packet.toString()+"}}}");
-        logger.fine("Sending xml message: {{{"+packet.toXML()+"}}}");
-        String pktStr = packet.createCopy().toString();
-        byte[] bytes = pktStr.getBytes();
-		udpSocket.send(bytes);
-    }
-
-    public String getAddressStr() {
-        return addressStr;
+        if (logger.isLoggable(Level.FINE))
+            logger.fine("Sending xml message: {{{"+packet.toXML()+"}}}");
+        byte[] bytes = codec.encode(packet);
+        if (aggregator != null) {
+            aggregator.add(bytes);
+        } else {
+            sendDatagram(bytes);
+        }
     }
 
-    public int getPort(){
-        return port;
+    private void sendDatagram(byte[] data) {
+        for (byte[] datagram : fragmenter.fragment(MessageCompressionUtils.compressBytes(data))) {
+            channel.send(datagram);
+        }
     }
 
-    /**
-     * Wrapper around a <code>MulticastSocket</code>.
-     */
-    private class UDPSocket extends Thread {
-
-        private InetAddress address;
-        private int port;
-        private MulticastSocket socket;
-        private DatagramSocket sendingSocket;
-        private boolean running;
-        // private int originalTtl;
-        private int origRcvBufferSize;
-
-        /**
-         * Instantiates a new UdpMulticast instance.
-         *
-         * @param ifname
-         *            the interface name to bind to.
-         * @param address
-         *            the multicast group address
-         * @param port
-         *            Port on which to multicast.
-         * @throws IOException
-         *             if the socket could not be created.
-         */
-        UDPSocket(String ifname, InetAddress address, int port) throws IOException {
-            this.running = true;
-            this.setDaemon(true);
-            this.address = address;
-            this.port = port;
-            socket = new MulticastSocket(port);
-
-            logger.info(
-                    "open multicast socket on interface, " + ifname);
-            NetworkInterface iface = NetworkInterface.getByName(ifname);
-
-            InetAddress ifaceInetAddress = iface.getInetAddresses().nextElement();
-            logger.info("ifaceInetAddress: " + ifaceInetAddress);
-            // InetAddress inetAddress = InetAddress.getByName("0.0.0.0");
-            // socket.setInterface(ifaceInetAddress);
-            socket.setLoopbackMode(false); // i.e. set to false, we receive traffic we send.
-            socket.setReceiveBufferSize(4096);
-            socket.setInterface(ifaceInetAddress);
-            int originalTtl = socket.getTimeToLive();
-            logger.info("ttl:" + originalTtl);
-            socket.setTimeToLive(XOP.TRANSPORT.TTL);
-            originalTtl = socket.getTimeToLive();
-            logger.info("new ttl:" + originalTtl);
-
-            origRcvBufferSize = socket.getReceiveBufferSize();
-            logger.finer("socket.getReceiveBufferSize(): "+origRcvBufferSize);
-
-            logger.info("Joining group: " + address + ":" + port);
-            socket.joinGroup(new InetSocketAddress(address, port), iface);
-
-            sendingSocket = new DatagramSocket();
-            logger.info("Sending Socket: " + sendingSocket);
+    private void processDatagram(byte[] data) throws Exception {
+        if (DatagramFragmenter.isFragment(data)) {
+            data = reassembler.add(data);
+            if (data == null) {
+                return;
+            }
         }
-
-        /**
-         * Gets the port of the socket.
-         *
-         * @return port of the socket.
-         */
-        public int getPort() {
-            return port;
+        if (XOP.ENABLE.COMPRESSION) {
+            data = MessageCompressionUtils.decompressBytes(data);
         }
-
-        /**
-         * Stops the socket.
-         */
-        public void close() {
-            running = false;
-            socket.close();
+        if (logger.isLoggable(Level.FINEST)) {
+            String dataStr = new String(data, StandardCharsets.UTF_8);
+            logger.finest("received data: len: " + dataStr.length() + " [[[" + dataStr + "]]]");
         }
-
-        /**
-         * Sends a packet.
-         *
-         * @param data
-         *            data to send.
-         */
-        public void send(byte[] data) {
-            try {
-                data = MessageCompressionUtils.compressBytes(data);
-                DatagramPacket p = new DatagramPacket(data, data.length, address, port);
-                logger.finest( "sending data to address "+address);
-                socket.send(p);
-                logger.finest("SENT data to address " + address + " out interface " + socket.getInterface());
-                // sendingSocket.send(p);
-
-            } catch (IOException ex) {
-                logger.warning(
-                        "Unable to send packet: \n\t" + ex.getMessage());
+        // one stanza, or several packed by the DatagramAggregator of the sender
+        DatagramAggregator.unpack(data, new DatagramAggregator.Unpacker() {
+            @Override
+            public void stanza(byte[] data, int offset, int length) throws Exception {
+                processIncomingStanza(StanzaCodecs.decode(data, offset, length));
             }
-        }
+        });
+    }
 
-        /**
-         * Starts the socket's listener.
-         */
-        @Override
-        public void run() {
-            while (running) {
-                try {
-                    byte[] buf = new byte[4095];
-                    DatagramPacket p = new DatagramPacket(buf, buf.length);
-                    socket.receive(p);
+    /**
+     * Process a stanza received by the UDP socket. Parses it and calls {@link #processIncomingPacket(Packet)},
+     * transports that can route a stanza without parsing it override this.
+     * @param stanza the received stanza
+     * @throws DocumentException if the stanza is not well formed
+     */
+    void processIncomingStanza(RoutingStanza stanza) throws DocumentException {
+        processIncomingPacket(stanza.getPacket());
+    }
 
-                    byte[] byteData;
-                    int start;
-                    int end;
-                    if( XOP.ENABLE.COMPRESSION ){
-                        byteData = MessageCompressionUtils.decompressBytes(p.getData());
-                        start = 0;
-                        end = byteData.length;
-                    } else {
-                        byteData = p.getData();
-                        start = p.getOffset();
-                        end = p.getLength();
-                    }
+    public String getAddressStr() {
+        return addressStr;
+    }
 
-                    String dataStr = new String(byteData, start, end);
-                    if (logger.isLoggable(Level.FINEST))
-                        logger.finest("received data: len: " + dataStr.length() + " [[[" + dataStr + "]]]");
-                    Packet xmppPacket = Utils.packetFromString(dataStr);
-                    processIncomingPacket(xmppPacket);
-                } catch (Exception ex) {
-                    logger.warning(
-                            "Unable to receive packet. \n\t" + ex.getMessage());
-                    ex.printStackTrace();
-                }
-            }
-        }
+    public int getPort(){
+        return port;
     }
 }
@@ -1,13 +1,16 @@
 package edu.drexel.xop.net.transport;
 
 import edu.drexel.xop.core.ClientManager;
+import edu.drexel.xop.packet.RoutingStanza;
 import edu.drexel.xop.packet.TransportPacketProcessor;
 import edu.drexel.xop.util.logger.LogUtils;
+import org.dom4j.DocumentException;
 import org.xmpp.packet.JID;
 import org.xmpp.packet.Packet;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -39,4 +42,17 @@ public class BasicOneToOneTransportService extends AbstractBasicTransportService
 		}
 	}
 
+    /**
+     * One-to-one messages for local clients are routed on their header, see
+     * {@link TransportPacketProcessor#processStanza(RoutingStanza)}
+     */
+    @Override
+    void processIncomingStanza(RoutingStanza stanza) throws DocumentException {
+        if (clientManager.getLocalClientJIDs().contains(stanza.getTo())) {
+            if (logger.isLoggable(Level.FINER))
+                logger.finer("Incoming XMPP one-to-one stanza from Simple Transport: " + stanza);
+            transportPacketProcessor.processStanza(stanza);
+        }
+    }
+
 }
@@ -0,0 +1,228 @@
+package edu.drexel.xop.net.transport;
+
+import edu.drexel.xop.util.logger.LogUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Packs the stanzas sent to one simple transport group into shared datagrams.<br/>
+ * A stanza is held for up to the batching window; the stanzas that arrive in the meantime are added to the same
+ * datagram until it would exceed the maximum size. A datagram with several stanzas is framed as a
+ * {@link #FRAME_MARKER} byte followed by each stanza prefixed with its length in two bytes, big endian. It is then
+ * compressed once, instead of once per stanza. A datagram with only one stanza is sent as it was without
+ * aggregation, so {@link #unpack(byte[], Unpacker)} reads both.<br/>
+ * The average number of stanzas per datagram and the average time a stanza waited are available from the getters
+ * and, for all groups, from {@link #statistics()}.
+ */
+public class DatagramAggregator {
+    private static final Logger logger = LogUtils.getLogger(DatagramAggregator.class.getName());
+
+    /** First byte of an aggregated datagram, a stanza never starts with it */
+    static final byte FRAME_MARKER = 0;
+    private static final int MAX_STANZA = 0xffff;
+
+    private static final ScheduledExecutorService flushTimer =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "simple-aggregator");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private static final Set<DatagramAggregator> aggregators =
+            ConcurrentHashMap.<DatagramAggregator>newKeySet();
+
+    /**
+     * Sends a datagram, the aggregator calls it with its lock held
+     */
+    interface Sender {
+        void send(byte[] datagram);
+    }
+
+    /**
+     * Handles one stanza of a received datagram
+     */
+    interface Unpacker {
+        void stanza(byte[] data, int offset, int length) throws Exception;
+    }
+
+    private final String name;
+    private final long windowMillis;
+    private final int maxBytes;
+    private final Sender sender;
+
+    private final ByteArrayOutputStream pending;
+    private byte[] first;
+    private int count;
+    private long batch;
+    private long enqueuedNanosSum;
+
+    private long datagrams;
+    private long stanzas;
+    private long delayNanosSum;
+
+    /**
+     * @param name the group, for logging
+     * @param windowMillis the longest a stanza waits for others to share its datagram
+     * @param maxBytes the largest aggregated datagram before compression
+     * @param sender sends the datagrams
+     */
+    DatagramAggregator(String name, long windowMillis, int maxBytes, Sender sender) {
+        this.name = name;
+        this.windowMillis = windowMillis;
+        this.maxBytes = maxBytes;
+        this.sender = sender;
+        this.pending = new ByteArrayOutputStream(maxBytes);
+        aggregators.add(this);
+    }
+
+    /**
+     * Queues a stanza for the next datagram
+     * @param stanza the UTF-8 encoded stanza
+     */
+    synchronized void add(byte[] stanza) {
+        if (1 + 2 + stanza.length > maxBytes || stanza.length > MAX_STANZA) {
+            // can't share a datagram, keep the order with what is pending
+            flush();
+            send(stanza, 1);
+            return;
+        }
+        if (count > 0 && pending.size() + 2 + stanza.length > maxBytes) {
+            flush();
+        }
+        long now = System.nanoTime();
+        if (count == 0) {
+            pending.reset();
+            pending.write(FRAME_MARKER);
+            first = stanza;
+            final long thisBatch = ++batch;
+            flushTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush(thisBatch);
+                }
+            }, windowMillis, TimeUnit.MILLISECONDS);
+        }
+        pending.write(stanza.length >>> 8);
+        pending.write(stanza.length);
+        pending.write(stanza, 0, stanza.length);
+        count++;
+        enqueuedNanosSum += now;
+    }
+
+    private synchronized void flush(long expiredBatch) {
+        // the batch may have been sent already because it was full
+        if (expiredBatch == batch) {
+            flush();
+        }
+    }
+
+    /**
+     * Sends the pending stanzas now
+     */
+    synchronized void flush() {
+        if (count == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        delayNanosSum += count * now - enqueuedNanosSum;
+        send(count == 1 ? first : pending.toByteArray(), count);
+        first = null;
+        count = 0;
+        enqueuedNanosSum = 0;
+        batch++;
+    }
+
+    private void send(byte[] datagram, int stanzaCount) {
+        datagrams++;
+        stanzas += stanzaCount;
+        if (logger.isLoggable(Level.FINEST))
+            logger.finest(name + ": sending " + stanzaCount + " stanzas in " + datagram.length + " bytes");
+        sender.send(datagram);
+    }
+
+    /**
+     * Sends what is pending and stops aggregating
+     */
+    void close() {
+        flush();
+        aggregators.remove(this);
+        if (logger.isLoggable(Level.FINE))
+            logger.fine("closed " + this);
+    }
+
+    /**
+     * Calls the unpacker for each stanza of a received datagram, aggregated or not
+     * @param datagram the datagram, decompressed
+     * @param unpacker handles the stanzas
+     * @throws Exception if the unpacker fails, or the framing is truncated
+     */
+    static void unpack(byte[] datagram, Unpacker unpacker) throws Exception {
+        if (datagram.length == 0 || datagram[0] != FRAME_MARKER) {
+            unpacker.stanza(datagram, 0, datagram.length);
+            return;
+        }
+        int pos = 1;
+        while (pos < datagram.length) {
+            if (pos + 2 > datagram.length) {
+                throw new IllegalArgumentException("truncated frame length at " + pos);
+            }
+            int length = ((datagram[pos] & 0xff) << 8) | (datagram[pos + 1] & 0xff);
+            pos += 2;
+            if (pos + length > datagram.length) {
+                throw new IllegalArgumentException("truncated frame of " + length + " bytes at " + pos);
+            }
+            unpacker.stanza(datagram, pos, length);
+            pos += length;
+        }
+    }
+
+    public synchronized long getDatagrams() {
+        return datagrams;
+    }
+
+    public synchronized long getStanzas() {
+        return stanzas;
+    }
+
+    public synchronized double getAverageStanzasPerDatagram() {
+        return datagrams == 0 ? 0 : (double) stanzas / datagrams;
+    }
+
+    /**
+     * @return the average time in milliseconds a stanza waited for its datagram to be sent
+     */
+    public synchronized double getAverageDelayMillis() {
+        return stanzas == 0 ? 0 : delayNanosSum / 1e6 / stanzas;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("aggregator %s: datagrams=%d stanzas=%d stanzas/datagram=%.2f delay=%.2fms",
+                name, datagrams, stanzas, getAverageStanzasPerDatagram(), getAverageDelayMillis());
+    }
+
+    /**
+     * @return one line per aggregating simple transport group with its averages
+     */
+    public static String statistics() {
+        StringBuilder sb = new StringBuilder();
+        for (DatagramAggregator aggregator : aggregators) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(aggregator);
+        }
+        return sb.toString();
+    }
+}
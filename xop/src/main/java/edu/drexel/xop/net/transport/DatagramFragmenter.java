@@ -0,0 +1,90 @@
+package edu.drexel.xop.net.transport;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits simple transport datagrams larger than the MTU into fragments, which a {@link FragmentReassembler} joins
+ * again on the receiving side. Sending datagrams no larger than the path MTU keeps IP from fragmenting them, where
+ * losing any one IP fragment loses the whole datagram without a trace.<br/>
+ * Each fragment starts with a header of {@link #HEADER_LENGTH} bytes:
+ * <pre>
+ *   0      marker 0x01, a stanza, a compressed datagram or an aggregated datagram never starts with it
+ *   1..4   sender id, random for each fragmenter
+ *   5..8   message id, counts the fragmented datagrams of the sender
+ *   9..10  fragment index
+ *   11..12 fragment count
+ * </pre>
+ * followed by its part of the datagram. All numbers are big endian.
+ */
+class DatagramFragmenter {
+    static final byte FRAGMENT_MARKER = 1;
+    static final int HEADER_LENGTH = 13;
+    static final int MAX_FRAGMENTS = 0xffff;
+
+    private final int senderId;
+    private final AtomicInteger messageIds = new AtomicInteger();
+    private final int mtu;
+
+    /**
+     * @param mtu the largest datagram to send, including the fragment header
+     */
+    DatagramFragmenter(int mtu) {
+        if (mtu <= HEADER_LENGTH) {
+            throw new IllegalArgumentException("MTU " + mtu + " leaves no room for the fragment payload");
+        }
+        this.mtu = mtu;
+        this.senderId = new SecureRandom().nextInt();
+    }
+
+    /**
+     * @return true if the datagram is a fragment
+     */
+    static boolean isFragment(byte[] datagram) {
+        return datagram.length >= HEADER_LENGTH && datagram[0] == FRAGMENT_MARKER;
+    }
+
+    /**
+     * @param datagram the datagram to send
+     * @return the datagram itself if it fits the MTU, otherwise its fragments
+     * @throws IllegalArgumentException if the datagram needs more than {@link #MAX_FRAGMENTS} fragments
+     */
+    byte[][] fragment(byte[] datagram) {
+        if (datagram.length <= mtu) {
+            return new byte[][]{datagram};
+        }
+        int payload = mtu - HEADER_LENGTH;
+        int count = (datagram.length + payload - 1) / payload;
+        if (count > MAX_FRAGMENTS) {
+            throw new IllegalArgumentException("datagram of " + datagram.length + " bytes needs " + count
+                    + " fragments");
+        }
+        int messageId = messageIds.incrementAndGet();
+        byte[][] fragments = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int offset = i * payload;
+            int length = Math.min(payload, datagram.length - offset);
+            byte[] fragment = new byte[HEADER_LENGTH + length];
+            fragment[0] = FRAGMENT_MARKER;
+            putInt(fragment, 1, senderId);
+            putInt(fragment, 5, messageId);
+            putShort(fragment, 9, i);
+            putShort(fragment, 11, count);
+            System.arraycopy(datagram, offset, fragment, HEADER_LENGTH, length);
+            fragments[i] = fragment;
+        }
+        return fragments;
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static void putShort(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 8);
+        bytes[offset + 1] = (byte) value;
+    }
+}
@@ -0,0 +1,238 @@
+package edu.drexel.xop.net.transport;
+
+import edu.drexel.xop.util.logger.LogUtils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Joins the fragments made by a {@link DatagramFragmenter} back into datagrams.<br/>
+ * Incomplete datagrams are kept in arrival order. A datagram still incomplete after the timeout is discarded,
+ * because one of its fragments was lost. The payload held for incomplete datagrams is capped, and when a new
+ * fragment would exceed the cap the oldest incomplete datagrams are discarded first. Counters for completed,
+ * expired and evicted datagrams, and the peak memory held, are available from the getters and from
+ * {@link #statistics()}.
+ */
+public class FragmentReassembler {
+    private static final Logger logger = LogUtils.getLogger(FragmentReassembler.class.getName());
+
+    private static final Set<FragmentReassembler> reassemblers =
+            ConcurrentHashMap.<FragmentReassembler>newKeySet();
+
+    private final String name;
+    private final long timeoutNanos;
+    private final long maxBytes;
+
+    // insertion ordered, the first entry is always the oldest
+    private final LinkedHashMap<Long, Partial> partials = new LinkedHashMap<>();
+    private long heldBytes;
+
+    private long completed;
+    private long expired;
+    private long evicted;
+    private long duplicates;
+    private long peakBytes;
+
+    private static class Partial {
+        final byte[][] fragments;
+        final long firstNanos;
+        int received;
+        int bytes;
+
+        Partial(int count, long firstNanos) {
+            this.fragments = new byte[count][];
+            this.firstNanos = firstNanos;
+        }
+    }
+
+    /**
+     * @param name the group, for logging
+     * @param timeoutMillis how long to wait for the missing fragments of a datagram
+     * @param maxBytes the most fragment payload to hold for incomplete datagrams
+     */
+    FragmentReassembler(String name, long timeoutMillis, long maxBytes) {
+        this.name = name;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.maxBytes = maxBytes;
+        reassemblers.add(this);
+    }
+
+    /**
+     * @param fragment a datagram for which {@link DatagramFragmenter#isFragment(byte[])} is true
+     * @return the whole datagram if this was its last missing fragment, null otherwise
+     */
+    synchronized byte[] add(byte[] fragment) {
+        long now = System.nanoTime();
+        expire(now);
+
+        int senderId = getInt(fragment, 1);
+        int messageId = getInt(fragment, 5);
+        int index = getShort(fragment, 9);
+        int count = getShort(fragment, 11);
+        int length = fragment.length - DatagramFragmenter.HEADER_LENGTH;
+        if (count == 0 || index >= count) {
+            logger.warning(name + ": dropped fragment " + index + " of " + count);
+            return null;
+        }
+        if (count == 1) {
+            completed++;
+            return payload(fragment);
+        }
+        if (length > maxBytes) {
+            evicted++;
+            return null;
+        }
+
+        Long key = ((long) senderId << 32) | (messageId & 0xffffffffL);
+        Partial partial = partials.get(key);
+        if (partial == null) {
+            partial = new Partial(count, now);
+            partials.put(key, partial);
+        } else if (partial.fragments.length != count || partial.fragments[index] != null) {
+            duplicates++;
+            return null;
+        }
+
+        while (heldBytes + length > maxBytes) {
+            // discard the oldest incomplete datagrams, at worst the one of this fragment
+            Map.Entry<Long, Partial> oldest = partials.entrySet().iterator().next();
+            partials.remove(oldest.getKey());
+            heldBytes -= oldest.getValue().bytes;
+            evicted++;
+            if (logger.isLoggable(Level.FINE))
+                logger.fine(name + ": reassembly memory full, discarded an incomplete datagram");
+            if (oldest.getValue() == partial) {
+                return null;
+            }
+        }
+
+        partial.fragments[index] = fragment;
+        partial.received++;
+        partial.bytes += length;
+        heldBytes += length;
+        if (heldBytes > peakBytes) {
+            peakBytes = heldBytes;
+        }
+        if (partial.received < count) {
+            return null;
+        }
+
+        partials.remove(key);
+        heldBytes -= partial.bytes;
+        completed++;
+        byte[] datagram = new byte[partial.bytes];
+        int offset = 0;
+        for (byte[] part : partial.fragments) {
+            int partLength = part.length - DatagramFragmenter.HEADER_LENGTH;
+            System.arraycopy(part, DatagramFragmenter.HEADER_LENGTH, datagram, offset, partLength);
+            offset += partLength;
+        }
+        return datagram;
+    }
+
+    private void expire(long now) {
+        Iterator<Partial> oldest = partials.values().iterator();
+        while (oldest.hasNext()) {
+            Partial partial = oldest.next();
+            if (now - partial.firstNanos < timeoutNanos) {
+                break;
+            }
+            oldest.remove();
+            heldBytes -= partial.bytes;
+            expired++;
+            if (logger.isLoggable(Level.FINE))
+                logger.fine(name + ": discarded a datagram missing " + (partial.fragments.length - partial.received)
+                        + " of " + partial.fragments.length + " fragments");
+        }
+    }
+
+    private static byte[] payload(byte[] fragment) {
+        byte[] payload = new byte[fragment.length - DatagramFragmenter.HEADER_LENGTH];
+        System.arraycopy(fragment, DatagramFragmenter.HEADER_LENGTH, payload, 0, payload.length);
+        return payload;
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16)
+                | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+    }
+
+    private static int getShort(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 8) | (bytes[offset + 1] & 0xff);
+    }
+
+    void close() {
+        reassemblers.remove(this);
+        synchronized (this) {
+            partials.clear();
+            heldBytes = 0;
+        }
+        if (expired + evicted > 0) {
+            logger.info("closed " + this);
+        }
+    }
+
+    public synchronized long getCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return the datagrams discarded because a fragment did not arrive in time
+     */
+    public synchronized long getExpired() {
+        return expired;
+    }
+
+    /**
+     * @return the datagrams discarded because the reassembly memory was full
+     */
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return the fragment payload currently held for incomplete datagrams, in bytes
+     */
+    public synchronized long getHeldBytes() {
+        return heldBytes;
+    }
+
+    public synchronized long getPeakBytes() {
+        return peakBytes;
+    }
+
+    public synchronized int getIncomplete() {
+        return partials.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "reassembler " + name + ": completed=" + completed + " expired=" + expired + " evicted=" + evicted
+                + " duplicates=" + duplicates + " incomplete=" + partials.size() + " held=" + heldBytes
+                + " peak=" + peakBytes;
+    }
+
+    /**
+     * @return one line per simple transport group with its reassembly counters
+     */
+    public static String statistics() {
+        StringBuilder sb = new StringBuilder();
+        for (FragmentReassembler reassembler : reassemblers) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(reassembler);
+        }
+        return sb.toString();
+    }
+}
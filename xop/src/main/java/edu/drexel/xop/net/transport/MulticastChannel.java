@@ -0,0 +1,283 @@
+package edu.drexel.xop.net.transport;
+
+import edu.drexel.xop.util.MessageCompressionUtils;
+import edu.drexel.xop.util.XOP;
+import edu.drexel.xop.util.logger.LogUtils;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends and receives the datagrams of one simple transport group on a <code>DatagramChannel</code>.<br/>
+ * A receive thread reads each datagram into one reused direct buffer, copies it into an array of its exact size and
+ * queues it for the dispatch thread, which hands it to the {@link Receiver}. The receive thread only ever waits on
+ * the socket, so a burst of datagrams is drained from the kernel while earlier ones are still being routed. When
+ * more than {@link XOP.TRANSPORT.SIMPLE#BUFFERS} datagrams are waiting, further ones are dropped and counted.<br/>
+ * Datagrams larger than {@link XOP.TRANSPORT.SIMPLE#MAXDATAGRAM} are dropped and counted as oversize.
+ * The counters of all open groups are available from {@link #statistics()}.
+ */
+public class MulticastChannel {
+    private static final Logger logger = LogUtils.getLogger(MulticastChannel.class.getName());
+
+    private static final Set<MulticastChannel> channels =
+            ConcurrentHashMap.<MulticastChannel>newKeySet();
+
+    private static final byte[] STOP = new byte[0];
+
+    /**
+     * Handles the datagrams received by the channel, called on its dispatch thread
+     */
+    interface Receiver {
+        void received(byte[] data) throws Exception;
+    }
+
+    private final String name;
+    private final InetSocketAddress groupAddress;
+    private final DatagramChannel channel;
+    private final Receiver receiver;
+    private final int maxDatagram;
+    private final BlockingQueue<byte[]> received;
+    private final Thread receiveThread;
+    private final Thread dispatchThread;
+    private volatile boolean running = true;
+
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong oversizeCount = new AtomicLong();
+    private final AtomicLong sentCount = new AtomicLong();
+
+    MulticastChannel(String ifname, InetAddress group, int port, Receiver receiver) throws IOException {
+        this(ifname, group, port, receiver, XOP.TRANSPORT.SIMPLE.RCVBUF, XOP.TRANSPORT.SIMPLE.MAXDATAGRAM,
+                XOP.TRANSPORT.SIMPLE.BUFFERS);
+    }
+
+    /**
+     * Opens the channel, binds it to the port and, if group is a multicast address, joins the group on the interface.
+     *
+     * @param ifname the interface to join the group on and to send from
+     * @param group the multicast group address the datagrams are sent to
+     * @param port the port of the group
+     * @param receiver handles the received datagrams
+     * @param rcvbuf the requested socket receive buffer size in bytes
+     * @param maxDatagram datagrams larger than this are dropped
+     * @param buffers the number of datagrams that may wait for the dispatch thread
+     * @throws IOException if the channel can't be opened or the group joined
+     */
+    MulticastChannel(String ifname, InetAddress group, int port, Receiver receiver,
+                     int rcvbuf, int maxDatagram, int buffers) throws IOException {
+        this.name = group.getHostAddress() + ":" + port;
+        this.groupAddress = new InetSocketAddress(group, port);
+        this.receiver = receiver;
+        this.maxDatagram = maxDatagram;
+        this.received = new ArrayBlockingQueue<>(Math.max(1, buffers));
+
+        channel = DatagramChannel.open(group instanceof Inet6Address
+                ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET);
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, rcvbuf);
+            int actual = channel.getOption(StandardSocketOptions.SO_RCVBUF);
+            if (actual < rcvbuf) {
+                logger.warning(name + ": requested a receive buffer of " + rcvbuf + " bytes, the system allows "
+                        + actual + ". Raise net.core.rmem_max to avoid losing datagrams in bursts.");
+            } else if (logger.isLoggable(Level.FINE)) {
+                logger.fine(name + ": receive buffer " + actual + " bytes");
+            }
+            channel.bind(new InetSocketAddress(port));
+
+            if (group.isMulticastAddress()) {
+                NetworkInterface iface = ifname != null ? NetworkInterface.getByName(ifname) : null;
+                if (iface == null) {
+                    throw new IOException("no interface " + ifname + " to join " + name + " on");
+                }
+                // we receive the traffic we send, like the MulticastSocket with loopback mode enabled did
+                channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+                channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, iface);
+                channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, XOP.TRANSPORT.TTL);
+                logger.info("Joining group: " + name + " on " + ifname);
+                channel.join(group, iface);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+
+        receiveThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receiveLoop();
+            }
+        }, "simple-recv-" + name);
+        receiveThread.setDaemon(true);
+        dispatchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatchLoop();
+            }
+        }, "simple-dispatch-" + name);
+        dispatchThread.setDaemon(true);
+    }
+
+    void start() {
+        channels.add(this);
+        dispatchThread.start();
+        receiveThread.start();
+    }
+
+    /**
+     * Sends one datagram to the group
+     *
+     * @param data the datagram
+     */
+    void send(byte[] data) {
+        try {
+            channel.send(ByteBuffer.wrap(data), groupAddress);
+            sentCount.incrementAndGet();
+            if (logger.isLoggable(Level.FINEST))
+                logger.finest("SENT " + data.length + " bytes to " + name);
+        } catch (IOException ex) {
+            logger.warning("Unable to send packet to " + name + ": " + ex.getMessage());
+        }
+    }
+
+    void close() {
+        running = false;
+        channels.remove(this);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.fine("error closing channel " + name + ": " + e.getMessage());
+        }
+        received.clear();
+        received.offer(STOP);
+        if (droppedCount.get() + oversizeCount.get() > 0) {
+            logger.info("closed " + this);
+        }
+    }
+
+    private void receiveLoop() {
+        // one byte more than the largest datagram we accept, a datagram filling it was truncated
+        ByteBuffer buffer = ByteBuffer.allocateDirect(maxDatagram + 1);
+        while (running) {
+            try {
+                buffer.clear();
+                SocketAddress sender = channel.receive(buffer);
+                if (sender == null) {
+                    continue;
+                }
+                buffer.flip();
+                if (buffer.remaining() > maxDatagram) {
+                    oversizeCount.incrementAndGet();
+                    if (logger.isLoggable(Level.FINE))
+                        logger.fine(name + ": dropped a datagram larger than " + maxDatagram + " bytes from " + sender);
+                    continue;
+                }
+                receivedCount.incrementAndGet();
+                byte[] data = new byte[buffer.remaining()];
+                buffer.get(data);
+                if (!received.offer(data)) {
+                    droppedCount.incrementAndGet();
+                    if (logger.isLoggable(Level.FINE))
+                        logger.fine(name + ": dispatch queue full, dropped a datagram from " + sender);
+                }
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                if (running) {
+                    logger.warning("Unable to receive packet on " + name + ": " + e.getMessage());
+                }
+            }
+        }
+        if (logger.isLoggable(Level.FINE))
+            logger.fine("receive thread for " + name + " exiting");
+    }
+
+    private void dispatchLoop() {
+        while (running) {
+            byte[] data;
+            try {
+                data = received.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (data == null) {
+                continue;
+            }
+            if (data == STOP) {
+                break;
+            }
+            try {
+                receiver.received(data);
+            } catch (Exception ex) {
+                logger.log(Level.WARNING, "Unable to process packet from " + name + ": " + ex.getMessage(), ex);
+            }
+        }
+        MessageCompressionUtils.release();
+    }
+
+    /**
+     * @return the datagrams received and queued for dispatch
+     */
+    public long getReceived() {
+        return receivedCount.get();
+    }
+
+    /**
+     * @return the datagrams dropped because the dispatch queue was full
+     */
+    public long getDropped() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return the datagrams dropped because they were larger than the maximum datagram size
+     */
+    public long getOversize() {
+        return oversizeCount.get();
+    }
+
+    public long getSent() {
+        return sentCount.get();
+    }
+
+    int getLocalPort() throws IOException {
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+
+    @Override
+    public String toString() {
+        return "simple transport " + name + ": received=" + getReceived() + " dropped=" + getDropped()
+                + " oversize=" + getOversize() + " sent=" + getSent() + " queued=" + received.size();
+    }
+
+    /**
+     * @return one line per open simple transport group with its counters
+     */
+    public static String statistics() {
+        StringBuilder sb = new StringBuilder();
+        for (MulticastChannel channel : channels) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(channel);
+        }
+        return sb.toString();
+    }
+}
@@ -3,8 +3,8 @@ package edu.drexel.xop.net.transport;
 import edu.drexel.transportengine.api.TransportEngineAPI;
 import edu.drexel.transportengine.api.TransportEngineAPI.MessageCallback;
 import edu.drexel.xop.core.ClientManager;
+import edu.drexel.xop.packet.RoutingStanza;
 import edu.drexel.xop.packet.TransportPacketProcessor;
-import edu.drexel.xop.util.Utils;
 import edu.drexel.xop.util.XOP;
 import edu.drexel.xop.util.logger.LogUtils;
 import mil.navy.nrl.xop.util.addressing.NetUtilsKt;
@@ -14,6 +14,7 @@ import org.xmpp.packet.JID;
 import org.xmpp.packet.Packet;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -109,8 +110,15 @@ public class OneToOneTransportService implements XOPTransportService, MessageCal
             if(logger.isLoggable(Level.INFO)) logger.info("Processing JSON message: " + message);
             if(logger.isLoggable(Level.FINE)) logger.fine("Processing JSON message: " + message);
 
-			Packet packet = Utils.packetFromString(payload);
-            processIncomingPacket(packet);
+            // only the header is read, messages for the clients of other nodes are dropped unparsed
+            RoutingStanza stanza = RoutingStanza.fromBytes(payload.getBytes(StandardCharsets.UTF_8));
+            if (!clientManager.getLocalClientJIDs().contains(stanza.getTo())) {
+                if (logger.isLoggable(Level.FINER))
+                    logger.finer("dropping one-to-one stanza for " + stanza.getTo() + ", not a local client");
+                return;
+            }
+            logger.finer("Incoming XMPP one-to-one stanza from TransportEngine: " + stanza);
+            transportPacketProcessor.processStanza(stanza);
 		} catch (DocumentException e) {
 			logger.severe("Unable to build packet from string: " + payload);
 		} catch (Exception e) {
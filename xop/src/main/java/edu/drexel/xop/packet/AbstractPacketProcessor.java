@@ -1,6 +1,8 @@
 package edu.drexel.xop.packet;
 
 import org.dom4j.DocumentException;
+import org.dom4j.Element;
+import org.dom4j.Namespace;
 import org.xmpp.packet.JID;
 import org.xmpp.packet.Message;
 import org.xmpp.packet.Packet;
@@ -84,6 +86,10 @@ abstract class AbstractPacketProcessor implements PacketProcessor {
             logger.finest("strip jabber:server namespace from packet: {{" + p + "}}");
         }
 
+        // only packets from a gatewayed server carry the namespace, leave everything else as it is
+        if (!usesNamespace(p.getElement(), "jabber:server")) {
+            return p;
+        }
         try {
             //this removes the jabber:server namespace when openfire sends messages to a server
             p = Utils.packetFromString(Utils.stripNamespace(p.toString(), "jabber:server"));
@@ -95,4 +101,21 @@ abstract class AbstractPacketProcessor implements PacketProcessor {
         }
         return p;
     }
+
+    private static boolean usesNamespace(Element element, String uri) {
+        if (uri.equals(element.getNamespaceURI())) {
+            return true;
+        }
+        for (Object namespace : element.declaredNamespaces()) {
+            if (uri.equals(((Namespace) namespace).getURI())) {
+                return true;
+            }
+        }
+        for (Object child : element.elements()) {
+            if (usesNamespace((Element) child, uri)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -333,7 +333,7 @@ abstract class AbstractPresenceManager {
 
     boolean isForMUC(Presence presence) {
         return (presence.getChildElement("x", CONSTANTS.DISCO.MUC_NAMESPACE) != null
-                || XOProxy.getInstance().getRoomOccupantIds().contains(presence.getTo()));
+                || XOProxy.getInstance().isRoomOccupant(presence.getTo()));
     }
 
     void processMUCPresence(Presence presence) {
@@ -0,0 +1,513 @@
+package edu.drexel.xop.packet;
+
+import edu.drexel.xop.util.StanzaParser;
+import org.dom4j.DocumentException;
+import org.dom4j.Element;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Packet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * A stanza received from the network of which only the routing header has been read.<br/>
+ * Only the attributes of the root element (to, from, type, id and the default namespace) are scanned from the raw
+ * UTF-8 bytes. The bytes are kept so that a stanza that is only forwarded, e.g. a chat message for a local client,
+ * is written out as received, provided it is framed (see {@link #isFramed()}). The dom4j packet is built the first time {@link #getPacket()} is called, by the
+ * handlers that need the child elements (IQs, presences, MUC messages).<br/>
+ * Once the packet has been built the caller may modify it, from then on the header and {@link #toBytes()} are taken
+ * from the packet. Stanzas received in a binary encoding are decoded into a packet right away, see
+ * {@link #fromPacket(Packet)}.
+ */
+public class RoutingStanza {
+    private static final byte[] JABBER_SERVER = "jabber:server".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+    // start of the root element, after the prolog
+    private final int start;
+    private final boolean framed;
+
+    private final String name;
+    private final String to;
+    private final String from;
+    private final String type;
+    private final String id;
+    private final String namespace;
+
+    private JID toJID;
+    private JID fromJID;
+    private Packet packet;
+
+    private RoutingStanza(byte[] bytes, int offset, int length, int start, boolean framed, String name,
+                          String to, String from, String type, String id, String namespace) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.start = start;
+        this.framed = framed;
+        this.name = name;
+        this.to = to;
+        this.from = from;
+        this.type = type;
+        this.id = id;
+        this.namespace = namespace;
+    }
+
+    /**
+     * Reads the routing header of the stanza. The bytes are not copied and must not be reused by the caller.
+     *
+     * @param bytes the buffer holding the UTF-8 encoded stanza
+     * @param offset start of the stanza
+     * @param length length of the stanza
+     * @return the stanza
+     * @throws DocumentException if the bytes do not start with a well formed start tag
+     */
+    public static RoutingStanza fromBytes(byte[] bytes, int offset, int length) throws DocumentException {
+        return new HeaderScanner(bytes, offset, offset + length).scan();
+    }
+
+    public static RoutingStanza fromBytes(byte[] bytes) throws DocumentException {
+        return fromBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Wraps a packet that was received already built, e.g. decoded by a binary stanza codec.
+     *
+     * @param packet the packet
+     * @return the stanza, parsed from the start
+     */
+    public static RoutingStanza fromPacket(Packet packet) {
+        Element element = packet.getElement();
+        String namespace = element.getNamespaceURI();
+        RoutingStanza stanza = new RoutingStanza(null, 0, 0, 0, false, element.getName(), null, null, null, null,
+                namespace.isEmpty() ? null : namespace);
+        stanza.packet = packet;
+        return stanza;
+    }
+
+    /**
+     * @return the local name of the root element: message, presence or iq
+     */
+    public String getName() {
+        return name;
+    }
+
+    public boolean isMessage() {
+        return "message".equals(name);
+    }
+
+    public boolean isPresence() {
+        return "presence".equals(name);
+    }
+
+    public boolean isIQ() {
+        return "iq".equals(name);
+    }
+
+    public JID getTo() {
+        if (packet != null) {
+            return packet.getTo();
+        }
+        if (toJID == null && to != null) {
+            toJID = new JID(to);
+        }
+        return toJID;
+    }
+
+    public JID getFrom() {
+        if (packet != null) {
+            return packet.getFrom();
+        }
+        if (fromJID == null && from != null) {
+            fromJID = new JID(from);
+        }
+        return fromJID;
+    }
+
+    /**
+     * @return the type attribute as received, or null if there is none
+     */
+    public String getType() {
+        return packet != null ? packet.getElement().attributeValue("type") : type;
+    }
+
+    public String getID() {
+        return packet != null ? packet.getID() : id;
+    }
+
+    /**
+     * @return the default namespace declared on the root element, or null if there is none
+     */
+    public String getNamespace() {
+        return namespace;
+    }
+
+    /**
+     * @return true if the stanza, or any of its children, declares the jabber:server namespace
+     */
+    public boolean hasJabberServerNamespace() {
+        if ("jabber:server".equals(namespace)) {
+            return true;
+        }
+        if (bytes == null) {
+            return hasJabberServerNamespace(packet.getElement());
+        }
+        int last = offset + length - JABBER_SERVER.length;
+        outer:
+        for (int i = offset; i <= last; i++) {
+            for (int j = 0; j < JABBER_SERVER.length; j++) {
+                if (bytes[i + j] != JABBER_SERVER[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean hasJabberServerNamespace(Element element) {
+        if ("jabber:server".equals(element.getNamespaceURI())) {
+            return true;
+        }
+        for (Object child : element.elements()) {
+            if (hasJabberServerNamespace((Element) child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the packet has been built
+     */
+    public boolean isParsed() {
+        return packet != null;
+    }
+
+    /**
+     * @return true if the bytes hold the root element and nothing else: no XML declaration or comment before it, and
+     * its child elements and end tag balanced, so that the bytes can be written to a client stream without parsing.
+     * Attribute values and character data are not checked.
+     */
+    public boolean isFramed() {
+        return framed;
+    }
+
+    /**
+     * @return the packet, parsed from the bytes on the first call
+     * @throws DocumentException if the bytes are not a well formed stanza
+     */
+    public Packet getPacket() throws DocumentException {
+        if (packet == null) {
+            packet = StanzaParser.parse(bytes, offset, length);
+        }
+        return packet;
+    }
+
+    /**
+     * @return the stanza as received from the start tag of the root element on or, if the packet was built, the
+     * serialized packet
+     */
+    public byte[] toBytes() {
+        if (packet != null) {
+            return packet.toXML().getBytes(StandardCharsets.UTF_8);
+        }
+        if (start == 0 && length == bytes.length) {
+            return bytes;
+        }
+        return Arrays.copyOfRange(bytes, start, offset + length);
+    }
+
+    @Override
+    public String toString() {
+        return new String(toBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the start tag of the root element
+     */
+    private static class HeaderScanner {
+        private final byte[] bytes;
+        private final int offset;
+        private final int end;
+        private int pos;
+
+        private String to;
+        private String from;
+        private String type;
+        private String id;
+        private String namespace;
+
+        HeaderScanner(byte[] bytes, int offset, int end) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.end = end;
+            this.pos = offset;
+        }
+
+        RoutingStanza scan() throws DocumentException {
+            boolean prolog = skipProlog();
+            int start = pos;
+            expect('<');
+            String qualifiedName = readName();
+            String name = localName(qualifiedName);
+            while (true) {
+                skipWhitespace();
+                if (pos >= end) {
+                    throw error("unterminated start tag");
+                }
+                byte b = bytes[pos];
+                if (b == '>' || b == '/') {
+                    break;
+                }
+                String attribute = readName();
+                skipWhitespace();
+                expect('=');
+                skipWhitespace();
+                String value = readValue();
+                switch (attribute) {
+                    case "to":
+                        to = value;
+                        break;
+                    case "from":
+                        from = value;
+                        break;
+                    case "type":
+                        type = value;
+                        break;
+                    case "id":
+                        id = value;
+                        break;
+                    case "xmlns":
+                        namespace = value;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            boolean framed;
+            try {
+                framed = !prolog && checkElement(qualifiedName);
+            } catch (DocumentException e) {
+                framed = false;
+            }
+            return new RoutingStanza(bytes, offset, end - offset, start, framed, name, to, from, type, id,
+                    namespace);
+        }
+
+        /**
+         * Reads on from the end of the start tag of the root element
+         *
+         * @return true if the child elements are balanced and the end tag of the root element ends the bytes
+         */
+        private boolean checkElement(String qualifiedName) throws DocumentException {
+            if (bytes[pos] == '/') {
+                pos++;
+                expect('>');
+                skipWhitespace();
+                return pos == end;
+            }
+            pos++;
+            Deque<String> open = new ArrayDeque<>();
+            open.push(qualifiedName);
+            while (pos < end) {
+                if (bytes[pos] != '<') {
+                    pos++;
+                } else if (startsWith("<!--")) {
+                    skipPast("-->");
+                } else if (startsWith("<![CDATA[")) {
+                    skipPast("]]>");
+                } else if (startsWith("<?")) {
+                    skipPast("?>");
+                } else if (startsWith("</")) {
+                    pos += 2;
+                    String name = readName();
+                    skipWhitespace();
+                    expect('>');
+                    if (!name.equals(open.pop())) {
+                        return false;
+                    }
+                    if (open.isEmpty()) {
+                        skipWhitespace();
+                        return pos == end;
+                    }
+                } else {
+                    pos++;
+                    String name = readName();
+                    // a '>' in an attribute value does not end the tag
+                    byte quote = 0;
+                    while (pos < end && (quote != 0 || bytes[pos] != '>')) {
+                        if (quote == 0 && (bytes[pos] == '"' || bytes[pos] == '\'')) {
+                            quote = bytes[pos];
+                        } else if (bytes[pos] == quote) {
+                            quote = 0;
+                        }
+                        pos++;
+                    }
+                    expect('>');
+                    if (bytes[pos - 2] != '/') {
+                        open.push(name);
+                    }
+                }
+            }
+            return false;
+        }
+
+        private void skipPast(String close) throws DocumentException {
+            while (pos < end && !startsWith(close)) {
+                pos++;
+            }
+            if (pos >= end) {
+                throw error("unterminated " + close);
+            }
+            pos += close.length();
+        }
+
+        /**
+         * Skips whitespace, the XML declaration and comments before the root element
+         *
+         * @return true if there was a declaration or a comment
+         */
+        private boolean skipProlog() throws DocumentException {
+            boolean skipped = false;
+            while (true) {
+                skipWhitespace();
+                if (startsWith("<?") || startsWith("<!--")) {
+                    String close = bytes[pos + 1] == '?' ? "?>" : "-->";
+                    while (pos < end && !startsWith(close)) {
+                        pos++;
+                    }
+                    if (pos >= end) {
+                        throw error("unterminated prolog");
+                    }
+                    pos += close.length();
+                    skipped = true;
+                } else {
+                    return skipped;
+                }
+            }
+        }
+
+        private boolean startsWith(String s) {
+            if (pos + s.length() > end) {
+                return false;
+            }
+            for (int i = 0; i < s.length(); i++) {
+                if (bytes[pos + i] != s.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void skipWhitespace() {
+            while (pos < end && (bytes[pos] == ' ' || bytes[pos] == '\t' || bytes[pos] == '\n' || bytes[pos] == '\r')) {
+                pos++;
+            }
+        }
+
+        private void expect(char c) throws DocumentException {
+            if (pos >= end || bytes[pos] != c) {
+                throw error("expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private String readName() throws DocumentException {
+            int start = pos;
+            while (pos < end) {
+                byte b = bytes[pos];
+                if (b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '=' || b == '>' || b == '/') {
+                    break;
+                }
+                pos++;
+            }
+            if (pos == start) {
+                throw error("expected a name");
+            }
+            return new String(bytes, start, pos - start, StandardCharsets.UTF_8);
+        }
+
+        private static String localName(String qualifiedName) {
+            int colon = qualifiedName.indexOf(':');
+            return colon < 0 ? qualifiedName : qualifiedName.substring(colon + 1);
+        }
+
+        private String readValue() throws DocumentException {
+            if (pos >= end || (bytes[pos] != '"' && bytes[pos] != '\'')) {
+                throw error("expected a quoted attribute value");
+            }
+            byte quote = bytes[pos++];
+            int start = pos;
+            boolean escaped = false;
+            while (pos < end && bytes[pos] != quote) {
+                if (bytes[pos] == '&') {
+                    escaped = true;
+                }
+                pos++;
+            }
+            if (pos >= end) {
+                throw error("unterminated attribute value");
+            }
+            String value = new String(bytes, start, pos - start, StandardCharsets.UTF_8);
+            pos++;
+            return escaped ? unescape(value) : value;
+        }
+
+        private String unescape(String value) throws DocumentException {
+            StringBuilder sb = new StringBuilder(value.length());
+            int i = 0;
+            while (i < value.length()) {
+                char c = value.charAt(i);
+                if (c != '&') {
+                    sb.append(c);
+                    i++;
+                    continue;
+                }
+                int semicolon = value.indexOf(';', i);
+                if (semicolon < 0) {
+                    throw error("unterminated entity reference");
+                }
+                String entity = value.substring(i + 1, semicolon);
+                switch (entity) {
+                    case "amp":
+                        sb.append('&');
+                        break;
+                    case "lt":
+                        sb.append('<');
+                        break;
+                    case "gt":
+                        sb.append('>');
+                        break;
+                    case "quot":
+                        sb.append('"');
+                        break;
+                    case "apos":
+                        sb.append('\'');
+                        break;
+                    default:
+                        if (!entity.startsWith("#")) {
+                            throw error("unknown entity &" + entity + ";");
+                        }
+                        try {
+                            sb.appendCodePoint(entity.startsWith("#x")
+                                    ? Integer.parseInt(entity.substring(2), 16)
+                                    : Integer.parseInt(entity.substring(1)));
+                        } catch (IllegalArgumentException e) {
+                            throw error("invalid character reference &" + entity + ";");
+                        }
+                }
+                i = semicolon + 1;
+            }
+            return sb.toString();
+        }
+
+        private DocumentException error(String message) {
+            return new DocumentException("Unable to read stanza header, " + message + " at " + (pos - offset));
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package edu.drexel.xop.packet;
 
+import org.dom4j.DocumentException;
 import org.xmpp.packet.IQ;
 import org.xmpp.packet.JID;
 import org.xmpp.packet.Message;
@@ -9,11 +10,14 @@ import org.xmpp.packet.Presence;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import edu.drexel.xop.client.XOPConnection;
 import edu.drexel.xop.core.ClientManager;
+import edu.drexel.xop.core.FanoutStanza;
 import edu.drexel.xop.core.ProxyUtils;
 import edu.drexel.xop.core.XMPPClient;
 import edu.drexel.xop.core.XOProxy;
 import edu.drexel.xop.net.SDManager;
+import edu.drexel.xop.util.XOP;
 import edu.drexel.xop.util.logger.LogUtils;
 
 import static org.xmpp.packet.Presence.Type.probe;
@@ -25,9 +29,18 @@ public class TransportPacketProcessor extends AbstractPacketProcessor {
     private static Logger logger = LogUtils.getLogger(TransportPacketProcessor.class.getName());
     private SDManager sdManager;
     private TransportPresenceManager transportPresenceManager;
+    private final LocalRecipientFilter localRecipientFilter;
 
     public TransportPacketProcessor(ClientManager clientManager) {
         super(clientManager);
+        localRecipientFilter = new LocalRecipientFilter(clientManager, XOP.TRANSPORT.RECIPIENT_FILTER);
+    }
+
+    /**
+     * @return the filter the transports drop stanzas for clients of other nodes with, before parsing them
+     */
+    public LocalRecipientFilter getLocalRecipientFilter() {
+        return localRecipientFilter;
     }
 
     public void processPacket(JID fromJID, Packet p) {
@@ -42,7 +55,7 @@ public class TransportPacketProcessor extends AbstractPacketProcessor {
             if (isForMUC((m))) {
                 JID roomJID = m.getTo().asBareJID();
 
-                if (!XOProxy.getInstance().getRoomIds().contains(roomJID)) {
+                if (!XOProxy.getInstance().isRoom(roomJID)) {
                     roomJID = p.getFrom().asBareJID();
                 }
                 logger.fine("roomJID: " + roomJID);
@@ -56,9 +69,35 @@ public class TransportPacketProcessor extends AbstractPacketProcessor {
         }
     }
 
+    /**
+     * Routes a stanza received from the network. One-to-one messages for locally connected clients are written to
+     * the client as received if they are framed, see {@link RoutingStanza#isFramed()}. Everything else is parsed and
+     * handled by {@link #processPacket(JID, Packet)}.
+     *
+     * @param stanza the stanza received from the network
+     * @throws DocumentException if the stanza has to be parsed and is not well formed
+     */
+    public void processStanza(RoutingStanza stanza) throws DocumentException {
+        if (!stanza.isParsed() && stanza.isFramed() && stanza.isMessage() && !"groupchat".equals(stanza.getType())
+                && !stanza.hasJabberServerNamespace()) {
+            JID to = stanza.getTo();
+            if (to != null && clientManager.isLocal(to) && !XOProxy.getInstance().isRoomOccupant(to)) {
+                XOPConnection connection = clientManager.getConnection(to);
+                if (connection != null) {
+                    if (logger.isLoggable(Level.FINE))
+                        logger.fine("forwarding message from " + stanza.getFrom() + " to local client " + to);
+                    connection.writeRaw(stanza.toBytes());
+                    return;
+                }
+            }
+        }
+        Packet p = stanza.getPacket();
+        processPacket(p.getFrom(), p);
+    }
+
     private boolean isForMUC(Message message) {
         return (message.getType() == Message.Type.groupchat
-                || XOProxy.getInstance().getRoomOccupantIds().contains(message.getTo()));
+                || XOProxy.getInstance().isRoomOccupant(message.getTo()));
     }
 
     /**
@@ -112,17 +151,20 @@ public class TransportPacketProcessor extends AbstractPacketProcessor {
 
         transportPresenceManager.sendPresenceToLocalUsersWithDifferentDomain(presence.getFrom(), presence.getType());
 
+        Presence p = new Presence(presence.getType());
+        p.setFrom(presence.getFrom());
+        p.setStatus(presence.getStatus());
+        p.setPriority(presence.getPriority());
+        p.setShow(presence.getShow());
+        FanoutStanza stanza = null;
         for (JID user : clientManager.getLocalClientJIDs()) {
             if (logger.isLoggable(Level.FINE)) logger.fine("local toJID: " + user);
             if (!ProxyUtils.compareJIDs(user, presence.getFrom())) {
-                Presence p = new Presence(presence.getType());
-                p.setFrom(presence.getFrom());
-                p.setTo(user);
-                p.setStatus(presence.getStatus());
-                p.setPriority(presence.getPriority());
-                p.setShow(presence.getShow());
-                logger.info("sending packet ==" + p.toXML() + "== to local client");
-                ProxyUtils.sendPacketToLocalClient(p, clientManager);
+                if (stanza == null) {
+                    stanza = new FanoutStanza(p);
+                    if (logger.isLoggable(Level.INFO)) logger.info("sending packet ==" + p.toXML() + "== to local clients");
+                }
+                ProxyUtils.sendPacketToLocalClient(stanza, user, stanza.getFrom(), stanza.getID(), clientManager);
             }
         }
 
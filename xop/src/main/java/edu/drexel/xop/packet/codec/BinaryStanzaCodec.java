@@ -0,0 +1,381 @@
+package edu.drexel.xop.packet.codec;
+
+import edu.drexel.xop.packet.RoutingStanza;
+import org.dom4j.Attribute;
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentFactory;
+import org.dom4j.Element;
+import org.dom4j.Namespace;
+import org.dom4j.Node;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of stanzas, for constrained links.<br/>
+ * Element names, attribute names, namespaces and common attribute values are replaced by tokens from a fixed table
+ * of XMPP vocabulary, every other string is sent once per stanza and referred to by a token after that. The to,
+ * from and jid attributes are split into node, domain and resource, so that a domain or user name repeated across
+ * JIDs is sent once. Numbers are unsigned varints.
+ * <pre>
+ *   stanza    = MARKER element
+ *   element   = string(name) string(prefix) string(namespace)
+ *               varint(declarations) *(string(prefix) string(namespace))
+ *               varint(attributes) *attribute
+ *               *(TEXT string | ELEMENT element) END
+ *   attribute = string(name) string(prefix) string(namespace) (jid | string(value))
+ *   jid       = varint(flags: 1 node, 2 resource) [string(node)] string(domain) [string(resource)]
+ *   string    = varint(0) varint(length) utf-8 bytes     a new string, gets the next per-stanza token
+ *             | varint(1 .. table size)                  a string of the fixed table
+ *             | varint(table size + 1 ..)                a string sent before in the stanza
+ * </pre>
+ * The stanza is decoded straight into a dom4j element without an XML parser. Comments and processing instructions
+ * are not sent.<br/>
+ * The marker names the version of the fixed table, which must never change once released: a new table gets a new
+ * codec with a new marker.
+ */
+public class BinaryStanzaCodec implements StanzaCodec {
+    public static final String NAME = "binary";
+
+    static final byte MARKER = 0x02;
+
+    private static final int END = 0;
+    private static final int TEXT = 1;
+    private static final int ELEMENT = 2;
+
+    private static final int JID_NODE = 1;
+    private static final int JID_RESOURCE = 2;
+
+    private static final int MAX_DEPTH = 64;
+
+    private static final String XML_NAMESPACE = "http://www.w3.org/XML/1998/namespace";
+
+    // version 1 of the fixed table, never change it
+    private static final String[] TABLE = {
+            "",
+            // stanzas and their children
+            "message", "presence", "iq", "body", "subject", "thread", "show", "status", "priority", "error",
+            "x", "item", "query", "feature", "identity", "c", "delay", "active", "composing", "paused",
+            "inactive", "gone", "request", "received", "text", "ping", "invite", "reason", "actor", "password",
+            "destroy", "field", "value", "group", "nick", "html", "vCard", "photo",
+            // attributes
+            "to", "from", "type", "id", "jid", "affiliation", "role", "code", "var", "category", "name", "node",
+            "hash", "ver", "stamp", "lang", "subscription", "ask", "ext", "by", "label", "seconds",
+            // namespaces and prefixes
+            "jabber:client", "jabber:server", "jabber:iq:roster", "jabber:iq:version", "jabber:iq:last",
+            "jabber:x:data", "jabber:x:event", "jabber:x:delay", "jabber:x:conference",
+            "http://jabber.org/protocol/muc", "http://jabber.org/protocol/muc#user",
+            "http://jabber.org/protocol/muc#admin", "http://jabber.org/protocol/muc#owner",
+            "http://jabber.org/protocol/disco#info", "http://jabber.org/protocol/disco#items",
+            "http://jabber.org/protocol/caps", "http://jabber.org/protocol/chatstates",
+            "http://jabber.org/protocol/xhtml-im", "http://www.w3.org/1999/xhtml",
+            "urn:xmpp:delay", "urn:xmpp:receipts", "urn:xmpp:ping", "urn:xmpp:time",
+            "urn:ietf:params:xml:ns:xmpp-stanzas", "vcard-temp", "vcard-temp:x:update", XML_NAMESPACE, "xml",
+            // attribute values
+            "chat", "groupchat", "normal", "headline", "unavailable", "subscribe", "subscribed", "unsubscribe",
+            "unsubscribed", "probe", "get", "set", "result", "away", "xa", "dnd", "none", "both",
+            "owner", "admin", "member", "outcast", "moderator", "participant", "visitor",
+            "conference", "client", "pc", "phone", "sha-1", "en", "0", "1", "100", "110", "170", "201", "210",
+            "cancel", "modify", "auth", "wait", "bad-request", "forbidden", "item-not-found", "not-allowed",
+            "service-unavailable", "feature-not-implemented", "Offline Message"
+    };
+
+    private static final Map<String, Integer> TOKENS = new HashMap<>();
+
+    static {
+        for (int i = 0; i < TABLE.length; i++) {
+            TOKENS.put(TABLE[i], i + 1);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte getMarker() {
+        return MARKER;
+    }
+
+    @Override
+    public byte[] encode(Packet packet) {
+        Encoder encoder = new Encoder();
+        encoder.buffer[encoder.length++] = MARKER;
+        encoder.element(packet.getElement());
+        return Arrays.copyOf(encoder.buffer, encoder.length);
+    }
+
+    @Override
+    public RoutingStanza decode(byte[] data, int offset, int length) throws DocumentException {
+        Decoder decoder = new Decoder(data, offset, offset + length);
+        if (length == 0 || data[offset] != MARKER) {
+            throw decoder.error("not a binary stanza");
+        }
+        decoder.pos++;
+        Element root = decoder.element(0);
+        if (decoder.pos != decoder.end) {
+            throw decoder.error("data after the stanza");
+        }
+        return RoutingStanza.fromPacket(toPacket(root));
+    }
+
+    private static Packet toPacket(Element root) throws DocumentException {
+        switch (root.getName()) {
+            case "message":
+                return new Message(root, true);
+            case "presence":
+                return new Presence(root, true);
+            case "iq":
+                return new IQ(root, true);
+            default:
+                throw new DocumentException("Error decoding packet. Invalid type: " + root.getName());
+        }
+    }
+
+    private static boolean isJID(Attribute attribute) {
+        if (!attribute.getNamespaceURI().isEmpty()) {
+            return false;
+        }
+        String name = attribute.getName();
+        return "to".equals(name) || "from".equals(name) || "jid".equals(name);
+    }
+
+    private static class Encoder {
+        byte[] buffer = new byte[256];
+        int length;
+        private Map<String, Integer> strings;
+
+        void element(Element element) {
+            string(element.getName());
+            string(element.getNamespacePrefix());
+            string(element.getNamespaceURI());
+            List<?> declarations = element.additionalNamespaces();
+            varint(declarations.size());
+            for (Object declaration : declarations) {
+                Namespace namespace = (Namespace) declaration;
+                string(namespace.getPrefix());
+                string(namespace.getURI());
+            }
+            varint(element.attributeCount());
+            for (int i = 0; i < element.attributeCount(); i++) {
+                Attribute attribute = element.attribute(i);
+                string(attribute.getName());
+                string(attribute.getNamespacePrefix());
+                string(attribute.getNamespaceURI());
+                if (isJID(attribute)) {
+                    jid(attribute.getValue());
+                } else {
+                    string(attribute.getValue());
+                }
+            }
+            for (int i = 0; i < element.nodeCount(); i++) {
+                Node node = element.node(i);
+                switch (node.getNodeType()) {
+                    case Node.ELEMENT_NODE:
+                        varint(ELEMENT);
+                        element((Element) node);
+                        break;
+                    case Node.TEXT_NODE:
+                    case Node.CDATA_SECTION_NODE:
+                    case Node.ENTITY_REFERENCE_NODE:
+                        varint(TEXT);
+                        string(node.getText());
+                        break;
+                    default:
+                        // namespace declarations are sent above, comments and processing instructions are not
+                        break;
+                }
+            }
+            varint(END);
+        }
+
+        private void jid(String jid) {
+            int slash = jid.indexOf('/');
+            String bare = slash < 0 ? jid : jid.substring(0, slash);
+            int at = bare.indexOf('@');
+            varint((at >= 0 ? JID_NODE : 0) | (slash >= 0 ? JID_RESOURCE : 0));
+            if (at >= 0) {
+                string(bare.substring(0, at));
+            }
+            string(bare.substring(at + 1));
+            if (slash >= 0) {
+                string(jid.substring(slash + 1));
+            }
+        }
+
+        private void string(String s) {
+            if (s == null) {
+                s = "";
+            }
+            Integer token = TOKENS.get(s);
+            if (token == null && strings != null) {
+                token = strings.get(s);
+            }
+            if (token != null) {
+                varint(token);
+                return;
+            }
+            if (strings == null) {
+                strings = new HashMap<>();
+            }
+            strings.put(s, TABLE.length + 1 + strings.size());
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            varint(0);
+            varint(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        private void varint(int value) {
+            ensure(5);
+            while ((value & ~0x7f) != 0) {
+                buffer[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[length++] = (byte) value;
+        }
+
+        private void ensure(int more) {
+            if (length + more > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + more));
+            }
+        }
+    }
+
+    private static class Decoder {
+        private final DocumentFactory factory = DocumentFactory.getInstance();
+        private final byte[] data;
+        private final int offset;
+        private final int end;
+        private int pos;
+        private List<String> strings;
+
+        Decoder(byte[] data, int offset, int end) {
+            this.data = data;
+            this.offset = offset;
+            this.end = end;
+            this.pos = offset;
+        }
+
+        Element element(int depth) throws DocumentException {
+            if (depth > MAX_DEPTH) {
+                throw error("elements nested too deep");
+            }
+            String name = string();
+            Namespace namespace = Namespace.get(string(), string());
+            Element element = factory.createElement(factory.createQName(name, namespace));
+            int declarations = count();
+            for (int i = 0; i < declarations; i++) {
+                element.addNamespace(string(), string());
+            }
+            int attributes = count();
+            for (int i = 0; i < attributes; i++) {
+                String attributeName = string();
+                Namespace attributeNamespace = Namespace.get(string(), string());
+                boolean jid = attributeNamespace.getURI().isEmpty() && ("to".equals(attributeName)
+                        || "from".equals(attributeName) || "jid".equals(attributeName));
+                element.addAttribute(factory.createQName(attributeName, attributeNamespace), jid ? jid() : string());
+            }
+            while (true) {
+                int type = varint();
+                switch (type) {
+                    case END:
+                        return element;
+                    case TEXT:
+                        element.addText(string());
+                        break;
+                    case ELEMENT:
+                        element.add(element(depth + 1));
+                        break;
+                    default:
+                        throw error("unknown content type " + type);
+                }
+            }
+        }
+
+        private String jid() throws DocumentException {
+            int flags = varint();
+            String node = (flags & JID_NODE) != 0 ? string() : null;
+            String domain = string();
+            String resource = (flags & JID_RESOURCE) != 0 ? string() : null;
+            if (node == null && resource == null) {
+                return domain;
+            }
+            StringBuilder sb = new StringBuilder();
+            if (node != null) {
+                sb.append(node).append('@');
+            }
+            sb.append(domain);
+            if (resource != null) {
+                sb.append('/').append(resource);
+            }
+            return sb.toString();
+        }
+
+        private String string() throws DocumentException {
+            int token = varint();
+            if (token == 0) {
+                int length = count();
+                if (length > end - pos) {
+                    throw error("truncated string of " + length + " bytes");
+                }
+                String s = new String(data, pos, length, StandardCharsets.UTF_8);
+                pos += length;
+                if (strings == null) {
+                    strings = new ArrayList<>();
+                }
+                strings.add(s);
+                return s;
+            }
+            if (token <= TABLE.length) {
+                return TABLE[token - 1];
+            }
+            int index = token - TABLE.length - 1;
+            if (strings == null || index >= strings.size()) {
+                throw error("unknown string token " + token);
+            }
+            return strings.get(index);
+        }
+
+        // a count of items that take at least one byte each
+        private int count() throws DocumentException {
+            int count = varint();
+            if (count > end - pos) {
+                throw error("count " + count + " larger than the remaining data");
+            }
+            return count;
+        }
+
+        private int varint() throws DocumentException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                if (pos >= end) {
+                    throw error("truncated data");
+                }
+                byte b = data[pos++];
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value < 0) {
+                        throw error("number out of range");
+                    }
+                    return value;
+                }
+            }
+            throw error("number out of range");
+        }
+
+        DocumentException error(String message) {
+            return new DocumentException("Unable to decode binary stanza, " + message + " at " + (pos - offset));
+        }
+    }
+}
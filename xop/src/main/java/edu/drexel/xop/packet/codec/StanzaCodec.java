@@ -0,0 +1,40 @@
+package edu.drexel.xop.packet.codec;
+
+import edu.drexel.xop.packet.RoutingStanza;
+import org.dom4j.DocumentException;
+import org.xmpp.packet.Packet;
+
+/**
+ * Encodes the stanzas a transport sends and decodes the ones it receives.<br/>
+ * Every encoded stanza starts with the marker byte of its codec, so a receiver decodes whatever codec the sender
+ * chose (see {@link StanzaCodecs#decode(byte[], int, int)}) and nodes can switch codecs one at a time. The marker
+ * must not be 0x00 or 0x01 (aggregated datagrams and fragments of the simple transport), 0xC0-0xCF (compressed data
+ * with a dictionary), or a byte whose low four bits are 8 (a zlib header).
+ */
+public interface StanzaCodec {
+
+    /**
+     * @return the name the codec is selected with in the properties
+     */
+    String getName();
+
+    /**
+     * @return the first byte of every stanza this codec encodes
+     */
+    byte getMarker();
+
+    /**
+     * @param packet the stanza to send
+     * @return the encoded stanza, starting with {@link #getMarker()}
+     */
+    byte[] encode(Packet packet);
+
+    /**
+     * @param data the buffer holding the encoded stanza, which must not be reused by the caller
+     * @param offset start of the stanza
+     * @param length length of the stanza
+     * @return the stanza
+     * @throws DocumentException if the data is not a stanza encoded by this codec
+     */
+    RoutingStanza decode(byte[] data, int offset, int length) throws DocumentException;
+}
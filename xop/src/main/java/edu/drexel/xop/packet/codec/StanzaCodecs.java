@@ -0,0 +1,79 @@
+package edu.drexel.xop.packet.codec;
+
+import edu.drexel.xop.packet.RoutingStanza;
+import edu.drexel.xop.util.logger.LogUtils;
+import org.dom4j.DocumentException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * The known stanza codecs, by name for the senders and by marker byte for the receivers.<br/>
+ * Received data whose first byte is not the marker of a registered codec is read as XML, which may start with
+ * whitespace or an XML declaration.
+ */
+public final class StanzaCodecs {
+    private static final Logger logger = LogUtils.getLogger(StanzaCodecs.class.getName());
+
+    private static final StanzaCodec XML = new XmlStanzaCodec();
+
+    private static final Map<String, StanzaCodec> byName = new ConcurrentHashMap<>();
+    private static final StanzaCodec[] byMarker = new StanzaCodec[256];
+
+    static {
+        register(XML);
+        register(new BinaryStanzaCodec());
+    }
+
+    private StanzaCodecs() {
+    }
+
+    /**
+     * Adds a codec. It is used by senders that select it and by all receivers.
+     *
+     * @param codec the codec
+     * @throws IllegalArgumentException if another codec has the same name or marker byte
+     */
+    public static synchronized void register(StanzaCodec codec) {
+        int marker = codec.getMarker() & 0xff;
+        StanzaCodec existing = byMarker[marker];
+        if (existing != null || byName.containsKey(codec.getName())) {
+            throw new IllegalArgumentException("codec " + codec.getName() + " clashes with "
+                    + (existing != null ? existing.getName() : codec.getName()));
+        }
+        byMarker[marker] = codec;
+        byName.put(codec.getName(), codec);
+    }
+
+    /**
+     * @param name the name of a codec, e.g. from the properties
+     * @return the codec, or the XML codec if there is no codec with that name
+     */
+    public static StanzaCodec forName(String name) {
+        StanzaCodec codec = name != null ? byName.get(name.trim()) : null;
+        if (codec == null) {
+            logger.warning("Unknown stanza codec " + name + ", using " + XML.getName());
+            return XML;
+        }
+        return codec;
+    }
+
+    /**
+     * Decodes a stanza with the codec it was encoded with.
+     *
+     * @param data the buffer holding the encoded stanza, which must not be reused by the caller
+     * @param offset start of the stanza
+     * @param length length of the stanza
+     * @return the stanza
+     * @throws DocumentException if the data is not a well formed stanza
+     */
+    public static RoutingStanza decode(byte[] data, int offset, int length) throws DocumentException {
+        StanzaCodec codec = length > 0 ? byMarker[data[offset] & 0xff] : null;
+        return (codec != null ? codec : XML).decode(data, offset, length);
+    }
+
+    public static RoutingStanza decode(byte[] data) throws DocumentException {
+        return decode(data, 0, data.length);
+    }
+}
@@ -0,0 +1,35 @@
+package edu.drexel.xop.packet.codec;
+
+import edu.drexel.xop.packet.RoutingStanza;
+import org.dom4j.DocumentException;
+import org.xmpp.packet.Packet;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Stanzas as UTF-8 encoded XML text, what all transports sent before the codecs. Only the routing header is read
+ * when decoding, see {@link RoutingStanza}.
+ */
+public class XmlStanzaCodec implements StanzaCodec {
+    public static final String NAME = "xml";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte getMarker() {
+        return '<';
+    }
+
+    @Override
+    public byte[] encode(Packet packet) {
+        return packet.toXML().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public RoutingStanza decode(byte[] data, int offset, int length) throws DocumentException {
+        return RoutingStanza.fromBytes(data, offset, length);
+    }
+}
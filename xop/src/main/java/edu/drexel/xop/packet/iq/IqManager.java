@@ -170,10 +170,7 @@ public class IqManager {
                 ProxyUtils.sendPacketToLocalClient(resultIQ, clientManager);
 
                 // Send roster push to all locally connected relevant parties
-                for (JID localClient : clientManager.getLocalClientJIDs()) {
-                    rosterResult.setTo(localClient);
-                    ProxyUtils.sendPacketToLocalClient(rosterResult, clientManager);
-                }
+                ProxyUtils.sendPacketToLocalClients(rosterResult, clientManager.getLocalClientJIDs(), clientManager);
             } else {
                 // RFC 6121 Chap 2.3.3 Error Case
                 logger.fine("item add/update error case");
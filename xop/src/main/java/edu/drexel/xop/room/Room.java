@@ -25,6 +25,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import edu.drexel.xop.core.ClientManager;
+import edu.drexel.xop.core.FanoutStanza;
 import edu.drexel.xop.core.ProxyUtils;
 import edu.drexel.xop.core.XOProxy;
 import edu.drexel.xop.net.transport.BasicTransportService;
@@ -61,6 +62,7 @@ public class Room {
     private String description;
 
     private ClientManager clientManager;
+    private RoomIndex roomIndex;
 
     public Room(JID mucRoomJID, ClientManager clientManager, XOPTransportService transportService) throws IOException {
         this.mucRoomJID = mucRoomJID;
@@ -296,35 +298,36 @@ public class Room {
      * @param packet incoming message packet
      */
     public void handleIncomingMessage(Packet packet) {
-        for (JID clientJID : getMemberClientJids()) {
-            Message msg = (Message) packet.createCopy();
-            logger.finer("msg.getTo(): " + msg.getTo());
-            logger.finer("msg.getFrom(): " + msg.getFrom());
-
-            Message m = Utils.removeJabberNamespace(msg);
+        // the addressing is the same for every member, so the message is built and serialized once
+        Message m = Utils.removeJabberNamespace((Message) packet);
+        logger.finer("msg.getTo(): " + m.getTo());
+        logger.finer("msg.getFrom(): " + m.getFrom());
+
+        JID possibleClientJID = m.getFrom();
+        JID newFrom;
+        // test if this is from the muc Occupant
+        if (getMemberClientJids().contains(possibleClientJID)) {
+            newFrom = new JID(getRoomJid().getNode(), getDomain(), getNickForClientJID(possibleClientJID));
+            logger.finer("rewriting OLD from: " + possibleClientJID + " NEW from: " + newFrom);
+        } else {
+            newFrom = new JID(getRoomJid().getNode(), getDomain(), possibleClientJID.getNode());
+            logger.finer(possibleClientJID + " NOT FOUND in rewriting OLD from: " + possibleClientJID + ", NEW from: " + newFrom);
+        }
+        boolean toLocalOrRoom = clientManager.isLocal(m.getTo()) || m.getTo().equals(getRoomJid());
+        FanoutStanza stanza = null;
 
+        for (JID clientJID : getMemberClientJids()) {
             logger.finer(" attempting to send to clientJID: " + clientJID);
             if (clientManager.isLocal(clientJID)
-                    && (clientManager.isLocal(m.getTo()) || m.getTo().equals(getRoomJid()))
-                    && !m.getFrom().equals(clientJID)) {
-
-                m.setTo(clientJID);
-                // test if this is from the muc Occupant
-                JID possibleClientJID = m.getFrom();
-                if (getMemberClientJids().contains(possibleClientJID)) {
-                    JID newFrom = new JID(getRoomJid().getNode(), getDomain(), getNickForClientJID(m.getFrom()));
-                    logger.finer("rewriting OLD from: " + possibleClientJID + " NEW from: " + newFrom);
-                    m.setFrom(newFrom);
-                } else {
-                    JID newFrom = new JID(getRoomJid().getNode(), getDomain(), possibleClientJID.getNode());
-                    logger.finer(possibleClientJID + " NOT FOUND in rewriting OLD from: " + possibleClientJID + ", NEW from: " + newFrom);
-                    m.setFrom(newFrom);
-
+                    && toLocalOrRoom
+                    && !possibleClientJID.equals(clientJID)) {
+                if (stanza == null) {
+                    stanza = new FanoutStanza(m);
                 }
-                m.setID(UUID.randomUUID().toString());
 
-                logger.fine("sending to local client: " + clientJID + ", from: " + m.getFrom());
-                ProxyUtils.sendPacketToLocalClient(m, clientManager);
+                logger.fine("sending to local client: " + clientJID + ", from: " + newFrom);
+                ProxyUtils.sendPacketToLocalClient(stanza, clientJID, newFrom, UUID.randomUUID().toString(),
+                        clientManager);
             } else {
                 if (logger.isLoggable(Level.FINE))
                     logger.finer("not sending this message to fullJID: " + clientJID);
@@ -350,6 +353,9 @@ public class Room {
         logger.info("adding new muc occupant with occupant JID: " + mucOccupantJID
                 + " from fullJID: " + clientJID);
         mucOccupantToNick.put(mucOccupantJID, mucOccupantJID.getResource());
+        if (roomIndex != null) {
+            roomIndex.addOccupant(mucOccupantJID, this);
+        }
         clientJIDToNickMap.put(clientJID, mucOccupantJID.getResource());
         occupantNickToClientJID.put(mucOccupantJID.getResource(), clientJID);
         occupantNickToMucOccupantJID.put(mucOccupantJID.getResource(), mucOccupantJID);
@@ -377,8 +383,8 @@ public class Room {
             logger.fine( "Send presences from existing occupants to new occupant if fullJID is local");
             // logger.finer("getMemberNicknames(): " + getMemberNicknames());
             // for(String occupant : getMemberNicknames()) {
+            String stringPresence = Utils.stripNamespace(presence.toString(), "jabber:client");
             for(JID occupant : getMUCOccupants()) {
-                String stringPresence = Utils.stripNamespace(presence.toString(), "jabber:client");
                 try {
                     Presence presenceCopy = (Presence) Utils.packetFromString(stringPresence);
                     // JID fromMUCOccupant = new JID(roomName, domain, occupant);
@@ -424,7 +430,7 @@ public class Room {
 
         JID mucOccupantJID = presence.getTo();
         JID clientJID = presence.getFrom();
-        if (!XOProxy.getInstance().getRoomOccupantIds().contains(presence.getTo())) {
+        if (!XOProxy.getInstance().isRoomOccupant(presence.getTo())) {
             clientJID = presence.getTo();
             mucOccupantJID = presence.getFrom();
             logger.fine("To field is fullJID " + clientJID + " from is muc occupant " + mucOccupantJID);
@@ -463,6 +469,9 @@ public class Room {
         } else {
             logger.finer("Removing with MUC Occupant JID: " + mucOccupantJID);
             nick = mucOccupantToNick.remove(mucOccupantJID);
+            if (roomIndex != null) {
+                roomIndex.removeOccupant(mucOccupantJID, this);
+            }
         }
         logger.finer("==== NICK IS " + nick);
         JID removedClientJID = occupantNickToClientJID.remove(nick);
@@ -482,6 +491,9 @@ public class Room {
                         + " from mucOccupantToNick");
                 mucOccupantToNick.remove(removedMucOccupantJID);
             }
+            if (roomIndex != null) {
+                roomIndex.removeOccupant(removedMucOccupantJID, this);
+            }
         }
     }
 
@@ -493,6 +505,13 @@ public class Room {
         this.domain = domain;
     }
 
+    /**
+     * @param roomIndex the index to keep up to date as occupants join and leave
+     */
+    void setRoomIndex(RoomIndex roomIndex) {
+        this.roomIndex = roomIndex;
+    }
+
     public String getDomain() {
         return domain;
     }
@@ -0,0 +1,111 @@
+package edu.drexel.xop.room;
+
+import edu.drexel.xop.packet.LocalRecipientFilter;
+import org.xmpp.packet.JID;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of all rooms and MUC occupants across the RoomManagers.<br/>
+ * Kept up to date by {@link RoomManager#addRoom(Room)}, {@link RoomManager#removeRoom(JID)} and by the rooms as
+ * occupants join and leave, so that checking whether a stanza is addressed to a room or an occupant does not walk
+ * every room of every manager.
+ */
+public class RoomIndex {
+    private final Map<JID, Room> rooms = new ConcurrentHashMap<>();
+    private final Map<JID, Room> occupants = new ConcurrentHashMap<>();
+    // destination keys of the rooms, see LocalRecipientFilter
+    private final Set<Integer> roomKeys = ConcurrentHashMap.newKeySet();
+
+    synchronized void addRoom(Room room) {
+        rooms.put(room.getRoomJid(), room);
+        roomKeys.add(LocalRecipientFilter.keyOf(room.getRoomJid()));
+    }
+
+    /**
+     * Removes the room and its occupants. The destination key of the room is kept while another room has the same key.
+     */
+    synchronized void removeRoom(Room room) {
+        if (!rooms.remove(room.getRoomJid(), room)) {
+            return;
+        }
+        for (Iterator<Room> it = occupants.values().iterator(); it.hasNext(); ) {
+            if (it.next() == room) {
+                it.remove();
+            }
+        }
+        int key = LocalRecipientFilter.keyOf(room.getRoomJid());
+        for (JID roomJID : rooms.keySet()) {
+            if (LocalRecipientFilter.keyOf(roomJID) == key) {
+                return;
+            }
+        }
+        roomKeys.remove(key);
+    }
+
+    void addOccupant(JID mucOccupantJID, Room room) {
+        occupants.put(mucOccupantJID, room);
+    }
+
+    void removeOccupant(JID mucOccupantJID, Room room) {
+        if (mucOccupantJID != null) {
+            occupants.remove(mucOccupantJID, room);
+        }
+    }
+
+    public boolean isRoom(JID jid) {
+        return jid != null && rooms.containsKey(jid);
+    }
+
+    public boolean isRoomOccupant(JID jid) {
+        return jid != null && occupants.containsKey(jid);
+    }
+
+    /**
+     * @param key a destination key, see {@link LocalRecipientFilter#keyOf(JID)}
+     * @return true if the key is the one of a room
+     */
+    public boolean isRoomDestination(int key) {
+        return roomKeys.contains(key);
+    }
+
+    /**
+     * @param roomJID the bare JID of the room
+     * @return the room or null if there is none
+     */
+    public Room getRoom(JID roomJID) {
+        return roomJID != null ? rooms.get(roomJID) : null;
+    }
+
+    /**
+     * @param mucOccupantJID the room@domain/nick JID of the occupant
+     * @return the room the occupant is in, or null if it is not in any
+     */
+    public Room getRoomForOccupant(JID mucOccupantJID) {
+        return mucOccupantJID != null ? occupants.get(mucOccupantJID) : null;
+    }
+
+    /**
+     * @return read only view of the JIDs of all rooms
+     */
+    public Set<JID> getRoomIds() {
+        return Collections.unmodifiableSet(rooms.keySet());
+    }
+
+    /**
+     * @return read only view of the JIDs of all MUC occupants in all rooms
+     */
+    public Set<JID> getRoomOccupantIds() {
+        return Collections.unmodifiableSet(occupants.keySet());
+    }
+
+    public void clear() {
+        rooms.clear();
+        occupants.clear();
+        roomKeys.clear();
+    }
+}
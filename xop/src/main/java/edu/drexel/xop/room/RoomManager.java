@@ -25,10 +25,17 @@ public class RoomManager {
     private HashSet<String> features = new HashSet<>();
     private String domain;
     private String description;
+    private final RoomIndex roomIndex;
 
-    public RoomManager(String domain, String description) {
+    /**
+     * @param domain the conference domain
+     * @param description the name of this MUC service
+     * @param roomIndex the index the rooms and occupants of this manager are registered in
+     */
+    public RoomManager(String domain, String description, RoomIndex roomIndex) {
         this.domain = domain;
         this.description = description;
+        this.roomIndex = roomIndex;
         //add default features
         features.add(CONSTANTS.DISCO.MUC_NAMESPACE);
     }
@@ -110,12 +117,29 @@ public class RoomManager {
         if (!rooms.containsKey(room.getRoomJid())) {
             logger.info("Adding chat room: " + room.getRoomJid() + " to server: " + getDomain());
             room.setDomain(getDomain());
+            room.setRoomIndex(roomIndex);
             rooms.put(room.getRoomJid(), room);
+            roomIndex.addRoom(room);
         } else {
             logger.warning("Could not create chat room: " + room.getRoomJid() + ", room already exists");
         }
     }
 
+    /**
+     * Removes the room from this manager and the room index and closes its transport.
+     * @param roomJID the bare JID of the room
+     * @return the removed room, or null if there was none
+     */
+    public Room removeRoom(JID roomJID) {
+        Room room = rooms.remove(roomJID);
+        if (room != null) {
+            logger.info("Removing chat room: " + roomJID + " from server: " + getDomain());
+            roomIndex.removeRoom(room);
+            room.close();
+        }
+        return room;
+    }
+
     public Room getRoom(JID roomName) {
         return rooms.get(roomName);
     }
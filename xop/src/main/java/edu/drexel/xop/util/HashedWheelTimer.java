@@ -0,0 +1,393 @@
+package edu.drexel.xop.util;
+
+import edu.drexel.xop.util.logger.LogUtils;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Many timeouts on one thread: a hashed timing wheel of buckets of one tick each. A timeout goes into the bucket of
+ * its deadline with the number of turns of the wheel it still has to wait, so scheduling and cancelling cost O(1)
+ * however many timeouts are pending, and each tick the thread only looks at one bucket. A timeout runs at most one
+ * tick after its deadline, never before.<br/>
+ * The tasks run on the timer thread and must be short, a task that may block is given an {@link Executor}.
+ * {@link #shared()} is the timer of XOP, used for the liveness of remote nodes, gateway pings and similar timeouts.
+ * <br/>
+ * The number of pending, expired and cancelled timeouts and how late they ran are available from the getters and, for
+ * all timers, from {@link #statistics()}.
+ */
+public class HashedWheelTimer {
+    private static final Logger logger = LogUtils.getLogger(HashedWheelTimer.class.getName());
+
+    private static final Set<HashedWheelTimer> timers = ConcurrentHashMap.<HashedWheelTimer>newKeySet();
+    private static HashedWheelTimer shared;
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+    private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+    /**
+     * The time of a timer in milliseconds
+     */
+    public interface Clock {
+        long millis();
+    }
+
+    private static final Clock MONOTONIC_CLOCK = new Clock() {
+        @Override
+        public long millis() {
+            return System.nanoTime() / 1000000L;
+        }
+    };
+
+    /**
+     * A scheduled task, which can be cancelled until it runs
+     */
+    public final class Timeout {
+        private final Runnable task;
+        private final Executor executor;
+        // milliseconds after the start of the timer
+        private final long deadline;
+        private volatile int state = PENDING;
+
+        // owned by the thread advancing the wheel
+        private long remainingRounds;
+        private int bucket = -1;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, Executor executor, long deadline) {
+            this.task = task;
+            this.executor = executor;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return false if the task already ran or was cancelled
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                return false;
+            }
+            // taken out of its bucket on the next tick
+            cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        /**
+         * @return the time of the timer's clock at which the task runs
+         */
+        public long getDeadline() {
+            return startTime + deadline;
+        }
+    }
+
+    private final String name;
+    private final long tickMillis;
+    private final Clock clock;
+    private final long startTime;
+    private final Timeout[] heads;
+    private final Timeout[] tails;
+    private final int mask;
+
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean stopped;
+    // the next tick to expire, guarded by this
+    private long tick;
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong scheduled = new AtomicLong();
+    private long expired;
+    private long cancelledCount;
+    private long maxLateMillis;
+
+    /**
+     * A timer with its own thread
+     *
+     * @param name for the thread and logging
+     * @param tickMillis the duration of one bucket, the most a timeout can be late
+     * @param wheelSize the number of buckets, rounded up to a power of two
+     */
+    public HashedWheelTimer(String name, long tickMillis, int wheelSize) {
+        this(name, tickMillis, wheelSize, MONOTONIC_CLOCK, true);
+    }
+
+    /**
+     * A timer without a thread, moved forward by calling {@link #advance()}, for tests and simulations
+     */
+    public HashedWheelTimer(String name, long tickMillis, int wheelSize, Clock clock) {
+        this(name, tickMillis, wheelSize, clock, false);
+    }
+
+    private HashedWheelTimer(String name, long tickMillis, int wheelSize, Clock clock, boolean threaded) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tick of " + tickMillis + "ms");
+        }
+        if (wheelSize <= 0 || wheelSize > (1 << 30)) {
+            throw new IllegalArgumentException("wheel of " + wheelSize + " buckets");
+        }
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) {
+            size <<= 1;
+        }
+        this.name = name;
+        this.tickMillis = tickMillis;
+        this.clock = clock;
+        this.startTime = clock.millis();
+        this.heads = new Timeout[size];
+        this.tails = new Timeout[size];
+        this.mask = size - 1;
+        timers.add(this);
+        if (threaded) {
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "xop-timer-" + name);
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            thread = null;
+        }
+    }
+
+    /**
+     * @return the timer of XOP, ticking every xop.timer.tick milliseconds
+     */
+    public static synchronized HashedWheelTimer shared() {
+        if (shared == null) {
+            shared = new HashedWheelTimer("shared", XOP.TIMER.TICK, XOP.TIMER.WHEEL);
+        }
+        return shared;
+    }
+
+    /**
+     * @return the current time of the timer's clock in milliseconds
+     */
+    public long now() {
+        return clock.millis();
+    }
+
+    /**
+     * Runs the task on the timer thread after the delay
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        return schedule(task, delayMillis, null);
+    }
+
+    /**
+     * Hands the task to the executor after the delay
+     */
+    public Timeout schedule(Runnable task, long delayMillis, Executor executor) {
+        if (stopped) {
+            throw new IllegalStateException("timer " + name + " is stopped");
+        }
+        Timeout timeout = new Timeout(task, executor, clock.millis() - startTime + Math.max(0, delayMillis));
+        added.add(timeout);
+        pending.incrementAndGet();
+        scheduled.incrementAndGet();
+        return timeout;
+    }
+
+    /**
+     * Expires the timeouts of every tick that passed since the last call
+     *
+     * @return the number of tasks run
+     */
+    public synchronized int advance() {
+        long elapsed = clock.millis() - startTime;
+        int count = 0;
+        while ((tick + 1) * tickMillis <= elapsed) {
+            transferAdded();
+            removeCancelled();
+            count += expire((int) (tick & mask), elapsed);
+            tick++;
+        }
+        return count;
+    }
+
+    private void transferAdded() {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.state != PENDING) {
+                // cancelled before it got a bucket
+                pending.decrementAndGet();
+                cancelledCount++;
+                continue;
+            }
+            long due = Math.max(timeout.deadline / tickMillis, tick);
+            timeout.remainingRounds = (due - tick) / heads.length;
+            int bucket = (int) (due & mask);
+            timeout.bucket = bucket;
+            timeout.prev = tails[bucket];
+            if (tails[bucket] == null) {
+                heads[bucket] = timeout;
+            } else {
+                tails[bucket].next = timeout;
+            }
+            tails[bucket] = timeout;
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            // the ones still in the added queue are dropped there
+            if (timeout.bucket >= 0) {
+                unlink(timeout);
+                pending.decrementAndGet();
+                cancelledCount++;
+            }
+        }
+    }
+
+    private void unlink(Timeout timeout) {
+        int bucket = timeout.bucket;
+        if (timeout.prev == null) {
+            heads[bucket] = timeout.next;
+        } else {
+            timeout.prev.next = timeout.next;
+        }
+        if (timeout.next == null) {
+            tails[bucket] = timeout.prev;
+        } else {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+    }
+
+    private int expire(int bucket, long elapsed) {
+        int count = 0;
+        Timeout timeout = heads[bucket];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+            } else {
+                unlink(timeout);
+                if (STATE.compareAndSet(timeout, PENDING, EXPIRED)) {
+                    pending.decrementAndGet();
+                    expired++;
+                    maxLateMillis = Math.max(maxLateMillis, elapsed - timeout.deadline);
+                    run(timeout);
+                    count++;
+                } else {
+                    // cancelled since the last tick
+                    pending.decrementAndGet();
+                    cancelledCount++;
+                }
+            }
+            timeout = next;
+        }
+        return count;
+    }
+
+    private void run(Timeout timeout) {
+        try {
+            if (timeout.executor == null) {
+                timeout.task.run();
+            } else {
+                timeout.executor.execute(timeout.task);
+            }
+        } catch (Throwable t) {
+            logger.log(Level.SEVERE, "timer " + name + ": task " + timeout.task + " failed", t);
+        }
+    }
+
+    private void work() {
+        while (!stopped) {
+            long sleep;
+            synchronized (this) {
+                sleep = startTime + (tick + 1) * tickMillis - clock.millis();
+            }
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+            }
+            advance();
+        }
+        if (logger.isLoggable(Level.FINE))
+            logger.fine("stopped " + this);
+    }
+
+    /**
+     * Stops the timer, the pending timeouts never run
+     */
+    public void stop() {
+        stopped = true;
+        timers.remove(this);
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    public long getScheduled() {
+        return scheduled.get();
+    }
+
+    public synchronized long getExpired() {
+        return expired;
+    }
+
+    public synchronized long getCancelled() {
+        return cancelledCount;
+    }
+
+    /**
+     * @return the most milliseconds a task ran after its deadline
+     */
+    public synchronized long getMaxLateMillis() {
+        return maxLateMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("timer %s: tick=%dms buckets=%d pending=%d scheduled=%d expired=%d cancelled=%d late<=%dms",
+                name, tickMillis, heads.length, pending.get(), scheduled.get(), expired, cancelledCount,
+                maxLateMillis);
+    }
+
+    /**
+     * @return one line per running timer with its counters
+     */
+    public static String statistics() {
+        StringBuilder sb = new StringBuilder();
+        for (HashedWheelTimer timer : timers) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(timer);
+        }
+        return sb.toString();
+    }
+}
@@ -1,7 +1,11 @@
 package edu.drexel.xop.util;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import edu.drexel.xop.util.logger.LogUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
@@ -9,54 +13,199 @@ import java.util.zip.Inflater;
 /**
  * Utility class for compress and decompress byte arrays
  * Created by duc on 10/19/16.
+ *
+ * Each thread compresses with its own Deflater and Inflater, reset between messages instead of created for each one.
+ * Call {@link #release()} when a thread that compressed is done, to free the native zlib memory right away rather
+ * than on finalization.<br/>
+ * Small stanzas compress poorly on their own, so the compressed data can be primed with a preset dictionary of XMPP
+ * vocabulary, selected with {@link XOP.COMPRESSION#DICTIONARY}. Such data starts with a version byte naming the
+ * dictionary (see {@link #versionByte(int)}), followed by the zlib stream. Data without the version byte is a plain
+ * zlib stream as sent by older versions, and is still read.
  */
-
 public class MessageCompressionUtils {
+    private static final Logger logger = LogUtils.getLogger(MessageCompressionUtils.class.getName());
 
-    public static byte[] compressBytes(byte[] msg){
-        if( XOP.ENABLE.COMPRESSION ) {
-            Deflater compressor = new Deflater();
+    /** no preset dictionary, a plain zlib stream */
+    public static final int NO_DICTIONARY = 0;
 
-            compressor.setLevel(Deflater.BEST_SPEED);
-            compressor.setInput(msg);
-            compressor.finish();
+    // version 1 of the preset dictionary. Deflate finds matches closer to the end of the dictionary with shorter
+    // distance codes, so the most common strings come last. Never change a published version, add a new one.
+    private static final byte[] DICTIONARY_V1 = (
+            "urn:ietf:params:xml:ns:xmpp-stanzas urn:ietf:params:xml:ns:xmpp-streams "
+            + "http://jabber.org/protocol/disco#info http://jabber.org/protocol/disco#items "
+            + "<feature var=\"http://jabber.org/protocol/ <identity category=\"conference\" "
+            + "http://jabber.org/protocol/muc#user http://jabber.org/protocol/muc "
+            + "<item affiliation=\"member\" role=\"participant\" jid=\" <status code=\"110\"/> "
+            + "urn:xmpp:delay <delay xmlns=\"urn:xmpp:delay\" stamp=\"\" from=\" "
+            + "http://jabber.org/protocol/caps <c xmlns=\"http://jabber.org/protocol/caps\" hash=\"sha-1\" node=\" ver=\" "
+            + "urn:xmpp:receipts <request xmlns=\"urn:xmpp:receipts\"/> <received xmlns=\"urn:xmpp:receipts\" "
+            + "<x xmlns=\"jabber:x:event\"><composing/></x> jabber:x:data vcard-temp "
+            + "<show>away</show><show>chat</show><show>dnd</show><show>xa</show><priority>0</priority> "
+            + "<presence type=\"unavailable\" <presence from=\" <status></status> "
+            + "<iq type=\"result\" <iq type=\"get\" <iq type=\"set\" <query xmlns=\" "
+            + "<active xmlns=\"http://jabber.org/protocol/chatstates\"/> "
+            + "<composing xmlns=\"http://jabber.org/protocol/chatstates\"/> "
+            + "<paused xmlns=\"http://jabber.org/protocol/chatstates\"/> "
+            + "<x xmlns=\"http://jabber.org/protocol/muc#user\"> "
+            + "<message xmlns=\"jabber:client\" type=\"groupchat\" "
+            + "<message type=\"chat\" <subject></subject><thread></thread> "
+            + "</body></message> <body> xmlns=\"jabber:client\" id=\" to=\" from=\" type=\"").getBytes(StandardCharsets.UTF_8);
 
-            ByteArrayOutputStream bos = new ByteArrayOutputStream(msg.length);
+    private static final byte[][] DICTIONARIES = {null, DICTIONARY_V1};
 
-            byte[] buf = new byte[msg.length];
-            while (!compressor.finished()) {
-                int count = compressor.deflate(buf);
-                bos.write(buf, 0, count);
-            }
-            try {
-                bos.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            byte[] compressedData = bos.toByteArray();
-            return compressedData;
+    private static final int MAX_IDLE_BUFFER = 64 * 1024;
+
+    private static final ThreadLocal<Codec> codecs = new ThreadLocal<>();
+
+    /**
+     * The Deflater and Inflater of one thread, with a scratch buffer for the output
+     */
+    private static class Codec {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        final Inflater inflater = new Inflater();
+        byte[] buffer = new byte[4096];
+
+        void end() {
+            deflater.end();
+            inflater.end();
+        }
+    }
+
+    private static Codec codec() {
+        Codec codec = codecs.get();
+        if (codec == null) {
+            codec = new Codec();
+            codecs.set(codec);
+        }
+        return codec;
+    }
+
+    /**
+     * Frees the native memory of the calling thread's Deflater and Inflater. Compressing again on the thread creates
+     * new ones.
+     */
+    public static void release() {
+        Codec codec = codecs.get();
+        if (codec != null) {
+            codecs.remove();
+            codec.end();
+        }
+    }
+
+    /**
+     * The byte in front of a zlib stream compressed with the given dictionary version. It is never 0x00 (an
+     * aggregated datagram), 0x01 (a fragment), '&lt;' (a stanza), or a zlib header byte, whose low four bits are 8.
+     */
+    static byte versionByte(int dictionaryVersion) {
+        return (byte) (0xC0 | dictionaryVersion);
+    }
+
+    /**
+     * @param msg the data to compress
+     * @return the compressed data if {@link XOP.ENABLE#COMPRESSION} is enabled, msg otherwise
+     */
+    public static byte[] compressBytes(byte[] msg){
+        if( XOP.ENABLE.COMPRESSION ) {
+            return compress(msg, XOP.COMPRESSION.DICTIONARY);
         }
         return msg;
     }
 
+    /**
+     * @param compressedData the data to decompress
+     * @return the decompressed data if {@link XOP.ENABLE#COMPRESSION} is enabled, compressedData otherwise
+     */
     public static byte[] decompressBytes(byte[] compressedData){
         if( XOP.ENABLE.COMPRESSION ) {
-            Inflater decompressor = new Inflater();
-            decompressor.setInput(compressedData);
-            ByteArrayOutputStream bos = new ByteArrayOutputStream(compressedData.length);
-            byte[] buf = new byte[compressedData.length * 100];
-            try {
-                while (!decompressor.finished()) {
-                    int count = decompressor.inflate(buf);
-                    bos.write(buf, 0, count);
+            return decompress(compressedData);
+        }
+        return compressedData;
+    }
+
+    /**
+     * @param msg the data to compress
+     * @param dictionaryVersion the preset dictionary to use, or {@link #NO_DICTIONARY}
+     * @return the compressed data
+     */
+    public static byte[] compress(byte[] msg, int dictionaryVersion) {
+        if (dictionaryVersion < 0 || dictionaryVersion >= DICTIONARIES.length) {
+            throw new IllegalArgumentException("unknown compression dictionary version " + dictionaryVersion);
+        }
+        Codec codec = codec();
+        Deflater deflater = codec.deflater;
+        deflater.reset();
+        int length = 0;
+        byte[] buffer = codec.buffer;
+        if (dictionaryVersion != NO_DICTIONARY) {
+            deflater.setDictionary(DICTIONARIES[dictionaryVersion]);
+            buffer[length++] = versionByte(dictionaryVersion);
+        }
+        deflater.setInput(msg);
+        deflater.finish();
+        while (!deflater.finished()) {
+            if (length == buffer.length) {
+                buffer = codec.buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        return result(codec, buffer, length);
+    }
+
+    /**
+     * @param compressedData data from {@link #compress(byte[], int)} with any dictionary version, or a plain zlib
+     *                       stream
+     * @return the decompressed data, as much as could be decompressed if compressedData is corrupt
+     */
+    public static byte[] decompress(byte[] compressedData) {
+        Codec codec = codec();
+        Inflater inflater = codec.inflater;
+        inflater.reset();
+        int offset = 0;
+        byte[] dictionary = null;
+        if (compressedData.length > 0 && (compressedData[0] & 0xF0) == 0xC0) {
+            int version = compressedData[0] & 0x0F;
+            if (version >= DICTIONARIES.length || DICTIONARIES[version] == null) {
+                logger.warning("Unable to decompress, unknown compression dictionary version " + version);
+                return new byte[0];
+            }
+            dictionary = DICTIONARIES[version];
+            offset = 1;
+        }
+        inflater.setInput(compressedData, offset, compressedData.length - offset);
+        byte[] buffer = codec.buffer;
+        int length = 0;
+        try {
+            while (!inflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = codec.buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                int count = inflater.inflate(buffer, length, buffer.length - length);
+                length += count;
+                if (count == 0) {
+                    if (inflater.needsDictionary() && dictionary != null) {
+                        inflater.setDictionary(dictionary);
+                        dictionary = null;
+                    } else if (inflater.needsInput() || inflater.needsDictionary()) {
+                        logger.warning("Unable to decompress, truncated data or missing dictionary");
+                        break;
+                    }
                 }
-                bos.close();
-            } catch (DataFormatException | IOException e) {
-                e.printStackTrace();
             }
-            byte[] decompressedData = bos.toByteArray();
-            return decompressedData;
+        } catch (DataFormatException | IllegalArgumentException e) {
+            // IllegalArgumentException: the stream was compressed with a different dictionary
+            if (logger.isLoggable(Level.FINE))
+                logger.log(Level.FINE, "Unable to decompress", e);
+            logger.warning("Unable to decompress: " + e.getMessage());
         }
-        return compressedData;
+        return result(codec, buffer, length);
+    }
+
+    private static byte[] result(Codec codec, byte[] buffer, int length) {
+        byte[] result = Arrays.copyOf(buffer, length);
+        if (buffer.length > MAX_IDLE_BUFFER) {
+            // don't keep the buffer of an unusually large message for the life of the thread
+            codec.buffer = new byte[MAX_IDLE_BUFFER];
+        }
+        return result;
     }
 }
@@ -0,0 +1,192 @@
+package edu.drexel.xop.util;
+
+import edu.drexel.xop.util.logger.LogUtils;
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Parses single XMPP stanzas into packets.<br/>
+ * Each thread parses with its own SAXReader, created once from a shared, pre-configured SAXParserFactory, so
+ * the transports and rooms receiving stanzas parse in parallel instead of queuing on one lock and building a new
+ * reader for every stanza. A nested call on a thread whose reader is busy gets a temporary reader.<br/>
+ * The byte[] and ByteBuffer variants let the receive paths hand over the UTF-8 payload without decoding it to a
+ * String first.
+ */
+public final class StanzaParser {
+    private static final Logger logger = LogUtils.getLogger(StanzaParser.class.getName());
+
+    private static final SAXParserFactory factory = createFactory();
+
+    private static final ThreadLocal<PooledReader> readers = new ThreadLocal<PooledReader>() {
+        @Override
+        protected PooledReader initialValue() {
+            return new PooledReader();
+        }
+    };
+
+    private StanzaParser() {
+    }
+
+    private static SAXParserFactory createFactory() {
+        SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+        saxParserFactory.setNamespaceAware(true);
+        saxParserFactory.setValidating(false);
+        // XMPP forbids DTDs, don't let a stanza make the parser fetch or expand one
+        setFeature(saxParserFactory, "http://apache.org/xml/features/disallow-doctype-decl", true);
+        setFeature(saxParserFactory, "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        setFeature(saxParserFactory, "http://xml.org/sax/features/external-general-entities", false);
+        setFeature(saxParserFactory, "http://xml.org/sax/features/external-parameter-entities", false);
+        return saxParserFactory;
+    }
+
+    private static void setFeature(SAXParserFactory saxParserFactory, String feature, boolean value) {
+        try {
+            saxParserFactory.setFeature(feature, value);
+        } catch (ParserConfigurationException | SAXException e) {
+            // not every platform parser (e.g. on Android) knows every feature
+            if (logger.isLoggable(Level.FINE))
+                logger.fine("SAX feature " + feature + " not supported: " + e.getMessage());
+        }
+    }
+
+    private static SAXReader newReader() throws DocumentException {
+        try {
+            XMLReader xmlReader = factory.newSAXParser().getXMLReader();
+            return new SAXReader(xmlReader);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new DocumentException("Unable to create a SAX parser: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param s a message, presence or iq stanza (not a close stream)
+     * @return a message, presence, or iq packet
+     * @throws DocumentException if s is not well formed or not a stanza
+     */
+    public static Packet parse(String s) throws DocumentException {
+        return toPacket(read(new InputSource(new StringReader(s))), s);
+    }
+
+    /**
+     * @param bytes the UTF-8 encoded stanza
+     * @param offset start of the stanza in bytes
+     * @param length length of the stanza
+     * @return a message, presence, or iq packet
+     * @throws DocumentException if the bytes are not a well formed stanza
+     */
+    public static Packet parse(byte[] bytes, int offset, int length) throws DocumentException {
+        return toPacket(read(utf8Source(new ByteArrayInputStream(bytes, offset, length))), null);
+    }
+
+    public static Packet parse(byte[] bytes) throws DocumentException {
+        return parse(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Parses the remaining bytes of the buffer, its position is advanced to the limit.
+     * @param buffer the UTF-8 encoded stanza
+     * @return a message, presence, or iq packet
+     * @throws DocumentException if the bytes are not a well formed stanza
+     */
+    public static Packet parse(ByteBuffer buffer) throws DocumentException {
+        if (buffer.hasArray()) {
+            int offset = buffer.arrayOffset() + buffer.position();
+            int length = buffer.remaining();
+            buffer.position(buffer.limit());
+            return parse(buffer.array(), offset, length);
+        }
+        return toPacket(read(utf8Source(new ByteBufferInputStream(buffer))), null);
+    }
+
+    private static InputSource utf8Source(InputStream in) {
+        InputSource inputSource = new InputSource(in);
+        inputSource.setEncoding("UTF-8");
+        return inputSource;
+    }
+
+    private static Document read(InputSource inputSource) throws DocumentException {
+        PooledReader pooled = readers.get();
+        if (pooled.busy) {
+            return newReader().read(inputSource);
+        }
+        pooled.busy = true;
+        try {
+            if (pooled.reader == null) {
+                pooled.reader = newReader();
+            }
+            return pooled.reader.read(inputSource);
+        } finally {
+            pooled.busy = false;
+        }
+    }
+
+    private static Packet toPacket(Document document, String s) throws DocumentException {
+        if (logger.isLoggable(Level.FINEST))
+            logger.finest("document.toString(): " + document.toString());
+        // Construct our packet
+        Element root = document.getRootElement();
+        String pType = root.getName();
+        if (pType.equalsIgnoreCase("message")) {
+            // detach rather than copy the whole element out of the document
+            root.detach();
+            return new Message(root, true);
+        } else if (pType.equalsIgnoreCase("iq")) {
+            return new IQ(root, true);
+        } else if (pType.equalsIgnoreCase("presence")) {
+            return new Presence(root, true);
+        } else {
+            throw new DocumentException("Error parsing packet.  Invalid type: " + (s != null ? s : root.asXML()));
+        }
+    }
+
+    private static class PooledReader {
+        SAXReader reader;
+        boolean busy;
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
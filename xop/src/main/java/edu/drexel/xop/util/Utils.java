@@ -2,11 +2,9 @@ package edu.drexel.xop.util;
 
 import edu.drexel.xop.util.logger.LogUtils;
 import org.dom4j.*;
-import org.dom4j.io.SAXReader;
 import org.dom4j.tree.DefaultElement;
 import org.xmpp.packet.*;
 
-import java.io.StringReader;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
@@ -44,31 +42,31 @@ public class Utils {
 
     /**
      * Parses stanzas. This function assumes that you will never receive more
-     * than one top level tag at a time.
+     * than one top level tag at a time. Safe to call from many threads at once, see {@link StanzaParser}.
      *
      * @param s (not a close stream)
      * @return a message, presence, or iq packet
      * @throws DocumentException
      */
-    public static synchronized Packet packetFromString(String s) throws DocumentException {
-        SAXReader saxReader = new SAXReader();
-        StringReader sr = new StringReader(s);
-        Document document = saxReader.read(sr);
-        sr.close();
-        if (logger.isLoggable(Level.FINEST))
-            logger.finest("document.toString(): " + document.toString());
-        // Construct our packet
-        String pType = document.getRootElement().getName();
-        if (pType.equalsIgnoreCase("message")) {
-            Message msg = new Message(document.getRootElement(), true);
-            return msg.createCopy();
-        } else if (pType.equalsIgnoreCase("iq")) {
-            return new IQ(document.getRootElement(), true);
-        } else if (pType.equalsIgnoreCase("presence")) {
-            return new Presence(document.getRootElement(), true);
-        } else {
-            throw new DocumentException("Error parsing packet.  Invalid type: " + s);
-        }
+    public static Packet packetFromString(String s) throws DocumentException {
+        return StanzaParser.parse(s);
+    }
+
+    /**
+     * Parses a UTF-8 encoded stanza without decoding it to a String first.
+     *
+     * @param bytes the buffer holding the stanza
+     * @param offset start of the stanza
+     * @param length length of the stanza
+     * @return a message, presence, or iq packet
+     * @throws DocumentException
+     */
+    public static Packet packetFromBytes(byte[] bytes, int offset, int length) throws DocumentException {
+        return StanzaParser.parse(bytes, offset, length);
+    }
+
+    public static Packet packetFromBytes(byte[] bytes) throws DocumentException {
+        return StanzaParser.parse(bytes);
     }
 
     /**
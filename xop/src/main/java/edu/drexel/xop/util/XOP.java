@@ -17,6 +17,8 @@ public interface XOP {
         String KEYSTORE = XopProperties.getProperty(XOPKEYS.SSL.KEYSTORE);
         String TRUSTSTORE = XopProperties.getProperty(XOPKEYS.SSL.TRUSTSTORE);
         String PASSWORD = XopProperties.getProperty(XOPKEYS.SSL.PASSWORD);
+        int SESSION_CACHE_SIZE = XopProperties.getIntProperty(XOPKEYS.SSL.SESSION_CACHE_SIZE);
+        int SESSION_TIMEOUT = XopProperties.getIntProperty(XOPKEYS.SSL.SESSION_TIMEOUT);
     }
 
     interface ENABLE {
@@ -29,11 +31,33 @@ public interface XOP {
         boolean DELAY = XopProperties.getBooleanProperty(XOPKEYS.ENABLE.DELAY);
     }
 
+    interface COMPRESSION {
+        int DICTIONARY = XopProperties.getIntProperty(XOPKEYS.COMPRESSION.DICTIONARY);
+    }
+
      interface STREAM {
         int PORT = XopProperties.getIntProperty(XOPKEYS.STREAM.PORT);
         String JID = XopProperties.getProperty(XOPKEYS.STREAM.JID);
     }
 
+    interface TIMER {
+        long TICK = XopProperties.getLongProperty(XOPKEYS.TIMER.TICK);
+        int WHEEL = XopProperties.getIntProperty(XOPKEYS.TIMER.WHEEL);
+    }
+
+    interface STATISTICS {
+        long INTERVAL = XopProperties.getLongProperty(XOPKEYS.STATISTICS.INTERVAL);
+    }
+
+    interface CLIENT {
+        String ENGINE = XopProperties.getProperty(XOPKEYS.CLIENT.ENGINE);
+        int IO_THREADS = XopProperties.getIntProperty(XOPKEYS.CLIENT.IO_THREADS);
+        int OUTBOUND_QUEUE_SIZE = XopProperties.getIntProperty(XOPKEYS.CLIENT.OUTBOUND_QUEUE_SIZE);
+        int OUTBOUND_BATCH_BYTES = XopProperties.getIntProperty(XOPKEYS.CLIENT.OUTBOUND_BATCH_BYTES);
+        String OUTBOUND_OVERFLOW = XopProperties.getProperty(XOPKEYS.CLIENT.OUTBOUND_OVERFLOW);
+        int OUTBOUND_BLOCK_TIMEOUT = XopProperties.getIntProperty(XOPKEYS.CLIENT.OUTBOUND_BLOCK_TIMEOUT);
+    }
+
     interface TLS {
         boolean AUTH = XopProperties.getBooleanProperty(XOPKEYS.TLS.AUTH);
     }
@@ -68,6 +92,7 @@ public interface XOP {
         String RECV_INTERFACE = XopProperties.getProperty(XOPKEYS.TRANSPORT.RECV_INTERFACE);
         String SEND_INTERFACE = XopProperties.getProperty(XOPKEYS.TRANSPORT.SEND_INTERFACE);
         int TTL = XopProperties.getIntProperty(XOPKEYS.TRANSPORT.TTL);
+        boolean RECIPIENT_FILTER = XopProperties.getBooleanProperty(XOPKEYS.TRANSPORT.RECIPIENT_FILTER);
 
         interface TE {
             int PORT = XopProperties.getIntProperty(XOPKEYS.TRANSPORT.TE.PORT);
@@ -110,6 +135,19 @@ public interface XOP {
             }
         }
 
+        // simple multicast transport properties
+        interface SIMPLE {
+            int RCVBUF = XopProperties.getIntProperty(XOPKEYS.TRANSPORT.SIMPLE.RCVBUF);
+            int MAXDATAGRAM = XopProperties.getIntProperty(XOPKEYS.TRANSPORT.SIMPLE.MAXDATAGRAM);
+            int BUFFERS = XopProperties.getIntProperty(XOPKEYS.TRANSPORT.SIMPLE.BUFFERS);
+            int AGGREGATE_WINDOW = XopProperties.getIntProperty(XOPKEYS.TRANSPORT.SIMPLE.AGGREGATE_WINDOW);
+            int AGGREGATE_BYTES = XopProperties.getIntProperty(XOPKEYS.TRANSPORT.SIMPLE.AGGREGATE_BYTES);
+            int MTU = XopProperties.getIntProperty(XOPKEYS.TRANSPORT.SIMPLE.MTU);
+            int REASSEMBLY_TIMEOUT = XopProperties.getIntProperty(XOPKEYS.TRANSPORT.SIMPLE.REASSEMBLY_TIMEOUT);
+            int REASSEMBLY_BYTES = XopProperties.getIntProperty(XOPKEYS.TRANSPORT.SIMPLE.REASSEMBLY_BYTES);
+            String CODEC = XopProperties.getProperty(XOPKEYS.TRANSPORT.SIMPLE.CODEC);
+        }
+
         // NORM properties
         interface NORM {
             long RCVBUFFERSPACE = XopProperties.getLongProperty(XOPKEYS.TRANSPORT.NORM.RCVBUFFERSPACE);
@@ -119,9 +157,22 @@ public interface XOP {
             short NUMPARITY = XopProperties.getShortProperty(XOPKEYS.TRANSPORT.NORM.NUMPARITY);
 
             int GRTT_MULTIPLIER = XopProperties.getIntProperty(XOPKEYS.TRANSPORT.NORM.GRTT_MULTIPLIER);
+            String CODEC = XopProperties.getProperty(XOPKEYS.TRANSPORT.NORM.CODEC);
+            long DUPLICATE_WINDOW = XopProperties.getLongProperty(XOPKEYS.TRANSPORT.NORM.DUPLICATE_WINDOW);
+            int DUPLICATE_ENTRIES = XopProperties.getIntProperty(XOPKEYS.TRANSPORT.NORM.DUPLICATE_ENTRIES);
+            int WORKERS = XopProperties.getIntProperty(XOPKEYS.TRANSPORT.NORM.WORKERS);
+            int WORKER_QUEUE = XopProperties.getIntProperty(XOPKEYS.TRANSPORT.NORM.WORKER_QUEUE);
+            long ARENA_BYTES = XopProperties.getLongProperty(XOPKEYS.TRANSPORT.NORM.ARENA_BYTES);
+            String METADATA = XopProperties.getProperty(XOPKEYS.TRANSPORT.NORM.METADATA);
+            int SEND_QUEUE = XopProperties.getIntProperty(XOPKEYS.TRANSPORT.NORM.SEND_QUEUE);
+            String SEND_POLICY = XopProperties.getProperty(XOPKEYS.TRANSPORT.NORM.SEND_POLICY);
+            long SEND_BLOCK = XopProperties.getLongProperty(XOPKEYS.TRANSPORT.NORM.SEND_BLOCK);
+            String ROOMS = XopProperties.getProperty(XOPKEYS.TRANSPORT.NORM.ROOMS);
+            boolean ROOMS_FILTER = XopProperties.getBooleanProperty(XOPKEYS.TRANSPORT.NORM.ROOMS_FILTER);
 
             interface SD {
                 long INTERVAL = XopProperties.getLongProperty(XOPKEYS.TRANSPORT.NORM.SD.INTERVAL);
+                long MAX_INTERVAL = XopProperties.getLongProperty(XOPKEYS.TRANSPORT.NORM.SD.MAX_INTERVAL);
                 int TIMEOUT = XopProperties.getIntProperty(XOPKEYS.TRANSPORT.NORM.SD.TIMEOUT);
             }
         }
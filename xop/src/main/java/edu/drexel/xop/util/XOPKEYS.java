@@ -26,11 +26,33 @@ public interface XOPKEYS {
         String DELAY = "xop.enable.delay";
     }
 
+    interface COMPRESSION {
+        String DICTIONARY = "xop.compression.dictionary";
+    }
+
     // interface ONETOONE {
     //     String LISTENPORT = "xop.onetoone.port";
     //     String ADDRESS = "xop.onetoone.address";
     // }
 
+    interface TIMER {
+        String TICK = "xop.timer.tick";
+        String WHEEL = "xop.timer.wheel";
+    }
+
+    interface STATISTICS {
+        String INTERVAL = "xop.statistics.interval";
+    }
+
+    interface CLIENT {
+        String ENGINE = "xop.client.engine";
+        String IO_THREADS = "xop.client.io.threads";
+        String OUTBOUND_QUEUE_SIZE = "xop.client.outbound.queuesize";
+        String OUTBOUND_BATCH_BYTES = "xop.client.outbound.batchbytes";
+        String OUTBOUND_OVERFLOW = "xop.client.outbound.overflow";
+        String OUTBOUND_BLOCK_TIMEOUT = "xop.client.outbound.blocktimeout";
+    }
+
     interface TLS {
         String AUTH = "xop.tls.auth";
     }
@@ -39,6 +61,8 @@ public interface XOPKEYS {
         String KEYSTORE = "xop.ssl.keystore";
         String TRUSTSTORE = "xop.ssl.truststore";
         String PASSWORD = "xop.ssl.password";
+        String SESSION_CACHE_SIZE = "xop.ssl.session.cachesize";
+        String SESSION_TIMEOUT = "xop.ssl.session.timeout";
     }
 
     interface SDS {
@@ -77,6 +101,7 @@ public interface XOPKEYS {
         String SEND_INTERFACE = "xop.transport.send.interface";
         String RECV_INTERFACE = "xop.transport.recv.interface";
         String TTL = "xop.transport.ttl";
+        String RECIPIENT_FILTER = "xop.transport.recipientfilter";
         interface TE {
             String ADDRESS = "xop.transport.te.address";
             String GROUPRANGE = "xop.transport.grouprange";
@@ -108,6 +133,18 @@ public interface XOPKEYS {
             }
         }
 
+        interface SIMPLE {
+            String RCVBUF = "xop.transport.simple.rcvbuf";
+            String MAXDATAGRAM = "xop.transport.simple.maxdatagram";
+            String BUFFERS = "xop.transport.simple.buffers";
+            String AGGREGATE_WINDOW = "xop.transport.simple.aggregate.window";
+            String AGGREGATE_BYTES = "xop.transport.simple.aggregate.bytes";
+            String MTU = "xop.transport.simple.mtu";
+            String REASSEMBLY_TIMEOUT = "xop.transport.simple.reassembly.timeout";
+            String REASSEMBLY_BYTES = "xop.transport.simple.reassembly.bytes";
+            String CODEC = "xop.transport.simple.codec";
+        }
+
         interface NORM {
             String RCVBUFFERSPACE = "xop.transport.norm.rcvbufferspace";
             String SENDBUFFERSPACE = "xop.transport.norm.sendbufferspace";
@@ -115,9 +152,22 @@ public interface XOPKEYS {
             String BLOCKSIZE = "xop.transport.norm.blocksize";
             String NUMPARITY = "xop.transport.norm.numparity";
             String GRTT_MULTIPLIER = "xop.transport.norm.grttmultiplier";
+            String CODEC = "xop.transport.norm.codec";
+            String DUPLICATE_WINDOW = "xop.transport.norm.duplicate.window";
+            String DUPLICATE_ENTRIES = "xop.transport.norm.duplicate.entries";
+            String WORKERS = "xop.transport.norm.workers";
+            String WORKER_QUEUE = "xop.transport.norm.worker.queue";
+            String ARENA_BYTES = "xop.transport.norm.arena.bytes";
+            String METADATA = "xop.transport.norm.metadata";
+            String SEND_QUEUE = "xop.transport.norm.send.queue";
+            String SEND_POLICY = "xop.transport.norm.send.policy";
+            String SEND_BLOCK = "xop.transport.norm.send.block";
+            String ROOMS = "xop.transport.norm.rooms";
+            String ROOMS_FILTER = "xop.transport.norm.rooms.filter";
 
             interface SD {
                 String INTERVAL = "xop.transport.norm.sd.interval";
+                String MAX_INTERVAL = "xop.transport.norm.sd.interval.max";
                 String TIMEOUT = "xop.transport.norm.sd.timeout";
             }
         }
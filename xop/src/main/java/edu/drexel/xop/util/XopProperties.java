@@ -127,6 +127,8 @@ public class XopProperties {
 
         props.setProperty(XOPKEYS.ENABLE.COMPRESSION, "false");
         comments.put(XOPKEYS.ENABLE.COMPRESSION, "Enable/disable compressing messages before sending to the Transport system. Default: false (disabled)");
+        props.setProperty(XOPKEYS.COMPRESSION.DICTIONARY, "0");
+        comments.put(XOPKEYS.COMPRESSION.DICTIONARY, "Version of the XMPP preset dictionary to compress with, 0 for none. Every node reads all versions, only enable a version once all nodes know it. Default: 0");
 
         props.setProperty(XOPKEYS.ENABLE.STREAM, "false");
         comments.put(XOPKEYS.ENABLE.STREAM, "Set to true to enable bytestreams, false to disable");
@@ -144,6 +146,26 @@ public class XopProperties {
         // props.setProperty(XOPKEYS.ONETOONE.LISTENPORT, "6667");
         // comments.put(XOPKEYS.ONETOONE.LISTENPORT, "The port that XOP will listen on when Transport engine is not enabled");
 
+        props.setProperty(XOPKEYS.TIMER.TICK, "50");
+        comments.put(XOPKEYS.TIMER.TICK, "Milliseconds per tick of the shared timer of liveness checks and pings, the most a timeout can be late. default: 50");
+        props.setProperty(XOPKEYS.TIMER.WHEEL, "512");
+        comments.put(XOPKEYS.TIMER.WHEEL, "Number of buckets of the shared timer, timeouts further than this many ticks away wait for more turns of the wheel. default: 512");
+        props.setProperty(XOPKEYS.STATISTICS.INTERVAL, "0");
+        comments.put(XOPKEYS.STATISTICS.INTERVAL, "Seconds between logging the counters of the client queues, transports and timers, 0 logs them only at shutdown. default: 0");
+
+        props.setProperty(XOPKEYS.CLIENT.ENGINE, "thread");
+        comments.put(XOPKEYS.CLIENT.ENGINE, "Engine serving XMPP client connections: [thread, nio]. 'thread' uses one thread per client, 'nio' multiplexes clients over a few selector threads");
+        props.setProperty(XOPKEYS.CLIENT.IO_THREADS, "2");
+        comments.put(XOPKEYS.CLIENT.IO_THREADS, "Number of selector threads serving client connections when xop.client.engine=nio. default: 2");
+        props.setProperty(XOPKEYS.CLIENT.OUTBOUND_QUEUE_SIZE, "1000");
+        comments.put(XOPKEYS.CLIENT.OUTBOUND_QUEUE_SIZE, "Maximum number of stanzas queued for writing to one client. default: 1000");
+        props.setProperty(XOPKEYS.CLIENT.OUTBOUND_BATCH_BYTES, "16384");
+        comments.put(XOPKEYS.CLIENT.OUTBOUND_BATCH_BYTES, "Queued stanzas are coalesced into writes of up to this many bytes. default: 16384");
+        props.setProperty(XOPKEYS.CLIENT.OUTBOUND_OVERFLOW, "drop");
+        comments.put(XOPKEYS.CLIENT.OUTBOUND_OVERFLOW, "What to do when the queue of a slow client is full: [drop, disconnect, block]. default: drop");
+        props.setProperty(XOPKEYS.CLIENT.OUTBOUND_BLOCK_TIMEOUT, "1000");
+        comments.put(XOPKEYS.CLIENT.OUTBOUND_BLOCK_TIMEOUT, "Milliseconds to wait for room in a full client queue when xop.client.outbound.overflow=block. default: 1000");
+
         props.setProperty(XOPKEYS.TLS.AUTH, "false");
         comments.put(XOPKEYS.TLS.AUTH, "set to true if clients must connect via tls, false otherwise");
 
@@ -159,6 +181,10 @@ public class XopProperties {
         comments.put(XOPKEYS.SSL.TRUSTSTORE, "Where the truststore for server-to-server connections is located");
         props.setProperty(XOPKEYS.SSL.PASSWORD, "xopstore");
         comments.put(XOPKEYS.SSL.PASSWORD, "The password for the keystore and truststore");
+        props.setProperty(XOPKEYS.SSL.SESSION_CACHE_SIZE, "1000");
+        comments.put(XOPKEYS.SSL.SESSION_CACHE_SIZE, "Number of TLS sessions kept for resumption by reconnecting clients and gateways, 0 for no limit. default: 1000");
+        props.setProperty(XOPKEYS.SSL.SESSION_TIMEOUT, "86400");
+        comments.put(XOPKEYS.SSL.SESSION_TIMEOUT, "Seconds a cached TLS session can be resumed, 0 for no limit. default: 86400");
 
         /* ---- SDS Presence Transport ---- */
 
@@ -212,6 +238,9 @@ public class XopProperties {
         props.setProperty(XOPKEYS.TRANSPORT.RECV_INTERFACE, "ANY");
         comments.put(XOPKEYS.TRANSPORT.RECV_INTERFACE, "Bound interface to RECEIVE transport messages or 'ANY' for all interfaces");
 
+        props.setProperty(XOPKEYS.TRANSPORT.RECIPIENT_FILTER, "true");
+        comments.put(XOPKEYS.TRANSPORT.RECIPIENT_FILTER, "Drop one-to-one messages for clients of other nodes by the destination key sent ahead of them, before they are decompressed and parsed. default: true");
+
         props.setProperty(XOPKEYS.TRANSPORT.ADDRESS, "225.0.87.4");
         comments.put(XOPKEYS.TRANSPORT.ADDRESS, "default multicast group for transport");
         props.setProperty(XOPKEYS.TRANSPORT.PORTRANGE, "10001-10001");
@@ -221,6 +250,24 @@ public class XopProperties {
         // 256*256 send and receive buffer space in bytes
         props.setProperty(XOPKEYS.TRANSPORT.NORM.SENDBUFFERSPACE, "65536");
         comments.put(XOPKEYS.TRANSPORT.NORM.SENDBUFFERSPACE, "Bufferspace for sender threads. default: 256*256=65536");
+        props.setProperty(XOPKEYS.TRANSPORT.SIMPLE.RCVBUF, "1048576");
+        comments.put(XOPKEYS.TRANSPORT.SIMPLE.RCVBUF, "Socket receive buffer (SO_RCVBUF) in bytes for each simple transport group. default: 1048576");
+        props.setProperty(XOPKEYS.TRANSPORT.SIMPLE.MAXDATAGRAM, "65507");
+        comments.put(XOPKEYS.TRANSPORT.SIMPLE.MAXDATAGRAM, "Largest datagram in bytes the simple transport receives, larger ones are dropped. default: 65507");
+        props.setProperty(XOPKEYS.TRANSPORT.SIMPLE.BUFFERS, "64");
+        comments.put(XOPKEYS.TRANSPORT.SIMPLE.BUFFERS, "Received datagrams each simple transport group holds while they wait to be processed, more are dropped. default: 64");
+        props.setProperty(XOPKEYS.TRANSPORT.SIMPLE.AGGREGATE_WINDOW, "0");
+        comments.put(XOPKEYS.TRANSPORT.SIMPLE.AGGREGATE_WINDOW, "Milliseconds a stanza waits for others to share its simple transport datagram, 0 sends one stanza per datagram. All nodes must understand aggregated datagrams before it is enabled. default: 0");
+        props.setProperty(XOPKEYS.TRANSPORT.SIMPLE.AGGREGATE_BYTES, "1400");
+        comments.put(XOPKEYS.TRANSPORT.SIMPLE.AGGREGATE_BYTES, "Largest aggregated simple transport datagram in bytes before compression, e.g. the path MTU less the IP and UDP headers. default: 1400");
+        props.setProperty(XOPKEYS.TRANSPORT.SIMPLE.MTU, "1400");
+        comments.put(XOPKEYS.TRANSPORT.SIMPLE.MTU, "Larger simple transport datagrams are sent in fragments of at most this many bytes. default: 1400");
+        props.setProperty(XOPKEYS.TRANSPORT.SIMPLE.REASSEMBLY_TIMEOUT, "5000");
+        comments.put(XOPKEYS.TRANSPORT.SIMPLE.REASSEMBLY_TIMEOUT, "Milliseconds to wait for the missing fragments of a simple transport datagram. default: 5000");
+        props.setProperty(XOPKEYS.TRANSPORT.SIMPLE.REASSEMBLY_BYTES, "4194304");
+        comments.put(XOPKEYS.TRANSPORT.SIMPLE.REASSEMBLY_BYTES, "Most bytes of fragments each simple transport group holds for incomplete datagrams. default: 4194304");
+        props.setProperty(XOPKEYS.TRANSPORT.SIMPLE.CODEC, "xml");
+        comments.put(XOPKEYS.TRANSPORT.SIMPLE.CODEC, "Encoding of the stanzas the simple transport sends: [xml, binary]. Stanzas in either encoding are always received. default: xml");
         props.setProperty(XOPKEYS.TRANSPORT.NORM.RCVBUFFERSPACE, "65536");
         comments.put(XOPKEYS.TRANSPORT.NORM.RCVBUFFERSPACE, "Bufferspace for receiver threads. default: 65536");
         props.setProperty(XOPKEYS.TRANSPORT.NORM.SEGMENTSIZE, "1400");
@@ -229,11 +276,37 @@ public class XopProperties {
         comments.put(XOPKEYS.TRANSPORT.NORM.BLOCKSIZE, "Size NORM blocks in bytes. default: 64");
         props.setProperty(XOPKEYS.TRANSPORT.NORM.NUMPARITY, "15");
         comments.put(XOPKEYS.TRANSPORT.NORM.NUMPARITY, "Parity bits. default: 16");
+        props.setProperty(XOPKEYS.TRANSPORT.NORM.CODEC, "xml");
+        comments.put(XOPKEYS.TRANSPORT.NORM.CODEC, "Encoding of the messages the NORM transport sends: [xml, binary]. Messages in either encoding are always received, presences are always sent as xml. default: xml");
+        props.setProperty(XOPKEYS.TRANSPORT.NORM.DUPLICATE_WINDOW, "60000");
+        comments.put(XOPKEYS.TRANSPORT.NORM.DUPLICATE_WINDOW, "Milliseconds a received NORM payload is remembered to drop the copies redirected by nodes with several interfaces. default: 60000");
+        props.setProperty(XOPKEYS.TRANSPORT.NORM.DUPLICATE_ENTRIES, "65536");
+        comments.put(XOPKEYS.TRANSPORT.NORM.DUPLICATE_ENTRIES, "Most NORM payloads each transport remembers to drop redirected copies, older ones are forgotten first. default: 65536");
+        props.setProperty(XOPKEYS.TRANSPORT.NORM.WORKERS, "4");
+        comments.put(XOPKEYS.TRANSPORT.NORM.WORKERS, "Threads processing the data received by the NORM transports, each transport is processed by one of them. default: 4");
+        props.setProperty(XOPKEYS.TRANSPORT.NORM.WORKER_QUEUE, "1024");
+        comments.put(XOPKEYS.TRANSPORT.NORM.WORKER_QUEUE, "NORM events each worker holds while they wait to be processed, more are dropped. default: 1024");
+        props.setProperty(XOPKEYS.TRANSPORT.NORM.ARENA_BYTES, "4194304");
+        comments.put(XOPKEYS.TRANSPORT.NORM.ARENA_BYTES, "Bytes of direct buffers kept for reuse once NORM has purged the messages sent from them. default: 4194304");
+        props.setProperty(XOPKEYS.TRANSPORT.NORM.METADATA, "binary");
+        comments.put(XOPKEYS.TRANSPORT.NORM.METADATA, "Encoding of the metadata sent with every NORM message: [binary, json]. json is understood by nodes running older versions, either encoding is always received. default: binary");
+        props.setProperty(XOPKEYS.TRANSPORT.NORM.SEND_QUEUE, "256");
+        comments.put(XOPKEYS.TRANSPORT.NORM.SEND_QUEUE, "Messages each NORM session holds while its transmit buffer is full. default: 256");
+        props.setProperty(XOPKEYS.TRANSPORT.NORM.SEND_POLICY, "drop-oldest");
+        comments.put(XOPKEYS.TRANSPORT.NORM.SEND_POLICY, "What to do with a message when the NORM send queue is full: [block, drop-oldest, priority]. priority drops redirected copies first, then messages, then presences. default: drop-oldest");
+        props.setProperty(XOPKEYS.TRANSPORT.NORM.SEND_BLOCK, "1000");
+        comments.put(XOPKEYS.TRANSPORT.NORM.SEND_BLOCK, "Milliseconds the block policy waits for room in the NORM send queue before dropping the message. default: 1000");
+        props.setProperty(XOPKEYS.TRANSPORT.NORM.ROOMS, "session");
+        comments.put(XOPKEYS.TRANSPORT.NORM.ROOMS, "NORM sessions of the MUC rooms: [session, shared]. 'session' opens sessions on a port hashed from each room's name, 'shared' sends all rooms over one session per interface with the room's id in the metadata. All nodes must use the same. default: session");
+        props.setProperty(XOPKEYS.TRANSPORT.NORM.ROOMS_FILTER, "true");
+        comments.put(XOPKEYS.TRANSPORT.NORM.ROOMS_FILTER, "With xop.transport.norm.rooms=shared, stop receiving the messages of rooms this node has no transport for as soon as their metadata arrives, instead of receiving and dropping them. default: true");
 
         props.setProperty(XOPKEYS.TRANSPORT.NORM.SD.INTERVAL, "4000");
-        comments.put(XOPKEYS.TRANSPORT.NORM.SD.INTERVAL, "Advertisement message send interval in ms. default: 4000");
+        comments.put(XOPKEYS.TRANSPORT.NORM.SD.INTERVAL, "Advertisement message send interval in ms after a local change, doubled with each advertisement while nothing changes. default: 4000");
+        props.setProperty(XOPKEYS.TRANSPORT.NORM.SD.MAX_INTERVAL, "32000");
+        comments.put(XOPKEYS.TRANSPORT.NORM.SD.MAX_INTERVAL, "Longest advertisement message send interval in ms, reached while nothing changes. default: 32000");
         props.setProperty(XOPKEYS.TRANSPORT.NORM.SD.TIMEOUT, "3");
-        comments.put(XOPKEYS.TRANSPORT.NORM.SD.TIMEOUT, "Number of messages missed before triggering lost messages. default: 3");
+        comments.put(XOPKEYS.TRANSPORT.NORM.SD.TIMEOUT, "Number of advertisement intervals, as advertised by the remote node, missed before it is considered lost. default: 3");
 
         // Transport Engine properties
         props.setProperty(XOPKEYS.TRANSPORT.TE.ADDRESS, "127.0.0.1");
@@ -16,25 +16,21 @@ import edu.drexel.xop.util.XOP
 import edu.drexel.xop.util.logger.LogUtils
 import kotlinx.coroutines.runBlocking
 import mil.navy.nrl.xop.util.addressing.getBindAddress
+import mil.navy.nrl.xop.util.logFine
+import mil.navy.nrl.xop.util.logFiner
+import mil.navy.nrl.xop.util.tls.TlsContextProvider
 import org.dom4j.Element
 import org.dom4j.Namespace
 import org.dom4j.tree.BaseElement
 import org.xmpp.packet.*
-import java.io.File
-import java.io.FileInputStream
 import java.io.IOException
-import java.io.InputStream
 import java.net.InetAddress
 import java.net.InetSocketAddress
 import java.net.ServerSocket
 import java.net.Socket
-import java.security.*
-import java.security.cert.CertificateException
-import java.util.concurrent.BlockingQueue
-import java.util.concurrent.LinkedBlockingQueue
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.logging.Level
-import javax.net.ssl.*
+import javax.net.ssl.SSLSocket
 import javax.xml.stream.XMLInputFactory
 import javax.xml.stream.XMLStreamConstants
 import javax.xml.stream.XMLStreamReader
@@ -46,6 +42,18 @@ private val logger = LogUtils.getLogger(ClientConnection::class.java.name)
 
 val running: AtomicBoolean = AtomicBoolean(true)
 
+/**
+ * States of the client stream negotiation, shared by [ClientConnection] and [NioClientConnection]
+ */
+internal enum class ClientConnectionState {
+    OPENSTREAM, FEATURES, NEGOTIATE_TLS, AUTHENTICATE, AUTH_SUCCESS, BIND, STANZA_EXCHANGE, AUTH_FAIL, CLOSED
+}
+
+/**
+ * Listen for XMPP clients on the given address. Depending on [XOP.CLIENT.ENGINE] each client is either served by its
+ * own [ClientConnection] thread or multiplexed by a [NioClientEngine].
+ * @return the thread accepting new connections
+ */
 fun listenForClients(
     bindAddress: InetAddress, port: Int,
     clientManager: ClientManager,
@@ -53,6 +61,10 @@ fun listenForClients(
     domain: String
 ): Thread {
 
+    if (XOP.CLIENT.ENGINE == NIO_ENGINE) {
+        return NioClientEngine(clientManager, localPacketProcessor, domain).listen(bindAddress, port)
+    }
+
     val serverSocket = ServerSocket()
     serverSocket.reuseAddress = true
     serverSocket.bind(InetSocketAddress(bindAddress, port))
@@ -139,6 +151,55 @@ fun main(args: Array<String>) = runBlocking {
     // clientCoroutine.join()
 }
 
+/** value of [XOP.CLIENT.ENGINE] selecting the selector based [NioClientEngine] */
+const val NIO_ENGINE = "nio"
+
+/**
+ * @return the opening stream element sent to a client, from this domain to the (possibly unknown) jid
+ */
+internal fun openStreamHeader(domain: String, jid: JID?, streamId: String): String {
+    var toJID = ""
+    if (jid != null) {
+        toJID = "to='$jid'"
+    }
+    return "<stream:stream from='$domain' $toJID id='$streamId' " +
+            "xmlns=\"jabber:client\" xmlns:stream=\"http://etherx.jabber.org/streams\"" +
+            " version=\"1.0\" xml:lang='en'>"
+}
+
+/**
+ * Authenticate the base64 encoded SASL PLAIN credentials sent by a client
+ * @return the bare JID of the authenticated user, or null if authentication failed
+ */
+internal fun authenticatePlain(
+    authenticationProvider: AuthenticationProvider,
+    text: String,
+    domain: String
+): JID? {
+    val creds = Base64.decode(text).split("\\00".toRegex())
+        .dropLastWhile { it.isEmpty() }
+        .toTypedArray()
+    if (logger.isLoggable(Level.FINER))
+        logger.finer("creds is: " + creds[0] + ", " + creds[1])
+    val username = creds[1]
+    // a password is not currently required for xabber accounts
+    var password = ""
+    if (creds.size > 2) {
+        password = creds[2]
+    }
+    if (logger.isLoggable(Level.FINEST))
+        logger.finest("Authenticating username: $username password: [MASKED]")
+    val id = "$username@$domain"
+
+    return if (authenticationProvider.authenticate(JID(id), password)) {
+        logger.info("Client successfully authenticated: $username")
+        JID(id)
+    } else {
+        logger.severe("User failed authentication: $username")
+        null
+    }
+}
+
 /**
  * Represents connection to an XMPP client
  */
@@ -157,24 +218,24 @@ class ClientConnection(
     private val startTLSNS = "urn:ietf:params:xml:ns:xmpp-tls"
 
     private var inputStream = socket.getInputStream()
+    @Volatile
     private var outputStream = socket.getOutputStream()
     private var xmlStreamReader: XMLStreamReader
 
     private var jid: JID? = null
-    private var socketFactory: SSLSocketFactory? = null
 
     private companion object {
         private val logger = LogUtils.getLogger(ClientConnection::class.java.name)
     }
 
-    private enum class ClientConnectionState {
-        OPENSTREAM, FEATURES, NEGOTIATE_TLS, AUTHENTICATE, AUTH_SUCCESS, BIND, STANZA_EXCHANGE, AUTH_FAIL, CLOSED
-    }
-
     private var streamId: String
     private var currentState = ClientConnectionState.OPENSTREAM
 
-    private val sendQueue: BlockingQueue<String> = LinkedBlockingQueue<String>()
+    /** stanzas waiting for the writer thread */
+    val outboundQueue = OutboundQueue("client ${socket.inetAddress}:${socket.port}") {
+        // slow consumer, closing the socket ends the reading thread which cleans up
+        closeSocket()
+    }
 
     private val running: AtomicBoolean = AtomicBoolean(true)
     private val xmlif = XMLInputFactory.newInstance()
@@ -183,14 +244,13 @@ class ClientConnection(
     private var authenticated = false
 
     override fun writeRaw(bytes: ByteArray?) {
-        logger.finest("writing ${bytes?.size} bytes to $jid")
+        if (bytes == null) return
+        if (logger.isLoggable(Level.FINEST)) logger.finest("queueing ${bytes.size} bytes to $jid")
         if (socket.isConnected) {
-            outputStream.write(bytes)
-            outputStream.flush()
+            outboundQueue.offer(bytes)
         } else {
             logger.fine("not writing because socket not connected")
         }
-        logger.finest("wrote ${bytes?.size} bytes to $jid")
     }
 
     override fun processCloseStream() {
@@ -215,31 +275,47 @@ class ClientConnection(
         xmlStreamReader = xmlif.createXMLStreamReader(inputStream)
         streamId = Utils.generateID(10)
         // Create a thread to send out messages
-
-        // startMessageThread()
+        startMessageThread()
     }
 
+    /**
+     * Writes the queued stanzas, a burst of them with one write and one flush
+     */
     private fun startMessageThread() {
         logger.fine("starting sending thread")
-        running.set(true)
-        thread(name = "ClientMessageSendingThread") {
-            outputStream.use { outputStream ->
-                while (running.get()) {
-                    val str = sendQueue.take()
-                    logger.finer("writing: {{$str}}")
-                    outputStream.write(str.toByteArray())
-                    outputStream.flush()
+        thread(name = "ClientMessageSendingThread", isDaemon = true) {
+            try {
+                while (true) {
+                    val batch = outboundQueue.takeBatch() ?: break
+                    try {
+                        outputStream.write(batch.array(), batch.arrayOffset() + batch.position(), batch.remaining())
+                        outputStream.flush()
+                    } finally {
+                        outboundQueue.batchWritten()
+                    }
                 }
+            } catch (e: IOException) {
+                logger.logFine { "error writing to ${socket.inetAddress}: ${e.message}" }
+                outboundQueue.close()
+                outboundQueue.clear()
+            } catch (e: InterruptedException) {
+                logger.fine("sending thread interrupted")
             }
-
             logger.finer("ClientMessageSendingThread Sending thread exiting")
         }
     }
 
     private fun enqueueString(str: String) {
         logger.finer("Adding string to outputStream queue")
-        //        sendQueue.put(str)
-        writeRaw(str.toByteArray())
+        outboundQueue.offerControl(str.toByteArray())
+    }
+
+    private fun closeSocket() {
+        try {
+            socket.close()
+        } catch (e: IOException) {
+            logger.logFine { "error closing socket: ${e.message}" }
+        }
     }
 
     fun closeConnection() {
@@ -258,7 +334,7 @@ class ClientConnection(
             // get the stax parser
             while (xmlStreamReader.hasNext()) {
                 eventType = xmlStreamReader.next()
-                logger.finer("processing eventType $eventType")
+                logger.logFiner { "processing eventType $eventType" }
                 when (eventType) {
                     XMLStreamConstants.START_DOCUMENT -> {
                         logger.finer("Start of the document")
@@ -276,15 +352,15 @@ class ClientConnection(
                             val packet: Packet
                             when (element.name) {
                                 "iq" -> {
-                                    logger.fine("IQ message: ${element.asXML()}")
+                                    logger.logFine { "IQ message: ${element.asXML()}" }
                                     packet = IQ(element)
                                 }
                                 "presence" -> {
-                                    logger.fine("Presence message: ${element.asXML()}")
+                                    logger.logFine { "Presence message: ${element.asXML()}" }
                                     packet = Presence(element)
                                 }
                                 "message" -> {
-                                    logger.fine("message message: ${element.asXML()}")
+                                    logger.logFine { "message message: ${element.asXML()}" }
                                     packet = Message(element)
                                 }
                                 else -> {
@@ -302,7 +378,7 @@ class ClientConnection(
                         val localName = xmlStreamReader.localName
                         val uri = xmlStreamReader.namespaceURI
 
-                        logger.fine("END Element $localName $uri")
+                        logger.logFine { "END Element $localName $uri" }
                         processCloseStream()
                     }
 
@@ -312,7 +388,7 @@ class ClientConnection(
 
                     XMLStreamConstants.CHARACTERS -> {
                         val chars = xmlStreamReader.textCharacters
-                        logger.fine("received characters: $chars")
+                        logger.logFine { "received characters: $chars" }
                     }
                     else -> {
                         logger.info("UNHANDLED Event Type, $eventType,  in main stream processor")
@@ -323,6 +399,9 @@ class ClientConnection(
             processCloseStream()
 
             running.set(false)
+            // let the sending thread write the stream close before the socket goes away
+            outboundQueue.awaitEmpty(XOP.CLIENT.OUTBOUND_BLOCK_TIMEOUT.toLong())
+            outboundQueue.close()
             logger.info("closing XMLStreamReader")
             xmlStreamReader.close()
             logger.info("closing socket")
@@ -338,13 +417,13 @@ class ClientConnection(
         val namespace = xmlStreamReader.namespaceURI
         val attrCt = xmlStreamReader.attributeCount
 
-        logger.fine("Start Element $localName $namespace numAttr: $attrCt currentState $currentState")
+        logger.logFine { "Start Element $localName $namespace numAttr: $attrCt currentState $currentState" }
         if (logger.isLoggable(Level.FINER)) {
             for (i in 0..(attrCt - 1)) {
                 val name = xmlStreamReader.getAttributeName(i)
                 val value = xmlStreamReader.getAttributeValue(i)
                 val type = xmlStreamReader.getAttributeType(i)
-                logger.finer("attr $name $value $type")
+                logger.logFiner { "attr $name $value $type" }
             }
         }
 
@@ -422,15 +501,8 @@ class ClientConnection(
                 logger.info("changing state to $nextState")
                 currentState = nextState
                 logger.info("New stream jid $jid.")
-                var toJID = ""
-                if (jid != null){
-                    toJID = "to='$jid'"
-                }
                 logger.info("Sending open stream with id $streamId")
-                var sendStr =
-                    "<stream:stream from='${this.domain}' ${toJID} id='$streamId' " +
-                            "xmlns=\"jabber:client\" xmlns:stream=\"http://etherx.jabber.org/streams\"" +
-                            " version=\"1.0\" xml:lang='en'>"
+                var sendStr = openStreamHeader(this.domain, jid, streamId)
 
                 sendStr += featureStr
                 logger.info("Sending open stream with features $sendStr")
@@ -457,64 +529,7 @@ class ClientConnection(
         }
     }
 
-    private fun buildElement(): Element {
-        val rootElementName = xmlStreamReader.localName
-        var eventType: Int = xmlStreamReader.eventType
-        var localName = xmlStreamReader.localName
-        var uri = xmlStreamReader.namespaceURI
-        val returnElement = BaseElement(localName, Namespace(null, uri))
-        val addAttributes =
-            fun(nestedElement: Element, xmlStreamReader: XMLStreamReader): Element {
-                for (i in 0 until xmlStreamReader.attributeCount) nestedElement.addAttribute(
-                    xmlStreamReader.getAttributeLocalName(i),
-                    xmlStreamReader.getAttributeValue(i)
-                )
-                return nestedElement
-            }
-        addAttributes(returnElement, xmlStreamReader)
-
-        var nestedElement: Element? = returnElement
-        logger.finer("eventType: $eventType, localName $localName, uri $uri, ")
-        elementProcessing@ while (xmlStreamReader.hasNext()) {
-            eventType = xmlStreamReader.next()
-            when (eventType) {
-                XMLStreamConstants.START_ELEMENT -> {
-                    localName = xmlStreamReader.localName
-                    uri = xmlStreamReader.namespaceURI
-                    logger.finer("start element type $localName $uri")
-
-                    nestedElement = nestedElement!!.addElement(localName, uri)
-
-                    addAttributes(nestedElement, xmlStreamReader)
-                    logger.finer("current element: ${returnElement.asXML()}")
-                }
-
-                XMLStreamConstants.CHARACTERS -> {
-                    nestedElement!!.addText(xmlStreamReader.text)
-                    logger.finer("after characters current element: ${returnElement.asXML()}")
-                }
-
-                XMLStreamConstants.END_ELEMENT -> {
-                    localName = xmlStreamReader.localName
-                    logger.finer("end element localName $localName")
-
-                    if (localName == rootElementName) {
-                        logger.finer("Reached end of this element, breaking out")
-                        break@elementProcessing
-                    } else {
-                        logger.finer("end element localName $localName")
-                        nestedElement = nestedElement!!.parent
-                    }
-                }
-                else -> {
-                    logger.finer("unhandled event type $eventType")
-                }
-            }
-        }
-
-        logger.fine("built element: ${returnElement.asXML()}")
-        return returnElement
-    }
+    private fun buildElement(): Element = readElement(xmlStreamReader)
 
     private fun processFeatures() {
         var localName: String?
@@ -531,7 +546,7 @@ class ClientConnection(
                 XMLStreamConstants.START_ELEMENT -> {
                     localName = xmlStreamReader.localName
                     namespaceURI = xmlStreamReader.namespaceURI
-                    logger.fine("start element $localName $namespaceURI")
+                    logger.logFine { "start element $localName $namespaceURI" }
                     features = mutableListOf()
                     featureNumber = 0
                     newFeature = Feature(localName, namespaceURI, mutableListOf())
@@ -541,7 +556,7 @@ class ClientConnection(
                 XMLStreamConstants.CHARACTERS -> {
                     if (xmlStreamReader.isCharacters) {
                         text = xmlStreamReader.text
-                        logger.fine("text Characters $text")
+                        logger.logFine { "text Characters $text" }
                     } else {
                         logger.fine("not text characters")
                     }
@@ -551,16 +566,16 @@ class ClientConnection(
                     localName = xmlStreamReader.localName
                     namespaceURI = xmlStreamReader.namespaceURI
 
-                    logger.fine("END Element $localName $namespaceURI")
+                    logger.logFine { "END Element $localName $namespaceURI" }
                     if (localName == "features") {
                         logger.fine("end processing features")
                         break@featureProcessing
                     }
                     logger.fine("added feature")
                     featureNumber++
-                    logger.fine("features: $features")
+                    logger.logFine { "features: $features" }
                     for (feature in features.toList()) {
-                        logger.fine("Processing feature: $feature")
+                        logger.logFine { "Processing feature: $feature" }
 
                         when (feature.localName) {
                             "starttls" -> {
@@ -582,40 +597,23 @@ class ClientConnection(
                     logger.info("UNHANDLED Event Type in main stream processor $eventType")
                 }
             }
-            logger.fine("processed event, has more? ${xmlStreamReader.hasNext()}")
+            logger.logFine { "processed event, has more? ${xmlStreamReader.hasNext()}" }
             // pop each feature and handle
-            logger.fine("features: $features")
+            logger.logFine { "features: $features" }
             eventType = xmlStreamReader.next()
         } while (xmlStreamReader.hasNext()) // end while
 
     }
 
     private fun authenticate(text: String) {
-        val creds = Base64.decode(text).split("\\00".toRegex())
-            .dropLastWhile { it.isEmpty() }
-            .toTypedArray()
-        if (logger.isLoggable(Level.FINER))
-            logger.finer("creds is: " + creds[0] + ", " + creds[1])
-        val username = creds[1]
-        // a password is not currently required for xabber accounts
-        var password = ""
-        if (creds.size > 2) {
-            password = creds[2]
-        }
-        if (logger.isLoggable(Level.FINEST))
-            logger.finest("Authenticating username: $username password: [MASKED]")
-        val id = "$username@${this.domain}"
-
-        authenticated =
-                authenticationProvider.authenticate(JID(id), password)
+        val authenticatedJID = authenticatePlain(authenticationProvider, text, this.domain)
+        authenticated = authenticatedJID != null
 
         if (authenticated) {
-            logger.info("Client successfully authenticated: $username")
-            jid = JID(id)
+            jid = authenticatedJID
             enqueueString(CONSTANTS.AUTH.SUCCESS)
             currentState = ClientConnectionState.AUTH_SUCCESS
         } else {
-            logger.severe("User failed authentication: $username")
             enqueueString(CONSTANTS.AUTH.TEMPORARY_FAIL)
             currentState = ClientConnectionState.AUTH_FAIL
         }
@@ -627,10 +625,10 @@ class ClientConnection(
 
     @Throws(IOException::class)
     private fun negotiateTLS() {
-        logger.info("wait for sendQueue to empty")
-        while (!sendQueue.isEmpty()) {
-
-            Thread.sleep(10L)
+        logger.info("wait for the outbound queue to empty")
+        // the proceed has to reach the client before the socket is converted
+        if (!outboundQueue.awaitEmpty(XOP.CLIENT.OUTBOUND_BLOCK_TIMEOUT.toLong())) {
+            logger.warning("STARTTLS proceed not written to ${socket.inetAddress} in time")
         }
 
         val clientKey = "nothing"
@@ -641,15 +639,20 @@ class ClientConnection(
             val sock = transformToSSLSocket(socket)
             sock.useClientMode = false
             logger.finer("Starting ssl handshake")
-            sock.startHandshake()
+            val handshakeStart = System.nanoTime()
+            try {
+                sock.startHandshake()
+            } catch (e: IOException) {
+                TlsContextProvider.CLIENT.handshakeFailed()
+                throw e
+            }
+            TlsContextProvider.CLIENT.handshakeCompleted(sock.session, handshakeStart)
             logger.finer("Completed ssl handshake. ")
             // get the SSL versions jid the new socket ...
             socket = sock
             inputStream = sock.inputStream
             xmlStreamReader = xmlif.createXMLStreamReader(inputStream)
-            running.set(false)
-            // kicking off new sending thread
-            startMessageThread()
+            // the sending thread picks up the new stream with the next batch
             outputStream = sock.outputStream
 
             streamId = Utils.generateID(10)
@@ -665,79 +668,6 @@ class ClientConnection(
         logger.info("converted stream Reader to ssl $xmlStreamReader")
     }
 
-    /**
-     * Call this externally to set the keystore used for the SSLSocketFactory
-     * @param storeLocation the location of the keystore
-     * @param trustLocation the location of the truststore
-     * @param storePass keystore password
-     * @param trustPass trustsore password
-     */
-    private fun setKeyStore(
-        storeLocation: InputStream, trustLocation: InputStream,
-        storePass: String, trustPass: String
-    ) {
-        try {
-            logger.fine("Setting up keystore...")
-            val context = SSLContext.getInstance("TLSv1.2")
-            val keyManager = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm())
-            val trustManager =
-                TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm())
-
-            val keyStore = loadKeyStore(storeLocation, storePass)
-            val trustStore = loadKeyStore(trustLocation, trustPass)
-
-            keyManager.init(keyStore, XOP.SSL.PASSWORD.toCharArray())
-            trustManager.init(trustStore)
-
-            context.init(keyManager.keyManagers, trustManager.trustManagers, SecureRandom())
-
-            socketFactory = context.socketFactory
-            logger.fine("Finished setting up keystore.")
-        } catch (e: NoSuchAlgorithmException) {
-            logger.severe("Error while loading KeyManagerFactory: " + e.message)
-        } catch (e: KeyStoreException) {
-            logger.severe("Error while setting KeyStore: " + e.message)
-        } catch (e: UnrecoverableKeyException) {
-            logger.severe("Could not recover key: " + e.message)
-        // } catch (e: KeyManagementException) {
-        //     logger.severe("Error with KeyManager: " + e.message)
-        }
-
-    }
-
-    /**
-     * Do not use this, it is just a utility method for setting the keystore
-     * @param location the location of the keystore
-     * @return a keystore object
-     */
-    private fun loadKeyStore(location: InputStream?, password: String): KeyStore? {
-        var store: KeyStore? = null
-        try {
-            store = KeyStore.getInstance(KeyStore.getDefaultType())
-            if (location != null) {
-                store!!.load(location, password.toCharArray())
-            } else {
-                logger.severe("Couldn't load null keystore")
-            }
-        } catch (e: KeyStoreException) {
-            logger.severe("Unable to load keystore: " + e.message)
-        } catch (e: CertificateException) {
-            logger.severe("Unable to load keystore: " + e.message)
-        } catch (e: NoSuchAlgorithmException) {
-            logger.severe("Unable to load keystore: " + e.message)
-        } catch (e: IOException) {
-            logger.severe("Unable to load keystore: " + e.message)
-        } finally {
-            try {
-                location?.close()
-            } catch (e: IOException) {
-                logger.severe("Could not close file stream: " + e.message)
-            }
-
-        }
-        return store
-    }
-
     /**
      * Transforms a conventional socket into a SSL socket.
      *
@@ -747,27 +677,12 @@ class ClientConnection(
      */
     @Throws(IOException::class)
     private fun transformToSSLSocket(socket: Socket): SSLSocket {
-        if (socketFactory == null) {
-            val keystorePath = File(XOP.SSL.KEYSTORE).absoluteFile
-            val trustStorePath = File(XOP.SSL.TRUSTSTORE).absoluteFile
-            if (logger.isLoggable(Level.FINE)) {
-                logger.fine("keystorePath: " + keystorePath.absolutePath)
-            }
-            setKeyStore(
-                FileInputStream(keystorePath), FileInputStream(trustStorePath),
-                XOP.SSL.PASSWORD, XOP.SSL.PASSWORD
-            )
-            if (logger.isLoggable(Level.FINE)) {
-                logger.fine("using keystore: " + XOP.SSL.KEYSTORE)
-                logger.fine("using truststore: " + XOP.SSL.TRUSTSTORE)
-            }
-        }
-
+        val socketFactory = TlsContextProvider.CLIENT.getSocketFactory()
         if (socketFactory != null) {
             val remoteAddress = socket.remoteSocketAddress as InetSocketAddress
             logger.info("creating SSL Socket")
             logger.info("socket address: " + remoteAddress.address.hostAddress)
-            val sock = socketFactory!!.createSocket(
+            val sock = socketFactory.createSocket(
                 socket,
                 remoteAddress.hostName,
                 socket.port,
@@ -787,4 +702,68 @@ class ClientConnection(
         }
     }
 
-}
\ No newline at end of file
+}
+
+/**
+ * Builds the element the reader is positioned on, reading up to and including its end tag. Used for the stanzas of a
+ * [ClientConnection], the whole element is only serialized for logging if FINER (FINE for the result) is enabled.
+ * @param xmlStreamReader a reader positioned on a START_ELEMENT
+ */
+internal fun readElement(xmlStreamReader: XMLStreamReader): Element {
+    val rootElementName = xmlStreamReader.localName
+    var eventType: Int = xmlStreamReader.eventType
+    var localName = xmlStreamReader.localName
+    var uri = xmlStreamReader.namespaceURI
+    val returnElement = BaseElement(localName, Namespace(null, uri))
+    val addAttributes =
+        fun(nestedElement: Element, xmlStreamReader: XMLStreamReader): Element {
+            for (i in 0 until xmlStreamReader.attributeCount) nestedElement.addAttribute(
+                xmlStreamReader.getAttributeLocalName(i),
+                xmlStreamReader.getAttributeValue(i)
+            )
+            return nestedElement
+        }
+    addAttributes(returnElement, xmlStreamReader)
+
+    var nestedElement: Element? = returnElement
+    logger.logFiner { "eventType: $eventType, localName $localName, uri $uri, " }
+    elementProcessing@ while (xmlStreamReader.hasNext()) {
+        eventType = xmlStreamReader.next()
+        when (eventType) {
+            XMLStreamConstants.START_ELEMENT -> {
+                localName = xmlStreamReader.localName
+                uri = xmlStreamReader.namespaceURI
+                logger.logFiner { "start element type $localName $uri" }
+
+                nestedElement = nestedElement!!.addElement(localName, uri)
+
+                addAttributes(nestedElement, xmlStreamReader)
+                logger.logFiner { "current element: ${returnElement.asXML()}" }
+            }
+
+            XMLStreamConstants.CHARACTERS -> {
+                nestedElement!!.addText(xmlStreamReader.text)
+                logger.logFiner { "after characters current element: ${returnElement.asXML()}" }
+            }
+
+            XMLStreamConstants.END_ELEMENT -> {
+                localName = xmlStreamReader.localName
+                logger.logFiner { "end element localName $localName" }
+
+                if (localName == rootElementName) {
+                    logger.finer("Reached end of this element, breaking out")
+                    break@elementProcessing
+                } else {
+                    logger.logFiner { "end element localName $localName" }
+                    nestedElement = nestedElement!!.parent
+                }
+            }
+            else -> {
+                logger.logFiner { "unhandled event type $eventType" }
+            }
+        }
+    }
+
+    logger.logFine { "built element: ${returnElement.asXML()}" }
+    return returnElement
+}
@@ -0,0 +1,526 @@
+package mil.navy.nrl.xop.client
+
+import edu.drexel.xop.client.AuthenticationProvider
+import edu.drexel.xop.client.XOPConnection
+import edu.drexel.xop.core.ClientManager
+import edu.drexel.xop.core.LocalXMPPClient
+import edu.drexel.xop.core.XOProxy
+import edu.drexel.xop.packet.LocalPacketProcessor
+import edu.drexel.xop.util.CONSTANTS
+import edu.drexel.xop.util.Utils
+import edu.drexel.xop.util.XOP
+import edu.drexel.xop.util.logger.LogUtils
+import mil.navy.nrl.xop.util.logFine
+import mil.navy.nrl.xop.util.tls.TlsContextProvider
+import mil.navy.nrl.xop.util.xml.XmlName
+import mil.navy.nrl.xop.util.xml.XmppStanzaStream
+import org.dom4j.Element
+import org.xmpp.packet.IQ
+import org.xmpp.packet.JID
+import org.xmpp.packet.Message
+import org.xmpp.packet.Packet
+import org.xmpp.packet.Presence
+import org.xml.sax.SAXException
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.SelectionKey
+import java.nio.channels.SocketChannel
+import java.util.ArrayDeque
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.logging.Level
+import javax.net.ssl.SSLEngine
+import javax.net.ssl.SSLEngineResult
+import javax.net.ssl.SSLException
+import javax.net.ssl.SSLSession
+
+private const val READ_BUFFER_SIZE = 8192
+
+/**
+ * Non-blocking counterpart of [ClientConnection]. Bytes read by the owning [NioEventLoop] are parsed incrementally by
+ * an [XmppStanzaStream] and drive the same [ClientConnectionState] negotiation; STARTTLS is handled with an [SSLEngine]
+ * instead of converting the socket. [writeRaw] may be called from any thread, the bytes are queued and written when
+ * the channel is writable.
+ */
+internal class NioClientConnection(
+    internal val channel: SocketChannel,
+    private val eventLoop: NioEventLoop,
+    private val clientManager: ClientManager,
+    private val localPacketProcessor: LocalPacketProcessor,
+    private val domain: String = XOP.DOMAIN
+) : XOPConnection, XmppStanzaStream.Listener {
+
+    private companion object {
+        private val logger = LogUtils.getLogger(NioClientConnection::class.java.name)
+    }
+
+    internal var key: SelectionKey? = null
+
+    private val remoteAddress = (channel.remoteAddress as InetSocketAddress).address
+    private val stanzaStream = XmppStanzaStream(this)
+    private val authenticationProvider = AuthenticationProvider(clientManager)
+
+    private var currentState = ClientConnectionState.OPENSTREAM
+    private var jid: JID? = null
+    private var streamId = Utils.generateID(10)
+
+    private val readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE)
+    /** stanzas waiting to be written, drained by the event loop when the channel is writable */
+    val outbound = OutboundQueue("client $remoteAddress") {
+        eventLoop.execute(Runnable { abort() })
+    }
+    private val flushScheduled = AtomicBoolean(false)
+    private var pendingWrite: ByteBuffer? = null
+
+    private var tls: TlsSession? = null
+    private var handshakeStart = 0L
+    private var startTlsAfterFlush = false
+    private var closeAfterFlush = false
+    private val streamClosed = AtomicBoolean(false)
+
+    override fun run() {
+        // driven by the NioEventLoop, nothing to run
+    }
+
+    override fun writeRaw(bytes: ByteArray?) {
+        if (bytes == null || !channel.isOpen) {
+            logger.fine("not writing because channel not open")
+            return
+        }
+        // the event loop drains the queue, it can't wait for room in it
+        if (outbound.offer(bytes, !eventLoop.inEventLoop())) {
+            scheduleFlush()
+        }
+    }
+
+    /**
+     * Queue stream level data regardless of the queue depth
+     */
+    private fun writeControl(bytes: ByteArray) {
+        if (!channel.isOpen) return
+        outbound.offerControl(bytes)
+        scheduleFlush()
+    }
+
+    private fun scheduleFlush() {
+        if (eventLoop.inEventLoop()) {
+            flush()
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(Runnable {
+                flushScheduled.set(false)
+                flush()
+            })
+        }
+    }
+
+    override fun processCloseStream() {
+        logger.fine("handling close stream")
+        if (streamClosed.compareAndSet(false, true)) {
+            val jid = clientManager.getJIDForLocalConnection(this)
+            if (jid != null) {
+                XOProxy.getInstance().handleCloseStream(jid)
+            }
+            currentState = ClientConnectionState.CLOSED
+            writeControl(CONSTANTS.AUTH.STREAM_CLOSE.toByteArray())
+            eventLoop.execute(Runnable {
+                closeAfterFlush = true
+                flush()
+            })
+        }
+    }
+
+    override fun getAddress(): InetAddress = remoteAddress
+
+    override fun getHostName(): String = remoteAddress.hostName
+
+    /**
+     * Tear the connection down without flushing, e.g. when the peer went away
+     */
+    fun abort() {
+        if (!streamClosed.get()) {
+            streamClosed.set(true)
+            val jid = clientManager.getJIDForLocalConnection(this)
+            if (jid != null) {
+                XOProxy.getInstance().handleCloseStream(jid)
+            }
+        }
+        closeChannel()
+    }
+
+    private fun closeChannel() {
+        currentState = ClientConnectionState.CLOSED
+        if (handshakeStart != 0L) {
+            TlsContextProvider.CLIENT.handshakeFailed()
+            handshakeStart = 0L
+        }
+        key?.cancel()
+        try {
+            channel.close()
+        } catch (e: IOException) {
+            logger.logFine { "error closing channel: ${e.message}" }
+        }
+        outbound.close()
+        outbound.clear()
+        logger.info("closed connection from $remoteAddress")
+    }
+
+    // ---------------------------------------------------------------------------------------------- event loop side
+
+    fun onReadable() {
+        readBuffer.clear()
+        val read = channel.read(readBuffer)
+        if (read < 0) {
+            logger.info("client $remoteAddress closed the connection")
+            abort()
+            return
+        }
+        readBuffer.flip()
+
+        val tlsSession = tls
+        try {
+            if (tlsSession == null) {
+                stanzaStream.feed(readBuffer)
+                return
+            }
+            val wasHandshaking = tlsSession.handshaking
+            tlsSession.unwrap(readBuffer) { stanzaStream.feed(it) }
+            if (tlsSession.closed) {
+                abort()
+                return
+            }
+            if (wasHandshaking && !tlsSession.handshaking) {
+                logger.logFine { "TLS handshake completed with $remoteAddress" }
+                TlsContextProvider.CLIENT.handshakeCompleted(tlsSession.session, handshakeStart)
+                handshakeStart = 0L
+            }
+            flush()
+        } catch (e: SAXException) {
+            logger.warning("Invalid XML from $remoteAddress: ${e.message}")
+            processCloseStream()
+        }
+    }
+
+    fun onWritable() {
+        flush()
+    }
+
+    private fun flush() {
+        if (!channel.isOpen) return
+        try {
+            while (true) {
+                val pending = pendingWrite
+                if (pending != null) {
+                    channel.write(pending)
+                    if (pending.hasRemaining()) {
+                        setWriteInterest(true)
+                        return
+                    }
+                    pendingWrite = null
+                }
+                pendingWrite = nextWrite() ?: break
+            }
+            setWriteInterest(false)
+
+            if (startTlsAfterFlush) {
+                startTlsAfterFlush = false
+                startTls()
+            } else if (closeAfterFlush) {
+                closeChannel()
+            }
+        } catch (e: IOException) {
+            logger.info("error writing to $remoteAddress: ${e.message}")
+            abort()
+        }
+    }
+
+    /**
+     * @return the next bytes to put on the wire, as many queued stanzas as fit in one batch, TLS records if TLS is
+     * negotiated
+     */
+    private fun nextWrite(): ByteBuffer? {
+        val tlsSession = tls ?: return outbound.nextBatch()
+        val handshakeData = tlsSession.netOut.pollFirst()
+        if (handshakeData != null) return handshakeData
+        if (tlsSession.handshaking) return null
+        val plain = outbound.nextBatch() ?: return null
+        return tlsSession.wrap(plain)
+    }
+
+    private fun setWriteInterest(enabled: Boolean) {
+        val selectionKey = key ?: return
+        if (!selectionKey.isValid) return
+        val ops = selectionKey.interestOps()
+        val newOps = if (enabled) ops or SelectionKey.OP_WRITE else ops and SelectionKey.OP_WRITE.inv()
+        if (ops != newOps) selectionKey.interestOps(newOps)
+    }
+
+    private fun startTls() {
+        val context = TlsContextProvider.CLIENT.getContext()
+        if (context == null) {
+            logger.severe("Couldn't start TLS, no SSLContext available")
+            abort()
+            return
+        }
+        val engine = context.createSSLEngine(remoteAddress.hostAddress, channel.socket().port)
+        engine.useClientMode = false
+        engine.enabledCipherSuites = engine.supportedCipherSuites
+        val tlsSession = TlsSession(engine)
+        tls = tlsSession
+        stanzaStream.reset()
+        streamId = Utils.generateID(10)
+        logger.finer("Starting ssl handshake")
+        handshakeStart = System.nanoTime()
+        tlsSession.begin()
+        flush()
+    }
+
+    // -------------------------------------------------------------------------------------------------- state machine
+
+    override fun onStreamOpen(name: XmlName, attributes: Map<String, String>) {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Open stream $name $attributes currentState $currentState")
+        }
+        when (currentState) {
+            ClientConnectionState.OPENSTREAM -> {
+                if (XOP.TLS.AUTH) {
+                    logger.info("TLS required")
+                    handleOpenStream(name, attributes, ClientConnectionState.NEGOTIATE_TLS, CONSTANTS.AUTH.STREAM_FEATURES_TLS)
+                } else {
+                    handleOpenStream(name, attributes, ClientConnectionState.FEATURES, CONSTANTS.AUTH.STREAM_FEATURES_TLS_OPTIONAL)
+                }
+            }
+            ClientConnectionState.AUTHENTICATE -> {
+                handleOpenStream(name, attributes, ClientConnectionState.FEATURES, CONSTANTS.AUTH.STREAM_FEATURES_PLAIN)
+            }
+            ClientConnectionState.AUTH_SUCCESS -> {
+                handleOpenStream(name, attributes, ClientConnectionState.BIND, CONSTANTS.AUTH.STREAM_FEATURES)
+
+                val localXMPPClient = LocalXMPPClient(jid, jid.toString(), null, null, this)
+                clientManager.addLocalXMPPClient(localXMPPClient)
+                logger.info("Added " + jid + " to clientManager: " + clientManager.localClientJIDs)
+            }
+            else -> {
+                logger.info("Unexpected stream open in state $currentState")
+            }
+        }
+    }
+
+    override fun onStreamClose() {
+        logger.logFine { "END stream from $remoteAddress" }
+        processCloseStream()
+    }
+
+    override fun onStanza(element: Element) {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("element ${element.name} currentState $currentState")
+        }
+
+        when (currentState) {
+            ClientConnectionState.FEATURES -> {
+                when (element.name) {
+                    "starttls" -> handleStartTLS(element)
+                    "auth" -> authenticate(element.textTrim)
+                    else -> logger.info("Unhandled feature negotiation element ${element.name}")
+                }
+            }
+            ClientConnectionState.NEGOTIATE_TLS -> handleStartTLS(element)
+            ClientConnectionState.BIND -> {
+                logger.fine("BIND state")
+                localPacketProcessor.processPacket(jid, IQ(element))
+                currentState = ClientConnectionState.STANZA_EXCHANGE
+            }
+            ClientConnectionState.STANZA_EXCHANGE -> {
+                val packet: Packet = when (element.name) {
+                    "iq" -> IQ(element)
+                    "presence" -> Presence(element)
+                    "message" -> Message(element)
+                    else -> {
+                        logger.warning("Unhandled stanza ${element.name}")
+                        return
+                    }
+                }
+                packet.from = jid
+                localPacketProcessor.processPacket(jid!!, packet)
+            }
+            else -> {
+                logger.info("Unhandled state $currentState")
+            }
+        }
+    }
+
+    private fun handleOpenStream(
+        name: XmlName,
+        attributes: Map<String, String>,
+        nextState: ClientConnectionState,
+        featureStr: String
+    ) {
+        if (name.localName != "stream") {
+            logger.warning("not an open stream!")
+            return
+        }
+        val fromJIDStr = attributes["from"]
+        if (fromJIDStr != null && jid == null) {
+            jid = JID(fromJIDStr)
+            if (jid?.domain != this.domain) {
+                logger.info("from domain is not the same as ${this.domain} closing")
+                processCloseStream()
+                return
+            }
+        }
+
+        val version = attributes["version"]
+        if (version != null && version.split(".")[0].toInt() >= 1) { // RFC 6120 4.3.2
+            logger.info("changing state to $nextState")
+            currentState = nextState
+            writeControl((openStreamHeader(this.domain, jid, streamId) + featureStr).toByteArray())
+        } else {
+            logger.info("Client connection does not support streams version > 1.0")
+            processCloseStream()
+        }
+    }
+
+    private fun handleStartTLS(element: Element) {
+        if (element.name == "starttls" && element.namespaceURI == CONSTANTS.GATEWAY.TLS_NAMESPACE) {
+            logger.info("Received STARTTLS from client $remoteAddress, send proceed")
+            currentState = ClientConnectionState.AUTHENTICATE
+            startTlsAfterFlush = true
+            writeControl(CONSTANTS.AUTH.STARTTLS_PROCEED.toByteArray())
+        } else {
+            logger.info("STARTTLS negotiation failed")
+            writeControl(CONSTANTS.AUTH.STARTTLS_FAIL.toByteArray())
+            processCloseStream()
+        }
+    }
+
+    private fun authenticate(text: String) {
+        val authenticatedJID = authenticatePlain(authenticationProvider, text, this.domain)
+        if (authenticatedJID != null) {
+            jid = authenticatedJID
+            currentState = ClientConnectionState.AUTH_SUCCESS
+            writeControl(CONSTANTS.AUTH.SUCCESS.toByteArray())
+        } else {
+            currentState = ClientConnectionState.AUTH_FAIL
+            writeControl(CONSTANTS.AUTH.TEMPORARY_FAIL.toByteArray())
+        }
+        // the client restarts the stream, so <?xml ... ?> and a new stream header follow
+        stanzaStream.reset()
+    }
+}
+
+/**
+ * Non-blocking TLS record layer over an [SSLEngine]. Received ciphertext is passed to [unwrap]; records produced by
+ * the handshake are queued on [netOut] for the connection to write.
+ */
+internal class TlsSession(private val engine: SSLEngine) {
+    private var netIn: ByteBuffer = ByteBuffer.allocate(engine.session.packetBufferSize)
+    private var appIn: ByteBuffer = ByteBuffer.allocate(engine.session.applicationBufferSize)
+
+    val netOut = ArrayDeque<ByteBuffer>()
+
+    val session: SSLSession
+        get() = engine.session
+
+    var closed = false
+        private set
+
+    val handshaking: Boolean
+        get() = engine.handshakeStatus != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING &&
+                engine.handshakeStatus != SSLEngineResult.HandshakeStatus.FINISHED
+
+    fun begin() {
+        engine.beginHandshake()
+        handshake()
+    }
+
+    /**
+     * Decrypt the received bytes, handing any application data to the sink before returning
+     */
+    @Throws(SSLException::class)
+    fun unwrap(input: ByteBuffer, sink: (ByteBuffer) -> Unit) {
+        netIn = ensureCapacity(netIn, input.remaining())
+        netIn.put(input)
+        netIn.flip()
+        try {
+            records@ while (netIn.hasRemaining() && !closed) {
+                val result = engine.unwrap(netIn, appIn)
+                when (result.status) {
+                    SSLEngineResult.Status.BUFFER_OVERFLOW -> {
+                        if (appIn.position() > 0) {
+                            appIn.flip()
+                            sink(appIn)
+                            appIn.clear()
+                        } else {
+                            appIn = ByteBuffer.allocate(appIn.capacity() * 2)
+                        }
+                        continue@records
+                    }
+                    SSLEngineResult.Status.BUFFER_UNDERFLOW -> return
+                    SSLEngineResult.Status.CLOSED -> closed = true
+                    else -> {
+                    }
+                }
+                if (appIn.position() > 0) {
+                    appIn.flip()
+                    sink(appIn)
+                    appIn.clear()
+                }
+                handshake()
+                if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) return
+            }
+        } finally {
+            netIn.compact()
+        }
+    }
+
+    /**
+     * @return the TLS records carrying the given application data
+     */
+    @Throws(SSLException::class)
+    fun wrap(src: ByteBuffer): ByteBuffer {
+        var out = ByteBuffer.allocate(engine.session.packetBufferSize)
+        records@ while (true) {
+            val result = engine.wrap(src, out)
+            when (result.status) {
+                SSLEngineResult.Status.BUFFER_OVERFLOW -> {
+                    out = ensureCapacity(out, Math.max(out.capacity(), engine.session.packetBufferSize))
+                    continue@records
+                }
+                SSLEngineResult.Status.CLOSED -> closed = true
+                else -> {
+                }
+            }
+            if (closed || !src.hasRemaining() || (result.bytesConsumed() == 0 && result.bytesProduced() == 0)) break
+        }
+        out.flip()
+        return out
+    }
+
+    private fun handshake() {
+        while (!closed) {
+            when (engine.handshakeStatus) {
+                SSLEngineResult.HandshakeStatus.NEED_TASK -> {
+                    var task = engine.delegatedTask
+                    while (task != null) {
+                        task.run()
+                        task = engine.delegatedTask
+                    }
+                }
+                SSLEngineResult.HandshakeStatus.NEED_WRAP -> {
+                    val records = wrap(ByteBuffer.allocate(0))
+                    if (!records.hasRemaining()) return
+                    netOut.add(records)
+                }
+                else -> return
+            }
+        }
+    }
+
+    private fun ensureCapacity(buffer: ByteBuffer, extra: Int): ByteBuffer {
+        if (buffer.remaining() >= extra) return buffer
+        val larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + extra))
+        buffer.flip()
+        larger.put(buffer)
+        return larger
+    }
+}
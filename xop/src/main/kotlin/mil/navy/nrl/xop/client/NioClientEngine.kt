@@ -0,0 +1,192 @@
+package mil.navy.nrl.xop.client
+
+import edu.drexel.xop.client.XOPConnection
+import edu.drexel.xop.core.ClientManager
+import edu.drexel.xop.packet.LocalPacketProcessor
+import edu.drexel.xop.util.XOP
+import edu.drexel.xop.util.logger.LogUtils
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.nio.channels.CancelledKeyException
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.nio.channels.ServerSocketChannel
+import java.nio.channels.SocketChannel
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.logging.Level
+import kotlin.concurrent.thread
+
+/**
+ * Selector driven replacement for the thread-per-client engine in [listenForClients].
+ *
+ * One acceptor thread hands new [SocketChannel]s round robin to a small pool of [NioEventLoop]s. Each loop multiplexes
+ * its connections over a single [Selector] and drives the [ClientConnectionState] machine of every
+ * [NioClientConnection] it owns, so idle clients no longer cost a blocked thread.
+ */
+class NioClientEngine(
+    private val clientManager: ClientManager,
+    private val localPacketProcessor: LocalPacketProcessor,
+    private val domain: String = XOP.DOMAIN,
+    ioThreads: Int = XOP.CLIENT.IO_THREADS
+) {
+    private companion object {
+        private val logger = LogUtils.getLogger(NioClientEngine::class.java.name)
+    }
+
+    private val eventLoops = Array(Math.max(1, ioThreads)) { NioEventLoop("XopClientIO-$it") }
+    private val nextLoop = AtomicInteger()
+
+    /**
+     * Bind to the address and start accepting clients until [running] is cleared.
+     * @return the acceptor thread
+     */
+    fun listen(bindAddress: InetAddress, port: Int): Thread {
+        val serverChannel = ServerSocketChannel.open()
+        serverChannel.socket().reuseAddress = true
+        serverChannel.bind(InetSocketAddress(bindAddress, port))
+        serverChannel.configureBlocking(false)
+        logger.info("Listening for clients on ${serverChannel.localAddress} on domain: $domain with ${eventLoops.size} io threads")
+
+        val selector = Selector.open()
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT)
+
+        return thread(name = "XopClientAcceptor") {
+            try {
+                while (running.get()) {
+                    if (selector.select(ACCEPT_POLL_MS) == 0) continue
+                    selector.selectedKeys().clear()
+                    var channel = serverChannel.accept()
+                    while (channel != null) {
+                        register(channel)
+                        channel = serverChannel.accept()
+                    }
+                }
+            } catch (e: IOException) {
+                logger.log(Level.SEVERE, "Error accepting incoming connection from client", e)
+            } finally {
+                selector.close()
+                serverChannel.close()
+                shutdown()
+            }
+            logger.info("client acceptor exiting")
+        }
+    }
+
+    /**
+     * Hand an accepted (blocking or non-blocking) channel to one of the event loops.
+     * @return the connection that now serves the channel
+     */
+    fun register(channel: SocketChannel): XOPConnection {
+        val remote = channel.remoteAddress
+        logger.info("Accepted connection from $remote")
+        val eventLoop = eventLoops[Math.floorMod(nextLoop.getAndIncrement(), eventLoops.size)]
+        val connection = NioClientConnection(channel, eventLoop, clientManager, localPacketProcessor, domain)
+        eventLoop.register(connection)
+        return connection
+    }
+
+    /**
+     * Stop the event loops, closing every connection they serve
+     */
+    fun shutdown() {
+        eventLoops.forEach { it.shutdown() }
+    }
+}
+
+private const val ACCEPT_POLL_MS = 1000L
+
+/**
+ * A thread multiplexing many [NioClientConnection]s over one selector. All channel I/O and state machine processing
+ * for a connection happens on its loop's thread; other threads hand work over with [execute].
+ */
+internal class NioEventLoop(name: String) {
+    private companion object {
+        private val logger = LogUtils.getLogger(NioEventLoop::class.java.name)
+    }
+
+    private val selector = Selector.open()
+    private val tasks = ConcurrentLinkedQueue<Runnable>()
+    private val wakeupPending = AtomicBoolean(false)
+    private val open = AtomicBoolean(true)
+    private val loopThread = thread(name = name, isDaemon = true) { runLoop() }
+
+    fun inEventLoop(): Boolean = Thread.currentThread() === loopThread
+
+    /**
+     * Run the task on this loop's thread
+     */
+    fun execute(task: Runnable) {
+        tasks.add(task)
+        if (!inEventLoop() && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup()
+        }
+    }
+
+    fun register(connection: NioClientConnection) {
+        execute(Runnable {
+            try {
+                connection.channel.configureBlocking(false)
+                connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection)
+            } catch (e: IOException) {
+                logger.log(Level.WARNING, "Unable to register client channel", e)
+                connection.abort()
+            }
+        })
+    }
+
+    fun shutdown() {
+        if (open.compareAndSet(true, false)) {
+            selector.wakeup()
+        }
+    }
+
+    private fun runLoop() {
+        while (open.get()) {
+            try {
+                selector.select()
+                wakeupPending.set(false)
+                runTasks()
+
+                val keys = selector.selectedKeys().iterator()
+                while (keys.hasNext()) {
+                    val key = keys.next()
+                    keys.remove()
+                    val connection = key.attachment() as NioClientConnection
+                    try {
+                        if (key.isValid && key.isReadable) connection.onReadable()
+                        if (key.isValid && key.isWritable) connection.onWritable()
+                    } catch (e: CancelledKeyException) {
+                        connection.abort()
+                    } catch (e: Exception) {
+                        logger.log(Level.WARNING, "Error serving client ${connection.hostName}, closing", e)
+                        connection.abort()
+                    }
+                }
+            } catch (e: IOException) {
+                logger.log(Level.SEVERE, "Selector failure", e)
+            }
+        }
+
+        runTasks()
+        for (key in selector.keys()) {
+            (key.attachment() as? NioClientConnection)?.abort()
+        }
+        selector.close()
+        logger.info("${Thread.currentThread().name} exiting")
+    }
+
+    private fun runTasks() {
+        var task = tasks.poll()
+        while (task != null) {
+            try {
+                task.run()
+            } catch (e: Exception) {
+                logger.log(Level.WARNING, "Error running event loop task", e)
+            }
+            task = tasks.poll()
+        }
+    }
+}
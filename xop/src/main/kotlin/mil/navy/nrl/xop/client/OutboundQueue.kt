@@ -0,0 +1,353 @@
+package mil.navy.nrl.xop.client
+
+import edu.drexel.xop.util.XOP
+import edu.drexel.xop.util.logger.LogUtils
+import java.nio.ByteBuffer
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.Level
+
+/**
+ * What [OutboundQueue.offer] does with a stanza when the queue of a slow client is full, from
+ * [XOP.CLIENT.OUTBOUND_OVERFLOW]
+ */
+enum class OverflowPolicy {
+    /** drop the stanza */
+    DROP,
+    /** close the connection of the slow client */
+    DISCONNECT,
+    /** wait up to [XOP.CLIENT.OUTBOUND_BLOCK_TIMEOUT] milliseconds for room, then drop the stanza */
+    BLOCK;
+
+    companion object {
+        @JvmStatic
+        fun fromConfig(value: String?): OverflowPolicy {
+            return values().firstOrNull { it.name.equals(value?.trim(), ignoreCase = true) } ?: DROP
+        }
+    }
+}
+
+/**
+ * Bounded queue of the stanzas waiting to be written to one client.
+ *
+ * Any thread can [offer] stanzas without touching the socket, so a room fan-out or the NORM event loop is never held
+ * up by the client with the smallest TCP window. The connection's I/O side takes them with [nextBatch]/[takeBatch],
+ * which coalesce as many queued stanzas as fit in [XOP.CLIENT.OUTBOUND_BATCH_BYTES] into one buffer, so a burst is
+ * written and flushed once instead of once per stanza.
+ *
+ * When [capacity] stanzas are queued the [OverflowPolicy] applies. Lossy stanzas (chat state notifications) are
+ * dropped as soon as the queue is half full, so they never take the place of a real message. Control data (stream
+ * headers, SASL and STARTTLS responses, the stream close) is always queued.
+ *
+ * Queue depth and the drop counters are available from the getters and [toString], and for all open connections
+ * from [statistics].
+ */
+class OutboundQueue(
+    private val name: String,
+    private val capacity: Int = XOP.CLIENT.OUTBOUND_QUEUE_SIZE,
+    private val policy: OverflowPolicy = OverflowPolicy.fromConfig(XOP.CLIENT.OUTBOUND_OVERFLOW),
+    private val blockMillis: Long = XOP.CLIENT.OUTBOUND_BLOCK_TIMEOUT.toLong(),
+    private val batchBytes: Int = XOP.CLIENT.OUTBOUND_BATCH_BYTES,
+    private val onSlowConsumer: () -> Unit = {}
+) {
+    private val queue = LinkedBlockingQueue<ByteArray>()
+    private val closed = AtomicBoolean(false)
+    private val overflowReported = AtomicBoolean(false)
+
+    // signalled when the writer has taken stanzas off the queue or finished writing a batch
+    private val drained = Object()
+    private val waiters = AtomicInteger()
+    // queued or taken but not yet reported written
+    private val unwritten = AtomicInteger()
+    private var lastBatchCount = 0
+    private var batchBuffer: ByteBuffer? = null
+
+    private val enqueued = AtomicLong()
+    private val written = AtomicLong()
+    private val batches = AtomicLong()
+    private val dropped = AtomicLong()
+    private val droppedLossy = AtomicLong()
+    private val maxDepth = AtomicInteger()
+
+    init {
+        queues.add(this)
+    }
+
+    /**
+     * Queue a stanza for the client
+     * @param bytes the serialized stanza
+     * @param mayBlock false if the calling thread is the one draining this queue, it can't wait for room
+     * @return true if the stanza was queued, false if it was dropped
+     */
+    @JvmOverloads
+    fun offer(bytes: ByteArray, mayBlock: Boolean = true): Boolean {
+        if (closed.get()) return false
+        val depth = queue.size
+        if (depth >= capacity / 2 && isLossy(bytes)) {
+            droppedLossy.incrementAndGet()
+            return false
+        }
+        if (depth >= capacity && !overflow(mayBlock)) {
+            return false
+        }
+        add(bytes)
+        return true
+    }
+
+    /**
+     * Queue stream level data, regardless of the queue depth
+     */
+    fun offerControl(bytes: ByteArray) {
+        if (!closed.get()) add(bytes)
+    }
+
+    private fun add(bytes: ByteArray) {
+        unwritten.incrementAndGet()
+        queue.add(bytes)
+        enqueued.incrementAndGet()
+        val depth = queue.size
+        var max = maxDepth.get()
+        while (depth > max && !maxDepth.compareAndSet(max, depth)) {
+            max = maxDepth.get()
+        }
+    }
+
+    /**
+     * @return true if there is room for the stanza now
+     */
+    private fun overflow(mayBlock: Boolean): Boolean {
+        if (overflowReported.compareAndSet(false, true)) {
+            logger.warning("$name is not reading fast enough, $capacity stanzas queued, applying $policy")
+        }
+        when (policy) {
+            OverflowPolicy.DISCONNECT -> {
+                dropped.incrementAndGet()
+                if (closed.compareAndSet(false, true)) {
+                    logger.warning("Disconnecting slow client $name; $this")
+                    clear()
+                    queues.remove(this)
+                    onSlowConsumer()
+                }
+                return false
+            }
+            OverflowPolicy.BLOCK -> {
+                if (mayBlock && awaitRoom()) return true
+                dropped.incrementAndGet()
+                return false
+            }
+            OverflowPolicy.DROP -> {
+                dropped.incrementAndGet()
+                return false
+            }
+        }
+    }
+
+    private fun awaitRoom(): Boolean {
+        val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockMillis)
+        waiters.incrementAndGet()
+        try {
+            synchronized(drained) {
+                while (queue.size >= capacity && !closed.get()) {
+                    val remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())
+                    if (remaining <= 0) return false
+                    drained.wait(remaining)
+                }
+            }
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            return false
+        } finally {
+            waiters.decrementAndGet()
+        }
+        return !closed.get()
+    }
+
+    private fun signalDrained() {
+        if (waiters.get() > 0) {
+            synchronized(drained) {
+                drained.notifyAll()
+            }
+        }
+    }
+
+    /**
+     * Take the queued stanzas without waiting, for non-blocking writers. The returned buffer is reused by the next
+     * call, it must have been written completely before calling again.
+     * @return the next stanzas to write, or null if none are queued
+     */
+    fun nextBatch(): ByteBuffer? {
+        val first = queue.poll() ?: return null
+        if (first === CLOSE) return null
+        val batch = batch(first)
+        unwritten.addAndGet(-lastBatchCount)
+        return batch
+    }
+
+    /**
+     * Wait for stanzas to write, for a writer thread. Call [batchWritten] once the batch is on the wire.
+     * @return the next stanzas to write, or null once the queue is closed
+     */
+    @Throws(InterruptedException::class)
+    fun takeBatch(): ByteBuffer? {
+        while (true) {
+            if (closed.get() && queue.isEmpty()) return null
+            val first = queue.poll(1, TimeUnit.SECONDS) ?: continue
+            if (first === CLOSE) continue
+            return batch(first)
+        }
+    }
+
+    fun batchWritten() {
+        unwritten.addAndGet(-lastBatchCount)
+        lastBatchCount = 0
+        signalDrained()
+    }
+
+    private fun batch(first: ByteArray): ByteBuffer {
+        var count = 1
+        var next = queue.peek()
+        val out: ByteBuffer
+        if (next == null || next === CLOSE || first.size + next.size > batchBytes) {
+            out = ByteBuffer.wrap(first)
+        } else {
+            var buffer = batchBuffer
+            if (buffer == null) {
+                buffer = ByteBuffer.allocate(batchBytes)
+                batchBuffer = buffer
+            }
+            buffer!!.clear()
+            buffer.put(first)
+            while (next != null && next !== CLOSE && next.size <= buffer.remaining()) {
+                buffer.put(queue.poll() ?: break)
+                count++
+                next = queue.peek()
+            }
+            buffer.flip()
+            out = buffer
+        }
+        lastBatchCount = count
+        written.addAndGet(count.toLong())
+        batches.incrementAndGet()
+        if (waiters.get() > 0) signalDrained()
+        return out
+    }
+
+    /**
+     * Wait until everything queued so far has been written by a [takeBatch] writer
+     * @return false on timeout
+     */
+    fun awaitEmpty(timeoutMillis: Long): Boolean {
+        val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis)
+        waiters.incrementAndGet()
+        try {
+            synchronized(drained) {
+                while (unwritten.get() > 0) {
+                    val remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())
+                    if (remaining <= 0) return false
+                    drained.wait(Math.min(remaining, 10L))
+                }
+            }
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            return false
+        } finally {
+            waiters.decrementAndGet()
+        }
+        return true
+    }
+
+    /**
+     * Stop accepting stanzas. A [takeBatch] writer still gets what is queued, then null.
+     */
+    fun close() {
+        if (closed.compareAndSet(false, true)) {
+            queue.add(CLOSE)
+            queues.remove(this)
+            signalDrained()
+            if (dropped.get() + droppedLossy.get() > 0) {
+                logger.info("closed $this")
+            } else if (logger.isLoggable(Level.FINE)) {
+                logger.fine("closed $this")
+            }
+        }
+    }
+
+    /**
+     * Drop whatever is still queued, e.g. when the connection is gone
+     */
+    fun clear() {
+        queue.clear()
+        unwritten.set(0)
+        lastBatchCount = 0
+        signalDrained()
+    }
+
+    val isClosed: Boolean
+        get() = closed.get()
+
+    fun getDepth(): Int = queue.count { it !== CLOSE }
+
+    fun getMaxDepth(): Int = maxDepth.get()
+
+    fun getEnqueued(): Long = enqueued.get()
+
+    fun getWritten(): Long = written.get()
+
+    fun getBatches(): Long = batches.get()
+
+    fun getDropped(): Long = dropped.get()
+
+    fun getDroppedLossy(): Long = droppedLossy.get()
+
+    override fun toString(): String {
+        return "$name outbound: depth=${getDepth()} max=${getMaxDepth()} enqueued=${getEnqueued()} " +
+                "written=${getWritten()} batches=${getBatches()} dropped=${getDropped()} " +
+                "droppedLossy=${getDroppedLossy()}"
+    }
+
+    companion object {
+        private val logger = LogUtils.getLogger(OutboundQueue::class.java.name)
+
+        private val CLOSE = ByteArray(0)
+        private val queues: MutableSet<OutboundQueue> = ConcurrentHashMap.newKeySet()
+
+        private val MESSAGE = "<message".toByteArray(Charsets.US_ASCII)
+        private val CHATSTATES = "http://jabber.org/protocol/chatstates".toByteArray(Charsets.US_ASCII)
+        private val BODY = "<body".toByteArray(Charsets.US_ASCII)
+
+        /**
+         * @return one line per open client connection with its queue depth and counters
+         */
+        @JvmStatic
+        fun statistics(): String = queues.joinToString("\n")
+
+        /**
+         * A stanza that may be dropped for a slow client: a message carrying only a chat state notification
+         */
+        @JvmStatic
+        fun isLossy(bytes: ByteArray): Boolean {
+            var start = 0
+            while (start < bytes.size && bytes[start] <= ' '.toByte()) start++
+            return startsWith(bytes, start, MESSAGE) && indexOf(bytes, CHATSTATES) >= 0 && indexOf(bytes, BODY) < 0
+        }
+
+        private fun startsWith(bytes: ByteArray, offset: Int, prefix: ByteArray): Boolean {
+            if (offset + prefix.size > bytes.size) return false
+            for (i in prefix.indices) {
+                if (bytes[offset + i] != prefix[i]) return false
+            }
+            return true
+        }
+
+        private fun indexOf(bytes: ByteArray, target: ByteArray): Int {
+            for (i in 0..bytes.size - target.size) {
+                if (startsWith(bytes, i, target)) return i
+            }
+            return -1
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package mil.navy.nrl.xop.transport.reliable
+
+import edu.drexel.xop.util.XOP
+import java.nio.ByteBuffer
+import java.util.ArrayDeque
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Pool of direct buffers for the data handed to NORM, which reads it from native memory until the object is purged
+ * from the transmit cache.
+ *
+ * Buffers come in power of two size classes from [minSize] to [maxSize]; [acquire] takes a buffer of the smallest
+ * class that fits from the class's free list, or allocates one when the list is empty. [release] puts it back, as
+ * long as the free lists hold less than [maxPooledBytes], otherwise it is left to the garbage collector. Data larger
+ * than maxSize gets a buffer of its own that is never pooled.
+ *
+ * The bytes in use and their high water mark, and how many buffers were allocated and reused, are available from the
+ * getters and [toString], and for all open arenas from [statistics].
+ */
+internal class DirectBufferArena(
+    private val name: String,
+    minSize: Int = 256,
+    private val maxSize: Int = 64 * 1024,
+    private val maxPooledBytes: Long = XOP.TRANSPORT.NORM.ARENA_BYTES
+) {
+    private val minShift = 31 - Integer.numberOfLeadingZeros(Integer.highestOneBit(minSize * 2 - 1))
+    private val freeLists = Array(classOf(maxSize) + 1) { ArrayDeque<ByteBuffer>() }
+
+    private val inUseBytes = AtomicLong()
+    private val highWaterBytes = AtomicLong()
+    private val pooledBytes = AtomicLong()
+    private val allocations = AtomicLong()
+    private val reuses = AtomicLong()
+    private val discards = AtomicLong()
+
+    init {
+        arenas.add(this)
+    }
+
+    // index of the smallest size class holding size bytes
+    private fun classOf(size: Int): Int {
+        val shift = 32 - Integer.numberOfLeadingZeros(maxOf(size, 1) - 1)
+        return maxOf(0, shift - minShift)
+    }
+
+    /**
+     * @return a cleared buffer with a capacity of at least [size] bytes, to be given back with [release]
+     */
+    fun acquire(size: Int): ByteBuffer {
+        var buffer: ByteBuffer? = null
+        if (size <= maxSize) {
+            val freeList = freeLists[classOf(size)]
+            buffer = synchronized(freeList) { freeList.pollLast() }
+        }
+        if (buffer != null) {
+            pooledBytes.addAndGet(-buffer.capacity().toLong())
+            reuses.incrementAndGet()
+            buffer.clear()
+        } else {
+            val capacity = if (size <= maxSize) 1 shl (minShift + classOf(size)) else size
+            buffer = ByteBuffer.allocateDirect(capacity)
+            allocations.incrementAndGet()
+        }
+        val inUse = inUseBytes.addAndGet(buffer!!.capacity().toLong())
+        highWaterBytes.accumulateAndGet(inUse, Math::max)
+        return buffer
+    }
+
+    /**
+     * Gives back a buffer from [acquire], which must not be used afterwards
+     */
+    fun release(buffer: ByteBuffer) {
+        val capacity = buffer.capacity()
+        inUseBytes.addAndGet(-capacity.toLong())
+        if (capacity > maxSize || pooledBytes.get() + capacity > maxPooledBytes) {
+            discards.incrementAndGet()
+            return
+        }
+        val freeList = freeLists[classOf(capacity)]
+        pooledBytes.addAndGet(capacity.toLong())
+        synchronized(freeList) { freeList.addLast(buffer) }
+    }
+
+    fun getInUseBytes(): Long = inUseBytes.get()
+
+    fun getHighWaterBytes(): Long = highWaterBytes.get()
+
+    fun getPooledBytes(): Long = pooledBytes.get()
+
+    fun getAllocations(): Long = allocations.get()
+
+    fun getReuses(): Long = reuses.get()
+
+    fun getDiscards(): Long = discards.get()
+
+    /**
+     * Drops the pooled buffers, the ones in use are left to the garbage collector when they are released
+     */
+    fun close() {
+        arenas.remove(this)
+        for (freeList in freeLists) {
+            synchronized(freeList) {
+                for (buffer in freeList) {
+                    pooledBytes.addAndGet(-buffer.capacity().toLong())
+                }
+                freeList.clear()
+            }
+        }
+    }
+
+    override fun toString(): String {
+        return "$name buffers: inUse=${getInUseBytes()}B highWater=${getHighWaterBytes()}B " +
+                "pooled=${getPooledBytes()}B allocations=${getAllocations()} reuses=${getReuses()} " +
+                "discards=${getDiscards()}"
+    }
+
+    companion object {
+        private val arenas: MutableSet<DirectBufferArena> = ConcurrentHashMap.newKeySet()
+
+        /**
+         * @return one line per open arena with its byte counts and counters
+         */
+        @JvmStatic
+        fun statistics(): String = arenas.joinToString("\n")
+    }
+}
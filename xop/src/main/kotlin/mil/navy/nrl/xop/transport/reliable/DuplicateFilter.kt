@@ -0,0 +1,199 @@
+package mil.navy.nrl.xop.transport.reliable
+
+import edu.drexel.xop.util.XOP
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Recognizes the copies of a NORM payload that reach this node more than once, when nodes with several interfaces
+ * redirect what they receive to their other sessions.
+ *
+ * A payload is identified by a 64 bit hash of its bytes and the id of the node that first sent it, so the same
+ * bytes from two senders are different payloads. The keys are kept for about [windowMillis] in a ring of
+ * [generations] open addressing hash sets: a key is added to the newest set, and when the newest set has been in use
+ * for windowMillis / generations, or holds its share of [maxEntries], the oldest set is cleared and becomes the
+ * newest. A copy arriving after its key was dropped is not recognized. A set is allocated small when its generation
+ * gets its first key and doubles as it fills, up to what its share of maxEntries needs, and is released when its
+ * generation is dropped, so a filter of a quiet room holds a few KB rather than the whole window.
+ *
+ * Hits (duplicates) and misses are available from the getters and [toString], and for all open filters from
+ * [statistics].
+ */
+internal class DuplicateFilter(
+    private val name: String,
+    private val windowMillis: Long = XOP.TRANSPORT.NORM.DUPLICATE_WINDOW,
+    maxEntries: Int = XOP.TRANSPORT.NORM.DUPLICATE_ENTRIES,
+    private val generations: Int = 4,
+    private val clock: () -> Long = System::currentTimeMillis
+) {
+    private val entriesPerGeneration = maxOf(1, maxEntries / generations)
+    // at most half full, so probe sequences stay short
+    private val maxCapacity = Integer.highestOneBit(entriesPerGeneration * 2 - 1) shl 1
+    private val sets = arrayOfNulls<LongArray>(generations)
+    private val sizes = IntArray(generations)
+    private var newest = 0
+    private var newestSince = clock()
+
+    private var hits = 0L
+    private var misses = 0L
+    private var rotations = 0L
+
+    init {
+        filters.add(this)
+    }
+
+    /**
+     * Adds the payload to the window if it is not in it yet.
+     *
+     * @return true if the payload from [senderId] was seen before
+     */
+    @Synchronized
+    fun isDuplicate(senderId: Long, data: ByteArray): Boolean {
+        expire()
+        val key = key(senderId, data)
+        if (contains(key)) {
+            hits++
+            return true
+        }
+        misses++
+        add(key)
+        return false
+    }
+
+    /**
+     * Adds a payload that is handled whether or not it is a copy, so that its later copies are recognized
+     */
+    @Synchronized
+    fun record(senderId: Long, data: ByteArray) {
+        expire()
+        val key = key(senderId, data)
+        if (!contains(key)) {
+            add(key)
+        }
+    }
+
+    private fun contains(key: Long): Boolean {
+        for (set in sets) {
+            if (set == null) continue
+            val mask = set.size - 1
+            var i = key.toInt() and mask
+            while (true) {
+                val k = set[i]
+                if (k == key) return true
+                if (k == 0L) break
+                i = (i + 1) and mask
+            }
+        }
+        return false
+    }
+
+    private fun add(key: Long) {
+        if (sizes[newest] >= entriesPerGeneration) {
+            rotate(1)
+        }
+        var set = sets[newest]
+        if (set == null) {
+            set = LongArray(minOf(INITIAL_CAPACITY, maxCapacity))
+            sets[newest] = set
+        } else if ((sizes[newest] + 1) * 2 > set.size && set.size < maxCapacity) {
+            set = grow(set)
+            sets[newest] = set
+        }
+        insert(set, key)
+        sizes[newest]++
+    }
+
+    private fun grow(set: LongArray): LongArray {
+        val grown = LongArray(set.size * 2)
+        for (k in set) {
+            if (k != 0L) {
+                insert(grown, k)
+            }
+        }
+        return grown
+    }
+
+    private fun insert(set: LongArray, key: Long) {
+        val mask = set.size - 1
+        var i = key.toInt() and mask
+        while (set[i] != 0L) {
+            i = (i + 1) and mask
+        }
+        set[i] = key
+    }
+
+    // drops the generations older than the window
+    private fun expire() {
+        val elapsed = clock() - newestSince
+        val slice = maxOf(1L, windowMillis / generations)
+        if (elapsed >= slice) {
+            rotate(minOf(generations.toLong(), elapsed / slice).toInt())
+        }
+    }
+
+    private fun rotate(steps: Int) {
+        repeat(steps) {
+            newest = (newest + 1) % generations
+            sets[newest] = null
+            sizes[newest] = 0
+            rotations++
+        }
+        newestSince = clock()
+    }
+
+    @Synchronized
+    fun getHits(): Long = hits
+
+    @Synchronized
+    fun getMisses(): Long = misses
+
+    @Synchronized
+    fun getRotations(): Long = rotations
+
+    @Synchronized
+    fun getSize(): Int = sizes.sum()
+
+    /**
+     * @return the number of key slots allocated for the generations
+     */
+    @Synchronized
+    fun getCapacity(): Int = sets.fold(0) { total, set -> total + (set?.size ?: 0) }
+
+    fun close() {
+        filters.remove(this)
+    }
+
+    override fun toString(): String {
+        return "$name duplicates: hits=${getHits()} misses=${getMisses()} size=${getSize()} capacity=${getCapacity()} rotations=${getRotations()}"
+    }
+
+    companion object {
+        private val filters: MutableSet<DuplicateFilter> = ConcurrentHashMap.newKeySet()
+
+        // slots of a generation when it gets its first key
+        private const val INITIAL_CAPACITY = 64
+
+        /**
+         * @return one line per open filter with its counters
+         */
+        @JvmStatic
+        fun statistics(): String = filters.joinToString("\n")
+
+        /**
+         * FNV-1a over the sender id and the data, never 0, which marks an empty slot
+         */
+        internal fun key(senderId: Long, data: ByteArray): Long {
+            var hash = -0x340d631b7bdddcdbL
+            var id = senderId
+            repeat(8) {
+                hash = (hash xor (id and 0xff)) * 0x100000001b3L
+                id = id ushr 8
+            }
+            for (b in data) {
+                hash = (hash xor (b.toLong() and 0xff)) * 0x100000001b3L
+            }
+            // the low bits pick the slot, mix the high bits into them
+            hash = hash xor (hash ushr 29)
+            return if (hash == 0L) 1L else hash
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package mil.navy.nrl.xop.transport.reliable
+
+import edu.drexel.xop.util.MessageCompressionUtils
+import edu.drexel.xop.util.XOP
+import edu.drexel.xop.util.logger.LogUtils
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.Level
+
+/**
+ * Runs tasks on a fixed set of worker threads, each with a bounded queue. All tasks dispatched with the same key run
+ * on the same worker, in the order they were dispatched, so a key's tasks never run concurrently.
+ *
+ * [dispatch] never blocks: when the queue of the key's worker is full the task is dropped and counted, so a
+ * dispatching thread that must keep up (the NORM event loop) is never held up by a slow task. Queue depth, the time
+ * tasks wait in the queue and the drop counters are available from the getters and [toString], and for all open
+ * pools from [statistics]. Once [close] returns no task runs any more, so the resources the tasks use can be released.
+ */
+internal class KeyedWorkerPool(
+    private val name: String,
+    workers: Int = XOP.TRANSPORT.NORM.WORKERS,
+    private val queueCapacity: Int = XOP.TRANSPORT.NORM.WORKER_QUEUE
+) {
+    private val workers = Array(maxOf(1, workers)) { Worker(it) }
+    @Volatile
+    private var closed = false
+
+    init {
+        for (worker in this.workers) {
+            worker.thread.start()
+        }
+        pools.add(this)
+    }
+
+    private class Task(val enqueued: Long, val task: Runnable)
+
+    private inner class Worker(index: Int) {
+        val queue = ArrayBlockingQueue<Task>(queueCapacity)
+        val thread = Thread({ run() }, "$name worker $index").apply { isDaemon = true }
+        val processed = AtomicLong()
+        val dropped = AtomicLong()
+        val maxDepth = AtomicLong()
+        val waitNanos = AtomicLong()
+        val maxWaitNanos = AtomicLong()
+
+        private fun run() {
+            try {
+                while (true) {
+                    val task = queue.take()
+                    if (task === STOP) {
+                        break
+                    }
+                    val wait = System.nanoTime() - task.enqueued
+                    waitNanos.addAndGet(wait)
+                    maxWaitNanos.accumulateAndGet(wait, Math::max)
+                    try {
+                        task.task.run()
+                    } catch (e: Exception) {
+                        logger.log(Level.WARNING, "Exception in ${thread.name}: ${e.message}", e)
+                    }
+                    processed.incrementAndGet()
+                }
+            } catch (e: InterruptedException) {
+                logger.fine("${thread.name} interrupted")
+            } finally {
+                MessageCompressionUtils.release()
+            }
+        }
+    }
+
+    /**
+     * Queues [task] on the worker of [key]
+     *
+     * @return false if the worker's queue was full and the task was dropped, or the pool is closed
+     */
+    fun dispatch(key: Any, task: Runnable): Boolean {
+        if (closed) {
+            return false
+        }
+        val worker = workers[Math.floorMod(key.hashCode(), workers.size)]
+        if (!worker.queue.offer(Task(System.nanoTime(), task))) {
+            if (worker.dropped.incrementAndGet() == 1L) {
+                logger.warning("${worker.thread.name} queue is full ($queueCapacity), dropping events")
+            }
+            return false
+        }
+        worker.maxDepth.accumulateAndGet(worker.queue.size.toLong(), Math::max)
+        return true
+    }
+
+    fun getDepth(): Int = workers.sumBy { it.queue.size }
+
+    fun getMaxDepth(): Long = workers.fold(0L) { max, worker -> maxOf(max, worker.maxDepth.get()) }
+
+    fun getProcessed(): Long = workers.map { it.processed.get() }.sum()
+
+    fun getDropped(): Long = workers.map { it.dropped.get() }.sum()
+
+    /**
+     * @return the average time in milliseconds the processed tasks waited in the queue
+     */
+    fun getAverageWaitMillis(): Double {
+        val processed = getProcessed()
+        return if (processed == 0L) 0.0 else workers.map { it.waitNanos.get() }.sum() / 1e6 / processed
+    }
+
+    fun getMaxWaitMillis(): Double = workers.fold(0L) { max, worker -> maxOf(max, worker.maxWaitNanos.get()) } / 1e6
+
+    /**
+     * Stops the workers once their current task is done and waits for them, the tasks still queued are dropped
+     *
+     * @param timeoutMillis how long to wait for the current tasks, after which the workers are interrupted
+     */
+    fun close(timeoutMillis: Long = 5000) {
+        closed = true
+        pools.remove(this)
+        for (worker in workers) {
+            worker.queue.clear()
+            if (!worker.queue.offer(STOP)) {
+                worker.thread.interrupt()
+            }
+        }
+        val deadline = System.currentTimeMillis() + timeoutMillis
+        for (worker in workers) {
+            // a task closing its own pool
+            if (worker.thread === Thread.currentThread()) {
+                continue
+            }
+            try {
+                worker.thread.join(maxOf(1L, deadline - System.currentTimeMillis()))
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+                return
+            }
+            if (worker.thread.isAlive) {
+                logger.warning("${worker.thread.name} did not finish its task in ${timeoutMillis}ms, interrupting")
+                worker.thread.interrupt()
+            }
+        }
+    }
+
+    override fun toString(): String {
+        return "$name: workers=${workers.size} depth=${getDepth()} maxDepth=${getMaxDepth()} " +
+                "processed=${getProcessed()} dropped=${getDropped()} " +
+                "avgWait=${"%.2f".format(getAverageWaitMillis())}ms maxWait=${"%.2f".format(getMaxWaitMillis())}ms"
+    }
+
+    companion object {
+        private val logger = LogUtils.getLogger(KeyedWorkerPool::class.java.name)
+
+        private val STOP = Task(0, Runnable { })
+
+        private val pools: MutableSet<KeyedWorkerPool> = ConcurrentHashMap.newKeySet()
+
+        /**
+         * @return one line per open pool with its queue depth, wait times and counters
+         */
+        @JvmStatic
+        fun statistics(): String = pools.joinToString("\n")
+    }
+}
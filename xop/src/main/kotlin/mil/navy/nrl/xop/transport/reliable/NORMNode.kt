@@ -2,6 +2,7 @@ package mil.navy.nrl.xop.transport.reliable
 
 import edu.drexel.xop.util.logger.LogUtils
 import mil.navy.nrl.norm.NormSession
+import mil.navy.nrl.xop.util.logFinest
 import org.json.JSONObject
 import org.xmpp.packet.JID
 
@@ -29,8 +30,8 @@ val logger = LogUtils.getLogger(NORMNode::class.java.name)!!
  */
 fun fromJSONStr(jsonStr: String, normSession: NormSession? = null): NORMNode {
     val jsonObject = JSONObject(jsonStr)
-    logger.finest("jsonObject [[$jsonObject]]")
-    logger.finest("jsonStr    [[$jsonStr]]")
+    logger.logFinest { "jsonObject [[$jsonObject]]" }
+    logger.logFinest { "jsonStr    [[$jsonStr]]" }
     fun extractMap(jidMapKey: String): MutableMap<JID, String> {
         val jidMapJSONObject = jsonObject.getJSONObject(jidMapKey)
         val ret: Map<JID, String> = jidMapJSONObject.toMap().map { (k, v) ->
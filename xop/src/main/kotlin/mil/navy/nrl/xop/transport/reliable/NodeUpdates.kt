@@ -0,0 +1,191 @@
+package mil.navy.nrl.xop.transport.reliable
+
+import org.json.JSONArray
+import org.json.JSONObject
+import org.xmpp.packet.JID
+
+/*
+ * Periodic node updates: instead of the whole NORMNode every interval, a node sends what changed since its previous
+ * update, or a digest of its state when nothing did. Both are JSON objects with a "k" (kind) key, which a full
+ * NORMNode does not have:
+ *
+ *   delta  = {"k":"delta", "n":nodeId, "s":seq, "b":baseSeq, "j":{jid:hash}, "rj":[jid], "o":{jid:[occupant]},
+ *             "ro":[jid], "r":[room], "rr":[room]}      absent keys mean no change
+ *   digest = {"k":"digest", "n":nodeId, "s":seq, "d":digest}
+ *   resync = {"k":"resync", "n":nodeId}                  asks node n for a full NORMNode
+ *
+ * A delta holds the new values, not increments, so applying it again, or to a snapshot that already has some of its
+ * changes, gives the same state. A receiver whose last sequence number is not the delta's base, or whose digest of
+ * the node differs, has missed an update and asks for a full snapshot.
+ */
+
+internal const val NODE_DELTA = "delta"
+internal const val NODE_DIGEST = "digest"
+internal const val NODE_RESYNC = "resync"
+
+/**
+ * What changed in node [nodeId] between the updates [baseSeq] and [seq]. [occupants] holds the complete set of rooms
+ * of each client whose rooms changed.
+ */
+internal data class NodeDelta(
+    val nodeId: Long,
+    val seq: Long,
+    val baseSeq: Long,
+    val jids: Map<JID, String>,
+    val removedJids: Set<JID>,
+    val occupants: Map<JID, Set<String>>,
+    val removedOccupants: Set<JID>,
+    val rooms: Set<String>,
+    val removedRooms: Set<String>
+)
+
+internal data class NodeDigest(val nodeId: Long, val seq: Long, val digest: Long)
+
+/**
+ * @return the changes from [old] to [new], or null if there are none
+ */
+internal fun diff(old: NORMNode, new: NORMNode, seq: Long): NodeDelta? {
+    val jids = new.jidMap.filter { (jid, hash) -> old.jidMap[jid] != hash }
+    val removedJids = old.jidMap.keys - new.jidMap.keys
+    val occupants = new.mucOccupants.filter { (jid, rooms) -> old.mucOccupants[jid] != rooms }
+    val removedOccupants = old.mucOccupants.keys - new.mucOccupants.keys
+    val rooms = new.mucRooms - old.mucRooms
+    val removedRooms = old.mucRooms - new.mucRooms
+    if (jids.isEmpty() && removedJids.isEmpty() && occupants.isEmpty() && removedOccupants.isEmpty()
+        && rooms.isEmpty() && removedRooms.isEmpty()) {
+        return null
+    }
+    return NodeDelta(new.nodeId, seq, old.seq, jids, removedJids, occupants.mapValues { (_, v) -> v.toSet() },
+        removedOccupants, rooms, removedRooms)
+}
+
+/**
+ * Applies [delta] to [node] and moves it to the delta's sequence number
+ */
+internal fun applyDelta(node: NORMNode, delta: NodeDelta) {
+    node.jidMap.putAll(delta.jids)
+    node.jidMap.keys.removeAll(delta.removedJids)
+    for ((jid, rooms) in delta.occupants) {
+        node.mucOccupants[jid] = rooms.toMutableSet()
+    }
+    node.mucOccupants.keys.removeAll(delta.removedOccupants)
+    node.mucRooms.addAll(delta.rooms)
+    node.mucRooms.removeAll(delta.removedRooms)
+    node.seq = delta.seq
+}
+
+/**
+ * A copy of [node] that shares none of its collections
+ */
+internal fun copyOf(node: NORMNode): NORMNode {
+    return node.copy(
+        jidMap = node.jidMap.toMutableMap(),
+        mucOccupants = node.mucOccupants.mapValuesTo(mutableMapOf()) { (_, v) -> v.toMutableSet() },
+        mucRooms = node.mucRooms.toMutableSet()
+    )
+}
+
+/**
+ * A hash of the clients, occupants and rooms of [node] that does not depend on the order of their collections
+ */
+internal fun nodeDigest(node: NORMNode): Long {
+    var digest = 0L
+    for ((jid, hash) in node.jidMap) {
+        digest += fnv("j$jid=$hash")
+    }
+    for ((jid, rooms) in node.mucOccupants) {
+        for (room in rooms) {
+            digest += fnv("o$jid>$room")
+        }
+    }
+    for (room in node.mucRooms) {
+        digest += fnv("r$room")
+    }
+    return digest
+}
+
+private fun fnv(s: String): Long {
+    var hash = -0x340d631b7bdddcdbL
+    for (c in s) {
+        hash = (hash xor c.toLong()) * 0x100000001b3L
+    }
+    return hash
+}
+
+internal fun toJSON(delta: NodeDelta): JSONObject {
+    val obj = JSONObject()
+    obj.put("k", NODE_DELTA)
+    obj.put("n", delta.nodeId)
+    obj.put("s", delta.seq)
+    obj.put("b", delta.baseSeq)
+    if (delta.jids.isNotEmpty()) {
+        obj.put("j", JSONObject(delta.jids.mapKeys { (k, _) -> k.toString() }))
+    }
+    if (delta.removedJids.isNotEmpty()) {
+        obj.put("rj", JSONArray(delta.removedJids.map { it.toString() }))
+    }
+    if (delta.occupants.isNotEmpty()) {
+        val occupants = JSONObject()
+        for ((jid, rooms) in delta.occupants) {
+            occupants.put(jid.toString(), JSONArray(rooms))
+        }
+        obj.put("o", occupants)
+    }
+    if (delta.removedOccupants.isNotEmpty()) {
+        obj.put("ro", JSONArray(delta.removedOccupants.map { it.toString() }))
+    }
+    if (delta.rooms.isNotEmpty()) {
+        obj.put("r", JSONArray(delta.rooms))
+    }
+    if (delta.removedRooms.isNotEmpty()) {
+        obj.put("rr", JSONArray(delta.removedRooms))
+    }
+    return obj
+}
+
+internal fun toJSON(digest: NodeDigest): JSONObject {
+    return JSONObject().put("k", NODE_DIGEST).put("n", digest.nodeId).put("s", digest.seq).put("d", digest.digest)
+}
+
+internal fun deltaFromJSON(obj: JSONObject): NodeDelta {
+    fun strings(key: String): Set<String> = obj.optJSONArray(key)?.map { it as String }?.toSet() ?: emptySet()
+    fun jids(key: String): Set<JID> = strings(key).map { JID(it) }.toSet()
+
+    val jids = obj.optJSONObject("j")?.toMap()?.map { (k, v) -> JID(k) to v as String }?.toMap() ?: emptyMap()
+    val occupants = obj.optJSONObject("o")?.toMap()?.map { (k, v) ->
+        JID(k) to (v as List<*>).map { it as String }.toSet()
+    }?.toMap() ?: emptyMap()
+    return NodeDelta(obj.getLong("n"), obj.getLong("s"), obj.getLong("b"), jids, jids("rj"), occupants, jids("ro"),
+        strings("r"), strings("rr"))
+}
+
+internal fun digestFromJSON(obj: JSONObject): NodeDigest {
+    return NodeDigest(obj.getLong("n"), obj.getLong("s"), obj.getLong("d"))
+}
+
+/**
+ * Makes the periodic updates of [node], which the caller changes as its clients come and go
+ */
+internal class NodeUpdates(private val node: NORMNode) {
+    // the state described by the updates sent so far
+    private var sent = copyOf(node)
+
+    /**
+     * @return the changes since the previous update with the next sequence number, or the digest of the node if
+     * nothing changed
+     */
+    fun next(): JSONObject {
+        val delta = diff(sent, node, sent.seq + 1) ?: return toJSON(NodeDigest(node.nodeId, sent.seq, nodeDigest(sent)))
+        node.seq = delta.seq
+        sent = copyOf(node)
+        return toJSON(delta)
+    }
+
+    /**
+     * @return the whole node, as sent to new and resynchronizing nodes
+     */
+    fun snapshot(): JSONObject {
+        node.seq = sent.seq
+        return toJSON(node)
+    }
+}
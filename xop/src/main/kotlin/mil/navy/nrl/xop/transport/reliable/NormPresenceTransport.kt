@@ -4,20 +4,24 @@ import edu.drexel.xop.net.SDListener
 import edu.drexel.xop.net.SDManager
 import edu.drexel.xop.packet.TransportPacketProcessor
 import edu.drexel.xop.room.Room
+import edu.drexel.xop.util.HashedWheelTimer
 import edu.drexel.xop.util.Utils
 import edu.drexel.xop.util.XOP
 import edu.drexel.xop.util.logger.LogUtils
 import edu.drexel.xop.util.logger.XopLogFormatter
 import kotlinx.coroutines.*
+import kotlinx.coroutines.channels.Channel
 import mil.navy.nrl.norm.NormSession
+import mil.navy.nrl.xop.util.logFine
+import mil.navy.nrl.xop.util.logFiner
 import org.dom4j.DocumentException
 import org.json.JSONObject
 import org.xmpp.packet.JID
 import org.xmpp.packet.Presence
+import java.io.IOException
 import java.net.InetAddress
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ConcurrentMap
-import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.atomic.AtomicLong
 import java.util.logging.Level
 
@@ -34,9 +38,13 @@ internal class NormPresenceTransport(
     private val sdListener: SDListener,
     compression: Boolean,
     private val normServiceCoroutineScope: CoroutineScope,
+    // runs the received data of this transport, one task at a time
+    private val workers: KeyedWorkerPool,
     private val nodePresenceInterval: Long,
     private val nodeTimeoutInterval: Int,
-    grttMultiplier: Int = XOP.TRANSPORT.NORM.GRTT_MULTIPLIER
+    maxPresenceInterval: Long = XOP.TRANSPORT.NORM.SD.MAX_INTERVAL,
+    grttMultiplier: Int = XOP.TRANSPORT.NORM.GRTT_MULTIPLIER,
+    timer: HashedWheelTimer = HashedWheelTimer.shared()
 ) : NormTransport(TransportType.PresenceTransport, TransportSubType.Presence, senderNormSessions, receivingNormSessions,
     address, port, packetProcessor, compression, grttMultiplier) {
     private val logger = LogUtils.getLogger(NormPresenceTransport::class.java.name)
@@ -70,13 +78,29 @@ internal class NormPresenceTransport(
         var normTransport: NormTransport?
     )
 
+    // changed by the threads of the local clients, synchronized on itself
     private val thisNode = NORMNode(mutableMapOf(), nodeId, 0, mutableMapOf(), mutableSetOf(), null)
+    private val nodeUpdates = NodeUpdates(thisNode)
+    // nodePresenceInterval after a change, backing off to maxPresenceInterval while nothing changes
+    private val heartbeat = AdaptiveInterval(nodePresenceInterval, maxPresenceInterval)
+    // wakes up the broadcast when a local client changes
+    private val localChanges = Channel<Unit>(Channel.CONFLATED)
+
+    // each remote node as its snapshots and updates describe it, the seq is that of its last update
+    private val advertisedNodes: ConcurrentMap<Long, NORMNode> = ConcurrentHashMap()
+    // when a snapshot was last requested from a remote node
+    private val snapshotRequests: ConcurrentMap<Long, Long> = ConcurrentHashMap()
 
     // <room name, RoomDetails>
     val mucRooms = mutableMapOf<JID, NORMRoom>()
 
     // TODO 20181216 move to NormPresenceTransport for transport bookkeeping
-    private val remoteNodeCounters: ConcurrentMap<Long, AtomicInteger> = ConcurrentHashMap()
+    private val liveness = RemoteNodeLiveness(nodePresenceInterval, nodeTimeoutInterval, grttMultiplier, timer) {
+        // off the timer thread, on the worker that handles the received data so it sees the remote nodes settled
+        if (!workers.dispatch(this, Runnable { remoteNodeLost(it) })) {
+            presenceLogger.warning("worker queue full or closed, remote node $it not marked as lost")
+        }
+    }
     private val remoteNodes: ConcurrentMap<Long, NORMNode> = ConcurrentHashMap()
 
     // private val monitorRemoteNodeCountersMap: MutableMap<Long, Job> = mutableMapOf()
@@ -115,7 +139,7 @@ internal class NormPresenceTransport(
         }
 
         override fun advertiseMucOccupant(presence: Presence) {
-            logger.fine("advertising MUC Occupant ${presence.to} from ${presence.from}")
+            logger.logFine { "advertising MUC Occupant ${presence.to} from ${presence.from}" }
             // send the presence message over the transport
             sendMUCPresencePacket(presence)
         }
@@ -183,21 +207,27 @@ internal class NormPresenceTransport(
 
     /** sends presence packets to the network */
     private fun sendPresencePacket(presence: Presence) {
-        logger.fine("sending new Presence message from local client: ${presence.from}")
-        logger.finer("presence: $presence")
+        logger.logFine { "sending new Presence message from local client: ${presence.from}" }
+        logger.logFiner { "presence: $presence" }
         updateThisNode(thisNode, presence)
+        if (presence.type != Presence.Type.probe) {
+            localChanges.offer(Unit)
+        }
         sendPresenceData(presence, TransportSubType.Presence)
     }
 
     /** sends MUC presence packets to the network */
     private fun sendMUCPresencePacket(presence: Presence) {
-        logger.fine("sending MUC Presence from local client: ${presence.from}")
+        logger.logFine { "sending MUC Presence from local client: ${presence.from}" }
         updateThisNodeMucOccupant(thisNode, presence)
+        localChanges.offer(Unit)
         sendPresenceData(presence, TransportSubType.MUCPresence)
     }
 
     private fun advertiseMucRoom(roomJid: JID, description: String, domain: String) {
-        thisNode.mucRooms.add(roomJid.toString())
+        if (synchronized(thisNode) { thisNode.mucRooms.add(roomJid.toString()) }) {
+            localChanges.offer(Unit)
+        }
     }
 
     private fun sendPresenceData(presence: Presence, transportSubType: TransportSubType) {
@@ -205,7 +235,7 @@ internal class NormPresenceTransport(
         var transport: NormTransport = this
         if (presence.to != null && presence.to.asBareJID() in mucRooms)
             transport = mucRooms[presence.to.asBareJID()]!!.normTransport!!
-        logger.finer("sending as bytes in UTF_8 [[${presence.toXML()}]]")
+        logger.logFiner { "sending as bytes in UTF_8 [[${presence.toXML()}]]" }
         for((_, normSession) in sendingNormSessions) {
             transport.sendData(dataBytes, transportType, transportSubType, normSession, normSession.localNodeId)
         }
@@ -235,6 +265,9 @@ internal class NormPresenceTransport(
         // }
         // broadcastJobsMap.clear()
 
+        running = false
+        liveness.close()
+
         // Closes sending and receiving norm sessions
         super.close()
     }
@@ -242,7 +275,7 @@ internal class NormPresenceTransport(
     /**
      * NormTransport calls this method to update the instance [node] with [presence] information
      */
-    private fun updateThisNode(node: NORMNode, presence: Presence) {
+    private fun updateThisNode(node: NORMNode, presence: Presence) = synchronized(node) {
         // TODO probably need to move
         val from = presence.from
 
@@ -250,33 +283,33 @@ internal class NormPresenceTransport(
             Presence.Type.unavailable -> {
                 logger.fine("unavailable presence, remove the JID")
                 val a = node.jidMap.remove(from)
-                logger.finer("node jid $from = $a removed. jidMap: ${node.jidMap} ${node.hashCode()} $node")
+                logger.logFiner { "node jid $from = $a removed. jidMap: ${node.jidMap} ${node.hashCode()} $node" }
             }
             Presence.Type.probe -> {
                 logger.fine("not updating md5bytes since presence is probe")
             }
             else -> {
                 val md5bytes = Utils.Md5Base64(presence.toXML())
-                logger.fine("md5bytes $md5bytes presence: {{$presence}}")
+                logger.logFine { "md5bytes $md5bytes presence: {{$presence}}" }
                 node.jidMap[from] = md5bytes
-                logger.fine("updated node ${node.nodeId}. {$node} hashcode: ${node.jidMap[from]}")
+                logger.logFine { "updated node ${node.nodeId}. {$node} hashcode: ${node.jidMap[from]}" }
             }
         }
     }
 
-    private fun updateThisNodeMucOccupant(node: NORMNode, presence: Presence) {
+    private fun updateThisNodeMucOccupant(node: NORMNode, presence: Presence) = synchronized(node) {
         if (presence.isAvailable) {
             if (presence.from !in node.mucOccupants)
                 node.mucOccupants[presence.from] = mutableSetOf(presence.to.toString())
             else
                 node.mucOccupants[presence.from]!!.add(presence.to.toString())
-            logger.fine("Adding mucOccupant ${presence.to} for ${presence.from} for tracking")
-            logger.finer("node.mucOccupants: ${node.mucOccupants}")
+            logger.logFine { "Adding mucOccupant ${presence.to} for ${presence.from} for tracking" }
+            logger.logFiner { "node.mucOccupants: ${node.mucOccupants}" }
         } else {
             node.mucOccupants[presence.from]?.remove(presence.to?.toString())
 
             // node.mucOccupants.remove(presence.from)
-            logger.fine("removed mucOccupant ${presence.to} from ${node.mucOccupants[presence.from]} for tracking")
+            logger.logFine { "removed mucOccupant ${presence.to} from ${node.mucOccupants[presence.from]} for tracking" }
         }
     }
 
@@ -295,9 +328,9 @@ internal class NormPresenceTransport(
     override fun handleTransportData(senderNodeId: Long, receivingNormSession: NormSession,
                                      transportMetadata: TransportMetadata, msgString: String, dataBytes: ByteArray)
     {
-        logger.fine("Received data on ${ifacesForReceivingSessions[receivingNormSession]} form session $receivingNormSession " +
-                "of subtype: ${transportMetadata.transportSubType}")
-        if (isRedirect(transportMetadata) && isDuplicate(dataBytes)) {
+        logger.logFine { "Received data on ${ifacesForReceivingSessions[receivingNormSession]} form session $receivingNormSession " +
+                "of subtype: ${transportMetadata.transportSubType}" }
+        if (isDuplicate(transportMetadata, dataBytes)) {
             logger.finer("msg is redirect and duplicate, ")
             return
         }
@@ -309,6 +342,7 @@ internal class NormPresenceTransport(
                     transportMetadata.origSenderId
                 }
                 val remoteNormNode = fromJSONStr(msgString, receivingNormSession)
+                recordSnapshot(remoteNormNode)
                 handleRemoteNodeInitData(senderId, receivingNormSession, remoteNormNode)
             }
             TransportSubType.Presence ->  {
@@ -317,7 +351,7 @@ internal class NormPresenceTransport(
                 } else {
                     transportMetadata.origSenderId
                 }
-                handlePresenceTransportData(senderId, receivingNormSession, msgString)
+                handlePresenceTransportData(senderId, receivingNormSession, msgString, dataBytes)
             }
             TransportSubType.MUCPresence -> {
                 val senderId = if (transportMetadata.transportType == TransportType.MUCPresence) {
@@ -325,11 +359,10 @@ internal class NormPresenceTransport(
                 } else {
                     transportMetadata.origSenderId
                 }
-                handleMUCPresence(senderId, receivingNormSession, msgString)
+                handleMUCPresence(senderId, receivingNormSession, msgString, dataBytes)
             }
             TransportSubType.JSON -> {
-                val probeNORMNode = fromJSONStr(msgString, receivingNormSession)
-                handlePresenceProbe(probeNORMNode.nodeId, probeNORMNode)
+                handleNodeUpdate(JSONObject(msgString), receivingNormSession)
             }
             else -> {
                 logger.warning("Unhandled Transport SubType: ${transportMetadata.transportSubType}")
@@ -340,7 +373,89 @@ internal class NormPresenceTransport(
         if (sendingNormSessions.size > 1) {
             presenceRcvrLogger.fine("Redirecting data string to other sessions, not $receivingNormSession")
 
-            redirectData(msgString.toByteArray(Charsets.UTF_8), transportMetadata, receivingNormSession, transportMetadata.origSenderId)
+            redirectData(dataBytes, transportMetadata, receivingNormSession, transportMetadata.origSenderId)
+        }
+    }
+
+    /**
+     * Handles the periodic update of a remote node: a delta, a digest, a full NORMNode as sent by older versions, or
+     * a request for the snapshot of this node
+     */
+    private fun handleNodeUpdate(update: JSONObject, receivingNormSession: NormSession) {
+        when (update.optString("k")) {
+            NODE_DELTA -> {
+                val delta = deltaFromJSON(update)
+                liveness.heard(delta.nodeId, update.optLong("i"), receivingNormSession.grttEstimate)
+                val advertised = advertisedNodes[delta.nodeId]
+                if (advertised == null || advertised.seq != delta.baseSeq) {
+                    // an older delta arriving late needs nothing
+                    if (advertised == null || delta.seq > advertised.seq) {
+                        requestSnapshot(delta.nodeId, "delta ${delta.baseSeq}..${delta.seq} after ${advertised?.seq}")
+                    }
+                    return
+                }
+                presenceRcvrLogger.fine("applying delta ${delta.baseSeq}..${delta.seq} of node ${delta.nodeId}")
+                applyDelta(advertised, delta)
+                handlePresenceProbe(delta.nodeId, copyOf(advertised))
+            }
+            NODE_DIGEST -> {
+                val digest = digestFromJSON(update)
+                liveness.heard(digest.nodeId, update.optLong("i"), receivingNormSession.grttEstimate)
+                val advertised = advertisedNodes[digest.nodeId]
+                if (advertised == null || digest.seq > advertised.seq
+                    || (digest.seq == advertised.seq && digest.digest != nodeDigest(advertised))) {
+                    requestSnapshot(digest.nodeId, "digest of ${digest.seq} after ${advertised?.seq}")
+                }
+            }
+            NODE_RESYNC -> {
+                if (update.getLong("n") == thisNode.nodeId) {
+                    presenceSndrLogger.fine("snapshot requested")
+                    sendSnapshot()
+                }
+            }
+            else -> {
+                val probeNORMNode = fromJSONStr(update.toString(), receivingNormSession)
+                recordSnapshot(probeNORMNode)
+                handlePresenceProbe(probeNORMNode.nodeId, probeNORMNode)
+            }
+        }
+    }
+
+    private fun recordSnapshot(remoteNormNode: NORMNode) {
+        val advertised = advertisedNodes[remoteNormNode.nodeId]
+        // the snapshot requested after missing an update has the seq of the last update
+        if (advertised == null || remoteNormNode.seq >= advertised.seq) {
+            advertisedNodes[remoteNormNode.nodeId] = copyOf(remoteNormNode)
+        }
+    }
+
+    /**
+     * Asks [remoteNodeId] for its snapshot, at most once per presence interval
+     */
+    private fun requestSnapshot(remoteNodeId: Long, reason: String) {
+        val now = System.currentTimeMillis()
+        val last = snapshotRequests[remoteNodeId]
+        if (last != null && now - last < nodePresenceInterval) {
+            return
+        }
+        snapshotRequests[remoteNodeId] = now
+        presenceRcvrLogger.fine("requesting snapshot of node $remoteNodeId: $reason")
+        val request = JSONObject().put("k", NODE_RESYNC).put("n", remoteNodeId).toString().toByteArray(Charsets.UTF_8)
+        for ((_, senderSession) in sendingNormSessions) {
+            sendData(request, TransportType.PresenceProbe, TransportSubType.JSON, senderSession, senderSession.localNodeId)
+        }
+    }
+
+    /**
+     * Sends the whole of this node to the other nodes
+     */
+    private fun sendSnapshot() {
+        val jsonStr = synchronized(thisNode) { nodeUpdates.snapshot() }.toString()
+        presenceSndrLogger.finer("send to network: $jsonStr")
+        val nodeData = jsonStr.toByteArray(Charsets.UTF_8)
+        for ((iface, senderSession) in sendingNormSessions) {
+            logger.logFine { "sending normNode to $iface session $senderSession" }
+            sendData(nodeData, TransportType.PresenceInit, TransportSubType.Initialization, senderSession, senderSession.localNodeId)
         }
     }
 
@@ -372,7 +487,9 @@ internal class NormPresenceTransport(
      * and uses sdListener to send the packet to
      * XO Proxy for sending to local clients
      */
-    private fun handlePresenceTransportData(senderNodeId: Long, receiverSession: NormSession, msgString: String) {
+    private fun handlePresenceTransportData(senderNodeId: Long, receiverSession: NormSession, msgString: String,
+                                            dataBytes: ByteArray) {
+        liveness.heard(senderNodeId, null, receiverSession.grttEstimate)
         val remoteNode = if (senderNodeId in remoteNodes) {
             remoteNodes[senderNodeId]!!
         } else {
@@ -386,7 +503,7 @@ internal class NormPresenceTransport(
 
         presenceRcvrLogger.finer("msgString: $msgString")
         try {
-            val packet = Utils.packetFromString(msgString)
+            val packet = Utils.packetFromBytes(dataBytes)
             val presence = packet as Presence
             presenceRcvrLogger.fine("Updating remote node for this presence")
 
@@ -440,8 +557,7 @@ internal class NormPresenceTransport(
         // grttEstimates[sendingNormSessions].set(grttEstimate)
         val seq = probeNORMNode.seq
         val execHandlePresenceProbe = fun() {
-            val ct = remoteNodeCounters[eventNodeId]!!.getAndSet(nodeTimeoutInterval)
-            presenceRcvrLogger.fine("Reset remoteNodeCounters[$eventNodeId] $ct -> $nodeTimeoutInterval")
+            liveness.heard(eventNodeId, null, grttEstimate)
             handlePresenceProbe(eventNodeId, probeNORMNode)
         }
 
@@ -466,9 +582,11 @@ internal class NormPresenceTransport(
      * Sender Id [senderNodeId] sends presence in form of [msgString] from a MUC Occupant.
      * Redirect over other sessions if multiple sendingNormSessions configured
      */
-    private fun handleMUCPresence(senderNodeId: Long, senderSession: NormSession, msgString: String) {
+    private fun handleMUCPresence(senderNodeId: Long, senderSession: NormSession, msgString: String,
+                                  dataBytes: ByteArray) {
         presenceRcvrLogger.fine("mucPresence from senderId $senderNodeId, str: $msgString")
-        val packet = Utils.packetFromString(msgString)
+        liveness.heard(senderNodeId, null, senderSession.grttEstimate)
+        val packet = Utils.packetFromBytes(dataBytes)
         val presence = packet as Presence
 
         val clientJID = presence.from!!
@@ -500,7 +618,7 @@ internal class NormPresenceTransport(
      * Called from RX_CMD_NEW events
      */
     private fun handlePresenceProbe(remoteNodeId: Long, probeNORMNode: NORMNode) {
-        logger.fine("Handle remoteNodeId $remoteNodeId, presenceProbe: $probeNORMNode")
+        logger.logFine { "Handle remoteNodeId $remoteNodeId, presenceProbe: $probeNORMNode" }
         updateClients(remoteNodeId, probeNORMNode)
 
         // called from handlePresenceProbe() to process new/removed MUCOccupants and new rooms
@@ -515,7 +633,7 @@ internal class NormPresenceTransport(
             presenceRcvrLogger.finer("remote node $remoteNodeId, sending probe request to $jid from ${thisNode.jidMap}")
             // send a PresenceProbe for each locally connected clients
             sendPresenceProbes(jid)
-            logger.fine("Adding client $jid")
+            logger.logFine { "Adding client $jid" }
             val presence = Presence()
             presence.from = jid
             sdListener.clientDiscovered(presence)
@@ -570,10 +688,11 @@ internal class NormPresenceTransport(
                     sdListener.clientReconnected(probeJID)
                 }
             }
-            remoteNodeCounters[remoteNodeId]?.set(nodeTimeoutInterval)
+            val grttEstimate = remoteNode.sendingSession?.grttEstimate ?: 0.0
+            liveness.heard(remoteNodeId, null, grttEstimate)
             presenceRcvrLogger.fine(
-                "resetting counter for remoteNode $remoteNodeId," +
-                        " now: ${remoteNodeCounters[remoteNodeId]?.get()}"
+                "resetting deadline for remoteNode $remoteNodeId," +
+                        " timeout: ${liveness.timeout(remoteNodeId, grttEstimate)}ms"
             )
 
             presenceRcvrLogger.fine("existing remoteNode: $remoteNode, probeNORMNOde $probeNORMNode")
@@ -590,7 +709,7 @@ internal class NormPresenceTransport(
     }
 
     private fun sendPresenceProbes(toJid: JID?) {
-        for (thisNodeJID in thisNode.jidMap.keys) {
+        for (thisNodeJID in synchronized(thisNode) { thisNode.jidMap.keys.toList() }) {
             val probePresence = Presence(Presence.Type.probe)
             probePresence.to = toJid
             probePresence.from = thisNodeJID
@@ -606,12 +725,12 @@ internal class NormPresenceTransport(
     ) {
 
         val updateDiscoveredRooms = fun (remoteMucRooms: Set<String>) {
-            logger.fine("remote MUC Rooms: $remoteMucRooms, known mucRooms $mucRooms")
+            logger.logFine { "remote MUC Rooms: $remoteMucRooms, known mucRooms $mucRooms" }
             for (roomJIDStr in remoteMucRooms) {
                 val roomJID = JID(roomJIDStr)
                 if (roomJID !in mucRooms.keys) {
                     mucRooms[roomJID] = NORMRoom(roomJID, mutableMapOf(), null)
-                    logger.fine("Adding new room $roomJID")
+                    logger.logFine { "Adding new room $roomJID" }
                     sdListener.roomAdded(roomJID)
                 }
             }
@@ -625,7 +744,7 @@ internal class NormPresenceTransport(
                 remoteNodeId: Long,
                 remoteMUCOccupants: Map<JID, MutableSet<String>>
             ) {
-                logger.finer("Determine which discovered remoteMUCOccupants $remoteMUCOccupants to remove")
+                logger.logFiner { "Determine which discovered remoteMUCOccupants $remoteMUCOccupants to remove" }
                 for ((mucRoomJID, localDiscMucOccupants) in mucRooms) {
                     val probeRoomOccupants = remoteMUCOccupants.entries.flatMap {
                             (_, mucOccupantJIDs) ->
@@ -634,8 +753,8 @@ internal class NormPresenceTransport(
                             JID(jidStr).asBareJID() == mucRoomJID
                         }
                     }.toSet()
-                    logger.finer("$mucRoomJID removing occupants in $probeRoomOccupants")
-                    logger.fine("localDiscMucOccupants occupants ${localDiscMucOccupants.occupants}")
+                    logger.logFiner { "$mucRoomJID removing occupants in $probeRoomOccupants" }
+                    logger.logFine { "localDiscMucOccupants occupants ${localDiscMucOccupants.occupants}" }
                     val toRemove = mutableSetOf<JID>()
                     for ((clientJID, mucOccupantObj) in localDiscMucOccupants.occupants) {
                         if (mucOccupantObj.remoteNodeId == remoteNodeId
@@ -649,27 +768,27 @@ internal class NormPresenceTransport(
                         }
                     }
 
-                    logger.fine("REMOVING JIDS from localDiscMucOccupants.occupants $toRemove")
+                    logger.logFine { "REMOVING JIDS from localDiscMucOccupants.occupants $toRemove" }
                     for (clientJID in toRemove) {
                         localDiscMucOccupants.occupants.remove(clientJID)
                     }
 
-                    logger.finer("occupants ${localDiscMucOccupants.occupants}")
+                    logger.logFiner { "occupants ${localDiscMucOccupants.occupants}" }
                 }
 
-                logger.finer("leftover mucRooms: $mucRooms")
+                logger.logFiner { "leftover mucRooms: $mucRooms" }
             }
 
             // remove occupants that have left
             removeOccupants(remoteNodeId, remoteMUCOccupants)
 
-            logger.fine("remoteMUCOccupants $remoteMUCOccupants")
+            logger.logFine { "remoteMUCOccupants $remoteMUCOccupants" }
             for ((clientJID, mucOccupantJIDs) in remoteMUCOccupants) {
-                logger.fine("in mucOccupants loop: $clientJID, $mucOccupantJIDs")
+                logger.logFine { "in mucOccupants loop: $clientJID, $mucOccupantJIDs" }
                 for (mucOccupantJIDStr in mucOccupantJIDs) {
                     val mucOccupantJID = JID(mucOccupantJIDStr)
                     // assume that room exists
-                    logger.fine("mucRooms[${mucOccupantJID.asBareJID()}]:  [[${mucRooms[mucOccupantJID.asBareJID()]}]]")
+                    logger.logFine { "mucRooms[${mucOccupantJID.asBareJID()}]:  [[${mucRooms[mucOccupantJID.asBareJID()]}]]" }
                     if (mucRooms[mucOccupantJID.asBareJID()] != null &&
                         clientJID !in mucRooms[mucOccupantJID.asBareJID()]!!.occupants
                     ) {
@@ -697,30 +816,51 @@ internal class NormPresenceTransport(
     }
 
 
-    private suspend fun broadcastRoutine(normSession: NormSession) {
-        // send a client update to the network with this [node] object
-        val sendUpdateToNetwork = fun (normSession: NormSession, node: NORMNode) {
-            val jsonObject = JSONObject(node)
+    /**
+     * Sends the periodic updates of this node as NORM commands until the transport is closed or the calling
+     * coroutine is cancelled
+     */
+    internal suspend fun broadcastRoutine() {
+        // send what changed in this node, or its digest, to the network
+        val sendUpdateToNetwork = fun (normSession: NormSession, jsonObject: JSONObject) {
             val jsonStr = jsonObject.toString()
             presenceSndrLogger.finer("send to network: $jsonObject jsonStr encoding ")
             val nodeData = jsonStr.toByteArray(Charsets.UTF_8)
 
             // Send XOP Presence Node as CMDStrings
-            normSession.sendCommand(nodeData, 0, nodeData.size, false)
-            presenceSndrLogger.finer("sent successfully on port $port $jsonStr")
+            try {
+                normSession.sendCommand(nodeData, 0, nodeData.size, false)
+                presenceSndrLogger.finer("sent successfully on port $port $jsonStr")
+            } catch (e: IOException) {
+                // the next update goes out on the next interval
+                presenceSndrLogger.log(Level.WARNING, "unable to send update on port $port", e)
+            }
         }
 
         while (running) {
             presenceSndrLogger.finest("Sending periodic presence probe")
-            thisNode.seq += 1
-            sendUpdateToNetwork(normSession, thisNode)
-            presenceSndrLogger.finer("sent update with hashcode ${thisNode.hashCode()}, thisNode $thisNode  ")
+            val update = synchronized(thisNode) { nodeUpdates.next() }
+            if (update.optString("k") == NODE_DELTA) {
+                heartbeat.reset()
+            }
+            val interval = heartbeat.advance()
+            // receivers time this node out after some of its intervals
+            update.put("i", interval)
+            for ((_, normSession) in sendingNormSessions) {
+                sendUpdateToNetwork(normSession, update)
+            }
+            val sent = System.currentTimeMillis()
+            presenceSndrLogger.finer("sent update ${update.optString("k")} seq ${update.optLong("s")}, thisNode $thisNode  ")
             // val delayVal = (normSession.grttEstimate * 1000 * grttMultiplier).roundToLong()
             // val est = grttEstimates.getOrPut(nodeId) { AtomicDouble(nodePresenceInterval.toDouble()) }.getAndSet(normSession.grttEstimate)
 
-            val delayVal = nodePresenceInterval
-            presenceSndrLogger.finer("sleeping for $delayVal rounded")
-            delay(delayVal)
+            presenceSndrLogger.finer("sleeping for up to $interval")
+            withTimeoutOrNull(interval) { localChanges.receive() }
+            // the changes of a burst go out together, at most one update per nodePresenceInterval
+            val elapsed = System.currentTimeMillis() - sent
+            if (elapsed < nodePresenceInterval) {
+                delay(nodePresenceInterval - elapsed)
+            }
         }
         presenceSndrLogger.fine("Exiting broadcast coroutine")
     }
@@ -731,26 +871,18 @@ internal class NormPresenceTransport(
     override fun addRemoteNode(receiverSession: NormSession, nodeId: Long): NORMNode {
         // (grttEstimates.getOrPut(nodeId) { AtomicDouble(normSession.grttEstimate) }).set(normSession.grttEstimate)
         if (nodeId !in remoteNodes) {
-            remoteNodeCounters[nodeId] = AtomicInteger(nodeTimeoutInterval)
+            liveness.heard(nodeId, null, receiverSession.grttEstimate)
             remoteNodes[nodeId] =
                 NORMNode(mutableMapOf(), nodeId, 0, mutableMapOf(), mutableSetOf(), receiverSession)
             // monitorRemoteNodeCountersMap[nodeId] =
             //     normServiceCoroutineScope.launch { monitorRemoteNodeCounters(normSession, nodeId) }
             // logger.fine("Added remote node $nodeId for monitoring")
 
-            logger.fine("Added new remoteNode for this sender. Responding with {$thisNode} information on session $receiverSession")
-            val jsonObject = JSONObject(thisNode)
-            val jsonStr = jsonObject.toString()
-            presenceSndrLogger.finer("send to network: $jsonObject jsonStr encoding ")
-            val nodeData = jsonStr.toByteArray(Charsets.UTF_8)
-
+            logger.logFine { "Added new remoteNode for this sender. Responding with {$thisNode} information on session $receiverSession" }
             // for ((iface, senderSession) in sendingNormSessions.filterKeys {
             //         sendIface -> ifacesForReceivingSessions[receiverSession] != sendIface } )
             // {
-            for ((iface, senderSession) in sendingNormSessions) {
-                logger.fine("sending normNode to $iface session $senderSession")
-                sendData(nodeData, TransportType.PresenceInit, TransportSubType.Initialization, senderSession, senderSession.localNodeId)
-            }
+            sendSnapshot()
         } else {
             logger.fine("Node already discovered")
         }
@@ -758,59 +890,13 @@ internal class NormPresenceTransport(
     }
 
     /**
-     * periodically check all remoteNodeCounters to ensure
+     * Tells XOP that the clients of a remote node not heard from within its timeout are disconnected
      */
-    private suspend fun monitorRemoteNodeCounters(normSession: NormSession, nodeId: Long) {
-        presenceLogger.fine("Running remote node monitor for $nodeId")
-
-        val nodeDisconnected = fun(remoteNode: NORMNode) = runBlocking {
-            presenceLogger.fine("detected node $nodeId is disconnected, signal XOP with updated presence")
-
-            // grttEstimates[nodeId].let { logger.fine("current est ${it?.get() ?: "not initialized"}") }
-            // val est = grttEstimates.getOrPut(nodeId) { AtomicDouble(nodePresenceInterval.toDouble()) }.getAndSet(normSession.grttEstimate)
-            // presenceLogger.fine("grttEstimate $est")
-            // val delayTime: Long = (est * 1000 * grttMultiplier).roundToLong()
-            val delayTime = nodePresenceInterval
-            val ct = remoteNodeCounters[nodeId]!!.get()
-            if (ct < 0) {
-                presenceLogger.fine("$nodeId has reached threshold ct $ct")
-                for ((jid, _) in remoteNode.jidMap) {
-                    remoteNode.jidMap[jid]
-                    sdListener.clientDisconnected(jid)
-                    presenceLogger.fine("Notified XOP $jid is disconnected")
-                }
-            } else {
-                presenceLogger.fine("recieved update from nodeId: ")
-            }
-        }
-
-        while (running) {
-            // grttEstimates[nodeId].let { logger.fine("current est ${it?.get() ?: "not initialized"}") }
-            // val est = grttEstimates.getOrPut(nodeId) { AtomicDouble(nodePresenceInterval.toDouble()) }.getAndSet(normSession.grttEstimate)
-            // presenceLogger.fine("grttEstimate $est")
-            // val delayTime: Long = (est * 1000 * grttMultiplier).roundToLong()
-            val delayTime = nodePresenceInterval
-            presenceLogger.fine("delay for $delayTime")
-            delay(delayTime)
-
-            if (nodeId in remoteNodeCounters) {
-                remoteNodeCounters[nodeId]?.let {
-                    val ct = it.decrementAndGet()
-                    presenceLogger.fine("updating counters for $nodeId ct $ct, threshold $nodeTimeoutInterval")
-                    if (ct <= 0) {
-                        presenceLogger.fine("$nodeId has reached threshold ct $ct")
-                        if ( nodeId in remoteNodes && remoteNodes[nodeId]!!.connected) {
-                            presenceLogger.fine("remoteNode with $nodeId detected as not connected setting to false")
-                            remoteNodes[nodeId]!!.connected = false
-                            nodeDisconnected(remoteNodes[nodeId]!!)
-                        }
-                    }
-                    presenceLogger.fine("updated counters ct ${remoteNodeCounters[nodeId]!!.get()}")
-                }
-            } else {
-                presenceLogger.fine("no remoteNodeCounter for $nodeId")
-            }
+    private fun remoteNodeLost(nodeId: Long) {
+        val remoteNode = remoteNodes[nodeId] ?: return
+        if (disconnectRemoteNode(remoteNode, sdListener)) {
+            presenceLogger.fine("remoteNode with $nodeId detected as not connected, notified XOP " +
+                    "${remoteNode.jidMap.keys} are disconnected")
         }
-        presenceLogger.fine("Exiting remoteNodeCounter for remote node $nodeId")
     }
 }
@@ -0,0 +1,227 @@
+package mil.navy.nrl.xop.transport.reliable
+
+import edu.drexel.xop.util.XOP
+import edu.drexel.xop.util.logger.LogUtils
+import mil.navy.nrl.xop.util.logFine
+import java.util.ArrayDeque
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Paces what is sent on one NORM session to what its transmit buffer takes.
+ *
+ * [send] hands the item to [enqueue] while NORM takes it. Once NORM refuses one, its transmit buffer is full and the
+ * session stalls: items wait in a queue of [capacity] until NORM reports room again, with a
+ * NORM_TX_QUEUE_VACANCY, NORM_TX_QUEUE_EMPTY or NORM_TX_WATERMARK_COMPLETED event passed to [ready], which enqueues
+ * as many of them as NORM takes. When the queue is full the [policy] decides which item is dropped; dropped items are
+ * passed to [discard].
+ *
+ * Queue depth, the number of stalls and the time spent stalled are available from the getters and [toString], and
+ * for all open schedulers from [statistics].
+ */
+internal class NormSendScheduler<T>(
+    private val name: String,
+    private val enqueue: (T) -> Boolean,
+    private val discard: (T) -> Unit,
+    private val capacity: Int = XOP.TRANSPORT.NORM.SEND_QUEUE,
+    private val policy: Policy = Policy.forName(XOP.TRANSPORT.NORM.SEND_POLICY),
+    private val blockMillis: Long = XOP.TRANSPORT.NORM.SEND_BLOCK
+) {
+    /**
+     * What to drop when the queue is full
+     */
+    enum class Policy(val configName: String) {
+        /** wait up to blockMillis for room, then drop the new item */
+        BLOCK("block"),
+        /** drop the item that waited longest */
+        DROP_OLDEST("drop-oldest"),
+        /** drop the oldest of the items with the lowest priority, or the new item if its priority is lower still */
+        PRIORITY("priority");
+
+        companion object {
+            fun forName(name: String): Policy {
+                return values().firstOrNull { it.configName.equals(name.trim(), ignoreCase = true) } ?: run {
+                    logger.warning("Unknown NORM send policy $name, using ${DROP_OLDEST.configName}")
+                    DROP_OLDEST
+                }
+            }
+        }
+    }
+
+    private class Entry<T>(val item: T, val priority: Int)
+
+    private val lock = Object()
+    private val queue = ArrayDeque<Entry<T>>()
+    private var closed = false
+
+    private var stalledSince = 0L
+    private var stalls = 0L
+    private var stallNanos = 0L
+    private var sent = 0L
+    private var queued = 0L
+    private var dropped = 0L
+    private var maxDepth = 0
+
+    init {
+        schedulers.add(this)
+    }
+
+    /**
+     * Sends [item] now, or queues it while NORM's transmit buffer is full
+     *
+     * @param priority higher is more important, used by [Policy.PRIORITY]
+     * @return false if the item was dropped
+     */
+    fun send(item: T, priority: Int = 0): Boolean {
+        synchronized(lock) {
+            if (closed) {
+                discard(item)
+                return false
+            }
+            // also retries in case NORM made room without telling
+            drain()
+            if (queue.isEmpty()) {
+                if (trySend(item)) {
+                    return true
+                }
+            } else if (queue.size >= capacity) {
+                if (!makeRoom(priority)) {
+                    dropped++
+                    discard(item)
+                    return false
+                }
+                // the queue may have been drained while blocked
+                if (queue.isEmpty() && trySend(item)) {
+                    return true
+                }
+            }
+            queue.addLast(Entry(item, priority))
+            queued++
+            maxDepth = maxOf(maxDepth, queue.size)
+            return true
+        }
+    }
+
+    // called holding the lock with an empty queue, a refused item starts a stall
+    private fun trySend(item: T): Boolean {
+        if (enqueue(item)) {
+            sent++
+            return true
+        }
+        stalledSince = System.nanoTime()
+        stalls++
+        logger.logFine { "$name stalled, NORM transmit buffer is full" }
+        return false
+    }
+
+    // called holding the lock with a full queue, false if the new item is to be dropped instead
+    private fun makeRoom(priority: Int): Boolean {
+        when (policy) {
+            Policy.BLOCK -> {
+                val deadline = System.nanoTime() + blockMillis * 1000000
+                while (queue.size >= capacity && !closed) {
+                    val remaining = (deadline - System.nanoTime()) / 1000000
+                    if (remaining <= 0) {
+                        return false
+                    }
+                    lock.wait(remaining)
+                }
+                return !closed
+            }
+            Policy.DROP_OLDEST -> {
+                dropped++
+                discard(queue.pollFirst().item)
+                return true
+            }
+            Policy.PRIORITY -> {
+                var lowest: Entry<T>? = null
+                for (entry in queue) {
+                    if (lowest == null || entry.priority < lowest.priority) {
+                        lowest = entry
+                    }
+                }
+                if (lowest!!.priority > priority) {
+                    return false
+                }
+                queue.removeFirstOccurrence(lowest)
+                dropped++
+                discard(lowest.item)
+                return true
+            }
+        }
+    }
+
+    /**
+     * NORM has room in its transmit buffer, enqueues the waiting items it takes
+     */
+    fun ready() {
+        synchronized(lock) {
+            drain()
+        }
+    }
+
+    private fun drain() {
+        if (queue.isEmpty()) {
+            return
+        }
+        while (queue.isNotEmpty() && enqueue(queue.peekFirst().item)) {
+            queue.pollFirst()
+            sent++
+        }
+        if (queue.isEmpty()) {
+            stallNanos += System.nanoTime() - stalledSince
+            logger.logFine { "$name resumed after ${(System.nanoTime() - stalledSince) / 1000000}ms" }
+        }
+        lock.notifyAll()
+    }
+
+    fun getDepth(): Int = synchronized(lock) { queue.size }
+
+    fun getMaxDepth(): Int = synchronized(lock) { maxDepth }
+
+    fun getSent(): Long = synchronized(lock) { sent }
+
+    fun getQueued(): Long = synchronized(lock) { queued }
+
+    fun getDropped(): Long = synchronized(lock) { dropped }
+
+    fun getStalls(): Long = synchronized(lock) { stalls }
+
+    /**
+     * @return the time in milliseconds the session was stalled, including a stall still going on
+     */
+    fun getStallMillis(): Long = synchronized(lock) {
+        val current = if (queue.isEmpty()) 0L else System.nanoTime() - stalledSince
+        (stallNanos + current) / 1000000
+    }
+
+    /**
+     * Drops the waiting items and wakes up the senders waiting for room
+     */
+    fun close() {
+        schedulers.remove(this)
+        synchronized(lock) {
+            closed = true
+            while (queue.isNotEmpty()) {
+                discard(queue.pollFirst().item)
+            }
+            lock.notifyAll()
+        }
+    }
+
+    override fun toString(): String {
+        return "$name send queue: depth=${getDepth()} maxDepth=${getMaxDepth()} sent=${getSent()} " +
+                "queued=${getQueued()} dropped=${getDropped()} stalls=${getStalls()} stalled=${getStallMillis()}ms"
+    }
+
+    companion object {
+        private val logger = LogUtils.getLogger(NormSendScheduler::class.java.name)
+
+        private val schedulers: MutableSet<NormSendScheduler<*>> = ConcurrentHashMap.newKeySet()
+
+        /**
+         * @return one line per open scheduler with its queue depth, stall time and counters
+         */
+        @JvmStatic
+        fun statistics(): String = schedulers.joinToString("\n")
+    }
+}
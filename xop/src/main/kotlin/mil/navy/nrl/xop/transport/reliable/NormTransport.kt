@@ -1,18 +1,23 @@
 package mil.navy.nrl.xop.transport.reliable
 
 import edu.drexel.xop.net.transport.XOPTransportService
+import edu.drexel.xop.packet.LocalRecipientFilter
 import edu.drexel.xop.packet.TransportPacketProcessor
+import edu.drexel.xop.packet.codec.StanzaCodecs
 import edu.drexel.xop.util.MessageCompressionUtils
 import edu.drexel.xop.util.Utils
+import edu.drexel.xop.util.XOP
 import edu.drexel.xop.util.logger.LogUtils
 import mil.navy.nrl.norm.NormObject
 import mil.navy.nrl.norm.NormSession
+import mil.navy.nrl.xop.util.logFine
+import mil.navy.nrl.xop.util.logFiner
 import org.dom4j.DocumentException
 import org.xmpp.packet.*
 import java.io.IOException
 import java.net.InetAddress
 import java.nio.ByteBuffer
-import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.ConcurrentHashMap
 import java.util.logging.Level
 
 internal open class NormTransport internal constructor(
@@ -24,7 +29,9 @@ internal open class NormTransport internal constructor(
     private val port: Int,
     private val transportPacketProcessor: TransportPacketProcessor,
     protected val compression: Boolean,
-    private val grttMultiplier: Int = 1
+    private val grttMultiplier: Int = 1,
+    internal val roomId: Int = 0, // the room of a MUC transport, sent in the metadata
+    private val sharedRooms: SharedRoomSessions? = null // the sessions, when shared by all rooms
 ) : XOPTransportService {
     /*
       NOTE 20180928 unnecessarily passes in the address and port into the constructor for compatibility with
@@ -35,17 +42,77 @@ internal open class NormTransport internal constructor(
     companion object {
         @JvmStatic
         private var logger = LogUtils.getLogger(NormTransport::class.java.name)
+
+        private val sendBuffers = DirectBufferArena("NormTransport send")
+        // NORM reads the data of an object from its buffer until the object is purged from the transmit cache
+        private val enqueuedBuffers: MutableMap<NormObject, ByteBuffer> = ConcurrentHashMap()
+
+        private class Outgoing(val buffer: ByteBuffer, val length: Int, val info: ByteArray)
+        // one per sending session, holding the data NORM has no room for yet
+        private val schedulers: MutableMap<NormSession, NormSendScheduler<Outgoing>> = ConcurrentHashMap()
+
+        private fun enqueue(normSession: NormSession, outgoing: Outgoing): Boolean {
+            val normObject = try {
+                normSession.dataEnqueue(outgoing.buffer, 0, outgoing.length, outgoing.info, 0, outgoing.info.size)
+            } catch (e: IOException) {
+                // the transmit buffer is full
+                logger.logFiner { "NORM did not take ${outgoing.length} bytes: ${e.message}" }
+                null
+            } ?: return false
+            enqueuedBuffers[normObject] = outgoing.buffer
+            return true
+        }
+
+        /**
+         * Sends the data waiting for [normSession], called when NORM has room in its transmit buffer again
+         */
+        internal fun txQueueReady(normSession: NormSession) {
+            schedulers[normSession]?.ready()
+        }
+
+        /**
+         * Drops the data still waiting for [normSession], called before the sender is stopped
+         */
+        internal fun closeSendScheduler(normSession: NormSession) {
+            schedulers.remove(normSession)?.let { scheduler ->
+                logger.logFine { scheduler.toString() }
+                scheduler.close()
+            }
+        }
+
+        /**
+         * Gives the buffer of [normObject] back to the arena, called when NORM purges the object
+         */
+        internal fun releaseSendBuffer(normObject: NormObject) {
+            enqueuedBuffers.remove(normObject)?.let { sendBuffers.release(it) }
+        }
+
+        /**
+         * Forgets the buffers of the objects still enqueued, called once the NORM instance is destroyed
+         */
+        internal fun clearSendBuffers() {
+            for (normObject in enqueuedBuffers.keys) {
+                releaseSendBuffer(normObject)
+            }
+            logger.logFine { sendBuffers.toString() }
+        }
     }
 
+    // encodes the messages sent, received ones are decoded with the codec of their sender
+    private val codec = StanzaCodecs.forName(XOP.TRANSPORT.NORM.CODEC)
+
+    private val duplicates = DuplicateFilter("NormTransport ${address.hostAddress}:$port")
+
     private var roomJID: JID? = null // if this is null, this is the one-to-one NORM session
 
+    @Volatile
     protected var running = true
 
     protected val ifacesForReceivingSessions = receivingNormSessions.entries.associate{(k,v)-> v to k}
     protected val ifacesForSenderSessions = sendingNormSessions.entries.associate{(k,v)-> v to k}
 
     init {
-        logger.fine("compression enabled: $compression")
+        logger.logFine { "compression enabled: $compression" }
 
     }
 
@@ -74,18 +141,23 @@ internal open class NormTransport internal constructor(
         // TODO 2019-05-23 Support IQ message types
         val transportType = TransportType.MessageTransport
         var transportSubType = TransportSubType.IQ
+        var destination = LocalRecipientFilter.NO_KEY
         if (packet is Message) {
             transportSubType = when {
                 packet.type == Message.Type.groupchat -> TransportSubType.GroupChat
                 else -> TransportSubType.Chat
             }
+            // so the nodes without the recipient drop it unparsed
+            if (transportSubType == TransportSubType.Chat && packet.to != null) {
+                destination = LocalRecipientFilter.keyOf(packet.to)
+            }
         }
 
         for((iface, normSession) in sendingNormSessions) {
-            logger.fine("Sending packet {{${packet.toXML()}}} over $iface from normSession: $normSession, " +
-                    "nodeId ${normSession.localNodeId}")
-            val dataBytes = packet.toXML().toByteArray(Charsets.UTF_8)
-            sendData(dataBytes, transportType, transportSubType, normSession, normSession.localNodeId)
+            logger.logFine { "Sending packet {{${packet.toXML()}}} over $iface from normSession: $normSession, " +
+                    "nodeId ${normSession.localNodeId}" }
+            val dataBytes = codec.encode(packet)
+            sendData(dataBytes, transportType, transportSubType, normSession, normSession.localNodeId, destination)
         }
     }
 
@@ -105,41 +177,67 @@ internal open class NormTransport internal constructor(
         }
 
         for ((iface, normSession) in sendingNormSessions) {
-            logger.fine("sending data to iface $iface, normSession $normSession")
-            sendData(data, redirectTransportType, transportMetadata.transportSubType, normSession, redirectId)
+            logger.logFine { "sending data to iface $iface, normSession $normSession" }
+            sendData(data, redirectTransportType, transportMetadata.transportSubType, normSession, redirectId,
+                transportMetadata.destination)
         }
     }
 
     /**
-     * Send [data] to [normSession]
+     * Send [data] to [normSession], or queue it while the session's transmit buffer is full
+     *
+     * @return false if the data was dropped
      */
     internal fun sendData(data: ByteArray, transportType: TransportType, transportSubType: TransportSubType,
-                          normSession: NormSession, redirectId: Long): NormObject?
+                          normSession: NormSession, redirectId: Long,
+                          destination: Int = LocalRecipientFilter.NO_KEY): Boolean
     {
         var data1 = data
-        sentSessionMessages[data] = AtomicInteger(1)
-        val transportMetadata = TransportMetadata(System.currentTimeMillis(), transportType, transportSubType, redirectId)
+        val transportMetadata = TransportMetadata(System.currentTimeMillis(), transportType, transportSubType, redirectId,
+            roomId, destination = destination)
         try {
             if (compression) {
-                logger.finer("datalength before compression " + data1.size)
+                logger.logFiner { "datalength before compression " + data1.size }
                 data1 = MessageCompressionUtils.compressBytes(data)
-                logger.finer("datalength after compression " + data1.size)
+                logger.logFiner { "datalength after compression " + data1.size }
 
             }
-            val bb = ByteBuffer.allocateDirect(data1.size + 1)
+            val bb = sendBuffers.acquire(data1.size)
             bb.put(data1)
 
             val info = transportMetadataToBytes(transportMetadata, compression)
 
-            return normSession.dataEnqueue(bb, 0, data1.size, info, 0, info.size)
+            if (!scheduler(normSession).send(Outgoing(bb, data1.size, info), priority(transportType))) {
+                logger.logFine { "dropped $transportType message, the send queue of $normSession is full" }
+                return false
+            }
+            return true
         } catch (e: IOException) {
             logger.log(Level.SEVERE, "Could not send data with NormTransport.", e)
         }
-        return null
+        return false
+    }
+
+    private fun scheduler(normSession: NormSession): NormSendScheduler<Outgoing> {
+        return schedulers.computeIfAbsent(normSession) {
+            NormSendScheduler("NormTransport ${address.hostAddress}:$port ${ifacesForSenderSessions[normSession]}",
+                { outgoing -> enqueue(normSession, outgoing) }, { outgoing -> sendBuffers.release(outgoing.buffer) })
+        }
+    }
+
+    // what is dropped first when a send queue is full: copies redirected for other nodes, then messages
+    private fun priority(transportType: TransportType): Int {
+        return when (transportType) {
+            TransportType.PresenceInitRedirect, TransportType.PresenceProbeRedirect,
+            TransportType.PresenceTransportRedirect, TransportType.MUCPresenceRedirect,
+            TransportType.MessageTransportRedirect -> 0
+            TransportType.MessageTransport, TransportType.OneToOneTransport, TransportType.IQTransport -> 1
+            else -> 2
+        }
     }
 
     internal open fun addRemoteNode(senderSession: NormSession, nodeId: Long) :NORMNode {
-        logger.fine("adding remote node for NormTransport nodeId: $nodeId; session: $senderSession ")
+        logger.logFine { "adding remote node for NormTransport nodeId: $nodeId; session: $senderSession " }
         return NORMNode(mutableMapOf(), nodeId, 0, mutableMapOf(), mutableSetOf(), senderSession)
     }
 
@@ -149,36 +247,37 @@ internal open class NormTransport internal constructor(
     internal open fun handleTransportData(senderNodeId: Long, receivingNormSession: NormSession,
                                      transportMetadata: TransportMetadata, msgString: String, dataBytes: ByteArray)
     {
-        if (isRedirect(transportMetadata) && isDuplicate(dataBytes)) {
+        if (isDuplicate(transportMetadata, dataBytes)) {
             logger.finer("msg is redirect and duplicate, ")
             return
         }
         try {
-            val packet = Utils.packetFromString(msgString)
+            val stanza = StanzaCodecs.decode(dataBytes)
             val tsDifference =
                 (System.currentTimeMillis() - transportMetadata.timestamp)
             if (tsDifference > ((receivingNormSession.grttEstimate * 1000) * grttMultiplier)) {
-                logger.fine("Adding delay element: msgTstamp:${transportMetadata.timestamp} ts_diff:$tsDifference, " +
-                        "grtt:${receivingNormSession.grttEstimate * 1000}")
+                logger.logFine { "Adding delay element: msgTstamp:${transportMetadata.timestamp} ts_diff:$tsDifference, " +
+                        "grtt:${receivingNormSession.grttEstimate * 1000}" }
+                val packet = stanza.packet
                 Utils.addDelay(
                     packet,
                     transportMetadata.timestamp,
                     packet.from,
                     "Offline Message"
                 )
-                logger.finer("message with delay: $packet")
+                logger.logFiner { "message with delay: $packet" }
             }
-            if (packet is Presence) {
-                logger.warning("THIS THREAD should not be handling any presence messages! $packet")
+            if (stanza.isPresence) {
+                logger.warning("THIS THREAD should not be handling any presence messages! $stanza")
                 // processPresence(packet, nodeId)
                 // oneToOneTransport.processIncomingPacket(packet);
             } else {
-                logger.fine("Incoming normSession Obj, remote nodeId $senderNodeId, session nodeId $receivingNormSession")
-                processIncomingPacket(packet)
+                logger.logFine { "Incoming normSession Obj, remote nodeId $senderNodeId, session nodeId $receivingNormSession" }
+                transportPacketProcessor.processStanza(stanza)
             }
             if (sendingNormSessions.size > 1) {
-                logger.fine("Redirecting XMPP message string to other sessions, not $receivingNormSession")
-                redirectData(msgString.toByteArray(Charsets.UTF_8), transportMetadata,
+                logger.logFine { "Redirecting XMPP message string to other sessions, not $receivingNormSession" }
+                redirectData(dataBytes, transportMetadata,
                     receivingNormSession, transportMetadata.origSenderId)
             }
         } catch (e: DocumentException) {
@@ -186,6 +285,24 @@ internal open class NormTransport internal constructor(
         }
     }
 
+    /**
+     * @return false if the data is for another room, which hashed to the same port
+     */
+    internal fun isForThisRoom(transportMetadata: TransportMetadata): Boolean {
+        return roomId == 0 || transportMetadata.roomId == 0 || transportMetadata.roomId == roomId
+    }
+
+    /**
+     * Called with the metadata of received data before it is decompressed and parsed
+     *
+     * @return false if the data is for a client of another node, see [LocalRecipientFilter]
+     */
+    internal fun hasLocalRecipient(transportMetadata: TransportMetadata): Boolean {
+        // a node with several interfaces passes the data on to the other networks
+        return sendingNormSessions.size > 1
+                || transportPacketProcessor.localRecipientFilter.accept(transportMetadata.destination)
+    }
+
     protected fun isRedirect(transportMetadata: TransportMetadata): Boolean {
         return when(transportMetadata.transportType) {
             TransportType.PresenceInitRedirect, TransportType.PresenceProbeRedirect,
@@ -195,19 +312,18 @@ internal open class NormTransport internal constructor(
     }
 
 
-    // [ senderNodeId: Set[dataStrings] ]
-    private val sentSessionMessages = mutableMapOf<ByteArray, AtomicInteger>()
-    protected fun isDuplicate(dataBytes: ByteArray): Boolean {
-        return if (dataBytes !in sentSessionMessages) {
-            sentSessionMessages[dataBytes] = AtomicInteger(1)
-            false
-        } else {
-            val numMsg = sentSessionMessages[dataBytes]!!.incrementAndGet()
-            if( numMsg >= receivingNormSessions.size) {
-                sentSessionMessages.remove(dataBytes)
-            }
-            true
+    /**
+     * Records the payloads received from their original sender, and recognizes the copies redirected by nodes with
+     * several interfaces
+     *
+     * @return true if [dataBytes] is a redirected copy of a payload that was already handled
+     */
+    protected fun isDuplicate(transportMetadata: TransportMetadata, dataBytes: ByteArray): Boolean {
+        if (!isRedirect(transportMetadata)) {
+            duplicates.record(transportMetadata.origSenderId, dataBytes)
+            return false
         }
+        return duplicates.isDuplicate(transportMetadata.origSenderId, dataBytes)
     }
 
     override fun processIncomingPacket(packet: Packet) {
@@ -216,9 +332,19 @@ internal open class NormTransport internal constructor(
 
     override fun close() {
         logger.fine("stopping normSessions")
+        logger.logFine { duplicates.toString() }
+        duplicates.close()
+        if (sharedRooms != null) {
+            // the sessions stay open for the other rooms
+            sharedRooms.remove(roomId, this)
+            sendingNormSessions.clear()
+            receivingNormSessions.clear()
+            return
+        }
         if (sendingNormSessions.isNotEmpty()) {
             logger.fine("stopping Sending NormSessions")
             for((_, normSession) in sendingNormSessions) {
+                closeSendScheduler(normSession)
                 normSession.stopSender()
                 // normSession.destroySession()
             }
@@ -0,0 +1,154 @@
+package mil.navy.nrl.xop.transport.reliable
+
+import edu.drexel.xop.net.SDListener
+import edu.drexel.xop.util.HashedWheelTimer
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * The interval of the periodic updates of this node, trickle timer style: [minInterval] after a local change, then
+ * doubling with every update up to [maxInterval] while nothing changes. A stable network costs one update per
+ * maxInterval, a change is sent at once and repeated quickly in case it is lost.
+ */
+internal class AdaptiveInterval(
+    val minInterval: Long,
+    val maxInterval: Long
+) {
+    private var current = minInterval
+
+    /**
+     * Something changed, the next updates come at minInterval again
+     */
+    @Synchronized
+    fun reset() {
+        current = minInterval
+    }
+
+    /**
+     * @return the time until the update after the one being sent, which is advertised with it
+     */
+    @Synchronized
+    fun advance(): Long {
+        val interval = current
+        current = minOf(current * 2, maxOf(minInterval, maxInterval))
+        return interval
+    }
+}
+
+/**
+ * When the remote nodes are considered lost: after [missedUpdates] of the interval each node advertised with its
+ * last update, plus the round trip time of the session it is heard on times [grttMultiplier]. A node backing off to
+ * long intervals is given long, one that just changed is expected back soon.
+ *
+ * Each node has one timeout on [timer]. An update only moves the node's deadline, the timeout looks at it when it
+ * runs and waits for the rest, so a steady stream of updates costs no rescheduling. Lost nodes are passed to [lost]
+ * on the timer thread.
+ */
+internal class RemoteNodeLiveness(
+    private val defaultInterval: Long,
+    private val missedUpdates: Int,
+    private val grttMultiplier: Int,
+    private val timer: HashedWheelTimer,
+    private val lost: (Long) -> Unit
+) {
+    private class Node(var interval: Long) {
+        var deadline = 0L
+        // when the pending timeout runs, null once the node is lost
+        var timeout: HashedWheelTimer.Timeout? = null
+        var checkAt = 0L
+        // tells a timeout replaced by an earlier one that it is no longer wanted
+        var generation = 0
+    }
+
+    private val nodes: MutableMap<Long, Node> = ConcurrentHashMap()
+
+    /**
+     * Records an update from [nodeId]. A node is only timed out once it advertised an interval, nodes that send no
+     * periodic updates (e.g. older versions) are never considered lost.
+     *
+     * @param interval the interval the node advertised, null to keep the last one
+     * @param grttEstimate the session's estimate in seconds, as NORM gives it
+     */
+    fun heard(nodeId: Long, interval: Long?, grttEstimate: Double) {
+        val node = if (interval != null && interval > 0) {
+            nodes.computeIfAbsent(nodeId) { Node(interval) }
+        } else {
+            nodes[nodeId] ?: return
+        }
+        synchronized(node) {
+            if (interval != null && interval > 0) {
+                node.interval = interval
+            }
+            node.deadline = timer.now() + timeoutFor(node.interval, grttEstimate)
+            // a later deadline is picked up by the pending timeout, an earlier one needs an earlier timeout
+            if (node.timeout == null || node.deadline < node.checkAt) {
+                node.timeout?.cancel()
+                schedule(nodeId, node)
+            }
+        }
+    }
+
+    private fun schedule(nodeId: Long, node: Node) {
+        val generation = ++node.generation
+        node.checkAt = node.deadline
+        node.timeout = timer.schedule(Runnable { check(nodeId, node, generation) }, node.deadline - timer.now())
+    }
+
+    private fun check(nodeId: Long, node: Node, generation: Int) {
+        synchronized(node) {
+            if (generation != node.generation || node.timeout == null) {
+                return
+            }
+            if (timer.now() < node.deadline) {
+                schedule(nodeId, node)
+                return
+            }
+            node.timeout = null
+        }
+        lost(nodeId)
+    }
+
+    /**
+     * @return milliseconds of silence after which [nodeId] is considered lost
+     */
+    fun timeout(nodeId: Long, grttEstimate: Double): Long =
+        timeoutFor(nodes[nodeId]?.interval ?: defaultInterval, grttEstimate)
+
+    private fun timeoutFor(interval: Long, grttEstimate: Double): Long =
+        missedUpdates * interval + (grttEstimate * 1000 * grttMultiplier).toLong()
+
+    fun isAlive(nodeId: Long): Boolean = nodes[nodeId]?.let { synchronized(it) { it.timeout != null } } ?: false
+
+    fun forget(nodeId: Long) {
+        nodes.remove(nodeId)?.let {
+            synchronized(it) {
+                it.timeout?.cancel()
+                it.timeout = null
+            }
+        }
+    }
+
+    /**
+     * Cancels the timeouts of all nodes
+     */
+    fun close() {
+        for (nodeId in nodes.keys.toList()) {
+            forget(nodeId)
+        }
+    }
+}
+
+/**
+ * Marks a lost [remoteNode] as not connected and tells [sdListener] that its clients are disconnected
+ *
+ * @return false if the node was already disconnected, nothing is told again
+ */
+internal fun disconnectRemoteNode(remoteNode: NORMNode, sdListener: SDListener): Boolean {
+    if (!remoteNode.connected) {
+        return false
+    }
+    remoteNode.connected = false
+    for (jid in remoteNode.jidMap.keys) {
+        sdListener.clientDisconnected(jid)
+    }
+    return true
+}
@@ -0,0 +1,133 @@
+package mil.navy.nrl.xop.transport.reliable
+
+import edu.drexel.xop.packet.LocalRecipientFilter
+import edu.drexel.xop.util.XOP
+import edu.drexel.xop.util.logger.LogUtils
+import mil.navy.nrl.norm.NormSession
+import mil.navy.nrl.xop.util.logFine
+import org.xmpp.packet.JID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+internal const val ROOMS_PER_SESSION = "session"
+internal const val ROOMS_SHARED = "shared"
+
+// the name the port of the shared sessions is hashed from
+internal const val SHARED_ROOMS_NAME = "rooms@shared"
+
+/**
+ * The id of a room in the transport metadata, the same on every node: the destination key of the room's JID, 28 bits
+ * of the FNV-1a hash of its bare JID, so it takes at most 4 bytes. Never 0, which means no room. Two rooms may share an
+ * id, the stanzas are still delivered to the room they are addressed to, the rooms only see each other's traffic go by.
+ */
+internal fun roomId(roomJID: JID): Int = LocalRecipientFilter.keyOf(roomJID)
+
+/**
+ * All MUC rooms over one NORM group session per interface, with xop.transport.norm.rooms=shared, instead of a sender
+ * and a receiver session per room per interface. NORM's buffers and repair state are then allocated once, whatever
+ * the number of rooms, and joining a room only adds a [NormTransport] sending with the room's [roomId].
+ *
+ * The objects received are demultiplexed to the transport of their room by the room id of their metadata. With
+ * [filter], the objects of rooms this node has no transport for are cancelled as soon as their info arrives, so
+ * NORM neither buffers nor asks for repairs of them; otherwise they are received and dropped once complete.
+ *
+ * The objects delivered, dropped and cancelled are available from the getters and [toString].
+ */
+internal class SharedRoomSessions(
+    val senderSessions: Map<String, NormSession>,
+    val receiverSessions: Map<String, NormSession>,
+    val port: Int,
+    private val compression: Boolean,
+    private val filter: Boolean = XOP.TRANSPORT.NORM.ROOMS_FILTER
+) {
+    private val logger = LogUtils.getLogger(SharedRoomSessions::class.java.name)
+
+    private val receiving = receiverSessions.values.toSet()
+    // the transports of the rooms by room id, more than one when rooms share an id
+    private val rooms: MutableMap<Int, List<NormTransport>> = ConcurrentHashMap()
+
+    private val delivered = AtomicLong()
+    private val dropped = AtomicLong()
+    private val cancelled = AtomicLong()
+
+    fun isReceiving(session: NormSession): Boolean = session in receiving
+
+    fun add(roomId: Int, transport: NormTransport) {
+        val transports = rooms.merge(roomId, listOf(transport)) { old, new -> old + new }!!
+        if (transports.size > 1) {
+            logger.fine("room id $roomId is shared by $transports")
+        }
+    }
+
+    /**
+     * Called when the transport of a room is closed, the other rooms with the same id keep it
+     */
+    fun remove(roomId: Int, transport: NormTransport) {
+        rooms.computeIfPresent(roomId) { _, transports -> (transports - transport).takeIf { it.isNotEmpty() } }
+    }
+
+    private fun roomOf(info: ByteArray?): Int = try {
+        getTransportMetadata(info, compression).roomId
+    } catch (e: IllegalArgumentException) {
+        0
+    }
+
+    /**
+     * @return the transport of the room the object with [info] is for, null if there is none on this node. Of rooms
+     * sharing an id the one added first, the stanzas find their room by their address whichever transport gets them.
+     */
+    fun transportFor(info: ByteArray?): NormTransport? {
+        val transport = rooms[roomOf(info)]?.firstOrNull()
+        if (transport == null) {
+            dropped.incrementAndGet()
+        } else {
+            delivered.incrementAndGet()
+        }
+        return transport
+    }
+
+    /**
+     * Called when the info of an object arrives, before its data
+     *
+     * @return false if the object should be cancelled, it is for a room this node has no transport for
+     */
+    fun isWanted(info: ByteArray?): Boolean {
+        if (!filter || rooms.containsKey(roomOf(info))) {
+            return true
+        }
+        cancelled.incrementAndGet()
+        return false
+    }
+
+    fun getRooms(): Int = rooms.values.sumBy { it.size }
+
+    fun getDelivered(): Long = delivered.get()
+
+    fun getDropped(): Long = dropped.get()
+
+    fun getCancelled(): Long = cancelled.get()
+
+    /**
+     * Closes the transports of the rooms and stops the sessions
+     */
+    fun close() {
+        for (transport in rooms.values.flatten()) {
+            transport.close()
+        }
+        for ((iface, session) in senderSessions) {
+            logger.logFine { "stopping shared room sender session on $iface" }
+            NormTransport.closeSendScheduler(session)
+            session.stopSender()
+        }
+        for ((iface, session) in receiverSessions) {
+            logger.logFine { "stopping shared room receiver session on $iface" }
+            session.stopReceiver()
+        }
+        logger.logFine { toString() }
+    }
+
+    override fun toString(): String {
+        return "shared room sessions :$port: rooms=${getRooms()} delivered=${delivered.get()} " +
+                "dropped=${dropped.get()} cancelled=${cancelled.get()}"
+    }
+}
@@ -1,9 +1,11 @@
 package mil.navy.nrl.xop.transport.reliable
 
+import edu.drexel.xop.packet.LocalRecipientFilter
 import edu.drexel.xop.util.MessageCompressionUtils
+import edu.drexel.xop.util.XOP
 import mil.navy.nrl.norm.NormSession
+import mil.navy.nrl.xop.util.logFiner
 import org.json.JSONObject
-import java.nio.ByteBuffer
 import java.util.*
 
 internal data class NormSessionObj internal constructor(
@@ -13,6 +15,7 @@ internal data class NormSessionObj internal constructor(
     val transportMetadata: TransportMetadata?
 )
 
+// the ordinals are sent in the binary metadata, new values go at the end
 internal enum class TransportType {
     Control,
     PresenceInit,
@@ -30,6 +33,7 @@ internal enum class TransportType {
     Unknown
 }
 
+// the ordinals are sent in the binary metadata, new values go at the end
 internal enum class TransportSubType {
     Initialization,
     Redirect,
@@ -42,47 +46,170 @@ internal enum class TransportSubType {
     Unknown
 }
 
+/**
+ * Sent as the info of every NORM data object. [roomId], [sequence] and [destination] are 0 when not set.
+ *
+ * [destination] is the key of the recipient of a one-to-one message, see [LocalRecipientFilter.keyOf], so that nodes
+ * without the recipient drop it before decompressing and parsing it.
+ */
 internal data class TransportMetadata(
     val timestamp: Long,
     val transportType: TransportType,
     val transportSubType: TransportSubType,
-    val origSenderId: Long = -1
+    val origSenderId: Long = -1,
+    val roomId: Int = 0,
+    val sequence: Long = 0,
+    val destination: Int = 0
 )
 
+/*
+ * The binary metadata, never compressed:
+ *
+ *   metadata = %x01 type subtype flags varint(timestamp) zigzag(origSenderId) [varint(roomId)] [varint(sequence)]
+ *              [varint(destination)]
+ *   type     = ordinal of the TransportType
+ *   subtype  = ordinal of the TransportSubType
+ *   flags    = 1 roomId follows, 2 sequence follows, 4 destination follows
+ *
+ * Numbers are varints, 7 bits per byte with the low bits first. Older nodes send JSON, which starts with '{' or,
+ * compressed, with a zlib header or a dictionary byte, but never with 0x01.
+ */
+private const val METADATA_V1: Byte = 0x01
+private const val FLAG_ROOM = 1
+private const val FLAG_SEQUENCE = 2
+// last, so that nodes which do not know it ignore it
+private const val FLAG_DESTINATION = 4
+
+private val transportTypes = TransportType.values()
+private val transportSubTypes = TransportSubType.values()
+
+internal const val METADATA_BINARY = "binary"
+internal const val METADATA_JSON = "json"
+
 internal fun getTransportMetadata(normInfoBytes: ByteArray?, compression: Boolean): TransportMetadata {
-    if (normInfoBytes == null) {
+    if (normInfoBytes == null || normInfoBytes.isEmpty()) {
         return TransportMetadata(0L, TransportType.Unknown, TransportSubType.Unknown)
     }
+    if (normInfoBytes[0] == METADATA_V1) {
+        return binaryToTransportMetadata(normInfoBytes)
+    }
 
-    val byteBuffer = ByteBuffer.wrap(normInfoBytes, 0, normInfoBytes.size)
-    var dataBytes = byteBuffer.array()
+    var dataBytes: ByteArray = normInfoBytes
 
-    if (compression) {
-        logger.finer("length BEFORE decompression ${normInfoBytes.size}")
+    if (compression && dataBytes[0] != '{'.toByte()) {
+        logger.logFiner { "length BEFORE decompression ${normInfoBytes.size}" }
         dataBytes = MessageCompressionUtils.decompressBytes(dataBytes)
-        logger.finer("length AFTER decompression ${normInfoBytes.size}")
+        logger.logFiner { "length AFTER decompression ${dataBytes.size}" }
     }
 
 
-    val jsonObject = JSONObject(String(dataBytes, 0, byteBuffer.capacity()))
+    val jsonObject = JSONObject(String(dataBytes, 0, dataBytes.size))
     val transportType = TransportType.valueOf(jsonObject.optString("transportType", "Unknown"))
     val transportSubType = TransportSubType.valueOf(jsonObject.optString("transportSubType", "Unknown"))
     val origSenderId = jsonObject.optLong("origSenderId", -1)
     val ts = jsonObject.optLong("timestamp", 0)
-    return TransportMetadata(ts, transportType, transportSubType, origSenderId)
+    val roomId = jsonObject.optInt("roomId", 0)
+    val destination = jsonObject.optInt("destination", 0)
+    return TransportMetadata(ts, transportType, transportSubType, origSenderId, roomId, destination = destination)
 }
 
-internal fun transportMetadataToBytes(transportMetadata: TransportMetadata, compression: Boolean): ByteArray {
+/**
+ * @param format [METADATA_BINARY], or [METADATA_JSON] for nodes running an older version, compressed if [compression]
+ */
+internal fun transportMetadataToBytes(transportMetadata: TransportMetadata, compression: Boolean,
+                                     format: String = XOP.TRANSPORT.NORM.METADATA): ByteArray {
+    if (format != METADATA_JSON) {
+        return transportMetadataToBinary(transportMetadata)
+    }
     val jsonObject = JSONObject(transportMetadata)
     var dataBytes = jsonObject.toString().toByteArray()
     if (compression) {
-        logger.finer("info length before compression " + dataBytes.size)
+        logger.logFiner { "info length before compression " + dataBytes.size }
         dataBytes = MessageCompressionUtils.compressBytes(dataBytes)
-        logger.finer("info length after compression " + dataBytes.size)
+        logger.logFiner { "info length after compression " + dataBytes.size }
     }
     return dataBytes
 }
 
+private fun transportMetadataToBinary(transportMetadata: TransportMetadata): ByteArray {
+    // 4 fixed bytes and at most 10 per varint
+    val bytes = ByteArray(54)
+    bytes[0] = METADATA_V1
+    bytes[1] = transportMetadata.transportType.ordinal.toByte()
+    bytes[2] = transportMetadata.transportSubType.ordinal.toByte()
+    var flags = 0
+    if (transportMetadata.roomId != 0) flags = flags or FLAG_ROOM
+    if (transportMetadata.sequence != 0L) flags = flags or FLAG_SEQUENCE
+    if (transportMetadata.destination != 0) flags = flags or FLAG_DESTINATION
+    bytes[3] = flags.toByte()
+    var pos = putVarint(bytes, 4, transportMetadata.timestamp)
+    val id = transportMetadata.origSenderId
+    pos = putVarint(bytes, pos, (id shl 1) xor (id shr 63))
+    if (transportMetadata.roomId != 0) {
+        pos = putVarint(bytes, pos, transportMetadata.roomId.toLong() and 0xffffffffL)
+    }
+    if (transportMetadata.sequence != 0L) {
+        pos = putVarint(bytes, pos, transportMetadata.sequence)
+    }
+    if (transportMetadata.destination != 0) {
+        pos = putVarint(bytes, pos, transportMetadata.destination.toLong() and 0xffffffffL)
+    }
+    return bytes.copyOf(pos)
+}
+
+private fun putVarint(bytes: ByteArray, offset: Int, value: Long): Int {
+    var pos = offset
+    var v = value
+    while (v and 0x7fL.inv() != 0L) {
+        bytes[pos++] = ((v and 0x7f) or 0x80).toByte()
+        v = v ushr 7
+    }
+    bytes[pos++] = v.toByte()
+    return pos
+}
+
+/**
+ * Reads the binary metadata in place, an ordinal this version does not know is read as Unknown
+ */
+private fun binaryToTransportMetadata(bytes: ByteArray): TransportMetadata {
+    if (bytes.size < 6) {
+        throw IllegalArgumentException("transport metadata of ${bytes.size} bytes is truncated")
+    }
+    val type = bytes[1].toInt() and 0xff
+    val subType = bytes[2].toInt() and 0xff
+    val flags = bytes[3].toInt()
+
+    var pos = 4
+    // reads the varint at pos and moves past it
+    fun varint(): Long {
+        var value = 0L
+        var shift = 0
+        while (true) {
+            if (pos >= bytes.size || shift > 63) {
+                throw IllegalArgumentException("transport metadata ends in a varint")
+            }
+            val b = bytes[pos++].toInt()
+            value = value or ((b and 0x7f).toLong() shl shift)
+            if (b and 0x80 == 0) return value
+            shift += 7
+        }
+    }
+    val timestamp = varint()
+    val zigzag = varint()
+    val roomId = if (flags and FLAG_ROOM != 0) varint().toInt() else 0
+    val sequence = if (flags and FLAG_SEQUENCE != 0) varint() else 0L
+    val destination = if (flags and FLAG_DESTINATION != 0) varint().toInt() else 0
+    return TransportMetadata(
+        timestamp,
+        if (type < transportTypes.size) transportTypes[type] else TransportType.Unknown,
+        if (subType < transportSubTypes.size) transportSubTypes[subType] else TransportSubType.Unknown,
+        (zigzag ushr 1) xor -(zigzag and 1),
+        roomId,
+        sequence,
+        destination
+    )
+}
+
 internal fun transportMetadataTimestamp(transportMetadata: TransportMetadata): Date {
     return Date(transportMetadata.timestamp)
 }
\ No newline at end of file
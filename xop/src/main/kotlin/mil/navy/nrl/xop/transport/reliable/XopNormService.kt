@@ -16,18 +16,27 @@ import mil.navy.nrl.norm.*
 import mil.navy.nrl.norm.enums.NormEventType
 import mil.navy.nrl.norm.enums.NormObjectType
 import mil.navy.nrl.xop.util.addressing.getPort
+import mil.navy.nrl.xop.util.logFine
+import mil.navy.nrl.xop.util.logFiner
+import mil.navy.nrl.xop.util.logFinest
 import org.json.JSONObject
 import org.xmpp.packet.JID
 import java.io.IOException
 import java.net.InetAddress
-import java.nio.ByteBuffer
 import java.nio.charset.Charset
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 import java.util.logging.Level
 import kotlin.coroutines.CoroutineContext
 
 /**
  * XO's Transport Service using the NORM protocol.
+ *
+ * One thread takes the NORM events and copies their data, the transports process it on a [KeyedWorkerPool], so a
+ * transport that is slow to deliver (e.g. to a slow client) does not hold up receiving for the others.
+ *
+ * With [roomSessions] [ROOMS_SHARED] all rooms are sent over one group session per interface, see [SharedRoomSessions],
+ * otherwise each room has sessions of its own on the port hashed from its JID.
  */
 class XopNormService(
     private val nodeId: Long,
@@ -36,7 +45,8 @@ class XopNormService(
     private val multicastGroup: InetAddress,
     portRange: String,
     private val transportPacketProcessor: TransportPacketProcessor,
-    private var enableCompression: Boolean = XOP.ENABLE.COMPRESSION
+    private var enableCompression: Boolean = XOP.ENABLE.COMPRESSION,
+    private val roomSessions: String = XOP.TRANSPORT.NORM.ROOMS
 ) : CoroutineScope {
     private val job = Job()
     override val coroutineContext: CoroutineContext
@@ -45,10 +55,13 @@ class XopNormService(
     private val logger = LogUtils.getLogger(XopNormService::class.java.name)
 
     private val normInstance = NormInstance()
-    private val eventLoopJob: Job
+    // processes the received data, one worker per transport so each transport sees its data in order
+    private val workers = KeyedWorkerPool("XopNormService")
+    private val eventLoopThread: Thread
     // private val eventHandlerLoopJob: Job
     // private val normEventChannel = Channel<NORMEventProc>()
 
+    @Volatile
     private var running = true
     private val randGen = Random(System.currentTimeMillis())
 
@@ -58,11 +71,15 @@ class XopNormService(
     private val endPort: Int = portRange.split("-")[1].toInt()
 
     // Map of <TransportType, NormTransport>
-    private val transportSessions = mutableMapOf<NormSession, NormTransport>()
-    private val transports = mutableMapOf<TransportType, NormTransport>()
-    private val sessionLocalNodeIds = mutableSetOf<Long>()
+    private val transportSessions: MutableMap<NormSession, NormTransport> = ConcurrentHashMap()
+    private val transports: MutableMap<TransportType, NormTransport> = ConcurrentHashMap()
+    // read by the workers recognizing redirected copies of this node's data
+    private val sessionLocalNodeIds: MutableSet<Long> = ConcurrentHashMap.newKeySet()
 
     private var oneToOneTransport: NormTransport? = null
+    // the sessions of all rooms, created with the first room when they are shared
+    @Volatile
+    private var sharedRooms: SharedRoomSessions? = null
 
     // TODO 20180928 think this needs to be changed to be threadsafe etc
     // private val thisNode = NORMNode(mutableMapOf(), nodeId, 0, mutableMapOf(), mutableSetOf(), null)
@@ -89,77 +106,79 @@ class XopNormService(
         logger.info("normLogLevel: $loggerLevel")
 
         val normDebugLevel = 10 - loggerLevel / 100
-        logger.fine("Setting NORM Debug Level to: $normDebugLevel")
+        logger.logFine { "Setting NORM Debug Level to: $normDebugLevel" }
         normInstance.debugLevel = normDebugLevel
 
-        eventLoopJob = launch { runNormEventLoop() }
+        // a thread of its own, the loop blocks in NORM waiting for the next event
+        eventLoopThread = Thread({ runNormEventLoop() }, "XopNormService event loop").apply { isDaemon = true }
+        eventLoopThread.start()
     }
 
-    private data class NORMEventProc (
-        val type: NormEventType,
-        var node: NormNode?,
-        var eventObject: NormObject?,
-        var session: NormSession?
-    )
-
     private fun runNormEventLoop() {
         try {
             logger.fine("Entering NormEventHandler loop ...")
             var normEvent: NormEvent? = normInstance.nextEvent
             while (running && normEvent != null) {
-                logger.finer("eventType: {{${normEvent.type}}}")
-                val event = NORMEventProc(normEvent.type,
-                    normEvent.node,
-                    normEvent.`object`,
-                    normEvent.session
-                )
-                // normEventChannel.send(event)
-                when (event.type) {
+                val eventType = normEvent.type
+                logger.logFiner { "eventType: {{$eventType}}" }
+                when (eventType) {
                     NormEventType.NORM_REMOTE_SENDER_NEW -> {
                         try {
-                            handleRemoteSenderNew(event)
+                            dispatchRemoteSenderNew(normEvent)
                         } catch (e: Exception) {
                             logger.log(Level.WARNING, "Exception adding new Remote Sender. msg: ${e.message}", e)
                         }
                     }
-                    NormEventType.NORM_TX_WATERMARK_COMPLETED ->
-                        handleTxWatermarkCompleted(event)
+                    NormEventType.NORM_TX_WATERMARK_COMPLETED -> {
+                        logger.logFine { "Watermark Completed for ${normEvent?.session}" }
+                        normEvent.session?.let { NormTransport.txQueueReady(it) }
+                    }
+                    NormEventType.NORM_TX_QUEUE_VACANCY, NormEventType.NORM_TX_QUEUE_EMPTY -> {
+                        logger.logFinest { "$eventType for ${normEvent?.session}" }
+                        normEvent.session?.let { NormTransport.txQueueReady(it) }
+                    }
                     NormEventType.NORM_RX_OBJECT_UPDATED ->
-                        handleRxObjUpdated(event)
+                        handleRxObjUpdated(normEvent)
                     NormEventType.NORM_RX_OBJECT_COMPLETED ->
-                        handleRxObjCompleted(event)
+                        dispatchRxObjCompleted(normEvent)
                     NormEventType.NORM_REMOTE_SENDER_PURGED -> {
-                        logger.fine("REMOTESENDER PURGED: ${event.node?.id}")
+                        logger.logFine { "REMOTESENDER PURGED: ${normEvent?.node?.id}" }
                     }
                     NormEventType.NORM_REMOTE_SENDER_ACTIVE ->
-                        logger.finest("REMOTE SENDER ACTIVE: ${event.node?.id}")
+                        logger.logFinest { "REMOTE SENDER ACTIVE: ${normEvent?.node?.id}" }
                     NormEventType.NORM_REMOTE_SENDER_INACTIVE ->
-                        logger.finest("REMOTE SENDER INACTIVE: ${event.node?.id}")
-                    NormEventType.NORM_RX_OBJECT_INFO ->
-                        logger.finest("OBJECT INFO: ${event.node?.id}")
+                        logger.logFinest { "REMOTE SENDER INACTIVE: ${normEvent?.node?.id}" }
+                    NormEventType.NORM_RX_OBJECT_INFO -> {
+                        logger.logFinest { "OBJECT INFO: ${normEvent?.node?.id}" }
+                        filterRxObject(normEvent)
+                    }
+                    NormEventType.NORM_TX_OBJECT_SENT ->
+                        logger.logFinest { "TX OBJECT SENT: ${normEvent?.`object`}" }
+                    NormEventType.NORM_TX_OBJECT_PURGED ->
+                        // NORM no longer repairs the object, so its data may be reused
+                        normEvent.`object`?.let { NormTransport.releaseSendBuffer(it) }
                     NormEventType.NORM_TX_CMD_SENT -> {
-                        logger.finest("TX CMD SENT: from ${event.node}")
+                        logger.logFinest { "TX CMD SENT: from ${normEvent?.node}" }
                     }
                     NormEventType.NORM_RX_CMD_NEW -> {
-                        logger.finest("NORM_RX_CMD_NEW from ${event.node?.id} $event")
-                        handleRxCmd(event)
-                    }
-                    NormEventType.NORM_REMOTE_SENDER_RESET -> {
-                        handleRemoteSenderReset(event)
+                        logger.logFinest { "NORM_RX_CMD_NEW from ${normEvent?.node?.id} $normEvent" }
+                        dispatchRxCmd(normEvent)
                     }
+                    NormEventType.NORM_REMOTE_SENDER_RESET ->
+                        logger.logFiner { "REMOTE SENDER RESET: ${normEvent?.node?.id}" }
                     NormEventType.NORM_REMOTE_SENDER_ADDRESS ->
-                        logger.finer("REMOTE SENDER ADDRESS: ${event.node?.id}")
+                        logger.logFiner { "REMOTE SENDER ADDRESS: ${normEvent?.node?.id}" }
                     NormEventType.NORM_USER_TIMEOUT ->
-                        logger.finer("NORM USER TIMEOUT: ${event.node?.id ?: "no node"}")
+                        logger.logFiner { "NORM USER TIMEOUT: ${normEvent?.node?.id ?: "no node"}" }
                     NormEventType.NORM_ACKING_NODE_NEW -> {
-                        logger.finer("NORM_ACKING_NODE_NEW: ${event.node?.id ?: "no node"} $event")
+                        logger.logFiner { "NORM_ACKING_NODE_NEW: ${normEvent?.node?.id ?: "no node"} $normEvent" }
                     }
                     NormEventType.NORM_GRTT_UPDATED -> {
-                        logger.finest("NORM_GRTT_UPDATED $event")
-                        handleGrttUpdate(normEvent)
+                        logger.logFinest { "NORM_GRTT_UPDATED $normEvent" }
+                        dispatchGrttUpdate(normEvent)
                     }
                     else -> {
-                        logger.finest("Unhandled eventType: ${event.type}")
+                        logger.logFinest { "Unhandled eventType: $eventType" }
                     }
                 }
                 normEvent = normInstance.nextEvent
@@ -173,22 +192,50 @@ class XopNormService(
         logger.fine("exiting NormEventHandler ...")
     }
 
-    private fun handleRxCmd(event: NORMEventProc) {
-        if( event.node == null ) {
+    /**
+     * Queues [task] on the worker of the transport receiving on [session], or drops it if there is no such
+     * transport. The event loop only copies the data out of the NORM events, everything else runs on the workers.
+     */
+    private fun dispatch(session: NormSession, task: (NormTransport) -> Unit) {
+        val transport = transportSessions[session]
+        if (transport == null) {
+            logger.finer("Transport not found for this session, do nothing.")
+            return
+        }
+        dispatch(transport, task)
+    }
+
+    private fun dispatch(transport: NormTransport, task: (NormTransport) -> Unit) {
+        if (!workers.dispatch(transport, Runnable { task(transport) })) {
+            logger.logFine { "worker queue full or closed, dropped event for $transport" }
+        }
+    }
+
+    private fun dispatchRxCmd(event: NormEvent) {
+        val node = event.node
+        if (node == null) {
             logger.warning("event node is null!")
             return
         }
-        val node = event.node!!
+        val session = event.session ?: return
+        val transport = transports[TransportType.PresenceProbe]
+        if (transport == null) {
+            logger.severe("Unsuported transportType ${TransportType.PresenceProbe}")
+            return
+        }
 
-        logger.finer("NORM_RX_CMD: node from node id ${node.id} ${node.address.hostString}")
+        logger.logFiner { "NORM_RX_CMD: node from node id ${node.id} ${node.address.hostString}" }
         val byteArray = ByteArray(XOP.TRANSPORT.NORM.SEGMENTSIZE)
         node.getCommand(byteArray, 0, XOP.TRANSPORT.NORM.SEGMENTSIZE)
+        val eventNodeId = node.id
+        workers.dispatch(transport, Runnable { handleRxCmd(transport, session, eventNodeId, byteArray) })
+    }
 
+    private fun handleRxCmd(transport: NormTransport, session: NormSession, eventNodeId: Long, byteArray: ByteArray) {
         val pair = getDataString(byteArray, false)
         val dataStr = pair.first
         val dataBytes = pair.second
-        logger.finer("NORM_RX_CMD_NEW: command datastr: $dataStr")
-        val eventNodeId = node.id
+        logger.logFiner { "NORM_RX_CMD_NEW: command datastr: $dataStr" }
         // val grttEstimate = event.session?.grttEstimate ?: 0.0
 
         // val probeNORMNode = fromJSONStr(dataStr, event.session)
@@ -197,18 +244,12 @@ class XopNormService(
         val transportMetadata = TransportMetadata(
             eventNodeId, TransportType.PresenceProbe, TransportSubType.JSON, 0L
         )
-        transports[transportMetadata.transportType]?.handleTransportData(eventNodeId,
-            event.session!!, transportMetadata, dataStr, dataBytes)
-            ?: logger.severe("Unsuported transportType ${transportMetadata.transportType}")
+        transport.handleTransportData(eventNodeId, session, transportMetadata, dataStr, dataBytes)
     }
 
-    private fun handleRemoteSenderReset(event: NORMEventProc) {
-        logger.finer("REMOTE SENDER RESET: ${event.node?.id}")
-    }
-
-    private fun handleRxObjUpdated(event: NORMEventProc) {
-        logger.fine("handleRxObjUpdated ${event.node?.id}")
-        val normStream = event.eventObject!!
+    private fun handleRxObjUpdated(event: NormEvent) {
+        logger.logFine { "handleRxObjUpdated ${event.node?.id}" }
+        val normStream = event.`object`!!
         if (normStream is NormStream) {
             logger.fine("a norm stream detected")
             val byteArray = ByteArray(65536)
@@ -228,64 +269,104 @@ class XopNormService(
                 logger.info("jsonObj is empty!")
             }
         } else {
-            logger.fine("NOT a NORMStream. eventObject: {${event.eventObject}}")
+            logger.logFine { "NOT a NORMStream. eventObject: {${event.`object`}}" }
         }
     }
 
-    private fun handleTxWatermarkCompleted(event: NORMEventProc) {
-        val normSession = event.session
-        logger.fine("Watermark Completed for $normSession")
-        //normSession.resetWatermark()
-        //logger.fine("Resetting Watermark for the session $normSession")
-    }
-
-    private fun handleRemoteSenderNew(event: NORMEventProc) {
+    private fun dispatchRemoteSenderNew(event: NormEvent) {
         val nodeId = event.node?.id ?: throw Exception("No NODE id for event")
         val normSession = event.session ?: throw Exception("no session included  for nodeId $nodeId")
-        logger.fine("Adding a new remote sender $nodeId to normPresenceTransport, $normSession")
-        transportSessions[normSession]?.addRemoteNode(normSession, nodeId)
-            ?: logger.finer("Transport not found for this session, do nothing.")
+        logger.logFine { "Adding a new remote sender $nodeId to normPresenceTransport, $normSession" }
+        dispatch(normSession) { transport -> transport.addRemoteNode(normSession, nodeId) }
         // normPresenceTransport?.addRemoteNode(normSession, nodeId)
 
     }
 
-    private fun handleGrttUpdate(event: NormEvent) {
+    private fun dispatchGrttUpdate(event: NormEvent) {
         val normSession = event.session ?: return
 
         val nodeId = event.node?.id ?: return
+        val grttEstimate = normSession.grttEstimate
 
-        logger.finest("updating GRTT session local node id:${normSession.localNodeId} to ${event.session.grttEstimate}")
-        val normTransport: NormPresenceTransport? = transportSessions[normSession] as? NormPresenceTransport
-        normTransport?.updateGrtt(normSession, nodeId, event.session.grttEstimate)
-            ?: logger.finer("${event.session} session not tied a NormPresenceTransport: ${normTransport is NormPresenceTransport}")
+        logger.logFinest { "updating GRTT session local node id:${normSession.localNodeId} to $grttEstimate" }
+        dispatch(normSession) { transport ->
+            (transport as? NormPresenceTransport)?.updateGrtt(normSession, nodeId, grttEstimate)
+                ?: logger.finer("$normSession session not tied a NormPresenceTransport")
+        }
     }
 
-    private fun handleRxObjCompleted(event: NORMEventProc) {
-        logger.fine("NORM Object completed for session node id " + event.session?.localNodeId)
-        val normObject = event.eventObject!!
+    private fun dispatchRxObjCompleted(event: NormEvent) {
+        logger.logFine { "NORM Object completed for session node id " + event.session?.localNodeId }
+        val normObject = event.`object`!!
         if (normObject.type != NormObjectType.NORM_OBJECT_DATA) {
             logger.fine("completed object is not NORM_OBJECT_DATA")
             return
         }
+        val session = event.session!!
+        // copied out of NORM here, the object is released once the next event is taken
+        val info = normObject.info
+        val transport = receivingTransport(session, info) ?: return
+        val senderId = normObject.sender.id
+        val data = (normObject as NormData).data
+        dispatch(transport) { handleRxObjCompleted(it, session, senderId, info, data) }
+    }
+
+    /**
+     * @return the transport receiving on [session], on the shared room sessions the one of the room the object with
+     * [info] is for
+     */
+    private fun receivingTransport(session: NormSession, info: ByteArray?): NormTransport? {
+        val shared = sharedRooms
+        val transport = if (shared != null && shared.isReceiving(session)) {
+            shared.transportFor(info)
+        } else {
+            transportSessions[session]
+        }
+        if (transport == null) {
+            logger.finer("Transport not found for this session, do nothing.")
+        }
+        return transport
+    }
+
+    /**
+     * Cancels the objects on the shared room sessions for rooms this node is not in, before NORM receives their data
+     */
+    private fun filterRxObject(event: NormEvent) {
+        val shared = sharedRooms ?: return
+        val session = event.session ?: return
+        val normObject = event.`object` ?: return
+        if (shared.isReceiving(session) && !shared.isWanted(normObject.info)) {
+            logger.logFiner { "cancelling object from ${normObject.sender?.id} for a room not joined" }
+            normObject.cancel()
+        }
+    }
 
-        val sender = normObject.sender
-        val transportMetadata = getTransportMetadata(normObject.info, enableCompression)
-        val data = normObject as NormData
-        logger.fine("data from sender ${sender.id} transportType ${transportMetadata.transportType}")
+    private fun handleRxObjCompleted(transport: NormTransport, session: NormSession, senderId: Long,
+                                     info: ByteArray, data: ByteArray) {
+        val transportMetadata = getTransportMetadata(info, enableCompression)
+        logger.logFine { "data from sender $senderId transportType ${transportMetadata.transportType}" }
+        if (!transport.isForThisRoom(transportMetadata)) {
+            logger.logFiner { "data from sender $senderId for room ${transportMetadata.roomId}, not $transport" }
+            return
+        }
+        if (!transport.hasLocalRecipient(transportMetadata)) {
+            logger.logFiner { "data from sender $senderId for ${transportMetadata.destination}, not a local client" }
+            return
+        }
 
-        val pair = getDataString(data.data, enableCompression)
+        val pair = getDataString(data, enableCompression)
         val dataString = pair.first
         val dataBytes = pair.second
         val normSessionObj = NormSessionObj(
-            dataString, event.session!!,
-            sender.id, transportMetadata  //transportMetadata.transportType
+            dataString, session,
+            senderId, transportMetadata  //transportMetadata.transportType
         )
         if(isDuplicate(normSessionObj)) {
-            logger.fine("duplicate message from: ${sender.id} datastring: $dataString")
+            logger.logFine { "duplicate message from: $senderId datastring: $dataString" }
             return
         }
 
-        logger.fine("transportType: ${transportMetadata.transportType}")
+        logger.logFine { "transportType: ${transportMetadata.transportType}" }
 
         // TODO 2019-05-22 Re-introduce TransportSubType for PresenceTransport handling of redirected nodes.
         when (transportMetadata.transportType) {
@@ -300,11 +381,10 @@ class XopNormService(
             // }
             // TransportType.PresenceTransport -> {
             else -> {
-                logger.fine("processing completed NormObject with transportMetadata $transportMetadata")
-                transportSessions[event.session!!]?.handleTransportData(
+                logger.logFine { "processing completed NormObject with transportMetadata $transportMetadata" }
+                transport.handleTransportData(
                     normSessionObj.senderNodeId,
                     normSessionObj.normSession, transportMetadata, dataString, dataBytes)
-                        ?: logger.severe("Unable to find transport for session ${event.session}")
             }
         }
     }
@@ -313,7 +393,7 @@ class XopNormService(
     // private val receivedSessionMessages = mutableMapOf<Long, MutableMap<String, AtomicInteger>>()
     private fun isDuplicate(normSessionObj: NormSessionObj): Boolean {
         val origSenderId = normSessionObj.transportMetadata?.origSenderId ?: -99
-        logger.fine("id: ${origSenderId} norm sessionLocalIds $sessionLocalNodeIds")
+        logger.logFine { "id: ${origSenderId} norm sessionLocalIds $sessionLocalNodeIds" }
         return origSenderId in sessionLocalNodeIds
         //
         // val senderNodeId = normSessionObj.senderNodeId
@@ -372,14 +452,13 @@ class XopNormService(
     // }
 
     private fun getDataString(data: ByteArray, compression: Boolean): Pair<String, ByteArray> {
-        val byteBuffer = ByteBuffer.wrap(data, 0, data.size)
-        var dataBytes = byteBuffer.array()
+        var dataBytes = data
         if (compression) {
-            logger.finer("length BEFORE decompression $data.size")
+            logger.logFiner { "length BEFORE decompression $data.size" }
             dataBytes = MessageCompressionUtils.decompressBytes(dataBytes)
-            logger.finer("length AFTER decompression $data.size")
+            logger.logFiner { "length AFTER decompression $data.size" }
         }
-        return Pair(String(dataBytes, 0, byteBuffer.capacity()), dataBytes)
+        return Pair(String(dataBytes, 0, dataBytes.size), dataBytes)
     }
 
     /**
@@ -391,16 +470,16 @@ class XopNormService(
      */
     @Throws(IOException::class)
     private fun createNormSession(ifaceName: String, multicastGroup: InetAddress, port: Int): NormSession {
-        logger.fine(
-            "Creating NORM Session on ${multicastGroup.hostAddress}:$port, nodeId: $nodeId "
-                    + " node_any: ${NormNode.NORM_NODE_ANY}"
-        )
+        logger.logFine {
+            "Creating NORM Session on ${multicastGroup.hostAddress}:$port, nodeId: $nodeId " +
+                    " node_any: ${NormNode.NORM_NODE_ANY}"
+        }
         val session = normInstance.createSession(
             multicastGroup.hostAddress,
             port, NormNode.NORM_NODE_ANY)
 
         session.setMulticastInterface(ifaceName)
-        logger.fine("Set multicast socket on: $ifaceName. session local id: ${session.localNodeId}, session $session")
+        logger.logFine { "Set multicast socket on: $ifaceName. session local id: ${session.localNodeId}, session $session" }
 
         // Adding the multicast group host address ensures only messages to this multicast
         // group is sent to the session.
@@ -410,7 +489,7 @@ class XopNormService(
 
     private fun startSenderSessions(senderSession: NormSession) {
         val randInt = randGen.nextInt()
-        logger.fine("-- Starting new senderSession nodeId ${senderSession.localNodeId}; randInt $randInt, session $senderSession")
+        logger.logFine { "-- Starting new senderSession nodeId ${senderSession.localNodeId}; randInt $randInt, session $senderSession" }
         val senderBufferSpace = XOP.TRANSPORT.NORM.SENDBUFFERSPACE //256 * 256;
         val segmentSize = XOP.TRANSPORT.NORM.SEGMENTSIZE //1400;
         val blockSize = XOP.TRANSPORT.NORM.BLOCKSIZE //64;
@@ -427,7 +506,7 @@ class XopNormService(
     }
 
     private fun startReceiverSession(receiverSession: NormSession) {
-        logger.fine("-- Starting new receiverSession nodeId ${receiverSession.localNodeId}, session $receiverSession")
+        logger.logFine { "-- Starting new receiverSession nodeId ${receiverSession.localNodeId}, session $receiverSession" }
         val receiverBufferSpace = XOP.TRANSPORT.NORM.RCVBUFFERSPACE //256 * 256;
         // receiverSession.setRxCacheLimit(rxCacheMax)
         receiverSession.setRxPortReuse(true)
@@ -467,15 +546,20 @@ class XopNormService(
 
         normPresenceTransport = NormPresenceTransport(
             presenceNormSessions, receiverSessions, multicastGroup, presencePort!!, nodeId,
-            transportPacketProcessor, sdListener, enableCompression, this,
+            transportPacketProcessor, sdListener, enableCompression, this, workers,
             presenceInterval, presenceTimeout
         )
-        logger.fine("created presence transport on $presencePort. $normPresenceTransport")
+        logger.logFine { "created presence transport on $presencePort. $normPresenceTransport" }
         for((_, session) in receiverSessions) {
-            logger.finer("adding session local node id ${session.localNodeId} to normTransport $normPresenceTransport")
+            logger.logFiner { "adding session local node id ${session.localNodeId} to normTransport $normPresenceTransport" }
             transportSessions[session] = normPresenceTransport as NormTransport
         }
-        return normPresenceTransport!!.sdManager
+        val presenceTransport = normPresenceTransport!!
+        // the periodic updates of the other nodes arrive as NORM commands
+        transports[TransportType.PresenceProbe] = presenceTransport
+        broadcastJob = launch { presenceTransport.broadcastRoutine() }
+        logger.info("started presence broadcast with an initial interval of ${presenceInterval}ms")
+        return presenceTransport.sdManager
     }
 
 
@@ -485,9 +569,10 @@ class XopNormService(
     private fun createNormTransport( transportType: TransportType, transportSubType: TransportSubType,
         groupAddress: InetAddress, groupPort: Int,
         transportPacketProcessor: TransportPacketProcessor,
-        compression: Boolean
+        compression: Boolean,
+        roomId: Int = 0
     ): NormTransport {
-        logger.fine("Creating new Norm Transport on $groupAddress:$groupPort")
+        logger.logFine { "Creating new Norm Transport on $groupAddress:$groupPort" }
 
         val senderSessions = mutableMapOf<String, NormSession>()
         val receiverSessions = mutableMapOf<String, NormSession>()
@@ -504,12 +589,12 @@ class XopNormService(
 
         val normTransport = NormTransport(transportType, transportSubType,
             senderSessions, receiverSessions, groupAddress, groupPort,
-            transportPacketProcessor, compression
+            transportPacketProcessor, compression, roomId = roomId
         )
 
         for((iface, session) in receiverSessions) {
-            logger.finer("adding session $session; iface $iface; localNodeId ${session.localNodeId}" +
-                    " to normTransport $normTransport")
+            logger.logFiner { "adding session $session; iface $iface; localNodeId ${session.localNodeId}" +
+                    " to normTransport $normTransport" }
             transportSessions[session] = normTransport
         }
         logger.fine("started sessions on all interface transport ")
@@ -523,22 +608,57 @@ class XopNormService(
      */
     fun createRoomTransport(roomJID: JID, compression: Boolean): XOPTransportService {
         val roomStr = roomJID.toString()
-        val port = getPort(roomStr, startPort, endPort)
-        logger.fine("Creating NormTransport for $roomStr using port: $port")
-
-        val transport = createNormTransport(
-            TransportType.MessageTransport, TransportSubType.GroupChat,
-            multicastGroup, port, transportPacketProcessor, compression
-        )
+        val transport: NormTransport
+        if (roomSessions == ROOMS_SHARED) {
+            val shared = sharedRoomSessions()
+            val roomId = roomId(roomJID)
+            logger.logFine { "Creating NormTransport for $roomStr with room id $roomId on shared port: ${shared.port}" }
+            // copies, the transport forgets its sessions when it is closed
+            transport = NormTransport(TransportType.MessageTransport, TransportSubType.GroupChat,
+                shared.senderSessions.toMutableMap(), shared.receiverSessions.toMutableMap(), multicastGroup,
+                shared.port, transportPacketProcessor, compression, roomId = roomId, sharedRooms = shared
+            )
+            shared.add(roomId, transport)
+        } else {
+            val port = getPort(roomStr, startPort, endPort)
+            logger.logFine { "Creating NormTransport for $roomStr using port: $port" }
+            transport = createNormTransport(
+                TransportType.MessageTransport, TransportSubType.GroupChat,
+                multicastGroup, port, transportPacketProcessor, compression, roomId(roomJID)
+            )
+        }
 
         // So SDManager sends Presence messages over the NORM session for the room
         normPresenceTransport?.addTransportForRoom(roomJID, transport)
         return transport
     }
 
+    /**
+     * @return the sessions all rooms are sent over, started with the first room
+     */
+    @Synchronized
+    private fun sharedRoomSessions(): SharedRoomSessions {
+        sharedRooms?.let { return it }
+        val port = getPort(SHARED_ROOMS_NAME, startPort, endPort)
+        logger.info("Starting shared room sessions on port: $port")
+        val senderSessions = mutableMapOf<String, NormSession>()
+        val receiverSessions = mutableMapOf<String, NormSession>()
+        for (iface in sendInterfaces) {
+            val session = createNormSession(iface, multicastGroup, port)
+            startSenderSessions(session)
+            senderSessions[iface] = session
+        }
+        for (iface in recvInterfaces) {
+            val rcvSession = createNormSession(iface, multicastGroup, port)
+            startReceiverSession(rcvSession)
+            receiverSessions[iface] = rcvSession
+        }
+        return SharedRoomSessions(senderSessions, receiverSessions, port, enableCompression).also { sharedRooms = it }
+    }
+
     fun createOneToOneTransport(compression: Boolean): XOPTransportService {
         val port = getPort("oneToOne@oneToOne", startPort, endPort)
-        logger.fine("Creating NormTransport for One-to-One messages using port: $port")
+        logger.logFine { "Creating NormTransport for One-to-One messages using port: $port" }
 
         this.oneToOneTransport = createNormTransport(TransportType.MessageTransport,
             TransportSubType.Chat,
@@ -552,22 +672,54 @@ class XopNormService(
         logger.info("shutting down XOPNormService")
 
         broadcastJob?.cancel()
+        running = false // signal to threads to stop running
+
+        // no task may use the sessions or send buffers once they are released
+        logger.info("Stopping NORM workers: $workers")
+        workers.close()
+
         for ((session, transport) in transportSessions) {
             logger.info("Shutting down transport $transport with session: $session")
             transport.close()
         }
         transportSessions.clear()
+        sharedRooms?.let {
+            logger.info("Shutting down $it")
+            it.close()
+        }
 
         normPresenceTransport?.close() ?: logger.info("Presence Transport not initialized")
 
-        logger.info("Canceling NORM Instance event loop")
-        eventLoopJob.cancel()
-        //eventLoopJob.join()
-
-
-        running = false // signal to threads to stop running
-
         logger.info("destroying NORM instance")
         normInstance.destroyInstance()
+        NormTransport.clearSendBuffers()
+
+        logger.info(transportPacketProcessor.localRecipientFilter.toString())
+    }
+
+    companion object {
+        /**
+         * @return one line per open NORM transport with its duplicate filter counters
+         */
+        @JvmStatic
+        fun duplicateFilterStatistics(): String = DuplicateFilter.statistics()
+
+        /**
+         * @return one line per open NORM worker pool with its queue depths and counters
+         */
+        @JvmStatic
+        fun workerPoolStatistics(): String = KeyedWorkerPool.statistics()
+
+        /**
+         * @return one line per open NORM send buffer arena with its byte counts and counters
+         */
+        @JvmStatic
+        fun bufferArenaStatistics(): String = DirectBufferArena.statistics()
+
+        /**
+         * @return one line per open NORM send scheduler with its queue depth, stall time and counters
+         */
+        @JvmStatic
+        fun sendSchedulerStatistics(): String = NormSendScheduler.statistics()
     }
 }
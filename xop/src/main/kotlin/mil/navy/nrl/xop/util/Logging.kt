@@ -0,0 +1,26 @@
+package mil.navy.nrl.xop.util
+
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/*
+ * Level guarded logging for the Kotlin code.
+ *
+ * A string template passed to Logger.fine() is built before the call, even when the level is off, and templates in
+ * this code often serialize whole stanzas (asXML(), toXML(), a packet's toString()). These inline the level check
+ * at the call site, so the message lambda is neither allocated nor evaluated unless the record is logged:
+ *
+ *     logger.logFine { "received: ${element.asXML()}" }
+ */
+
+inline fun Logger.logAt(level: Level, message: () -> String) {
+    if (isLoggable(level)) log(level, message())
+}
+
+inline fun Logger.logInfo(message: () -> String) = logAt(Level.INFO, message)
+
+inline fun Logger.logFine(message: () -> String) = logAt(Level.FINE, message)
+
+inline fun Logger.logFiner(message: () -> String) = logAt(Level.FINER, message)
+
+inline fun Logger.logFinest(message: () -> String) = logAt(Level.FINEST, message)
@@ -0,0 +1,229 @@
+package mil.navy.nrl.xop.util.tls
+
+import edu.drexel.xop.util.XOP
+import edu.drexel.xop.util.logger.LogUtils
+import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.security.GeneralSecurityException
+import java.security.KeyStore
+import java.security.SecureRandom
+import java.security.cert.X509Certificate
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.Level
+import javax.net.ssl.KeyManagerFactory
+import javax.net.ssl.SSLContext
+import javax.net.ssl.SSLSession
+import javax.net.ssl.SSLSocketFactory
+import javax.net.ssl.TrustManager
+import javax.net.ssl.TrustManagerFactory
+import javax.net.ssl.X509TrustManager
+
+private val logger = LogUtils.getLogger(TlsContextProvider::class.java.name)
+
+/**
+ * Process wide holder of an [SSLContext]. The keystore and truststore are read and the context initialized once, on
+ * first use, instead of on every STARTTLS negotiation; [reload] rebuilds it, e.g. after the certificates were replaced.
+ * Server side session caching is enabled so that clients and gateways reconnecting after a link outage can resume
+ * their sessions rather than doing a full handshake.
+ *
+ * Connections report their handshakes through [handshakeCompleted] and [handshakeFailed], the counters and timings
+ * are available from the getters and [toString].
+ */
+class TlsContextProvider(private val name: String, private val loader: () -> SSLContext?) {
+
+    private class Loaded(val context: SSLContext) {
+        val socketFactory: SSLSocketFactory = context.socketFactory
+    }
+
+    @Volatile
+    private var loaded: Loaded? = null
+    private val lock = Any()
+
+    private val loads = AtomicLong()
+    private val handshakes = AtomicLong()
+    private val resumedHandshakes = AtomicLong()
+    private val failedHandshakes = AtomicLong()
+    private val handshakeNanos = AtomicLong()
+    private val maxHandshakeNanos = AtomicLong()
+
+    /**
+     * @return the shared context, built on the first call, or null if it could not be built
+     */
+    fun getContext(): SSLContext? = get()?.context
+
+    /**
+     * @return the socket factory of the shared context, SSLContext creates a new one on every call
+     */
+    fun getSocketFactory(): SSLSocketFactory? = get()?.socketFactory
+
+    private fun get(): Loaded? {
+        var current = loaded
+        if (current == null) {
+            synchronized(lock) {
+                current = loaded
+                if (current == null) {
+                    current = load()
+                    loaded = current
+                }
+            }
+        }
+        return current
+    }
+
+    /**
+     * Rebuild the context from the configured stores. Connections already established keep their sessions, new
+     * handshakes use the new context. If the stores can't be loaded the current context is kept.
+     * @return true if the context was rebuilt
+     */
+    fun reload(): Boolean {
+        synchronized(lock) {
+            val reloaded = load() ?: return false
+            loaded = reloaded
+            return true
+        }
+    }
+
+    private fun load(): Loaded? {
+        val start = System.nanoTime()
+        val context = loader() ?: return null
+        val sessionContext = context.serverSessionContext
+        if (sessionContext != null) {
+            sessionContext.sessionCacheSize = XOP.SSL.SESSION_CACHE_SIZE
+            sessionContext.sessionTimeout = XOP.SSL.SESSION_TIMEOUT
+        }
+        loads.incrementAndGet()
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("$name TLS context loaded in ${TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)}ms")
+        }
+        return Loaded(context)
+    }
+
+    /**
+     * Record a completed handshake
+     * @param session the negotiated session
+     * @param startNanos [System.nanoTime] when the handshake was started
+     */
+    fun handshakeCompleted(session: SSLSession, startNanos: Long) {
+        val elapsed = System.nanoTime() - startNanos
+        handshakes.incrementAndGet()
+        // a resumed session was created by an earlier handshake
+        val resumed = session.creationTime < System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(elapsed)
+        if (resumed) {
+            resumedHandshakes.incrementAndGet()
+        }
+        handshakeNanos.addAndGet(elapsed)
+        var max = maxHandshakeNanos.get()
+        while (elapsed > max && !maxHandshakeNanos.compareAndSet(max, elapsed)) {
+            max = maxHandshakeNanos.get()
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("$name TLS handshake ${session.protocol} ${session.cipherSuite} resumed: $resumed " +
+                    "took ${TimeUnit.NANOSECONDS.toMillis(elapsed)}ms; $this")
+        }
+    }
+
+    fun handshakeFailed() {
+        failedHandshakes.incrementAndGet()
+    }
+
+    fun getLoads(): Long = loads.get()
+
+    fun getHandshakes(): Long = handshakes.get()
+
+    fun getResumedHandshakes(): Long = resumedHandshakes.get()
+
+    fun getFailedHandshakes(): Long = failedHandshakes.get()
+
+    /** mean duration of the completed handshakes in milliseconds */
+    fun getMeanHandshakeMillis(): Double {
+        val count = handshakes.get()
+        return if (count == 0L) 0.0 else handshakeNanos.get() / count / 1e6
+    }
+
+    fun getMaxHandshakeMillis(): Double = maxHandshakeNanos.get() / 1e6
+
+    override fun toString(): String {
+        return "$name TLS: loads=${getLoads()} handshakes=${getHandshakes()} resumed=${getResumedHandshakes()} " +
+                "failed=${getFailedHandshakes()} mean=${"%.2f".format(getMeanHandshakeMillis())}ms " +
+                "max=${"%.2f".format(getMaxHandshakeMillis())}ms"
+    }
+
+    companion object {
+        /** context for client STARTTLS, from the stores configured in [XOP.SSL] */
+        @JvmField
+        val CLIENT = TlsContextProvider("client") {
+            createSSLContext(
+                "TLSv1.2", XOP.SSL.KEYSTORE, XOP.SSL.PASSWORD, XOP.SSL.TRUSTSTORE, XOP.SSL.PASSWORD, false
+            )
+        }
+
+        /** context for server to server connections, from the stores configured in [XOP.GATEWAY] */
+        @JvmField
+        val GATEWAY = TlsContextProvider("gateway") {
+            createSSLContext(
+                "TLS", XOP.GATEWAY.KEYSTORE, XOP.GATEWAY.STOREPASSWORD,
+                XOP.GATEWAY.TRUSTSTORE, XOP.GATEWAY.TRUSTSTOREPASSWORD, XOP.GATEWAY.ACCEPT_SELF_SIGNED_CERTS
+            )
+        }
+    }
+}
+
+/**
+ * Build an SSLContext from the given keystore and truststore files
+ * @param acceptSelfSigned trust any peer certificate instead of using the truststore
+ * @return the initialized context, or null on failure
+ */
+internal fun createSSLContext(
+    protocol: String,
+    keystore: String, storePass: String,
+    truststore: String, trustPass: String,
+    acceptSelfSigned: Boolean
+): SSLContext? {
+    val keystorePath = File(keystore).absoluteFile
+    val truststorePath = File(truststore).absoluteFile
+    if (logger.isLoggable(Level.FINE)) {
+        logger.fine("keystorePath: " + keystorePath.absolutePath)
+        logger.fine("truststorePath: " + truststorePath.absolutePath)
+    }
+    try {
+        logger.fine("Setting up keystore...")
+        val context = SSLContext.getInstance(protocol)
+        val keyManager = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm())
+        keyManager.init(loadKeyStore(FileInputStream(keystorePath), storePass), storePass.toCharArray())
+
+        val trustManagers: Array<TrustManager>
+        if (acceptSelfSigned) {
+            logger.info("Allowing self-signed certificates")
+            trustManagers = arrayOf(object : X509TrustManager {
+                override fun getAcceptedIssuers(): Array<X509Certificate> = arrayOf()
+                override fun checkClientTrusted(certs: Array<X509Certificate>, authType: String) {}
+                override fun checkServerTrusted(certs: Array<X509Certificate>, authType: String) {}
+            })
+        } else {
+            val trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm())
+            trustManagerFactory.init(loadKeyStore(FileInputStream(truststorePath), trustPass))
+            trustManagers = trustManagerFactory.trustManagers
+        }
+
+        context.init(keyManager.keyManagers, trustManagers, SecureRandom())
+        logger.fine("Finished setting up keystore.")
+        return context
+    } catch (e: IOException) {
+        logger.severe("Unable to load keystore: " + e.message)
+    } catch (e: GeneralSecurityException) {
+        logger.severe("Error while setting up the SSLContext: " + e.message)
+    }
+    return null
+}
+
+@Throws(IOException::class, GeneralSecurityException::class)
+private fun loadKeyStore(location: InputStream, password: String): KeyStore {
+    location.use {
+        val store = KeyStore.getInstance(KeyStore.getDefaultType())
+        store.load(it, password.toCharArray())
+        return store
+    }
+}
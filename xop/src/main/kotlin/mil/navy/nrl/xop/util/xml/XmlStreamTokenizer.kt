@@ -0,0 +1,401 @@
+package mil.navy.nrl.xop.util.xml
+
+import org.xml.sax.SAXException
+import java.nio.ByteBuffer
+import java.nio.CharBuffer
+import java.nio.charset.CodingErrorAction
+
+/**
+ * A namespace resolved element or attribute name
+ */
+data class XmlName(val prefix: String, val localName: String, val uri: String) {
+    val qName: String
+        get() = if (prefix.isEmpty()) localName else "$prefix:$localName"
+}
+
+data class XmlAttribute(val name: XmlName, val value: String)
+
+/**
+ * Incremental, push-fed XML tokenizer for XMPP streams.
+ *
+ * Unlike a SAX or StAX parser it never pulls from a stream: callers [feed] whatever bytes they have, in chunks of any
+ * size, and the tokenizer reports every element start/end and run of character data it can complete, carrying its
+ * state (including partially received UTF-8 sequences, tags and entities) over to the next call. That makes it
+ * usable from non-blocking I/O as well as from a plain blocking read loop.
+ *
+ * Namespaces are resolved; `xmlns` declarations are reported separately from the attributes. Comments, processing
+ * instructions and the XML declaration are skipped, CDATA sections are reported as character data. DTDs are not
+ * supported, as required for XMPP (RFC 6120 11.1).
+ */
+class XmlStreamTokenizer(private val handler: Handler) {
+
+    interface Handler {
+        /**
+         * @param namespaces the prefix to uri declarations made on this element, "" being the default namespace
+         */
+        @Throws(SAXException::class)
+        fun startElement(name: XmlName, attributes: List<XmlAttribute>, namespaces: Map<String, String>)
+
+        @Throws(SAXException::class)
+        fun characters(ch: CharArray, start: Int, length: Int)
+
+        @Throws(SAXException::class)
+        fun endElement(name: XmlName)
+    }
+
+    private enum class State {
+        TEXT, TAG_OPEN, START_NAME, ATTRS, ATTR_NAME, ATTR_AFTER_NAME, ATTR_EQ, ATTR_VALUE, EMPTY_CLOSE,
+        END_NAME, PI, BANG, BANG_DASH, COMMENT, CDATA, DECL, ENTITY
+    }
+
+    private val decoder = Charsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE)
+    private val chars = CharBuffer.allocate(4096)
+    private var partial: ByteBuffer? = null
+
+    private var state = State.TEXT
+    private var entityReturn = State.TEXT
+    private var quote = ' '
+    private var matched = 0
+
+    private val text = StringBuilder()
+    private val name = StringBuilder()
+    private val attrName = StringBuilder()
+    private val attrValue = StringBuilder()
+    private val entity = StringBuilder()
+    private val rawAttributes = ArrayList<Pair<String, String>>()
+
+    private val openElements = ArrayList<XmlName>()
+    private val scopes = ArrayList<Map<String, String>>()
+
+    /** number of currently open elements */
+    val depth: Int
+        get() = openElements.size
+
+    /**
+     * Forget all state, e.g. when a stream is restarted after STARTTLS or SASL success
+     */
+    fun reset() {
+        decoder.reset()
+        partial = null
+        state = State.TEXT
+        matched = 0
+        text.setLength(0)
+        name.setLength(0)
+        attrName.setLength(0)
+        attrValue.setLength(0)
+        entity.setLength(0)
+        rawAttributes.clear()
+        openElements.clear()
+        scopes.clear()
+    }
+
+    @Throws(SAXException::class)
+    fun feed(bytes: ByteArray, offset: Int = 0, length: Int = bytes.size) {
+        feed(ByteBuffer.wrap(bytes, offset, length))
+    }
+
+    @Throws(SAXException::class)
+    fun feed(buffer: ByteBuffer) {
+        var input = buffer
+        val leftover = partial
+        if (leftover != null) {
+            // a multi-byte sequence was split across reads
+            val joined = ByteBuffer.allocate(leftover.remaining() + buffer.remaining())
+            joined.put(leftover).put(buffer).flip()
+            input = joined
+            partial = null
+        }
+        while (true) {
+            chars.clear()
+            val result = decoder.decode(input, chars, false)
+            chars.flip()
+            while (chars.hasRemaining()) {
+                scan(chars.get())
+            }
+            if (result.isUnderflow) break
+        }
+        if (input.hasRemaining()) {
+            val rest = ByteBuffer.allocate(input.remaining())
+            rest.put(input).flip()
+            partial = rest
+        }
+    }
+
+    @Throws(SAXException::class)
+    private fun scan(c: Char) {
+        when (state) {
+            State.TEXT -> when (c) {
+                '<' -> {
+                    flushText()
+                    state = State.TAG_OPEN
+                }
+                '&' -> startEntity(State.TEXT)
+                else -> text.append(c)
+            }
+
+            State.TAG_OPEN -> when (c) {
+                '/' -> state = State.END_NAME
+                '?' -> state = State.PI
+                '!' -> {
+                    matched = 0
+                    state = State.BANG
+                }
+                else -> {
+                    name.append(c)
+                    state = State.START_NAME
+                }
+            }
+
+            State.START_NAME -> when {
+                c == '>' -> {
+                    state = State.TEXT
+                    startElement(false)
+                }
+                c == '/' -> state = State.EMPTY_CLOSE
+                c.isWhitespace() -> state = State.ATTRS
+                else -> name.append(c)
+            }
+
+            State.ATTRS -> when {
+                c == '>' -> {
+                    state = State.TEXT
+                    startElement(false)
+                }
+                c == '/' -> state = State.EMPTY_CLOSE
+                c.isWhitespace() -> {
+                }
+                else -> {
+                    attrName.append(c)
+                    state = State.ATTR_NAME
+                }
+            }
+
+            State.ATTR_NAME -> when {
+                c == '=' -> state = State.ATTR_EQ
+                c.isWhitespace() -> state = State.ATTR_AFTER_NAME
+                else -> attrName.append(c)
+            }
+
+            State.ATTR_AFTER_NAME -> when {
+                c == '=' -> state = State.ATTR_EQ
+                c.isWhitespace() -> {
+                }
+                else -> malformed("expected '=' after attribute $attrName")
+            }
+
+            State.ATTR_EQ -> when {
+                c == '"' || c == '\'' -> {
+                    quote = c
+                    state = State.ATTR_VALUE
+                }
+                c.isWhitespace() -> {
+                }
+                else -> malformed("unquoted value for attribute $attrName")
+            }
+
+            State.ATTR_VALUE -> when (c) {
+                quote -> {
+                    rawAttributes.add(Pair(attrName.toString(), attrValue.toString()))
+                    attrName.setLength(0)
+                    attrValue.setLength(0)
+                    state = State.ATTRS
+                }
+                '&' -> startEntity(State.ATTR_VALUE)
+                '<' -> malformed("'<' in value of attribute $attrName")
+                else -> attrValue.append(c)
+            }
+
+            State.EMPTY_CLOSE -> if (c == '>') {
+                state = State.TEXT
+                startElement(true)
+            } else {
+                malformed("expected '>' after '/' in <$name")
+            }
+
+            State.END_NAME -> when {
+                c == '>' -> {
+                    state = State.TEXT
+                    endElement(name.toString().trim())
+                    name.setLength(0)
+                }
+                else -> name.append(c)
+            }
+
+            State.PI -> {
+                if (c == '>' && matched == 1) state = State.TEXT
+                matched = if (c == '?') 1 else 0
+            }
+
+            State.BANG -> {
+                matched++
+                state = when {
+                    matched == 1 && c == '-' -> State.BANG_DASH
+                    c == CDATA_OPEN[matched - 1] ->
+                        if (matched == CDATA_OPEN.length) {
+                            matched = 0
+                            State.CDATA
+                        } else State.BANG
+                    else -> State.DECL
+                }
+            }
+
+            State.BANG_DASH -> {
+                matched = 0
+                state = if (c == '-') State.COMMENT else State.DECL
+            }
+
+            State.DECL -> if (c == '>') state = State.TEXT
+
+            State.COMMENT -> {
+                if (c == '>' && matched >= 2) {
+                    state = State.TEXT
+                }
+                matched = if (c == '-') matched + 1 else 0
+            }
+
+            State.CDATA -> {
+                if (c == '>' && matched >= 2) {
+                    // drop the "]]" that was buffered as character data
+                    text.setLength(text.length - 2)
+                    state = State.TEXT
+                    matched = 0
+                } else {
+                    text.append(c)
+                    matched = if (c == ']') matched + 1 else 0
+                }
+            }
+
+            State.ENTITY -> if (c == ';') {
+                val resolved = resolveEntity(entity.toString())
+                entity.setLength(0)
+                state = entityReturn
+                if (state == State.TEXT) text.append(resolved) else attrValue.append(resolved)
+            } else {
+                entity.append(c)
+                if (entity.length > MAX_ENTITY_LENGTH) malformed("unterminated entity &$entity")
+            }
+        }
+    }
+
+    private fun startEntity(returnState: State) {
+        entityReturn = returnState
+        state = State.ENTITY
+    }
+
+    @Throws(SAXException::class)
+    private fun flushText() {
+        if (text.isEmpty()) return
+        val length = text.length
+        val array = CharArray(length)
+        text.getChars(0, length, array, 0)
+        text.setLength(0)
+        handler.characters(array, 0, length)
+    }
+
+    @Throws(SAXException::class)
+    private fun startElement(empty: Boolean) {
+        val qName = name.toString()
+        name.setLength(0)
+
+        var declared: MutableMap<String, String>? = null
+        var attributeCount = 0
+        for ((attr, value) in rawAttributes) {
+            if (attr == "xmlns") {
+                if (declared == null) declared = HashMap()
+                declared[""] = value
+            } else if (attr.startsWith("xmlns:")) {
+                if (declared == null) declared = HashMap()
+                declared[attr.substring(6)] = value
+            } else {
+                attributeCount++
+            }
+        }
+        scopes.add(declared ?: emptyMap())
+
+        val elementName = resolve(qName, true)
+        var attributes: List<XmlAttribute> = emptyList()
+        if (attributeCount > 0) {
+            val resolved = ArrayList<XmlAttribute>(attributeCount)
+            for ((attr, value) in rawAttributes) {
+                if (attr == "xmlns" || attr.startsWith("xmlns:")) continue
+                resolved.add(XmlAttribute(resolve(attr, false), value))
+            }
+            attributes = resolved
+        }
+        rawAttributes.clear()
+
+        openElements.add(elementName)
+        handler.startElement(elementName, attributes, declared ?: emptyMap())
+        if (empty) {
+            closeElement()
+        }
+    }
+
+    @Throws(SAXException::class)
+    private fun endElement(qName: String) {
+        val open = openElements.lastOrNull() ?: malformed("unexpected end tag </$qName>")
+        if (open.qName != qName) malformed("end tag </$qName> does not match <${open.qName}>")
+        closeElement()
+    }
+
+    @Throws(SAXException::class)
+    private fun closeElement() {
+        val elementName = openElements.removeAt(openElements.size - 1)
+        handler.endElement(elementName)
+        // the handler may have reset the tokenizer
+        if (scopes.isNotEmpty()) scopes.removeAt(scopes.size - 1)
+    }
+
+    @Throws(SAXException::class)
+    private fun resolve(qName: String, isElement: Boolean): XmlName {
+        val colon = qName.indexOf(':')
+        if (colon < 0) {
+            return XmlName("", qName, if (isElement) lookup("") ?: "" else "")
+        }
+        val prefix = qName.substring(0, colon)
+        val uri = when (prefix) {
+            "xml" -> XML_NAMESPACE
+            else -> lookup(prefix) ?: malformed("undeclared namespace prefix $prefix")
+        }
+        return XmlName(prefix, qName.substring(colon + 1), uri)
+    }
+
+    private fun lookup(prefix: String): String? {
+        for (i in scopes.indices.reversed()) {
+            val uri = scopes[i][prefix]
+            if (uri != null) return uri
+        }
+        return null
+    }
+
+    @Throws(SAXException::class)
+    private fun resolveEntity(ref: String): String {
+        return when {
+            ref == "lt" -> "<"
+            ref == "gt" -> ">"
+            ref == "amp" -> "&"
+            ref == "quot" -> "\""
+            ref == "apos" -> "'"
+            ref.startsWith("#") -> try {
+                val codePoint = if (ref.startsWith("#x")) ref.substring(2).toInt(16) else ref.substring(1).toInt()
+                String(Character.toChars(codePoint))
+            } catch (e: IllegalArgumentException) {
+                malformed("invalid character reference &$ref;")
+            }
+            else -> malformed("unknown entity &$ref;")
+        }
+    }
+
+    @Throws(SAXException::class)
+    private fun malformed(message: String): Nothing {
+        throw SAXException("Malformed XML stream: $message")
+    }
+
+    private companion object {
+        const val CDATA_OPEN = "[CDATA["
+        const val XML_NAMESPACE = "http://www.w3.org/XML/1998/namespace"
+        const val MAX_ENTITY_LENGTH = 16
+    }
+}
@@ -0,0 +1,164 @@
+package mil.navy.nrl.xop.util.xml
+
+import org.dom4j.DocumentFactory
+import org.dom4j.Element
+import org.dom4j.Namespace
+import org.dom4j.QName
+import org.xml.sax.ContentHandler
+import org.xml.sax.SAXException
+import org.xml.sax.helpers.AttributesImpl
+import java.io.IOException
+import java.io.InputStream
+import java.nio.ByteBuffer
+
+private const val READ_BUFFER_SIZE = 8192
+
+/**
+ * Push-fed XMPP stream parser: frames the stream into its header, the top-level elements (stanzas, and the stream
+ * negotiation elements such as starttls or auth) and the closing tag. Each top-level element is built straight into a
+ * dom4j [Element] while it is tokenized, so there is no intermediate string and no second parse per stanza.
+ */
+class XmppStanzaStream(private val listener: Listener) {
+
+    interface Listener {
+        /** the stream header `<stream:stream ...>` was received, attributes are keyed by qualified name */
+        fun onStreamOpen(name: XmlName, attributes: Map<String, String>)
+
+        /** a complete top-level element was received */
+        fun onStanza(element: Element)
+
+        /** the closing `</stream:stream>` was received */
+        fun onStreamClose()
+    }
+
+    private val assembler = StanzaAssembler()
+    private val tokenizer = XmlStreamTokenizer(assembler)
+
+    @Throws(SAXException::class)
+    fun feed(bytes: ByteArray, offset: Int = 0, length: Int = bytes.size) = tokenizer.feed(bytes, offset, length)
+
+    @Throws(SAXException::class)
+    fun feed(buffer: ByteBuffer) = tokenizer.feed(buffer)
+
+    /**
+     * Start over at the beginning of a new stream, e.g. after STARTTLS or SASL success when the client restarts it
+     */
+    fun reset() {
+        tokenizer.reset()
+        assembler.current = null
+    }
+
+    private inner class StanzaAssembler : XmlStreamTokenizer.Handler {
+        var current: Element? = null
+
+        override fun startElement(name: XmlName, attributes: List<XmlAttribute>, namespaces: Map<String, String>) {
+            if (tokenizer.depth == 1) {
+                val map = HashMap<String, String>(attributes.size * 2)
+                for (attribute in attributes) map[attribute.name.qName] = attribute.value
+                listener.onStreamOpen(name, map)
+                return
+            }
+
+            val element = createElement(name, attributes, namespaces)
+            current?.add(element)
+            current = element
+        }
+
+        override fun characters(ch: CharArray, start: Int, length: Int) {
+            // text between stanzas (whitespace keepalives) is dropped
+            current?.addText(String(ch, start, length))
+        }
+
+        override fun endElement(name: XmlName) {
+            val element = current
+            if (element == null) {
+                listener.onStreamClose()
+                return
+            }
+            val parent = element.parent
+            current = parent
+            if (parent == null) {
+                listener.onStanza(element)
+            }
+        }
+    }
+}
+
+private val documentFactory = DocumentFactory.getInstance()
+
+/**
+ * Build a dom4j element for a tokenized start tag
+ */
+internal fun createElement(name: XmlName, attributes: List<XmlAttribute>, namespaces: Map<String, String>): Element {
+    val namespace = Namespace.get(name.prefix, name.uri)
+    val element = documentFactory.createElement(documentFactory.createQName(name.localName, namespace))
+    for ((prefix, uri) in namespaces) {
+        if (prefix != name.prefix || uri != name.uri) {
+            element.add(Namespace.get(prefix, uri))
+        }
+    }
+    for (attribute in attributes) {
+        val attributeName = attribute.name
+        if (attributeName.prefix.isEmpty()) {
+            element.addAttribute(attributeName.localName, attribute.value)
+        } else {
+            element.addAttribute(
+                QName.get(attributeName.localName, Namespace.get(attributeName.prefix, attributeName.uri)),
+                attribute.value
+            )
+        }
+    }
+    return element
+}
+
+/**
+ * Drives a SAX [ContentHandler] from an [XmlStreamTokenizer], so that existing handlers (the gateway and legacy
+ * client handlers) can run on the incremental tokenizer. Only startElement, characters and endElement are reported;
+ * xmlns declarations are not passed as attributes, as with a namespace aware SAX parser.
+ */
+class SaxHandlerAdapter(private val contentHandler: ContentHandler) : XmlStreamTokenizer.Handler {
+    @Volatile
+    private var stopped = false
+
+    private val tokenizer = XmlStreamTokenizer(this)
+
+    override fun startElement(name: XmlName, attributes: List<XmlAttribute>, namespaces: Map<String, String>) {
+        val saxAttributes = AttributesImpl()
+        for (attribute in attributes) {
+            val attributeName = attribute.name
+            saxAttributes.addAttribute(
+                attributeName.uri, attributeName.localName, attributeName.qName, "CDATA", attribute.value
+            )
+        }
+        contentHandler.startElement(name.uri, name.localName, name.qName, saxAttributes)
+    }
+
+    override fun characters(ch: CharArray, start: Int, length: Int) {
+        contentHandler.characters(ch, start, length)
+    }
+
+    override fun endElement(name: XmlName) {
+        contentHandler.endElement(name.uri, name.localName, name.qName)
+    }
+
+    @Throws(SAXException::class)
+    fun feed(bytes: ByteArray, offset: Int, length: Int) = tokenizer.feed(bytes, offset, length)
+
+    /**
+     * Blocking read loop: feed everything read from the stream until it ends or [stop] is called, e.g. because the
+     * connection switched to a new (TLS) stream.
+     */
+    @Throws(IOException::class, SAXException::class)
+    fun parse(input: InputStream) {
+        val buffer = ByteArray(READ_BUFFER_SIZE)
+        while (!stopped) {
+            val read = input.read(buffer)
+            if (read < 0) break
+            tokenizer.feed(buffer, 0, read)
+        }
+    }
+
+    fun stop() {
+        stopped = true
+    }
+}
@@ -0,0 +1,128 @@
+package edu.drexel.xop.core;
+
+import edu.drexel.xop.client.XOPConnection;
+import org.xmpp.packet.JID;
+
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of the ClientManager lookups on the routing path (isLocal, getXMPPClient, clientAvailable and
+ * getJIDForLocalConnection) from many threads at once, while one thread keeps logging a client in and out.
+ *
+ * Run with: java -cp <test and runtime classpath> edu.drexel.xop.core.ClientManagerBenchmark [threads] [clients] [seconds]
+ */
+public class ClientManagerBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        final ClientManager clientManager = new ClientManager();
+        final JID[] jids = new JID[clients];
+        final XOPConnection[] connections = new XOPConnection[clients];
+        for (int i = 0; i < clients; i++) {
+            jids[i] = new JID("user" + i + "@proxy/resource");
+            connections[i] = new NullConnection();
+            if (i % 2 == 0) {
+                clientManager.addLocalXMPPClient(
+                        new LocalXMPPClient(jids[i], "user" + i, null, null, connections[i]));
+            } else {
+                clientManager.addDiscoveredXMPPClient(
+                        new XMPPClient(jids[i], "user" + i, null, null, XMPPClient.NodeStatus.online));
+            }
+        }
+        final JID[] bareJIDs = new JID[clients];
+        for (int i = 0; i < clients; i++) {
+            bareJIDs[i] = jids[i].asBareJID();
+        }
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong operations = new AtomicLong();
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            new Thread(new Runnable() {
+                public void run() {
+                    long ops = 0;
+                    int i = offset;
+                    int found = 0;
+                    try {
+                        while (running.get()) {
+                            int n = i++ % bareJIDs.length;
+                            try {
+                                if (clientManager.isLocal(bareJIDs[n])) found++;
+                                if (clientManager.getXMPPClient(jids[n]) != null) found++;
+                                if (clientManager.clientAvailable(jids[n])) found++;
+                                if (clientManager.getJIDForLocalConnection(connections[n]) != null) found++;
+                                ops += 4;
+                            } catch (RuntimeException e) {
+                                // e.g. a ConcurrentModificationException from iterating while a client logs in
+                                errors.incrementAndGet();
+                            }
+                        }
+                    } finally {
+                        operations.addAndGet(ops);
+                        hits.addAndGet(found);
+                        done.countDown();
+                    }
+                }
+            }, "lookup-" + t).start();
+        }
+
+        // logins and logouts while the lookups run
+        final JID churnJID = new JID("churn@proxy/resource");
+        Thread churn = new Thread(new Runnable() {
+            public void run() {
+                while (running.get()) {
+                    clientManager.addLocalXMPPClient(
+                            new LocalXMPPClient(churnJID, "churn", null, null, new NullConnection()));
+                    clientManager.removeXMPPClient(churnJID);
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "churn");
+        churn.start();
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        running.set(false);
+        done.await();
+        churn.join();
+        System.out.printf("%d threads, %d clients: %.1f M lookups/s (%d hits, %d errors)%n",
+                threads, clients, operations.get() / (seconds * 1e6), hits.get(), errors.get());
+    }
+
+    private static class NullConnection implements XOPConnection {
+        @Override
+        public void writeRaw(byte[] bytes) {
+        }
+
+        @Override
+        public void processCloseStream() {
+        }
+
+        @Override
+        public InetAddress getAddress() {
+            return InetAddress.getLoopbackAddress();
+        }
+
+        @Override
+        public String getHostName() {
+            return "localhost";
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+}
@@ -8,6 +8,7 @@ import org.junit.jupiter.api.Test;
 import org.xmpp.packet.JID;
 
 import java.net.InetAddress;
+import java.util.Set;
 
 /**
  * Unit test for ClientManager
@@ -66,8 +67,39 @@ public class ClientManagerTest {
         Assertions.assertEquals(1, clientManager.getAvailableClientJIDs().size());
     }
 
+    @Test
+    public void testIndexesAndSnapshots(){
+        Assertions.assertEquals(localXMPPClientJID, clientManager.getJIDForLocalConnection(mockXOPConnection));
+        Assertions.assertTrue(clientManager.getFullJIDs(localXMPPClientJID.asBareJID()).contains(localXMPPClientJID));
+        Assertions.assertTrue(clientManager.isLocal(localXMPPClientJID.asBareJID()));
+        Assertions.assertFalse(clientManager.isLocal(null));
+
+        // snapshots handed out earlier don't change while clients are added
+        Set<JID> localJIDs = clientManager.getLocalClientJIDs();
+        clientManager.addLocalXMPPClient(new LocalXMPPClient(new JID("other@yahoo.com/resource"),
+                "other", "status", null, mockXOPConnection2));
+        Assertions.assertEquals(1, localJIDs.size());
+        Assertions.assertEquals(2, clientManager.getLocalClientJIDs().size());
+        try {
+            localJIDs.clear();
+            Assertions.fail("snapshot should be read only");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        clientManager.removeXMPPClient(localXMPPClientJID);
+        Assertions.assertNull(clientManager.getJIDForLocalConnection(mockXOPConnection));
+        Assertions.assertFalse(clientManager.isLocal(localXMPPClientJID.asBareJID()));
+        Assertions.assertTrue(clientManager.getFullJIDs(localXMPPClientJID).isEmpty());
+        Assertions.assertEquals(new JID("other@yahoo.com/resource"),
+                clientManager.getJIDForLocalConnection(mockXOPConnection2));
+    }
 
-    private XOPConnection mockXOPConnection = new XOPConnection() {
+
+    private XOPConnection mockXOPConnection = new MockXOPConnection();
+    private XOPConnection mockXOPConnection2 = new MockXOPConnection();
+
+    private static class MockXOPConnection implements XOPConnection {
         @Override
         public void writeRaw(byte[] bytes) {
 
@@ -92,5 +124,5 @@ public class ClientManagerTest {
         public void run() {
 
         }
-    };
+    }
 }
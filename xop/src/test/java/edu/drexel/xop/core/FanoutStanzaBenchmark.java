@@ -0,0 +1,126 @@
+package edu.drexel.xop.core;
+
+import edu.drexel.xop.client.XOPConnection;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Compares per-recipient CPU time and allocation of delivering a groupchat message to the occupants of a room by
+ * copying and serializing the packet for each of them, as Room.handleIncomingMessage used to, against serializing it
+ * once with {@link FanoutStanza}.
+ *
+ * Run with: java -cp <test and runtime classpath> edu.drexel.xop.core.FanoutStanzaBenchmark [recipients] [rounds]
+ */
+public class FanoutStanzaBenchmark {
+    private static long written;
+
+    public static void main(String[] args) {
+        int recipients = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        ClientManager clientManager = new ClientManager();
+        List<JID> occupants = new ArrayList<>();
+        XOPConnection connection = new CountingConnection();
+        for (int i = 0; i < recipients; i++) {
+            JID jid = new JID("user" + i + "@proxy/resource");
+            occupants.add(jid);
+            clientManager.addLocalXMPPClient(new LocalXMPPClient(jid, "user" + i, null, null, connection));
+        }
+
+        Message message = new Message();
+        message.setType(Message.Type.groupchat);
+        message.setFrom(new JID("room@conference.proxy/sender"));
+        message.setTo(new JID("room@conference.proxy"));
+        message.setBody("Contact report: two surface tracks bearing 045, range 12nm, closing. "
+                + "Request status of the helicopter and an updated plan for the next watch.");
+
+        // warm up both paths before measuring
+        for (int i = 0; i < rounds / 10; i++) {
+            perRecipientCopy(message, occupants, clientManager);
+            serializeOnce(message, occupants, clientManager);
+        }
+
+        for (int run = 0; run < 3; run++) {
+            report("copy + toXML per recipient", recipients, rounds, new Runnable() {
+                public void run() {
+                    perRecipientCopy(message, occupants, clientManager);
+                }
+            });
+            report("serialize once (FanoutStanza)", recipients, rounds, new Runnable() {
+                public void run() {
+                    serializeOnce(message, occupants, clientManager);
+                }
+            });
+        }
+        System.out.println("bytes written: " + written);
+    }
+
+    private static void perRecipientCopy(Message message, List<JID> occupants, ClientManager clientManager) {
+        for (JID to : occupants) {
+            Message m = message.createCopy();
+            m.setTo(to);
+            m.setID(UUID.randomUUID().toString());
+            ProxyUtils.sendPacketToLocalClient(m, clientManager);
+        }
+    }
+
+    private static void serializeOnce(Message message, List<JID> occupants, ClientManager clientManager) {
+        FanoutStanza stanza = new FanoutStanza(message);
+        for (JID to : occupants) {
+            ProxyUtils.sendPacketToLocalClient(stanza, to, stanza.getFrom(), UUID.randomUUID().toString(),
+                    clientManager);
+        }
+    }
+
+    private static void report(String name, int recipients, int rounds, Runnable round) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long startCpu = threads.getCurrentThreadCpuTime();
+        long startAllocated = allocatedBytes(threads);
+        for (int i = 0; i < rounds; i++) {
+            round.run();
+        }
+        double deliveries = (double) rounds * recipients;
+        double cpuNanos = (threads.getCurrentThreadCpuTime() - startCpu) / deliveries;
+        double allocated = (allocatedBytes(threads) - startAllocated) / deliveries;
+        System.out.printf("%-32s %8.0f ns/recipient %8.0f bytes/recipient%n", name, cpuNanos, allocated);
+    }
+
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static class CountingConnection implements XOPConnection {
+        @Override
+        public void writeRaw(byte[] bytes) {
+            written += bytes.length;
+        }
+
+        @Override
+        public void processCloseStream() {
+        }
+
+        @Override
+        public InetAddress getAddress() {
+            return InetAddress.getLoopbackAddress();
+        }
+
+        @Override
+        public String getHostName() {
+            return "localhost";
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+}
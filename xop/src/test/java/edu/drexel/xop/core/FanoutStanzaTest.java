@@ -0,0 +1,62 @@
+package edu.drexel.xop.core;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Presence;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Unit test for FanoutStanza
+ */
+public class FanoutStanzaTest {
+
+    @Test
+    public void testSplicedAddressing() throws Exception {
+        Message message = new Message();
+        message.setType(Message.Type.groupchat);
+        message.setFrom(new JID("room@conference.proxy/alice"));
+        message.setTo(new JID("room@conference.proxy"));
+        message.setID("original");
+        message.setBody("a < b & \"c\" \u00e9");
+
+        FanoutStanza stanza = new FanoutStanza(message);
+        JID bob = new JID("bob@proxy/phone");
+        byte[] bytes = stanza.bytesFor(bob, new JID("room@conference.proxy/a&b"), "id\"1");
+
+        Element element = DocumentHelper.parseText(new String(bytes, StandardCharsets.UTF_8)).getRootElement();
+        Assertions.assertEquals("bob@proxy/phone", element.attributeValue("to"));
+        Assertions.assertEquals("room@conference.proxy/a&b", element.attributeValue("from"));
+        Assertions.assertEquals("id\"1", element.attributeValue("id"));
+        Assertions.assertEquals("groupchat", element.attributeValue("type"));
+        Assertions.assertEquals("a < b & \"c\" \u00e9", element.elementText("body"));
+
+        // the original packet is left alone
+        Assertions.assertEquals("room@conference.proxy", message.getTo().toString());
+        Assertions.assertEquals("original", message.getID());
+    }
+
+    @Test
+    public void testSameAsToXML() throws Exception {
+        Presence presence = new Presence(Presence.Type.unavailable);
+        presence.setFrom(new JID("carol@proxy/laptop"));
+        presence.setStatus("gone");
+
+        JID to = new JID("dave@proxy/desk");
+        byte[] bytes = new FanoutStanza(presence).bytesFor(to);
+        presence.setTo(to);
+
+        Element expected = DocumentHelper.parseText(presence.toXML()).getRootElement();
+        Element actual = DocumentHelper.parseText(new String(bytes, StandardCharsets.UTF_8)).getRootElement();
+        Assertions.assertEquals(expected.attributeCount(), actual.attributeCount());
+        for (Object attribute : expected.attributes()) {
+            String name = ((org.dom4j.Attribute) attribute).getName();
+            Assertions.assertEquals(expected.attributeValue(name), actual.attributeValue(name));
+        }
+        Assertions.assertEquals(expected.elementText("status"), actual.elementText("status"));
+    }
+}
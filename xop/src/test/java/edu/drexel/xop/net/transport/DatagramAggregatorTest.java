@@ -0,0 +1,119 @@
+package edu.drexel.xop.net.transport;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Unit test for DatagramAggregator
+ */
+public class DatagramAggregatorTest {
+
+    private static byte[] stanza(int i) {
+        return ("<presence from='user" + i + "@proxy/a'/>").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> unpack(byte[] datagram) throws Exception {
+        final List<String> stanzas = new ArrayList<>();
+        DatagramAggregator.unpack(datagram, new DatagramAggregator.Unpacker() {
+            @Override
+            public void stanza(byte[] data, int offset, int length) {
+                stanzas.add(new String(data, offset, length, StandardCharsets.UTF_8));
+            }
+        });
+        return stanzas;
+    }
+
+    private static DatagramAggregator aggregator(final List<byte[]> sent, long windowMillis, int maxBytes) {
+        return new DatagramAggregator("test", windowMillis, maxBytes, new DatagramAggregator.Sender() {
+            @Override
+            public void send(byte[] datagram) {
+                sent.add(datagram);
+            }
+        });
+    }
+
+    @Test
+    public void testWindow() throws Exception {
+        List<byte[]> sent = new CopyOnWriteArrayList<>();
+        DatagramAggregator aggregator = aggregator(sent, 20, 1400);
+        for (int i = 0; i < 5; i++) {
+            aggregator.add(stanza(i));
+        }
+        Assertions.assertTrue(sent.isEmpty());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sent.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assertions.assertEquals(1, sent.size());
+        List<String> stanzas = unpack(sent.get(0));
+        Assertions.assertEquals(5, stanzas.size());
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertEquals(new String(stanza(i), StandardCharsets.UTF_8), stanzas.get(i));
+        }
+        Assertions.assertEquals(5.0, aggregator.getAverageStanzasPerDatagram(), 0.001);
+        Assertions.assertTrue(aggregator.getAverageDelayMillis() > 0);
+        aggregator.close();
+    }
+
+    @Test
+    public void testFullDatagram() throws Exception {
+        List<byte[]> sent = new CopyOnWriteArrayList<>();
+        int length = stanza(0).length;
+        // room for three stanzas
+        DatagramAggregator aggregator = aggregator(sent, 60000, 1 + 3 * (2 + length));
+        for (int i = 0; i < 7; i++) {
+            aggregator.add(stanza(i));
+        }
+        Assertions.assertEquals(2, sent.size());
+        for (byte[] datagram : sent) {
+            Assertions.assertTrue(datagram.length <= 1 + 3 * (2 + length));
+        }
+        aggregator.close();
+        Assertions.assertEquals(3, sent.size());
+
+        List<String> stanzas = new ArrayList<>();
+        for (byte[] datagram : sent) {
+            stanzas.addAll(unpack(datagram));
+        }
+        Assertions.assertEquals(7, stanzas.size());
+        Assertions.assertEquals(new String(stanza(6), StandardCharsets.UTF_8), stanzas.get(6));
+        // the last datagram held one stanza, sent without framing
+        Assertions.assertEquals('<', sent.get(2)[0]);
+        Assertions.assertEquals(7.0 / 3, aggregator.getAverageStanzasPerDatagram(), 0.001);
+    }
+
+    @Test
+    public void testLargeStanza() throws Exception {
+        List<byte[]> sent = new CopyOnWriteArrayList<>();
+        DatagramAggregator aggregator = aggregator(sent, 60000, 100);
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            body.append('x');
+        }
+        byte[] large = ("<message><body>" + body + "</body></message>").getBytes(StandardCharsets.UTF_8);
+        aggregator.add(stanza(1));
+        aggregator.add(large);
+        // the pending stanza goes first, then the large one on its own
+        Assertions.assertEquals(2, sent.size());
+        Assertions.assertArrayEquals(stanza(1), sent.get(0));
+        Assertions.assertArrayEquals(large, sent.get(1));
+        Assertions.assertEquals(1, unpack(large).size());
+        aggregator.close();
+    }
+
+    @Test
+    public void testTruncatedFrame() throws Exception {
+        byte[] truncated = new byte[]{DatagramAggregator.FRAME_MARKER, 0, 10, '<', 'a'};
+        try {
+            unpack(truncated);
+            Assertions.fail("unpacked a truncated frame");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package edu.drexel.xop.net.transport;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+/**
+ * Unit test for DatagramFragmenter and FragmentReassembler
+ */
+public class FragmentReassemblerTest {
+
+    private static byte[] datagram(int length) {
+        byte[] datagram = new byte[length];
+        new Random(length).nextBytes(datagram);
+        // never mistaken for a fragment
+        datagram[0] = '<';
+        return datagram;
+    }
+
+    @Test
+    public void testSmallDatagram() {
+        DatagramFragmenter fragmenter = new DatagramFragmenter(100);
+        byte[] datagram = datagram(100);
+        byte[][] fragments = fragmenter.fragment(datagram);
+        Assertions.assertEquals(1, fragments.length);
+        Assertions.assertSame(datagram, fragments[0]);
+        Assertions.assertFalse(DatagramFragmenter.isFragment(datagram));
+    }
+
+    @Test
+    public void testReassembleOutOfOrder() {
+        DatagramFragmenter fragmenter = new DatagramFragmenter(100);
+        FragmentReassembler reassembler = new FragmentReassembler("test", 5000, 1 << 20);
+        byte[] first = datagram(1000);
+        byte[] second = datagram(450);
+        byte[][] firstFragments = fragmenter.fragment(first);
+        byte[][] secondFragments = fragmenter.fragment(second);
+        Assertions.assertEquals(12, firstFragments.length);
+        Assertions.assertEquals(6, secondFragments.length);
+        for (byte[] fragment : firstFragments) {
+            Assertions.assertTrue(fragment.length <= 100);
+            Assertions.assertTrue(DatagramFragmenter.isFragment(fragment));
+        }
+
+        // interleaved and reversed
+        byte[] result = null;
+        for (int i = firstFragments.length - 1; i >= 0; i--) {
+            if (i < secondFragments.length - 1) {
+                Assertions.assertNull(reassembler.add(secondFragments[i + 1]));
+            }
+            byte[] done = reassembler.add(firstFragments[i]);
+            if (i > 0) {
+                Assertions.assertNull(done);
+            } else {
+                result = done;
+            }
+        }
+        Assertions.assertArrayEquals(first, result);
+        Assertions.assertArrayEquals(second, reassembler.add(secondFragments[0]));
+        // a repeated fragment of a completed datagram starts over, and expires
+        Assertions.assertNull(reassembler.add(firstFragments[3]));
+        Assertions.assertNull(reassembler.add(firstFragments[3]));
+        Assertions.assertEquals(1, reassembler.getDuplicates());
+        Assertions.assertEquals(2, reassembler.getCompleted());
+        Assertions.assertEquals(1, reassembler.getIncomplete());
+        reassembler.close();
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        DatagramFragmenter fragmenter = new DatagramFragmenter(100);
+        FragmentReassembler reassembler = new FragmentReassembler("test", 50, 1 << 20);
+        byte[][] lost = fragmenter.fragment(datagram(500));
+        for (int i = 1; i < lost.length; i++) {
+            Assertions.assertNull(reassembler.add(lost[i]));
+        }
+        Assertions.assertTrue(reassembler.getHeldBytes() > 0);
+        Thread.sleep(100);
+
+        byte[] datagram = datagram(300);
+        byte[][] fragments = fragmenter.fragment(datagram);
+        byte[] result = null;
+        for (byte[] fragment : fragments) {
+            result = reassembler.add(fragment);
+        }
+        Assertions.assertArrayEquals(datagram, result);
+        Assertions.assertEquals(1, reassembler.getExpired());
+        Assertions.assertEquals(0, reassembler.getHeldBytes());
+        Assertions.assertEquals(0, reassembler.getIncomplete());
+        reassembler.close();
+    }
+
+    @Test
+    public void testMemoryCap() {
+        DatagramFragmenter fragmenter = new DatagramFragmenter(100);
+        // room for the fragments of about two incomplete datagrams
+        FragmentReassembler reassembler = new FragmentReassembler("test", 60000, 2 * 500);
+        for (int n = 0; n < 5; n++) {
+            byte[][] fragments = fragmenter.fragment(datagram(600));
+            // the last fragment is lost
+            for (int i = 0; i < fragments.length - 1; i++) {
+                Assertions.assertNull(reassembler.add(fragments[i]));
+            }
+            Assertions.assertTrue(reassembler.getHeldBytes() <= 1000);
+        }
+        Assertions.assertTrue(reassembler.getPeakBytes() <= 1000);
+        Assertions.assertTrue(reassembler.getEvicted() >= 3);
+
+        // the newest datagrams still complete
+        byte[] datagram = datagram(400);
+        byte[] result = null;
+        for (byte[] fragment : fragmenter.fragment(datagram)) {
+            result = reassembler.add(fragment);
+        }
+        Assertions.assertArrayEquals(datagram, result);
+        reassembler.close();
+    }
+}
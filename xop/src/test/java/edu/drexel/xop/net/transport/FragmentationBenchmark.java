@@ -0,0 +1,85 @@
+package edu.drexel.xop.net.transport;
+
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends large datagrams in fragments over a loopback {@link MulticastChannel}, dropping a share of the fragments
+ * before they are sent, and reports the throughput of completed datagrams and the memory held by the
+ * {@link FragmentReassembler} for the incomplete ones.
+ *
+ * Run with: java -cp <test and runtime classpath> edu.drexel.xop.net.transport.FragmentationBenchmark
+ *     [datagrams] [datagram bytes] [loss percent] [mtu]
+ */
+public class FragmentationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int datagrams = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 8000;
+        int lossPercent = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int mtu = args.length > 3 ? Integer.parseInt(args[3]) : 1400;
+
+        DatagramSocket probe = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        int port = probe.getLocalPort();
+        probe.close();
+
+        final FragmentReassembler reassembler = new FragmentReassembler("benchmark", 1000, 4 << 20);
+        final AtomicLong delivered = new AtomicLong();
+        final AtomicLong deliveredBytes = new AtomicLong();
+        MulticastChannel channel = new MulticastChannel(null, InetAddress.getLoopbackAddress(), port,
+                new MulticastChannel.Receiver() {
+                    @Override
+                    public void received(byte[] data) {
+                        byte[] datagram = DatagramFragmenter.isFragment(data) ? reassembler.add(data) : data;
+                        if (datagram != null) {
+                            delivered.incrementAndGet();
+                            deliveredBytes.addAndGet(datagram.length);
+                        }
+                    }
+                }, 8 << 20, mtu, 4096);
+        channel.start();
+
+        DatagramFragmenter fragmenter = new DatagramFragmenter(mtu);
+        Random random = new Random(1);
+        byte[] datagram = new byte[size];
+        random.nextBytes(datagram);
+        datagram[0] = '<';
+
+        long fragments = 0;
+        long lost = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < datagrams; i++) {
+            for (byte[] fragment : fragmenter.fragment(datagram)) {
+                fragments++;
+                if (random.nextInt(100) < lossPercent) {
+                    lost++;
+                    continue;
+                }
+                channel.send(fragment);
+            }
+            // keep the loopback receive buffer from overflowing
+            if (i % 64 == 63) {
+                Thread.sleep(1);
+            }
+        }
+        long deadline = System.currentTimeMillis() + 2000;
+        long last = -1;
+        while (delivered.get() != last && System.currentTimeMillis() < deadline) {
+            last = delivered.get();
+            Thread.sleep(100);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        channel.close();
+
+        double expected = Math.pow(1 - lossPercent / 100.0, (double) fragments / datagrams);
+        System.out.printf("%d datagrams of %d bytes, %d fragments of at most %d bytes, %d%% lost (%d)%n",
+                datagrams, size, fragments, mtu, lossPercent, lost);
+        System.out.printf("delivered %d datagrams (%.1f%%, %.1f%% expected), %.0f datagrams/s, %.1f MB/s%n",
+                delivered.get(), 100.0 * delivered.get() / datagrams, 100 * expected,
+                delivered.get() / seconds, deliveredBytes.get() / seconds / 1e6);
+        System.out.printf("udp: %s%n", channel);
+        System.out.printf("reassembly: %s%n", reassembler);
+    }
+}
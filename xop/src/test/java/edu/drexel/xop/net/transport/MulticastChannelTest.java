@@ -0,0 +1,104 @@
+package edu.drexel.xop.net.transport;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit test for MulticastChannel, over unicast loopback so it runs without a multicast capable interface
+ */
+public class MulticastChannelTest {
+
+    private static void sendTo(int port, byte[] data) throws Exception {
+        DatagramSocket socket = new DatagramSocket();
+        try {
+            socket.send(new DatagramPacket(data, data.length,
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), port)));
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static void awaitCount(MulticastChannel channel, long received, long oversize) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((channel.getReceived() < received || channel.getOversize() < oversize)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testSendAndReceive() throws Exception {
+        final List<String> stanzas = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(3);
+        MulticastChannel channel = new MulticastChannel(null, InetAddress.getLoopbackAddress(), 0,
+                new MulticastChannel.Receiver() {
+                    @Override
+                    public void received(byte[] data) {
+                        stanzas.add(new String(data, StandardCharsets.UTF_8));
+                        latch.countDown();
+                    }
+                }, 1 << 20, 1024, 16);
+        int port = channel.getLocalPort();
+        channel.start();
+        try {
+            sendTo(port, "<message><body>1</body></message>".getBytes(StandardCharsets.UTF_8));
+            // dropped, larger than 1024 bytes
+            sendTo(port, new byte[2000]);
+            sendTo(port, "<message><body>2</body></message>".getBytes(StandardCharsets.UTF_8));
+            sendTo(port, new byte[1024]);
+            Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            awaitCount(channel, 3, 1);
+
+            Assertions.assertEquals("<message><body>1</body></message>", stanzas.get(0));
+            Assertions.assertEquals("<message><body>2</body></message>", stanzas.get(1));
+            Assertions.assertEquals(1024, stanzas.get(2).length());
+            Assertions.assertEquals(3, channel.getReceived());
+            Assertions.assertEquals(1, channel.getOversize());
+            Assertions.assertEquals(0, channel.getDropped());
+            Assertions.assertTrue(MulticastChannel.statistics().contains("oversize=1"));
+        } finally {
+            channel.close();
+        }
+        Assertions.assertFalse(MulticastChannel.statistics().contains("oversize=1"));
+    }
+
+    @Test
+    public void testDropWhenDispatchIsBehind() throws Exception {
+        final CountDownLatch dispatching = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        MulticastChannel channel = new MulticastChannel(null, InetAddress.getLoopbackAddress(), 0,
+                new MulticastChannel.Receiver() {
+                    @Override
+                    public void received(byte[] data) throws Exception {
+                        dispatching.countDown();
+                        release.await();
+                    }
+                }, 1 << 20, 1024, 2);
+        int port = channel.getLocalPort();
+        channel.start();
+        try {
+            sendTo(port, "<message><body>0</body></message>".getBytes(StandardCharsets.UTF_8));
+            Assertions.assertTrue(dispatching.await(5, TimeUnit.SECONDS));
+            for (int i = 1; i < 10; i++) {
+                sendTo(port, ("<message><body>" + i + "</body></message>").getBytes(StandardCharsets.UTF_8));
+            }
+            awaitCount(channel, 10, 0);
+            // one being dispatched, two waiting
+            Assertions.assertEquals(10, channel.getReceived());
+            Assertions.assertEquals(7, channel.getDropped());
+        } finally {
+            release.countDown();
+            channel.close();
+        }
+    }
+}
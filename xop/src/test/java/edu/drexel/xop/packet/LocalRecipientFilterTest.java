@@ -0,0 +1,56 @@
+package edu.drexel.xop.packet;
+
+import edu.drexel.xop.core.ClientManager;
+import edu.drexel.xop.core.LocalXMPPClient;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.JID;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Unit test for LocalRecipientFilter
+ */
+public class LocalRecipientFilterTest {
+
+    @Test
+    public void testKeyOf() {
+        JID alice = new JID("alice@proxy/xop");
+        Assertions.assertEquals(LocalRecipientFilter.keyOf(alice), LocalRecipientFilter.keyOf(new JID("alice@proxy")));
+        Assertions.assertEquals(LocalRecipientFilter.keyOf(alice),
+                LocalRecipientFilter.keyOf(new JID("Alice@Proxy/other")));
+        Set<Integer> keys = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            int key = LocalRecipientFilter.keyOf(new JID("user" + i + "@proxy"));
+            Assertions.assertTrue(key > 0 && key <= 0x0fffffff, "key " + key);
+            keys.add(key);
+        }
+        Assertions.assertEquals(1000, keys.size());
+    }
+
+    @Test
+    public void testAccept() {
+        ClientManager clientManager = new ClientManager();
+        clientManager.addLocalXMPPClient(
+                new LocalXMPPClient(new JID("alice@proxy/xop"), "alice", "status", null, null));
+        LocalRecipientFilter filter = new LocalRecipientFilter(clientManager, true);
+
+        Assertions.assertTrue(filter.accept(LocalRecipientFilter.keyOf(new JID("alice@proxy/other"))));
+        Assertions.assertFalse(filter.accept(LocalRecipientFilter.keyOf(new JID("bob@proxy/xop"))));
+        // sent by a node that does not send keys
+        Assertions.assertTrue(filter.accept(LocalRecipientFilter.NO_KEY));
+        Assertions.assertEquals(1, filter.getDelivered());
+        Assertions.assertEquals(1, filter.getDropped());
+
+        // bob connects
+        clientManager.addLocalXMPPClient(
+                new LocalXMPPClient(new JID("bob@proxy/xop"), "bob", "status", null, null));
+        Assertions.assertTrue(filter.accept(LocalRecipientFilter.keyOf(new JID("bob@proxy"))));
+        Assertions.assertTrue(filter.toString().contains("delivered=2 dropped=1"), filter.toString());
+
+        LocalRecipientFilter disabled = new LocalRecipientFilter(clientManager, false);
+        Assertions.assertTrue(disabled.accept(LocalRecipientFilter.keyOf(new JID("carol@proxy/xop"))));
+        Assertions.assertEquals(0, disabled.getDropped());
+    }
+}
@@ -0,0 +1,94 @@
+package edu.drexel.xop.packet;
+
+import edu.drexel.xop.util.Utils;
+import org.dom4j.DocumentException;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compares CPU time and allocation of forwarding a one-to-one message received from the network to a local client
+ * by parsing it, stripping the jabber:server namespace by reparsing and serializing it again, as
+ * TransportPacketProcessor used to, against reading only its routing header with {@link RoutingStanza}.
+ *
+ * Run with: java -cp <test and runtime classpath> edu.drexel.xop.packet.RoutingStanzaBenchmark [messages]
+ */
+public class RoutingStanzaBenchmark {
+    private static long written;
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+        Message message = new Message();
+        message.setType(Message.Type.chat);
+        message.setFrom(new JID("alice@proxy/laptop"));
+        message.setTo(new JID("bob@proxy/phone"));
+        message.setID("a1b2c3d4");
+        message.setBody("Contact report: two surface tracks bearing 045, range 12nm, closing. "
+                + "Request status of the helicopter and an updated plan for the next watch.");
+        message.addChildElement("active", "http://jabber.org/protocol/chatstates");
+        final byte[] received = message.toXML().getBytes(StandardCharsets.UTF_8);
+
+        for (int i = 0; i < messages / 10; i++) {
+            parseAndSerialize(received);
+            routeOnHeader(received);
+        }
+
+        for (int run = 0; run < 3; run++) {
+            report("parse, strip and serialize", messages, new Forward() {
+                public void forward() throws DocumentException {
+                    parseAndSerialize(received);
+                }
+            });
+            report("routing header (RoutingStanza)", messages, new Forward() {
+                public void forward() throws DocumentException {
+                    routeOnHeader(received);
+                }
+            });
+        }
+        System.out.println("bytes written: " + written);
+    }
+
+    private interface Forward {
+        void forward() throws DocumentException;
+    }
+
+    private static void parseAndSerialize(byte[] received) throws DocumentException {
+        Packet p = Utils.packetFromBytes(received);
+        p = Utils.packetFromString(Utils.stripNamespace(p.toString(), "jabber:server"));
+        if (p.getTo() != null) {
+            written += p.toXML().getBytes().length;
+        }
+    }
+
+    private static void routeOnHeader(byte[] received) throws DocumentException {
+        RoutingStanza stanza = RoutingStanza.fromBytes(received);
+        if (stanza.isMessage() && !"groupchat".equals(stanza.getType()) && !stanza.hasJabberServerNamespace()
+                && stanza.getTo() != null) {
+            written += stanza.toBytes().length;
+        }
+    }
+
+    private static void report(String name, int messages, Forward forward) throws DocumentException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long startCpu = threads.getCurrentThreadCpuTime();
+        long startAllocated = allocatedBytes(threads);
+        for (int i = 0; i < messages; i++) {
+            forward.forward();
+        }
+        double cpuNanos = (threads.getCurrentThreadCpuTime() - startCpu) / (double) messages;
+        double allocated = (allocatedBytes(threads) - startAllocated) / (double) messages;
+        System.out.printf("%-32s %8.0f ns/message %8.0f bytes/message%n", name, cpuNanos, allocated);
+    }
+
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
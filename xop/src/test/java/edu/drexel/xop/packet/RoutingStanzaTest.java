@@ -0,0 +1,105 @@
+package edu.drexel.xop.packet;
+
+import org.dom4j.DocumentException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Unit test for RoutingStanza
+ */
+public class RoutingStanzaTest {
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testHeader() throws Exception {
+        Message message = new Message();
+        message.setType(Message.Type.chat);
+        message.setFrom(new JID("alice@proxy/laptop"));
+        message.setTo(new JID("bob@proxy/a&b"));
+        message.setID("id'1\"");
+        message.setBody("<hello caf\u00e9>");
+        byte[] bytes = utf8(message.toXML());
+
+        RoutingStanza stanza = RoutingStanza.fromBytes(bytes);
+        Assertions.assertTrue(stanza.isMessage());
+        Assertions.assertEquals("chat", stanza.getType());
+        Assertions.assertEquals(message.getTo(), stanza.getTo());
+        Assertions.assertEquals(message.getFrom(), stanza.getFrom());
+        Assertions.assertEquals("id'1\"", stanza.getID());
+        Assertions.assertFalse(stanza.hasJabberServerNamespace());
+
+        // forwarding does not parse the stanza or copy the bytes
+        Assertions.assertTrue(stanza.isFramed());
+        Assertions.assertSame(bytes, stanza.toBytes());
+        Assertions.assertFalse(stanza.isParsed());
+
+        Assertions.assertEquals("<hello caf\u00e9>", ((Message) stanza.getPacket()).getBody());
+        Assertions.assertTrue(stanza.isParsed());
+    }
+
+    @Test
+    public void testProlog() throws Exception {
+        String xml = "<?xml version='1.0'?>\n<!-- c --><stream:iq xmlns='jabber:server' to='a@b' id=\"&#x41;&#66;\""
+                + "\ttype = 'get'/>";
+        byte[] padded = utf8("xx" + xml + "yy");
+        RoutingStanza stanza = RoutingStanza.fromBytes(padded, 2, padded.length - 4);
+        Assertions.assertTrue(stanza.isIQ());
+        Assertions.assertEquals("jabber:server", stanza.getNamespace());
+        Assertions.assertTrue(stanza.hasJabberServerNamespace());
+        Assertions.assertEquals(new JID("a@b"), stanza.getTo());
+        Assertions.assertNull(stanza.getFrom());
+        Assertions.assertEquals("AB", stanza.getID());
+        Assertions.assertEquals("get", stanza.getType());
+        // only the root element is forwarded, and not without parsing
+        Assertions.assertEquals(xml.substring(xml.indexOf("<stream:iq")),
+                new String(stanza.toBytes(), StandardCharsets.UTF_8));
+        Assertions.assertFalse(stanza.isFramed());
+    }
+
+    @Test
+    public void testFramed() throws Exception {
+        String[] framed = {"<message to='a@b'/>", "<message to='a@b'><body a='>' b=\"/\">hi<br/></body></message>\n",
+                "<x:message xmlns:x='jabber:client'><!-- </x:message> --><![CDATA[</body>]]></x:message >"};
+        for (String xml : framed) {
+            Assertions.assertTrue(RoutingStanza.fromBytes(utf8(xml)).isFramed(), xml);
+        }
+        String[] unframed = {"<message to='a@b'><body>hi</body>", "<message to='a@b'><body>hi</message>",
+                "<message to='a@b'><body>hi</body></message><message>", "<message to='a@b'></presence>",
+                "<message to='a@b'><body>hi</body></message>junk", "<message to='a@b'><!-- hi</message>",
+                "<message to='a@b'><body a='></body></message>"};
+        for (String xml : unframed) {
+            Assertions.assertFalse(RoutingStanza.fromBytes(utf8(xml)).isFramed(), xml);
+        }
+    }
+
+    @Test
+    public void testModifiedPacket() throws Exception {
+        RoutingStanza stanza = RoutingStanza.fromBytes(utf8("<message to='a@b' type='chat'><body>hi</body></message>"));
+        Message message = (Message) stanza.getPacket();
+        message.setTo(new JID("c@d"));
+        message.setBody("changed");
+
+        Assertions.assertEquals(new JID("c@d"), stanza.getTo());
+        Assertions.assertTrue(new String(stanza.toBytes(), StandardCharsets.UTF_8).contains("changed"));
+    }
+
+    @Test
+    public void testMalformed() {
+        String[] invalid = {"", "   ", "message to='a'/>", "<message to=a/>", "<message to='a", "<message to='&bogus;'/>"};
+        for (String xml : invalid) {
+            try {
+                RoutingStanza.fromBytes(utf8(xml));
+                Assertions.fail("read header of " + xml);
+            } catch (DocumentException e) {
+                // expected
+            }
+        }
+    }
+}
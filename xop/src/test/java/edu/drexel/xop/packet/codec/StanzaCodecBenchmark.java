@@ -0,0 +1,82 @@
+package edu.drexel.xop.packet.codec;
+
+import edu.drexel.xop.util.MessageCompressionUtils;
+import edu.drexel.xop.util.StanzaParser;
+import org.dom4j.DocumentException;
+import org.xmpp.packet.Packet;
+
+/**
+ * Compares the bytes on the air and the CPU time of encoding, and of decoding into a packet, of the xml and the
+ * binary stanza codecs, each with and without compression, over the stanzas of {@link StanzaCorpus} in the
+ * proportions of a MUC session.
+ *
+ * Run with: java -cp <test and runtime classpath> edu.drexel.xop.packet.codec.StanzaCodecBenchmark [stanzas]
+ */
+public class StanzaCodecBenchmark {
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        int stanzas = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+        int total = 0;
+        for (int weight : StanzaCorpus.WEIGHTS) {
+            total += weight;
+        }
+        Packet[] session = new Packet[total];
+        int n = 0;
+        for (int i = 0; i < StanzaCorpus.STANZAS.length; i++) {
+            for (int j = 0; j < StanzaCorpus.WEIGHTS[i]; j++) {
+                session[n++] = StanzaParser.parse(StanzaCorpus.STANZAS[i]);
+            }
+        }
+
+        StanzaCodec[] codecs = {StanzaCodecs.forName(XmlStanzaCodec.NAME), StanzaCodecs.forName(BinaryStanzaCodec.NAME)};
+        for (int run = 0; run < 3; run++) {
+            for (StanzaCodec codec : codecs) {
+                report(codec, session, stanzas, -1);
+                report(codec, session, stanzas, MessageCompressionUtils.NO_DICTIONARY);
+                report(codec, session, stanzas, 1);
+            }
+        }
+        System.out.println(sink);
+    }
+
+    /**
+     * @param dictionary the compression dictionary version, or -1 for no compression
+     */
+    private static void report(StanzaCodec codec, Packet[] session, int stanzas, int dictionary)
+            throws DocumentException {
+        byte[][] encoded = new byte[session.length][];
+        long bytes = 0;
+        for (int i = 0; i < session.length; i++) {
+            encoded[i] = encode(codec, session[i], dictionary);
+            bytes += encoded[i].length;
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < stanzas; i++) {
+            sink += encode(codec, session[i % session.length], dictionary).length;
+        }
+        long encodeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < stanzas; i++) {
+            byte[] data = encoded[i % session.length];
+            if (dictionary >= 0) {
+                data = MessageCompressionUtils.decompress(data);
+            }
+            // the receivers of MUC messages and presences need the packet
+            sink += StanzaCodecs.decode(data).getPacket().getElement().nodeCount();
+        }
+        long decodeNanos = System.nanoTime() - start;
+
+        String name = codec.getName() + (dictionary < 0 ? "" : dictionary == 0 ? " + deflate" : " + deflate, dictionary");
+        System.out.printf("%-28s %6.1f bytes/stanza  encode %6d ns/op  decode %6d ns/op%n",
+                name, (double) bytes / session.length, encodeNanos / stanzas, decodeNanos / stanzas);
+    }
+
+    private static byte[] encode(StanzaCodec codec, Packet packet, int dictionary) {
+        byte[] data = codec.encode(packet);
+        return dictionary < 0 ? data : MessageCompressionUtils.compress(data, dictionary);
+    }
+}
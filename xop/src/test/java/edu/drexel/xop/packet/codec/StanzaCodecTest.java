@@ -0,0 +1,102 @@
+package edu.drexel.xop.packet.codec;
+
+import edu.drexel.xop.packet.RoutingStanza;
+import edu.drexel.xop.util.StanzaParser;
+import org.dom4j.DocumentException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Unit test for the stanza codecs
+ */
+public class StanzaCodecTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        StanzaCodec binary = StanzaCodecs.forName(BinaryStanzaCodec.NAME);
+        StanzaCodec xml = StanzaCodecs.forName(XmlStanzaCodec.NAME);
+        for (String s : StanzaCorpus.STANZAS) {
+            Packet packet = StanzaParser.parse(s);
+
+            byte[] encoded = binary.encode(packet);
+            Assertions.assertEquals(BinaryStanzaCodec.MARKER, encoded[0]);
+            Assertions.assertTrue(encoded.length < xml.encode(packet).length, s);
+            RoutingStanza stanza = StanzaCodecs.decode(encoded);
+            Assertions.assertTrue(stanza.isParsed());
+            Assertions.assertEquals(packet.getElement().getName(), stanza.getName());
+            Assertions.assertEquals(packet.getTo(), stanza.getTo());
+            Assertions.assertEquals(packet.getFrom(), stanza.getFrom());
+            Assertions.assertEquals("jabber:client", stanza.getNamespace());
+            // equal once reparsed, the parser keeps namespace declarations as content (<x xmlns=""></x>)
+            Assertions.assertEquals(packet.toXML(), StanzaParser.parse(stanza.getPacket().toXML()).toXML());
+
+            // the xml codec is read on its routing header only
+            stanza = StanzaCodecs.decode(xml.encode(packet));
+            Assertions.assertFalse(stanza.isParsed());
+            Assertions.assertEquals(packet.getTo(), stanza.getTo());
+        }
+    }
+
+    @Test
+    public void testUnusualContent() throws Exception {
+        Message message = new Message();
+        message.setFrom(new JID("alice@proxy/laptop/with slash"));
+        message.setTo(new JID("proxy"));
+        message.setBody("caf\u00e9 <&> \ud83d\ude00 alice alice");
+        message.getElement().addAttribute("xml:lang", "en");
+        message.addChildElement("x", "jabber:server").addAttribute("jid", "@odd@/");
+        message.getElement().addNamespace("stream", "http://etherx.jabber.org/streams");
+
+        BinaryStanzaCodec codec = new BinaryStanzaCodec();
+        byte[] encoded = codec.encode(message);
+        RoutingStanza stanza = codec.decode(encoded, 0, encoded.length);
+        Assertions.assertEquals(message.toXML(), stanza.getPacket().toXML());
+        Assertions.assertTrue(stanza.hasJabberServerNamespace());
+        Assertions.assertEquals("@odd@/",
+                stanza.getPacket().getElement().element("x").attributeValue("jid"));
+    }
+
+    @Test
+    public void testCorruptData() throws Exception {
+        BinaryStanzaCodec codec = new BinaryStanzaCodec();
+        byte[] encoded = codec.encode(StanzaParser.parse(StanzaCorpus.STANZAS[6]));
+        for (int length = 1; length < encoded.length; length++) {
+            try {
+                StanzaCodecs.decode(Arrays.copyOf(encoded, length));
+                Assertions.fail("decoded a stanza truncated to " + length + " bytes");
+            } catch (DocumentException e) {
+                // expected
+            }
+        }
+        // a reference to a string that was not sent
+        byte[] bad = {BinaryStanzaCodec.MARKER, (byte) 0xff, 0x01};
+        try {
+            StanzaCodecs.decode(bad);
+            Assertions.fail("decoded an unknown string token");
+        } catch (DocumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRegistry() throws Exception {
+        Assertions.assertEquals(XmlStanzaCodec.NAME, StanzaCodecs.forName("exi").getName());
+        Assertions.assertEquals(BinaryStanzaCodec.NAME, StanzaCodecs.forName(" binary ").getName());
+        try {
+            StanzaCodecs.register(new XmlStanzaCodec());
+            Assertions.fail("registered a codec twice");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        // xml with a declaration before the root element
+        RoutingStanza stanza = StanzaCodecs.decode(
+                "<?xml version=\"1.0\"?><message to=\"bob@proxy\"/>".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals(new JID("bob@proxy"), stanza.getTo());
+    }
+}
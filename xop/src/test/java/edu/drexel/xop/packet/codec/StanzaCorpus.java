@@ -0,0 +1,53 @@
+package edu.drexel.xop.packet.codec;
+
+/**
+ * Stanzas in the proportions of a MUC session on the transports: mostly group chat messages and chat states, MUC
+ * presences with entity capabilities, delayed messages for late joiners, and a few disco and error IQs.
+ */
+class StanzaCorpus {
+    static final String[] STANZAS = {
+            "<message xmlns=\"jabber:client\" type=\"groupchat\" from=\"ops@conference.proxy/alice\" "
+                    + "to=\"ops@conference.proxy\" id=\"a1b2c3\"><body>Moving to checkpoint two.</body>"
+                    + "<active xmlns=\"http://jabber.org/protocol/chatstates\"/></message>",
+            "<message xmlns=\"jabber:client\" type=\"groupchat\" from=\"ops@conference.proxy/bob\" "
+                    + "to=\"ops@conference.proxy\" id=\"q7\"><body>Copy, holding at checkpoint one until 1400."
+                    + "</body></message>",
+            "<message xmlns=\"jabber:client\" type=\"groupchat\" from=\"ops@conference.proxy/alice\" "
+                    + "to=\"ops@conference.proxy\"><composing xmlns=\"http://jabber.org/protocol/chatstates\"/>"
+                    + "</message>",
+            "<message xmlns=\"jabber:client\" type=\"chat\" from=\"alice@proxy/laptop\" to=\"bob@proxy/phone\" "
+                    + "id=\"m-9\"><body>Send me the updated plan when you can.</body>"
+                    + "<request xmlns=\"urn:xmpp:receipts\"/><thread>5a7e0c</thread></message>",
+            "<message xmlns=\"jabber:client\" type=\"chat\" from=\"bob@proxy/phone\" to=\"alice@proxy/laptop\">"
+                    + "<received xmlns=\"urn:xmpp:receipts\" id=\"m-9\"/></message>",
+            "<message xmlns=\"jabber:client\" type=\"groupchat\" from=\"ops@conference.proxy/carol\" "
+                    + "to=\"dave@proxy/tablet\"><body>Contact report: two surface tracks bearing 045.</body>"
+                    + "<delay xmlns=\"urn:xmpp:delay\" stamp=\"2019-05-23T14:02:11Z\" from=\"ops@conference.proxy\">"
+                    + "Offline Message</delay></message>",
+            "<presence xmlns=\"jabber:client\" from=\"ops@conference.proxy/alice\" to=\"bob@proxy/phone\">"
+                    + "<x xmlns=\"http://jabber.org/protocol/muc#user\"><item affiliation=\"member\" "
+                    + "role=\"participant\" jid=\"alice@proxy/laptop\"/></x>"
+                    + "<c xmlns=\"http://jabber.org/protocol/caps\" hash=\"sha-1\" node=\"http://pidgin.im/\" "
+                    + "ver=\"AcN1/PEN8nq7AHD+9jpxMV4U6YM=\"/></presence>",
+            "<presence xmlns=\"jabber:client\" from=\"ops@conference.proxy/alice\" to=\"alice@proxy/laptop\">"
+                    + "<show>away</show><status>in a meeting</status>"
+                    + "<x xmlns=\"http://jabber.org/protocol/muc#user\"><item affiliation=\"owner\" "
+                    + "role=\"moderator\" jid=\"alice@proxy/laptop\"/><status code=\"110\"/></x></presence>",
+            "<presence xmlns=\"jabber:client\" type=\"unavailable\" from=\"ops@conference.proxy/bob\" "
+                    + "to=\"alice@proxy/laptop\"><x xmlns=\"http://jabber.org/protocol/muc#user\">"
+                    + "<item affiliation=\"member\" role=\"none\"/></x></presence>",
+            "<iq xmlns=\"jabber:client\" type=\"get\" from=\"alice@proxy/laptop\" to=\"conference.proxy\" "
+                    + "id=\"disco1\"><query xmlns=\"http://jabber.org/protocol/disco#info\"/></iq>",
+            "<iq xmlns=\"jabber:client\" type=\"result\" from=\"conference.proxy\" to=\"alice@proxy/laptop\" "
+                    + "id=\"disco1\"><query xmlns=\"http://jabber.org/protocol/disco#info\">"
+                    + "<identity category=\"conference\" type=\"text\" name=\"Rooms\"/>"
+                    + "<feature var=\"http://jabber.org/protocol/muc\"/>"
+                    + "<feature var=\"http://jabber.org/protocol/disco#info\"/></query></iq>",
+            "<iq xmlns=\"jabber:client\" type=\"error\" from=\"bob@proxy/phone\" to=\"alice@proxy/laptop\" "
+                    + "id=\"v1\"><query xmlns=\"jabber:iq:version\"/><error type=\"cancel\">"
+                    + "<service-unavailable xmlns=\"urn:ietf:params:xml:ns:xmpp-stanzas\"/></error></iq>"
+    };
+
+    // how often each stanza above occurs in the session
+    static final int[] WEIGHTS = {12, 12, 10, 4, 4, 2, 3, 1, 1, 1, 1, 1};
+}
@@ -0,0 +1,74 @@
+package edu.drexel.xop.room;
+
+import edu.drexel.xop.core.ClientManager;
+import edu.drexel.xop.packet.LocalRecipientFilter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.JID;
+
+import java.io.IOException;
+
+/**
+ * Unit test for RoomIndex
+ */
+public class RoomIndexTest {
+    private final ClientManager clientManager = new ClientManager();
+
+    @Test
+    public void testOccupants() throws IOException {
+        RoomIndex roomIndex = new RoomIndex();
+        JID opsJID = new JID("ops@conference.proxy");
+        Room ops = new Room(opsJID, clientManager, null);
+        roomIndex.addRoom(ops);
+
+        JID alice = new JID("ops@conference.proxy/alice");
+        roomIndex.addOccupant(alice, ops);
+        Assertions.assertTrue(roomIndex.isRoom(opsJID));
+        Assertions.assertFalse(roomIndex.isRoom(alice));
+        Assertions.assertFalse(roomIndex.isRoom(null));
+        Assertions.assertTrue(roomIndex.isRoomOccupant(alice));
+        Assertions.assertSame(ops, roomIndex.getRoom(opsJID));
+        Assertions.assertSame(ops, roomIndex.getRoomForOccupant(alice));
+        Assertions.assertTrue(roomIndex.isRoomDestination(LocalRecipientFilter.keyOf(alice)));
+        Assertions.assertFalse(roomIndex.isRoomDestination(
+                LocalRecipientFilter.keyOf(new JID("intel@conference.proxy"))));
+
+        roomIndex.removeOccupant(alice, ops);
+        Assertions.assertFalse(roomIndex.isRoomOccupant(alice));
+        Assertions.assertNull(roomIndex.getRoomForOccupant(alice));
+        Assertions.assertTrue(roomIndex.isRoom(opsJID));
+        Assertions.assertEquals(1, roomIndex.getRoomIds().size());
+        Assertions.assertTrue(roomIndex.getRoomOccupantIds().isEmpty());
+    }
+
+    @Test
+    public void testRemoveRoom() throws IOException {
+        RoomIndex roomIndex = new RoomIndex();
+        JID opsJID = new JID("ops@conference.proxy");
+        JID intelJID = new JID("intel@conference.proxy");
+        Room ops = new Room(opsJID, clientManager, null);
+        Room intel = new Room(intelJID, clientManager, null);
+        roomIndex.addRoom(ops);
+        roomIndex.addRoom(intel);
+        JID alice = new JID("ops@conference.proxy/alice");
+        JID bob = new JID("intel@conference.proxy/bob");
+        roomIndex.addOccupant(alice, ops);
+        roomIndex.addOccupant(bob, intel);
+
+        roomIndex.removeRoom(ops);
+        Assertions.assertFalse(roomIndex.isRoom(opsJID));
+        Assertions.assertFalse(roomIndex.isRoomOccupant(alice));
+        Assertions.assertFalse(roomIndex.isRoomDestination(LocalRecipientFilter.keyOf(opsJID)));
+        Assertions.assertTrue(roomIndex.isRoom(intelJID));
+        Assertions.assertTrue(roomIndex.isRoomOccupant(bob));
+        Assertions.assertTrue(roomIndex.isRoomDestination(LocalRecipientFilter.keyOf(intelJID)));
+
+        // a room of the same JID that is not the indexed one
+        roomIndex.removeRoom(new Room(intelJID, clientManager, null));
+        Assertions.assertTrue(roomIndex.isRoom(intelJID));
+
+        roomIndex.clear();
+        Assertions.assertFalse(roomIndex.isRoom(intelJID));
+        Assertions.assertFalse(roomIndex.isRoomDestination(LocalRecipientFilter.keyOf(intelJID)));
+    }
+}
@@ -0,0 +1,116 @@
+package edu.drexel.xop.util;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cost of keeping 10k, 100k and 1M timeouts active while each is moved on to a later deadline over and over: cancel
+ * and schedule again on HashedWheelTimer and on a ScheduledThreadPoolExecutor, whose heap grows with the number of
+ * timeouts, and the way RemoteNodeLiveness uses the wheel, moving the deadline the pending timeout looks at when it
+ * runs. One thread serves all timeouts of either, a coroutine or thread per timeout would need as many as there are
+ * timeouts.
+ *
+ * Run with: java -cp <test and runtime classpath> edu.drexel.xop.util.HashedWheelTimerBenchmark [updates]
+ */
+public class HashedWheelTimerBenchmark {
+    private static final AtomicLong fired = new AtomicLong();
+
+    private static final Runnable TASK = new Runnable() {
+        @Override
+        public void run() {
+            fired.incrementAndGet();
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int updates = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        System.out.printf("%-28s %10s %14s%n", "", "timers", "ns/reschedule");
+        for (int timers : new int[]{10000, 100000, 1000000}) {
+            // the first rounds warm up
+            for (int round = 0; round < 3; round++) {
+                wheel(timers, updates, round == 2);
+                deadlines(timers, updates, round == 2);
+                executor(timers, updates, round == 2);
+            }
+        }
+    }
+
+    private static void wheel(int timers, int updates, boolean print) {
+        HashedWheelTimer timer = new HashedWheelTimer("bench", 50, 512);
+        HashedWheelTimer.Timeout[] timeouts = new HashedWheelTimer.Timeout[timers];
+        for (int i = 0; i < timers; i++) {
+            timeouts[i] = timer.schedule(TASK, 60000 + i % 1000);
+        }
+        long start = System.nanoTime();
+        for (int u = 0; u < updates; u++) {
+            int i = u % timers;
+            timeouts[i].cancel();
+            timeouts[i] = timer.schedule(TASK, 60000 + u % 1000);
+        }
+        long nanos = System.nanoTime() - start;
+        if (print) {
+            System.out.printf("%-28s %10d %14.1f%n", "HashedWheelTimer", timers, (double) nanos / updates);
+        }
+        timer.stop();
+    }
+
+    private static class Deadline implements Runnable {
+        final HashedWheelTimer timer;
+        volatile long deadline;
+
+        Deadline(HashedWheelTimer timer, long delay) {
+            this.timer = timer;
+            this.deadline = timer.now() + delay;
+            timer.schedule(this, delay);
+        }
+
+        @Override
+        public void run() {
+            long now = timer.now();
+            if (now < deadline) {
+                timer.schedule(this, deadline - now);
+            } else {
+                fired.incrementAndGet();
+            }
+        }
+    }
+
+    private static void deadlines(int timers, int updates, boolean print) {
+        HashedWheelTimer timer = new HashedWheelTimer("bench", 50, 512);
+        Deadline[] deadlines = new Deadline[timers];
+        for (int i = 0; i < timers; i++) {
+            deadlines[i] = new Deadline(timer, 60000 + i % 1000);
+        }
+        long start = System.nanoTime();
+        for (int u = 0; u < updates; u++) {
+            deadlines[u % timers].deadline = timer.now() + 60000 + u % 1000;
+        }
+        long nanos = System.nanoTime() - start;
+        if (print) {
+            System.out.printf("%-28s %10d %14.1f%n", "HashedWheelTimer, deadline", timers, (double) nanos / updates);
+        }
+        timer.stop();
+    }
+
+    private static void executor(int timers, int updates, boolean print) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+        ScheduledFuture<?>[] futures = new ScheduledFuture<?>[timers];
+        for (int i = 0; i < timers; i++) {
+            futures[i] = executor.schedule(TASK, 60000 + i % 1000, TimeUnit.MILLISECONDS);
+        }
+        long start = System.nanoTime();
+        for (int u = 0; u < updates; u++) {
+            int i = u % timers;
+            futures[i].cancel(false);
+            futures[i] = executor.schedule(TASK, 60000 + u % 1000, TimeUnit.MILLISECONDS);
+        }
+        long nanos = System.nanoTime() - start;
+        if (print) {
+            System.out.printf("%-28s %10d %14.1f%n", "ScheduledThreadPoolExecutor", timers, (double) nanos / updates);
+        }
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,128 @@
+package edu.drexel.xop.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit test for HashedWheelTimer
+ */
+public class HashedWheelTimerTest {
+
+    private static class ManualClock implements HashedWheelTimer.Clock {
+        long now = 1000;
+
+        @Override
+        public long millis() {
+            return now;
+        }
+    }
+
+    private static Runnable record(final List<String> ran, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+            }
+        };
+    }
+
+    @Test
+    public void testExpiry() {
+        ManualClock clock = new ManualClock();
+        // 8 buckets of 10ms, a turn of the wheel is 80ms
+        HashedWheelTimer timer = new HashedWheelTimer("test", 10, 5, clock);
+        List<String> ran = new ArrayList<>();
+        timer.schedule(record(ran, "a"), 25);
+        timer.schedule(record(ran, "b"), 5);
+        // several turns away, in the same bucket as a
+        timer.schedule(record(ran, "c"), 25 + 3 * 80);
+        timer.schedule(record(ran, "now"), 0);
+
+        clock.now += 9;
+        Assertions.assertEquals(0, timer.advance());
+        clock.now += 1;
+        Assertions.assertEquals(2, timer.advance());
+        // in the order they were scheduled
+        Assertions.assertEquals("[b, now]", ran.toString());
+
+        // never early, at most a tick late
+        clock.now = 1025;
+        timer.advance();
+        Assertions.assertEquals(2, ran.size());
+        clock.now = 1030;
+        timer.advance();
+        Assertions.assertEquals("[b, now, a]", ran.toString());
+
+        clock.now = 1025 + 3 * 80;
+        timer.advance();
+        Assertions.assertEquals(3, ran.size());
+        clock.now += 5;
+        timer.advance();
+        Assertions.assertEquals("[b, now, a, c]", ran.toString());
+        Assertions.assertEquals(0, timer.getPending());
+        Assertions.assertEquals(4, timer.getExpired());
+        Assertions.assertTrue(timer.getMaxLateMillis() <= 10);
+        timer.stop();
+    }
+
+    @Test
+    public void testCancel() {
+        ManualClock clock = new ManualClock();
+        HashedWheelTimer timer = new HashedWheelTimer("test", 10, 8, clock);
+        List<String> ran = new ArrayList<>();
+        HashedWheelTimer.Timeout a = timer.schedule(record(ran, "a"), 50);
+        HashedWheelTimer.Timeout b = timer.schedule(record(ran, "b"), 50);
+        HashedWheelTimer.Timeout c = timer.schedule(record(ran, "c"), 50);
+        // before it is in a bucket
+        Assertions.assertTrue(a.cancel());
+        Assertions.assertFalse(a.cancel());
+        clock.now += 10;
+        timer.advance();
+        // in its bucket, between others
+        Assertions.assertTrue(b.cancel());
+        Assertions.assertTrue(b.isCancelled());
+        clock.now += 100;
+        timer.advance();
+        Assertions.assertEquals("[c]", ran.toString());
+        Assertions.assertTrue(c.isExpired());
+        Assertions.assertFalse(c.cancel());
+        Assertions.assertEquals(0, timer.getPending());
+        Assertions.assertEquals(2, timer.getCancelled());
+        timer.stop();
+        try {
+            timer.schedule(record(ran, "d"), 10);
+            Assertions.fail("scheduled on a stopped timer");
+        } catch (IllegalStateException expected) {
+            // stopped
+        }
+    }
+
+    @Test
+    public void testThread() throws Exception {
+        HashedWheelTimer timer = new HashedWheelTimer("test", 5, 16);
+        final CountDownLatch latch = new CountDownLatch(100);
+        final long start = System.nanoTime();
+        final long[] early = new long[1];
+        for (int i = 0; i < 100; i++) {
+            final long delay = i % 20;
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(delay)) {
+                        early[0]++;
+                    }
+                    latch.countDown();
+                }
+            }, delay);
+        }
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, early[0]);
+        Assertions.assertTrue(timer.toString().contains("expired=100"), timer.toString());
+        timer.stop();
+    }
+}
@@ -0,0 +1,138 @@
+package edu.drexel.xop.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compares the compression ratio and time per stanza of the former MessageCompressionUtils, which created a Deflater
+ * and Inflater for every message, with the pooled codecs, with and without the preset dictionary.
+ *
+ * Run with: java -cp <test and runtime classpath> edu.drexel.xop.util.MessageCompressionBenchmark [iterations]
+ */
+public class MessageCompressionBenchmark {
+    private static long sink;
+
+    private static final String[] STANZAS = {
+            "<message xmlns=\"jabber:client\" type=\"groupchat\" from=\"ops@conference.proxy/alice\" "
+                    + "to=\"bob@proxy/phone\" id=\"a1b2c3\"><body>Moving to checkpoint two.</body>"
+                    + "<active xmlns=\"http://jabber.org/protocol/chatstates\"/></message>",
+            "<message xmlns=\"jabber:client\" type=\"chat\" from=\"alice@proxy/laptop\" to=\"bob@proxy/phone\">"
+                    + "<composing xmlns=\"http://jabber.org/protocol/chatstates\"/></message>",
+            "<presence xmlns=\"jabber:client\" from=\"alice@proxy/laptop\" to=\"ops@conference.proxy/alice\">"
+                    + "<x xmlns=\"http://jabber.org/protocol/muc#user\"><item affiliation=\"member\" "
+                    + "role=\"participant\" jid=\"alice@proxy/laptop\"/></x><c xmlns=\"http://jabber.org/protocol/caps\" "
+                    + "hash=\"sha-1\" node=\"http://pidgin.im/\" ver=\"AcN1/PEN8nq7AHD+9jpxMV4U6YM=\"/></presence>",
+            "<iq xmlns=\"jabber:client\" type=\"result\" from=\"proxy\" to=\"alice@proxy/laptop\" id=\"disco1\">"
+                    + "<query xmlns=\"http://jabber.org/protocol/disco#info\"><identity category=\"conference\" "
+                    + "type=\"text\" name=\"Rooms\"/><feature var=\"http://jabber.org/protocol/muc\"/>"
+                    + "<feature var=\"http://jabber.org/protocol/disco#info\"/></query></iq>"
+    };
+
+    private interface Codec {
+        byte[] compress(byte[] data);
+
+        byte[] decompress(byte[] data);
+    }
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        byte[][] stanzas = new byte[STANZAS.length][];
+        for (int i = 0; i < STANZAS.length; i++) {
+            stanzas[i] = STANZAS[i].getBytes(StandardCharsets.UTF_8);
+        }
+
+        Codec former = new Codec() {
+            public byte[] compress(byte[] data) {
+                return formerCompress(data);
+            }
+
+            public byte[] decompress(byte[] data) {
+                return formerDecompress(data);
+            }
+        };
+        Codec pooled = new Codec() {
+            public byte[] compress(byte[] data) {
+                return MessageCompressionUtils.compress(data, MessageCompressionUtils.NO_DICTIONARY);
+            }
+
+            public byte[] decompress(byte[] data) {
+                return MessageCompressionUtils.decompress(data);
+            }
+        };
+        Codec dictionary = new Codec() {
+            public byte[] compress(byte[] data) {
+                return MessageCompressionUtils.compress(data, 1);
+            }
+
+            public byte[] decompress(byte[] data) {
+                return MessageCompressionUtils.decompress(data);
+            }
+        };
+
+        for (int run = 0; run < 3; run++) {
+            report("new Deflater/Inflater per message", former, stanzas, iterations);
+            report("pooled", pooled, stanzas, iterations);
+            report("pooled, dictionary v1", dictionary, stanzas, iterations);
+        }
+        System.out.println(sink);
+    }
+
+    private static void report(String name, Codec codec, byte[][] stanzas, int iterations) {
+        long in = 0;
+        long out = 0;
+        for (byte[] stanza : stanzas) {
+            in += stanza.length;
+            out += codec.compress(stanza).length;
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += codec.compress(stanzas[i % stanzas.length]).length;
+        }
+        long compressNanos = System.nanoTime() - start;
+        byte[][] compressed = new byte[stanzas.length][];
+        for (int i = 0; i < stanzas.length; i++) {
+            compressed[i] = codec.compress(stanzas[i]);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += codec.decompress(compressed[i % stanzas.length]).length;
+        }
+        long decompressNanos = System.nanoTime() - start;
+        System.out.printf("%-36s ratio %.2f (%d -> %d bytes)  compress %6d ns/op  decompress %6d ns/op%n",
+                name, (double) out / in, in, out, compressNanos / iterations, decompressNanos / iterations);
+    }
+
+    // MessageCompressionUtils before the codecs were pooled
+    private static byte[] formerCompress(byte[] msg) {
+        Deflater compressor = new Deflater();
+        compressor.setLevel(Deflater.BEST_SPEED);
+        compressor.setInput(msg);
+        compressor.finish();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(msg.length);
+        byte[] buf = new byte[msg.length];
+        while (!compressor.finished()) {
+            int count = compressor.deflate(buf);
+            bos.write(buf, 0, count);
+        }
+        return bos.toByteArray();
+    }
+
+    private static byte[] formerDecompress(byte[] compressedData) {
+        Inflater decompressor = new Inflater();
+        decompressor.setInput(compressedData);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(compressedData.length);
+        byte[] buf = new byte[compressedData.length * 100];
+        try {
+            while (!decompressor.finished()) {
+                int count = decompressor.inflate(buf);
+                bos.write(buf, 0, count);
+            }
+        } catch (DataFormatException e) {
+            e.printStackTrace();
+        }
+        return bos.toByteArray();
+    }
+}
@@ -0,0 +1,84 @@
+package edu.drexel.xop.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * Unit test for MessageCompressionUtils
+ */
+public class MessageCompressionUtilsTest {
+
+    private static final String PRESENCE = "<presence xmlns=\"jabber:client\" from=\"alice@proxy/laptop\" "
+            + "to=\"ops@conference.proxy/alice\"><x xmlns=\"http://jabber.org/protocol/muc\"/>"
+            + "<c xmlns=\"http://jabber.org/protocol/caps\" hash=\"sha-1\" node=\"http://pidgin.im/\" "
+            + "ver=\"AcN1/PEN8nq7AHD+9jpxMV4U6YM=\"/><show>away</show></presence>";
+
+    // a plain zlib stream, as compressBytes wrote it before the dictionary versions
+    private static byte[] legacyCompress(byte[] msg) {
+        Deflater compressor = new Deflater();
+        compressor.setLevel(Deflater.BEST_SPEED);
+        compressor.setInput(msg);
+        compressor.finish();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(msg.length);
+        byte[] buf = new byte[msg.length];
+        while (!compressor.finished()) {
+            int count = compressor.deflate(buf);
+            bos.write(buf, 0, count);
+        }
+        compressor.end();
+        return bos.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() {
+        byte[] presence = PRESENCE.getBytes(StandardCharsets.UTF_8);
+        byte[] plain = MessageCompressionUtils.compress(presence, MessageCompressionUtils.NO_DICTIONARY);
+        byte[] withDictionary = MessageCompressionUtils.compress(presence, 1);
+
+        Assertions.assertArrayEquals(presence, MessageCompressionUtils.decompress(plain));
+        Assertions.assertArrayEquals(presence, MessageCompressionUtils.decompress(withDictionary));
+        Assertions.assertArrayEquals(presence, MessageCompressionUtils.decompress(legacyCompress(presence)));
+
+        Assertions.assertEquals(0x78, plain[0] & 0xff);
+        Assertions.assertEquals(MessageCompressionUtils.versionByte(1), withDictionary[0]);
+        Assertions.assertTrue(withDictionary.length < plain.length,
+                "dictionary: " + withDictionary.length + " bytes, none: " + plain.length + " bytes");
+    }
+
+    @Test
+    public void testLargeAndIncompressible() {
+        // larger than the codec's buffer, grows it and shrinks it back
+        byte[] random = new byte[200000];
+        new Random(3).nextBytes(random);
+        for (int version = 0; version <= 1; version++) {
+            byte[] compressed = MessageCompressionUtils.compress(random, version);
+            Assertions.assertArrayEquals(random, MessageCompressionUtils.decompress(compressed));
+        }
+        byte[] empty = new byte[0];
+        Assertions.assertArrayEquals(empty, MessageCompressionUtils.decompress(MessageCompressionUtils.compress(empty, 1)));
+    }
+
+    @Test
+    public void testCorruptData() {
+        byte[] compressed = MessageCompressionUtils.compress(PRESENCE.getBytes(StandardCharsets.UTF_8), 1);
+        byte[] truncated = new byte[compressed.length / 2];
+        System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+        Assertions.assertTrue(MessageCompressionUtils.decompress(truncated).length < PRESENCE.length());
+
+        // an unknown dictionary version
+        compressed[0] = MessageCompressionUtils.versionByte(9);
+        Assertions.assertEquals(0, MessageCompressionUtils.decompress(compressed).length);
+
+        // the codec of this thread still works, and again after it was released
+        MessageCompressionUtils.release();
+        byte[] presence = PRESENCE.getBytes(StandardCharsets.UTF_8);
+        Assertions.assertArrayEquals(presence,
+                MessageCompressionUtils.decompress(MessageCompressionUtils.compress(presence, 1)));
+        MessageCompressionUtils.release();
+    }
+}
@@ -0,0 +1,102 @@
+package edu.drexel.xop.util;
+
+import org.dom4j.DocumentException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit test for StanzaParser
+ */
+public class StanzaParserTest {
+
+    private static Message message(int i) {
+        Message message = new Message();
+        message.setType(Message.Type.chat);
+        message.setFrom(new JID("alice@proxy/laptop"));
+        message.setTo(new JID("bob@proxy/phone"));
+        message.setID("id" + i);
+        message.setBody("caf\u00e9 " + i);
+        return message;
+    }
+
+    @Test
+    public void testParseStringAndBytes() throws Exception {
+        Message message = message(1);
+        String xml = message.toXML();
+        byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+
+        Packet fromString = StanzaParser.parse(xml);
+        Assertions.assertTrue(fromString instanceof Message);
+        Assertions.assertEquals("caf\u00e9 1", ((Message) fromString).getBody());
+
+        // the stanza in the middle of a larger receive buffer
+        byte[] padded = new byte[bytes.length + 10];
+        System.arraycopy(bytes, 0, padded, 5, bytes.length);
+        Message fromBytes = (Message) StanzaParser.parse(padded, 5, bytes.length);
+        Assertions.assertEquals(fromString.toXML(), fromBytes.toXML());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+        Message fromBuffer = (Message) StanzaParser.parse(direct);
+        Assertions.assertEquals(fromString.toXML(), fromBuffer.toXML());
+        Assertions.assertFalse(direct.hasRemaining());
+
+        Assertions.assertTrue(StanzaParser.parse(new Presence().toXML()) instanceof Presence);
+        Assertions.assertTrue(StanzaParser.parse(new IQ().toXML()) instanceof IQ);
+    }
+
+    @Test
+    public void testInvalidStanza() throws Exception {
+        for (String invalid : new String[]{"<features/>", "<message><body></message>"}) {
+            try {
+                StanzaParser.parse(invalid);
+                Assertions.fail("parsed " + invalid);
+            } catch (DocumentException e) {
+                // expected
+            }
+        }
+        // the thread's reader is still usable after a failed parse
+        Assertions.assertEquals("caf\u00e9 2", ((Message) StanzaParser.parse(message(2).toXML())).getBody());
+    }
+
+    @Test
+    public void testParallelParsing() throws Exception {
+        final int threads = 8;
+        final int perThread = 500;
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * perThread;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = offset; i < offset + perThread; i++) {
+                            byte[] bytes = message(i).toXML().getBytes(StandardCharsets.UTF_8);
+                            Message parsed = (Message) StanzaParser.parse(bytes);
+                            if (!("id" + i).equals(parsed.getID())) {
+                                errors.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        done.await();
+        Assertions.assertEquals(0, errors.get());
+    }
+}
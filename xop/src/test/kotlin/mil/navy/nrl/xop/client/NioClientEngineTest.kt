@@ -0,0 +1,77 @@
+package mil.navy.nrl.xop.client
+
+import edu.drexel.xop.core.ClientManager
+import edu.drexel.xop.net.MockSDManager
+import edu.drexel.xop.packet.LocalPacketProcessor
+import edu.drexel.xop.util.Base64
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.xmpp.packet.JID
+import java.io.InputStream
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.Socket
+
+internal class NioClientEngineTest {
+
+    private val domain = "localhost"
+    private val clientManager = ClientManager()
+    private lateinit var engine: NioClientEngine
+    private lateinit var acceptor: Thread
+    private var port = 0
+
+    @BeforeEach
+    fun setUp() {
+        running.set(true)
+        val localPacketProcessor = LocalPacketProcessor(clientManager, MockSDManager())
+        engine = NioClientEngine(clientManager, localPacketProcessor, domain, 1)
+        port = 20000 + (System.nanoTime() % 10000).toInt()
+        acceptor = engine.listen(InetAddress.getLoopbackAddress(), port)
+    }
+
+    @AfterEach
+    fun tearDown() {
+        running.set(false)
+        acceptor.join(5000)
+    }
+
+    @Test
+    fun testNegotiateAndBind() {
+        Socket().use { socket ->
+            socket.connect(InetSocketAddress(InetAddress.getLoopbackAddress(), port), 5000)
+            socket.soTimeout = 5000
+            val out = socket.getOutputStream()
+            val input = socket.getInputStream()
+            val streamOpen = "<?xml version='1.0'?><stream:stream to='$domain' version='1.0' " +
+                    "xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'>"
+
+            out.write(streamOpen.toByteArray())
+            readUntil(input, "</stream:features>")
+
+            val creds = Base64.encode("\u0000user\u0000pass")
+            out.write("<auth xmlns='urn:ietf:params:xml:ns:xmpp-sasl' mechanism='PLAIN'>$creds</auth>".toByteArray())
+            assertTrue(readUntil(input, "/>").contains("<success"))
+
+            out.write(streamOpen.toByteArray())
+            assertTrue(readUntil(input, "</stream:features>").contains("urn:ietf:params:xml:ns:xmpp-bind"))
+
+            val deadline = System.currentTimeMillis() + 5000
+            while (!clientManager.isLocal(JID("user@$domain")) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10)
+            }
+            assertTrue(clientManager.isLocal(JID("user@$domain")))
+        }
+    }
+
+    private fun readUntil(input: InputStream, terminator: String): String {
+        val sb = StringBuilder()
+        while (!sb.endsWith(terminator)) {
+            val c = input.read()
+            if (c < 0) break
+            sb.append(c.toChar())
+        }
+        return sb.toString()
+    }
+}
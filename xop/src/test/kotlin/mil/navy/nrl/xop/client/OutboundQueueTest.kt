@@ -0,0 +1,101 @@
+package mil.navy.nrl.xop.client
+
+import edu.drexel.xop.core.XOProxy
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import kotlin.concurrent.thread
+
+internal class OutboundQueueTest {
+
+    private fun message(i: Int) = "<message to='bob@proxy'><body>$i</body></message>".toByteArray()
+
+    private val composing =
+        "<message to='bob@proxy'><composing xmlns='http://jabber.org/protocol/chatstates'/></message>".toByteArray()
+
+    @Test
+    fun testCoalesce() {
+        val queue = OutboundQueue("test", capacity = 100, batchBytes = 1024)
+        for (i in 0 until 10) {
+            assertTrue(queue.offer(message(i)))
+        }
+        val batch = queue.nextBatch()!!
+        val text = String(batch.array(), batch.arrayOffset() + batch.position(), batch.remaining())
+        assertEquals((0 until 10).joinToString("") { String(message(it)) }, text)
+        assertNull(queue.nextBatch())
+        assertEquals(10L, queue.getWritten())
+        assertEquals(1L, queue.getBatches())
+        assertEquals(0, queue.getDepth())
+    }
+
+    @Test
+    fun testDropPolicy() {
+        val queue = OutboundQueue("test", capacity = 4, policy = OverflowPolicy.DROP)
+        assertTrue(OutboundQueue.isLossy(composing))
+        assertFalse(OutboundQueue.isLossy(message(0)))
+
+        assertTrue(queue.offer(composing))
+        assertTrue(queue.offer(message(1)))
+        // half full, chat states no longer fit
+        assertFalse(queue.offer(composing))
+        assertTrue(queue.offer(message(2)))
+        assertTrue(queue.offer(message(3)))
+        assertFalse(queue.offer(message(4)))
+        // stream level data is always queued
+        queue.offerControl("</stream:stream>".toByteArray())
+
+        assertEquals(5, queue.getDepth())
+        assertEquals(1L, queue.getDropped())
+        assertEquals(1L, queue.getDroppedLossy())
+    }
+
+    @Test
+    fun testDisconnectPolicy() {
+        var disconnects = 0
+        val queue = OutboundQueue("test", capacity = 2, policy = OverflowPolicy.DISCONNECT) { disconnects++ }
+        assertTrue(queue.offer(message(0)))
+        assertTrue(queue.offer(message(1)))
+        assertFalse(queue.offer(message(2)))
+        assertFalse(queue.offer(message(3)))
+        assertEquals(1, disconnects)
+        assertTrue(queue.isClosed)
+        assertEquals(0, queue.getDepth())
+    }
+
+    @Test
+    fun testBlockPolicy() {
+        val queue = OutboundQueue("test", capacity = 2, policy = OverflowPolicy.BLOCK, blockMillis = 5000, batchBytes = 8)
+        assertTrue(queue.offer(message(0)))
+        assertTrue(queue.offer(message(1)))
+        // the thread draining the queue must not wait for itself
+        assertFalse(queue.offer(message(2), false))
+
+        val writer = thread {
+            Thread.sleep(100)
+            while (true) {
+                queue.takeBatch() ?: break
+                queue.batchWritten()
+            }
+        }
+        // waits for the writer to make room
+        assertTrue(queue.offer(message(3)))
+        assertTrue(queue.awaitEmpty(5000))
+        queue.close()
+        writer.join(5000)
+        assertFalse(writer.isAlive)
+        assertEquals(3L, queue.getWritten())
+        assertEquals(1L, queue.getDropped())
+    }
+
+    @Test
+    fun testStatistics() {
+        val queue = OutboundQueue("statistics-test", capacity = 10)
+        val statistics = XOProxy.statistics()
+        assertTrue(statistics.contains("client outbound queues:\nstatistics-test outbound"), statistics)
+
+        queue.close()
+        assertFalse(XOProxy.statistics().contains("statistics-test"))
+    }
+}
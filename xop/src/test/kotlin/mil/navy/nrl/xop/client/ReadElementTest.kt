@@ -0,0 +1,76 @@
+package mil.navy.nrl.xop.client
+
+import edu.drexel.xop.util.logger.LogUtils
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Assumptions.assumeTrue
+import org.junit.jupiter.api.Test
+import org.dom4j.Element
+import java.io.StringReader
+import java.lang.management.ManagementFactory
+import java.util.logging.Level
+import javax.xml.stream.XMLInputFactory
+import javax.xml.stream.XMLStreamConstants
+
+internal class ReadElementTest {
+
+    private val inputFactory = XMLInputFactory.newInstance()
+
+    private fun vcard(children: Int): String {
+        val sb = StringBuilder("<iq xmlns='jabber:client' type='result' id='v1'><vCard xmlns='vcard-temp'>")
+        for (i in 0 until children) {
+            sb.append("<EMAIL><USERID>user$i@example.com</USERID></EMAIL>")
+        }
+        return sb.append("</vCard></iq>").toString()
+    }
+
+    private fun read(xml: String): Element {
+        val reader = inputFactory.createXMLStreamReader(StringReader(xml))
+        while (reader.eventType != XMLStreamConstants.START_ELEMENT) reader.next()
+        return readElement(reader)
+    }
+
+    private fun allocatedBytes(xml: String): Long {
+        val bean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        val thread = Thread.currentThread().id
+        val before = bean.getThreadAllocatedBytes(thread)
+        for (i in 0 until 10) read(xml)
+        return bean.getThreadAllocatedBytes(thread) - before
+    }
+
+    @Test
+    fun testReadElement() {
+        val element = read(vcard(200))
+        assertEquals("iq", element.name)
+        assertEquals("v1", element.attributeValue("id"))
+        val vcard = element.element("vCard")
+        assertEquals(200, vcard.elements("EMAIL").size)
+        assertEquals("user199@example.com", (vcard.elements("EMAIL").last() as Element).elementText("USERID"))
+    }
+
+    @Test
+    fun testLinearCost() {
+        val bean = ManagementFactory.getThreadMXBean()
+        assumeTrue(bean is com.sun.management.ThreadMXBean &&
+                bean.isThreadAllocatedMemorySupported)
+
+        val logger = LogUtils.getLogger(ClientConnection::class.java.name)
+        val level = logger.level
+        logger.level = Level.INFO
+        try {
+            val small = vcard(200)
+            val large = vcard(800)
+            for (i in 0 until 20) {
+                read(small)
+                read(large)
+            }
+            val smallBytes = allocatedBytes(small)
+            val largeBytes = allocatedBytes(large)
+            // 4 times the children: about 4 times the garbage when building is linear, 16 times if every child
+            // serialized the partial stanza again
+            assertTrue(largeBytes < smallBytes * 6, "200 children: $smallBytes bytes, 800 children: $largeBytes bytes")
+        } finally {
+            logger.level = level
+        }
+    }
+}
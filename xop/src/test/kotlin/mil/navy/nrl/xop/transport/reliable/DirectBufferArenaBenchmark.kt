@@ -0,0 +1,56 @@
+package mil.navy.nrl.xop.transport.reliable
+
+import java.nio.ByteBuffer
+import java.util.ArrayDeque
+
+/**
+ * Sustained messages per second through the send buffers of [NormTransport], allocating a direct buffer for every
+ * message as before and taking it from a [DirectBufferArena]. NORM holds each buffer until it purges the object from
+ * its transmit cache, simulated here by a window of messages in flight that are released oldest first.
+ *
+ * Run with: java -cp <test and runtime classpath> mil.navy.nrl.xop.transport.reliable.DirectBufferArenaBenchmark
+ * [messages] [window]
+ */
+object DirectBufferArenaBenchmark {
+    private var sink = 0L
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val messages = if (args.isNotEmpty()) args[0].toInt() else 2000000
+        val window = if (args.size > 1) args[1].toInt() else 256
+        // message sizes of a MUC session, mostly small with the occasional large presence
+        val sizes = IntArray(64) { if (it % 16 == 0) 3000 else 150 + it * 7 }
+        val data = ByteArray(sizes.max()!!)
+
+        repeat(3) {
+            val allocated = run(messages, window, sizes, data, null)
+            val arena = DirectBufferArena("benchmark", maxPooledBytes = 4L shl 20)
+            val pooled = run(messages, window, sizes, data, arena)
+            println("allocateDirect %10.0f msgs/s".format(allocated))
+            println("arena          %10.0f msgs/s  %s".format(pooled, arena))
+            arena.close()
+        }
+        println(sink)
+    }
+
+    private fun run(messages: Int, window: Int, sizes: IntArray, data: ByteArray, arena: DirectBufferArena?): Double {
+        val inFlight = ArrayDeque<ByteBuffer>(window)
+        val start = System.nanoTime()
+        for (i in 0 until messages) {
+            val size = sizes[i % sizes.size]
+            val buffer = arena?.acquire(size) ?: ByteBuffer.allocateDirect(size + 1)
+            buffer.put(data, 0, size)
+            inFlight.addLast(buffer)
+            if (inFlight.size > window) {
+                val purged = inFlight.pollFirst()
+                sink += purged.get(0)
+                arena?.release(purged)
+            }
+        }
+        val nanos = System.nanoTime() - start
+        if (arena != null) {
+            inFlight.forEach { arena.release(it) }
+        }
+        return messages * 1e9 / nanos
+    }
+}
@@ -0,0 +1,69 @@
+package mil.navy.nrl.xop.transport.reliable
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+internal class DirectBufferArenaTest {
+
+    @Test
+    fun testSizeClasses() {
+        val arena = DirectBufferArena("test", minSize = 256, maxSize = 4096, maxPooledBytes = 1 shl 20)
+        assertEquals(256, arena.acquire(1).capacity())
+        assertEquals(256, arena.acquire(256).capacity())
+        assertEquals(512, arena.acquire(257).capacity())
+        assertEquals(4096, arena.acquire(4096).capacity())
+        // not pooled, exactly the size asked for
+        assertEquals(5000, arena.acquire(5000).capacity())
+        assertTrue(arena.acquire(10).isDirect)
+        arena.close()
+    }
+
+    @Test
+    fun testReuse() {
+        val arena = DirectBufferArena("test", minSize = 256, maxSize = 4096, maxPooledBytes = 1 shl 20)
+        val first = arena.acquire(300)
+        first.put(ByteArray(300))
+        assertEquals(512L, arena.getInUseBytes())
+        arena.release(first)
+        assertEquals(0L, arena.getInUseBytes())
+        assertEquals(512L, arena.getPooledBytes())
+
+        val second = arena.acquire(400)
+        assertSame(first, second)
+        assertEquals(0, second.position())
+        assertEquals(512, second.limit())
+        // another size class
+        arena.acquire(100)
+        assertEquals(2L, arena.getAllocations())
+        assertEquals(1L, arena.getReuses())
+        assertFalse(arena.toString().isEmpty())
+        arena.close()
+    }
+
+    @Test
+    fun testHighWaterAndBound() {
+        val arena = DirectBufferArena("test", minSize = 256, maxSize = 4096, maxPooledBytes = 2048)
+        val buffers = List(16) { arena.acquire(256) }
+        assertEquals(16 * 256L, arena.getInUseBytes())
+        buffers.forEach { arena.release(it) }
+        assertEquals(16 * 256L, arena.getHighWaterBytes())
+        assertEquals(0L, arena.getInUseBytes())
+        // only maxPooledBytes are kept
+        assertEquals(2048L, arena.getPooledBytes())
+        assertEquals(8L, arena.getDiscards())
+
+        arena.release(arena.acquire(10000))
+        assertEquals(9L, arena.getDiscards())
+
+        // the window of a steady flow of messages is served from the pool
+        repeat(1000) {
+            arena.release(arena.acquire(200))
+        }
+        assertEquals(17L, arena.getAllocations())
+        arena.close()
+        assertEquals(0L, arena.getPooledBytes())
+    }
+}
@@ -0,0 +1,119 @@
+package mil.navy.nrl.xop.transport.reliable
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+internal class DuplicateFilterTest {
+
+    private fun payload(i: Int) = "<message to='ops@conference.proxy' type='groupchat'><body>$i</body></message>".toByteArray()
+
+    @Test
+    fun testContentEquality() {
+        val filter = DuplicateFilter("test", windowMillis = 60000, maxEntries = 1000)
+        assertFalse(filter.isDuplicate(1L, payload(1)))
+        // a copy in another array, as received from another interface
+        assertTrue(filter.isDuplicate(1L, payload(1)))
+        // the same bytes from another sender
+        assertFalse(filter.isDuplicate(2L, payload(1)))
+        assertFalse(filter.isDuplicate(1L, payload(2)))
+
+        filter.record(3L, payload(3))
+        assertTrue(filter.isDuplicate(3L, payload(3)))
+
+        assertEquals(2L, filter.getHits())
+        assertEquals(3L, filter.getMisses())
+        filter.close()
+    }
+
+    @Test
+    fun testWindow() {
+        var now = 0L
+        val filter = DuplicateFilter("test", windowMillis = 4000, maxEntries = 1000, clock = { now })
+        assertFalse(filter.isDuplicate(1L, payload(1)))
+        now = 3500
+        assertFalse(filter.isDuplicate(1L, payload(2)))
+        assertTrue(filter.isDuplicate(1L, payload(1)))
+        now = 4500
+        // payload 1 is older than the window, payload 2 is not
+        assertFalse(filter.isDuplicate(1L, payload(1)))
+        assertTrue(filter.isDuplicate(1L, payload(2)))
+        now = 100000
+        assertFalse(filter.isDuplicate(1L, payload(2)))
+        assertEquals(1, filter.getSize())
+        filter.close()
+    }
+
+    @Test
+    fun testSizeBound() {
+        val filter = DuplicateFilter("test", windowMillis = 60000, maxEntries = 400)
+        for (i in 0 until 10000) {
+            assertFalse(filter.isDuplicate(1L, payload(i)))
+            assertTrue(filter.getSize() <= 400)
+        }
+        // the newest payloads are remembered, the oldest forgotten
+        for (i in 9700 until 10000) {
+            assertTrue(filter.isDuplicate(1L, payload(i)))
+        }
+        assertFalse(filter.isDuplicate(1L, payload(0)))
+        filter.close()
+    }
+
+    @Test
+    fun testCapacity() {
+        var now = 0L
+        val filter = DuplicateFilter("test", windowMillis = 4000, maxEntries = 65536, clock = { now })
+        // nothing is allocated before the first payload
+        assertEquals(0, filter.getCapacity())
+        assertFalse(filter.isDuplicate(1L, payload(0)))
+        assertEquals(64, filter.getCapacity())
+        for (i in 1 until 1000) {
+            assertFalse(filter.isDuplicate(1L, payload(i)))
+        }
+        // grown to stay at most half full, far below 4 sets of 32768 slots
+        assertEquals(2048, filter.getCapacity())
+        for (i in 0 until 1000) {
+            assertTrue(filter.isDuplicate(1L, payload(i)))
+        }
+        // the sets of the expired generations are released
+        now = 100000
+        assertFalse(filter.isDuplicate(1L, payload(0)))
+        assertEquals(64, filter.getCapacity())
+        filter.close()
+    }
+
+    /**
+     * A million distinct payloads, each received three times as over three interfaces: every copy is recognized and
+     * the heap does not grow with the number of payloads
+     */
+    @Test
+    fun testSoak() {
+        val filter = DuplicateFilter("soak", windowMillis = 60000, maxEntries = 65536)
+        val runtime = Runtime.getRuntime()
+        var baseline = 0L
+        for (i in 0 until 1000000) {
+            val sender = (i % 7).toLong()
+            assertFalse(filter.isDuplicate(sender, payload(i)))
+            assertTrue(filter.isDuplicate(sender, payload(i)))
+            assertTrue(filter.isDuplicate(sender, payload(i)))
+            if (i == 100000) {
+                baseline = usedHeap(runtime)
+            }
+        }
+        val growth = usedHeap(runtime) - baseline
+        assertEquals(2000000L, filter.getHits())
+        assertEquals(1000000L, filter.getMisses())
+        assertTrue(filter.getSize() <= 65536)
+        assertTrue(growth < 8L shl 20, "heap grew by $growth bytes")
+        filter.close()
+    }
+
+    private fun usedHeap(runtime: Runtime): Long {
+        repeat(3) {
+            System.gc()
+            Thread.sleep(50)
+        }
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+}
@@ -0,0 +1,93 @@
+package mil.navy.nrl.xop.transport.reliable
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+internal class KeyedWorkerPoolTest {
+
+    @Test
+    fun testOrderPerKey() {
+        val pool = KeyedWorkerPool("test", workers = 3, queueCapacity = 10000)
+        val seen = Array(5) { Collections.synchronizedList(mutableListOf<Int>()) }
+        val done = CountDownLatch(5 * 1000)
+        for (i in 0 until 1000) {
+            for (key in 0 until 5) {
+                assertTrue(pool.dispatch(key, Runnable {
+                    seen[key].add(i)
+                    done.countDown()
+                }))
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS))
+        for (key in 0 until 5) {
+            assertEquals((0 until 1000).toList(), seen[key])
+        }
+        assertEquals(5000L, pool.getProcessed())
+        pool.close()
+    }
+
+    @Test
+    fun testSlowKey() {
+        val pool = KeyedWorkerPool("test", workers = 2, queueCapacity = 4)
+        val release = CountDownLatch(1)
+        val started = CountDownLatch(1)
+        // key 0 is stuck, e.g. delivering to a slow client
+        pool.dispatch(0, Runnable {
+            started.countDown()
+            release.await()
+        })
+        assertTrue(started.await(5, TimeUnit.SECONDS))
+        var accepted = 0
+        for (i in 0 until 10) {
+            if (pool.dispatch(0, Runnable { })) accepted++
+        }
+        assertEquals(4, accepted)
+        assertEquals(6L, pool.getDropped())
+
+        // key 1 is processed meanwhile, and dispatching never blocked
+        val other = CountDownLatch(100)
+        for (i in 0 until 100) {
+            pool.dispatch(1, Runnable { other.countDown() })
+            Thread.sleep(0, 100)
+        }
+        assertTrue(other.await(5, TimeUnit.SECONDS))
+
+        release.countDown()
+        val last = CountDownLatch(1)
+        while (!pool.dispatch(0, Runnable { last.countDown() })) {
+            Thread.sleep(1)
+        }
+        assertTrue(last.await(5, TimeUnit.SECONDS))
+        assertTrue(pool.getMaxDepth() >= 4)
+        assertTrue(pool.getMaxWaitMillis() > 0.0)
+        assertFalse(pool.toString().isEmpty())
+        pool.close()
+    }
+
+    @Test
+    fun testCloseWaitsForRunningTasks() {
+        val pool = KeyedWorkerPool("test", workers = 2, queueCapacity = 10)
+        val started = CountDownLatch(1)
+        val finished = AtomicBoolean(false)
+        pool.dispatch(0, Runnable {
+            started.countDown()
+            Thread.sleep(200)
+            finished.set(true)
+        })
+        val queued = AtomicBoolean(false)
+        pool.dispatch(0, Runnable { queued.set(true) })
+        assertTrue(started.await(5, TimeUnit.SECONDS))
+
+        pool.close()
+        // the running task finished, the queued one was dropped and nothing is taken any more
+        assertTrue(finished.get())
+        assertFalse(queued.get())
+        assertFalse(pool.dispatch(1, Runnable { }))
+    }
+}
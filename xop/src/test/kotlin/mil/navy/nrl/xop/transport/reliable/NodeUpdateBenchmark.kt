@@ -0,0 +1,52 @@
+package mil.navy.nrl.xop.transport.reliable
+
+import org.json.JSONObject
+import org.xmpp.packet.JID
+
+/**
+ * Bytes a node sends per presence interval with the whole NORMNode as before, and with node updates when one client
+ * changes its presence each interval and when nothing changes, for 10, 100 and 1000 local clients each in two rooms.
+ *
+ * Run with: java -cp <test and runtime classpath> mil.navy.nrl.xop.transport.reliable.NodeUpdateBenchmark [intervals]
+ */
+object NodeUpdateBenchmark {
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val intervals = if (args.isNotEmpty()) args[0].toInt() else 100
+        println("%8s %14s %14s %14s".format("clients", "full B/int", "1 change B/int", "idle B/int"))
+        for (clients in intArrayOf(10, 100, 1000)) {
+            val node = NORMNode(mutableMapOf(), 4242424242L, 0, mutableMapOf(), mutableSetOf())
+            for (room in 0 until 20) {
+                node.mucRooms.add("room$room@conference.proxy")
+            }
+            for (i in 0 until clients) {
+                val jid = JID("user$i@proxy/xop-$i")
+                node.jidMap[jid] = hash(i, 0)
+                node.mucOccupants[jid] = mutableSetOf("room${i % 20}@conference.proxy/user$i",
+                    "room${(i + 1) % 20}@conference.proxy/user$i")
+            }
+            val updates = NodeUpdates(node)
+
+            var full = 0L
+            var changed = 0L
+            for (interval in 1..intervals) {
+                // a client changes its status
+                val i = interval % clients
+                node.jidMap[JID("user$i@proxy/xop-$i")] = hash(i, interval)
+                full += size(JSONObject(node))
+                changed += size(updates.next())
+            }
+            var idle = 0L
+            for (interval in 1..intervals) {
+                idle += size(updates.next())
+            }
+            println("%8d %14d %14d %14d".format(clients, full / intervals, changed / intervals, idle / intervals))
+        }
+    }
+
+    // like the md5 of a presence in base64
+    private fun hash(client: Int, version: Int) = "%022x==".format(client * 1000003L + version)
+
+    private fun size(json: JSONObject) = json.toString().toByteArray(Charsets.UTF_8).size.toLong()
+}
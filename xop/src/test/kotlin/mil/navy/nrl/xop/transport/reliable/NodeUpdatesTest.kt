@@ -0,0 +1,93 @@
+package mil.navy.nrl.xop.transport.reliable
+
+import org.json.JSONObject
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Test
+import org.xmpp.packet.JID
+
+internal class NodeUpdatesTest {
+
+    private fun node() = NORMNode(
+        mutableMapOf(JID("alice@proxy/a") to "aaaa", JID("bob@proxy/b") to "bbbb"), 100, 0,
+        mutableMapOf(JID("alice@proxy/a") to mutableSetOf("ops@conference.proxy/alice")),
+        mutableSetOf("ops@conference.proxy")
+    )
+
+    // what a receiver makes of the JSON sent
+    private fun received(update: JSONObject) = JSONObject(update.toString())
+
+    @Test
+    fun testDeltas() {
+        val local = node()
+        val updates = NodeUpdates(local)
+        val remote = fromJSONStr(updates.snapshot().toString())
+
+        // idle
+        var update = updates.next()
+        assertEquals(NODE_DIGEST, update.getString("k"))
+        assertEquals(nodeDigest(remote), digestFromJSON(received(update)).digest)
+
+        local.jidMap[JID("carol@proxy/c")] = "cccc"
+        local.jidMap[JID("bob@proxy/b")] = "bbb2"
+        local.jidMap.remove(JID("alice@proxy/a"))
+        local.mucOccupants.remove(JID("alice@proxy/a"))
+        local.mucOccupants[JID("carol@proxy/c")] = mutableSetOf("ops@conference.proxy/carol")
+        local.mucRooms.add("dev@conference.proxy")
+        update = updates.next()
+        assertEquals(NODE_DELTA, update.getString("k"))
+        val delta = deltaFromJSON(received(update))
+        assertEquals(0L, delta.baseSeq)
+        assertEquals(1L, delta.seq)
+        assertEquals(2, delta.jids.size)
+
+        applyDelta(remote, delta)
+        assertEquals(local.jidMap, remote.jidMap)
+        assertEquals(local.mucOccupants, remote.mucOccupants)
+        assertEquals(local.mucRooms, remote.mucRooms)
+        assertEquals(1L, remote.seq)
+        // applying it twice changes nothing
+        applyDelta(remote, delta)
+        assertEquals(local.jidMap, remote.jidMap)
+
+        update = updates.next()
+        assertEquals(NODE_DIGEST, update.getString("k"))
+        val digest = digestFromJSON(received(update))
+        assertEquals(1L, digest.seq)
+        assertEquals(nodeDigest(remote), digest.digest)
+    }
+
+    @Test
+    fun testMissedDelta() {
+        val local = node()
+        val updates = NodeUpdates(local)
+        val remote = fromJSONStr(updates.snapshot().toString())
+
+        local.jidMap[JID("carol@proxy/c")] = "cccc"
+        updates.next()
+        local.mucRooms.remove("ops@conference.proxy")
+        val delta = deltaFromJSON(received(updates.next()))
+        // the receiver missed seq 1
+        assertNotEquals(remote.seq, delta.baseSeq)
+
+        // the snapshot it asks for catches up, with the seq of the last update
+        val snapshot = fromJSONStr(updates.snapshot().toString())
+        assertEquals(2L, snapshot.seq)
+        assertEquals(local.jidMap, snapshot.jidMap)
+        assertEquals(nodeDigest(local), nodeDigest(snapshot))
+        assertEquals(NODE_DIGEST, updates.next().getString("k"))
+    }
+
+    @Test
+    fun testDigest() {
+        val a = node()
+        val b = copyOf(a)
+        assertEquals(nodeDigest(a), nodeDigest(b))
+        b.mucOccupants[JID("alice@proxy/a")]!!.add("dev@conference.proxy/alice")
+        assertNotEquals(nodeDigest(a), nodeDigest(b))
+        // the copy shares nothing
+        assertEquals(1, a.mucOccupants[JID("alice@proxy/a")]!!.size)
+        assertNull(diff(a, copyOf(a), 1))
+    }
+}
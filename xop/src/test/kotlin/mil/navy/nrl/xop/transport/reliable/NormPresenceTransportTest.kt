@@ -89,6 +89,7 @@ internal class NormPresenceTransportTest {
     private val normInstance = NormInstance()
 
     private var mockSession: NormSession? = null
+    private val workers = KeyedWorkerPool("NormPresenceTransportTest")
     // private var normPresenceTransport: NormPresenceTransport? = null
 
     @BeforeEach
@@ -102,6 +103,11 @@ internal class NormPresenceTransportTest {
         println("teardown after Each")
     }
 
+    @AfterAll
+    fun closeWorkers() {
+        workers.close()
+    }
+
     // @AfterAll
     // fun teardownTest(){
     //     println("destroy normInstance")
@@ -150,7 +156,7 @@ internal class NormPresenceTransportTest {
             mutableMapOf(iface to mockSession!!),
             InetAddress.getLocalHost(), 10000,
             10,
-            transportPacketProcessor, sdListener, false, this,
+            transportPacketProcessor, sdListener, false, this, workers,
             10, 15
         )
         println("Created $normPresenceTransport")
@@ -303,7 +309,7 @@ internal class NormPresenceTransportTest {
             mutableMapOf(iface to mockSession!!),
             InetAddress.getLocalHost(), 10000,
             10,
-            transportPacketProcessor, sdListener, false, this,
+            transportPacketProcessor, sdListener, false, this, workers,
             10, 15
         )
 
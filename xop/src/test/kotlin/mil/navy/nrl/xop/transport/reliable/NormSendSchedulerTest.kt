@@ -0,0 +1,127 @@
+package mil.navy.nrl.xop.transport.reliable
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+internal class NormSendSchedulerTest {
+
+    /**
+     * Stands in for a NORM session whose transmit buffer holds [room] objects
+     */
+    private class FakeSession(var room: Int) {
+        val enqueued = mutableListOf<Int>()
+        val discarded = mutableListOf<Int>()
+
+        fun enqueue(item: Int): Boolean {
+            if (room == 0) return false
+            room--
+            enqueued.add(item)
+            return true
+        }
+
+        fun scheduler(capacity: Int, policy: NormSendScheduler.Policy, blockMillis: Long = 1000) =
+            NormSendScheduler("test", { item: Int -> enqueue(item) }, { item: Int -> discarded.add(item) },
+                capacity, policy, blockMillis)
+    }
+
+    @Test
+    fun testStall() {
+        val session = FakeSession(2)
+        val scheduler = session.scheduler(10, NormSendScheduler.Policy.DROP_OLDEST)
+        for (i in 0 until 5) {
+            assertTrue(scheduler.send(i))
+        }
+        assertEquals(listOf(0, 1), session.enqueued)
+        assertEquals(3, scheduler.getDepth())
+        assertEquals(1L, scheduler.getStalls())
+
+        // NORM_TX_QUEUE_VACANCY with room for two
+        session.room = 2
+        scheduler.ready()
+        assertEquals(listOf(0, 1, 2, 3), session.enqueued)
+        assertEquals(1, scheduler.getDepth())
+
+        // room made without an event is used by the next send
+        session.room = 10
+        assertTrue(scheduler.send(5))
+        assertEquals(listOf(0, 1, 2, 3, 4, 5), session.enqueued)
+        assertEquals(0, scheduler.getDepth())
+        assertEquals(6L, scheduler.getSent())
+        assertEquals(3, scheduler.getMaxDepth())
+        assertFalse(scheduler.toString().isEmpty())
+        scheduler.close()
+    }
+
+    @Test
+    fun testDropOldest() {
+        val session = FakeSession(0)
+        val scheduler = session.scheduler(3, NormSendScheduler.Policy.DROP_OLDEST)
+        for (i in 0 until 5) {
+            assertTrue(scheduler.send(i))
+        }
+        assertEquals(listOf(0, 1), session.discarded)
+        assertEquals(2L, scheduler.getDropped())
+        session.room = 10
+        scheduler.ready()
+        assertEquals(listOf(2, 3, 4), session.enqueued)
+        scheduler.close()
+    }
+
+    @Test
+    fun testPriority() {
+        val session = FakeSession(0)
+        val scheduler = session.scheduler(3, NormSendScheduler.Policy.PRIORITY)
+        scheduler.send(0, 1)
+        scheduler.send(1, 0)
+        scheduler.send(2, 0)
+        // lower than everything queued
+        assertFalse(scheduler.send(3, -1))
+        // evicts the oldest of the lowest
+        assertTrue(scheduler.send(4, 2))
+        assertTrue(scheduler.send(5, 0))
+        assertEquals(listOf(3, 1, 2), session.discarded)
+        session.room = 10
+        scheduler.ready()
+        assertEquals(listOf(0, 4, 5), session.enqueued)
+        scheduler.close()
+    }
+
+    @Test
+    fun testBlock() {
+        val session = FakeSession(0)
+        val scheduler = session.scheduler(2, NormSendScheduler.Policy.BLOCK, blockMillis = 5000)
+        scheduler.send(0)
+        scheduler.send(1)
+
+        val sent = CountDownLatch(1)
+        val sender = Thread {
+            if (scheduler.send(2)) {
+                sent.countDown()
+            }
+        }
+        sender.start()
+        assertFalse(sent.await(200, TimeUnit.MILLISECONDS))
+        session.room = 1
+        scheduler.ready()
+        assertTrue(sent.await(5, TimeUnit.SECONDS))
+        sender.join()
+        assertEquals(listOf(0), session.enqueued)
+        assertEquals(2, scheduler.getDepth())
+        assertTrue(scheduler.getStallMillis() >= 200)
+
+        // no room in time
+        val shortBlock = session.scheduler(1, NormSendScheduler.Policy.BLOCK, blockMillis = 50)
+        shortBlock.send(10)
+        assertFalse(shortBlock.send(11))
+        assertEquals(listOf(11), session.discarded)
+        shortBlock.close()
+
+        // what is still queued is dropped
+        scheduler.close()
+        assertEquals(listOf(11, 10, 1, 2), session.discarded)
+    }
+}
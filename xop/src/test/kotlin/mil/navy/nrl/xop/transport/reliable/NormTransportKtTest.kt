@@ -1,5 +1,7 @@
 package mil.navy.nrl.xop.transport.reliable
 
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertThrows
 import org.junit.jupiter.api.Assertions.assertTrue
 import org.junit.jupiter.api.Test
 
@@ -40,4 +42,65 @@ internal class NormTransportKtTest {
         )
 
     }
-}
\ No newline at end of file
+
+    @Test
+    fun testBinaryTransportMetadata() {
+        val transportMetadata = TransportMetadata(1700000000000L, TransportType.MessageTransportRedirect,
+            TransportSubType.GroupChat, 123456789L, roomId = -42, sequence = 77L)
+        val bytes = transportMetadataToBytes(transportMetadata, true, METADATA_BINARY)
+        assertEquals(transportMetadata, getTransportMetadata(bytes, true))
+        assertEquals(transportMetadata, getTransportMetadata(bytes, false))
+
+        // no room id and sequence, and the -1 of a node that did not set its id
+        val chat = TransportMetadata(1700000000000L, TransportType.MessageTransport, TransportSubType.Chat)
+        val chatBytes = transportMetadataToBytes(chat, false, METADATA_BINARY)
+        assertEquals(chat, getTransportMetadata(chatBytes, false))
+        assertTrue(chatBytes.size <= 12, "${chatBytes.size} bytes")
+        assertTrue(chatBytes.size * 5 < transportMetadataToBytes(chat, false, METADATA_JSON).size)
+    }
+
+    @Test
+    fun testDestinationTransportMetadata() {
+        val transportMetadata = TransportMetadata(1700000000000L, TransportType.MessageTransport,
+            TransportSubType.Chat, 5L, destination = 0x0fffffff)
+        val bytes = transportMetadataToBytes(transportMetadata, false, METADATA_BINARY)
+        assertEquals(transportMetadata, getTransportMetadata(bytes, false))
+        // a node that does not know the destination reads the rest as before
+        val withoutDestination = transportMetadataToBytes(transportMetadata.copy(destination = 0), false,
+            METADATA_BINARY)
+        assertEquals(withoutDestination.size + 4, bytes.size)
+        for (compression in listOf(false, true)) {
+            val json = transportMetadataToBytes(transportMetadata, compression, METADATA_JSON)
+            assertEquals(transportMetadata, getTransportMetadata(json, compression))
+        }
+    }
+
+    @Test
+    fun testJsonTransportMetadata() {
+        // what older nodes send, the room id and sequence are not part of it
+        val transportMetadata = TransportMetadata(1700000000000L, TransportType.PresenceTransport,
+            TransportSubType.Presence, 99L)
+        for (compression in listOf(false, true)) {
+            val bytes = transportMetadataToBytes(transportMetadata, compression, METADATA_JSON)
+            assertEquals(transportMetadata, getTransportMetadata(bytes, compression))
+        }
+    }
+
+    @Test
+    fun testMalformedTransportMetadata() {
+        val bytes = transportMetadataToBytes(
+            TransportMetadata(1700000000000L, TransportType.Control, TransportSubType.JSON, 5L), false, METADATA_BINARY)
+        // types added by a later version
+        bytes[1] = 100
+        bytes[2] = 100
+        val regen = getTransportMetadata(bytes, false)
+        assertEquals(TransportType.Unknown, regen.transportType)
+        assertEquals(TransportSubType.Unknown, regen.transportSubType)
+        assertEquals(5L, regen.origSenderId)
+
+        assertThrows(IllegalArgumentException::class.java) {
+            getTransportMetadata(bytes.copyOf(bytes.size - 1), false)
+        }
+        assertEquals(TransportType.Unknown, getTransportMetadata(ByteArray(0), false).transportType)
+    }
+}
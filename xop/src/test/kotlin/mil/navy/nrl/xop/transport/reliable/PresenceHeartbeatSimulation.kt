@@ -0,0 +1,125 @@
+package mil.navy.nrl.xop.transport.reliable
+
+import edu.drexel.xop.util.HashedWheelTimer
+import org.json.JSONObject
+import org.xmpp.packet.JID
+import java.util.Random
+
+/**
+ * Control plane bandwidth against failure detection latency of the periodic node updates, for fixed and adaptive
+ * intervals, simulated in virtual time with nodes in one JVM.
+ *
+ * Each node has 10 clients, one of which changes its presence now and then, and sends its updates to all other nodes
+ * as broadcastRoutine does: at once after a change but at most once per minimum interval, backing off while nothing
+ * changes. Every trial one node fails at a random time, and the others detect it with [RemoteNodeLiveness] on a
+ * [HashedWheelTimer] of 50ms ticks.
+ *
+ * Run with: java -cp <test and runtime classpath> mil.navy.nrl.xop.transport.reliable.PresenceHeartbeatSimulation
+ * [nodes] [seconds between changes per node] [trials]
+ */
+object PresenceHeartbeatSimulation {
+    private const val TICK = 50L
+    private const val MISSED_UPDATES = 3
+    private const val GRTT = 0.1
+
+    private class Node(val id: Long, min: Long, max: Long, timer: HashedWheelTimer, lost: (Long, Long) -> Unit) {
+        val state = NORMNode(mutableMapOf(), id, 0, mutableMapOf(), mutableSetOf())
+        val updates: NodeUpdates
+        val interval = AdaptiveInterval(min, max)
+        val liveness = RemoteNodeLiveness(min, MISSED_UPDATES, 1, timer) { lost(id, it) }
+        var nextSend = 0L
+        var lastSent = Long.MIN_VALUE / 2
+        var failed = false
+
+        init {
+            for (i in 0 until 10) {
+                state.jidMap[JID("user$i@node$id/xop")] = "h$i-0"
+                state.mucOccupants[JID("user$i@node$id/xop")] = mutableSetOf("ops@conference.proxy/user$i.$id")
+            }
+            state.mucRooms.add("ops@conference.proxy")
+            updates = NodeUpdates(state)
+        }
+    }
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val nodes = if (args.isNotEmpty()) args[0].toInt() else 8
+        val changeSeconds = if (args.size > 1) args[1].toLong() else 120L
+        val trials = if (args.size > 2) args[2].toInt() else 20
+        println("$nodes nodes, a change every ${changeSeconds}s per node, timeout after $MISSED_UPDATES intervals")
+        println("%-16s %14s %12s %16s %16s".format("interval", "updates/min", "B/s/node", "detect avg ms", "detect max ms"))
+        for ((min, max) in listOf(1000L to 1000L, 4000L to 4000L, 1000L to 8000L, 1000L to 32000L, 4000L to 32000L)) {
+            simulate(nodes, changeSeconds * 1000, trials, min, max)
+        }
+    }
+
+    private fun simulate(nodeCount: Int, changeMillis: Long, trials: Int, min: Long, max: Long) {
+        val random = Random(42)
+        var updates = 0L
+        var bytes = 0L
+        var nodeMillis = 0L
+        var detectTotal = 0L
+        var detectMax = 0L
+        var detections = 0
+
+        repeat(trials) {
+            var now = 0L
+            val timer = HashedWheelTimer("simulation", TICK, 512, HashedWheelTimer.Clock { now })
+            val failAt = 600000L + (random.nextDouble() * 1200000).toLong()
+            val victim = 1L + random.nextInt(nodeCount)
+            val detected = mutableMapOf<Long, Long>()
+            val nodes = List(nodeCount) {
+                Node(it + 1L, min, max, timer) { observer, lost ->
+                    if (lost == victim && now >= failAt) {
+                        detected[observer] = now - failAt
+                    }
+                }
+            }
+
+            while (detected.size < nodeCount - 1) {
+                now += TICK
+                if (now >= failAt) {
+                    nodes[(victim - 1).toInt()].failed = true
+                }
+                for (node in nodes) {
+                    if (node.failed) continue
+                    // a client changes, sent at once but at most once per minimum interval
+                    if (random.nextDouble() < TICK.toDouble() / changeMillis) {
+                        val client = random.nextInt(10)
+                        node.state.jidMap[JID("user$client@node${node.id}/xop")] = "h$client-$now"
+                        node.nextSend = maxOf(now, node.lastSent + min)
+                    }
+                    if (now >= node.nextSend) {
+                        val update = node.updates.next()
+                        if (update.getString("k") == NODE_DELTA) {
+                            node.interval.reset()
+                        }
+                        val interval = node.interval.advance()
+                        update.put("i", interval)
+                        updates++
+                        bytes += size(update)
+                        node.lastSent = now
+                        node.nextSend = now + interval
+                        for (other in nodes) {
+                            if (other !== node && !other.failed) {
+                                other.liveness.heard(node.id, interval, GRTT)
+                            }
+                        }
+                    }
+                }
+                timer.advance()
+            }
+            timer.stop()
+            nodeMillis += failAt * nodeCount
+            for (latency in detected.values) {
+                detectTotal += latency
+                detectMax = maxOf(detectMax, latency)
+                detections++
+            }
+        }
+        println("%-16s %14.1f %12.1f %16d %16d".format(if (min == max) "fixed ${min}ms" else "${min}-${max}ms",
+            updates * 60000.0 / nodeMillis, bytes * 1000.0 / nodeMillis, detectTotal / detections, detectMax))
+    }
+
+    private fun size(json: JSONObject) = json.toString().toByteArray(Charsets.UTF_8).size
+}
@@ -0,0 +1,137 @@
+package mil.navy.nrl.xop.transport.reliable
+
+import edu.drexel.xop.net.SDListener
+import edu.drexel.xop.util.HashedWheelTimer
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.xmpp.packet.JID
+import org.xmpp.packet.Presence
+import java.net.InetAddress
+
+internal class PresenceHeartbeatTest {
+
+    @Test
+    fun testBackoff() {
+        val interval = AdaptiveInterval(1000, 8000)
+        assertEquals(listOf(1000L, 2000L, 4000L, 8000L, 8000L), List(5) { interval.advance() })
+        interval.reset()
+        assertEquals(1000L, interval.advance())
+        assertEquals(2000L, interval.advance())
+
+        // a fixed interval
+        val fixed = AdaptiveInterval(4000, 4000)
+        assertEquals(listOf(4000L, 4000L), List(2) { fixed.advance() })
+    }
+
+    @Test
+    fun testTimeouts() {
+        var now = 0L
+        val timer = HashedWheelTimer("test", 10, 64, HashedWheelTimer.Clock { now })
+        val lost = mutableListOf<Long>()
+        val liveness = RemoteNodeLiveness(4000, 3, 2, timer) { lost.add(it) }
+        val advance = { millis: Long ->
+            now = millis
+            timer.advance()
+        }
+        // not timed out before it advertises an interval
+        liveness.heard(1L, null, 0.0)
+        assertFalse(liveness.isAlive(1L))
+        liveness.heard(1L, 4000, 0.0)
+        // backed off to 32s
+        liveness.heard(2L, 32000, 0.5)
+        assertEquals(12000L, liveness.timeout(1L, 0.0))
+        assertEquals(97000L, liveness.timeout(2L, 0.5))
+
+        advance(11990)
+        assertTrue(lost.isEmpty())
+        // at most one tick late
+        advance(12010)
+        assertEquals(listOf(1L), lost)
+        assertFalse(liveness.isAlive(1L))
+        assertTrue(liveness.isAlive(2L))
+
+        // updates move the deadline without rescheduling
+        advance(50000)
+        liveness.heard(2L, 32000, 0.5)
+        val scheduled = timer.scheduled
+        liveness.heard(2L, 32000, 0.5)
+        assertEquals(scheduled, timer.scheduled)
+        advance(97010)
+        assertEquals(listOf(1L), lost)
+        assertTrue(liveness.isAlive(2L))
+
+        // a change brings node 2 back to short intervals, and an earlier timeout
+        liveness.heard(2L, 1000, 0.5)
+        // the interval is kept when an update does not advertise one
+        liveness.heard(2L, null, 0.5)
+        advance(101010)
+        assertEquals(listOf(1L), lost)
+        advance(101020)
+        assertEquals(listOf(1L, 2L), lost)
+        // the replaced timeout does nothing
+        advance(200000)
+        assertEquals(listOf(1L, 2L), lost)
+
+        // heard again after being lost
+        liveness.heard(1L, null, 0.0)
+        assertTrue(liveness.isAlive(1L))
+        liveness.forget(1L)
+        assertFalse(liveness.isAlive(1L))
+        advance(300000)
+        assertEquals(listOf(1L, 2L), lost)
+        assertEquals(0, timer.pending)
+    }
+
+    @Test
+    fun testRemoteNodeDisconnected() {
+        var now = 0L
+        val timer = HashedWheelTimer("test", 10, 64, HashedWheelTimer.Clock { now })
+        val disconnected = mutableListOf<JID?>()
+        val sdListener = object : SDListener {
+            override fun clientDisconnected(clientJID: JID?) {
+                disconnected.add(clientJID)
+            }
+
+            override fun clientReconnected(clientJID: JID?) {}
+            override fun gatewayAdded(address: InetAddress, domain: JID) {}
+            override fun gatewayRemoved(domain: JID) {}
+            override fun clientDiscovered(presence: Presence) {}
+            override fun clientRemoved(presence: Presence) {}
+            override fun clientUpdated(presence: Presence) {}
+            override fun mucOccupantJoined(presence: Presence) {}
+            override fun mucOccupantExited(presence: Presence) {}
+            override fun mucOccupantUpdated(presence: Presence) {}
+            override fun roomAdded(roomJID: JID) {}
+            override fun roomRemoved(roomJID: JID) {}
+        }
+        val user1 = JID("user1@proxy")
+        val user2 = JID("user2@proxy")
+        val remoteNodes = mapOf(42L to NORMNode(mutableMapOf(user1 to "aaaa", user2 to "bbbb"), 42, 0,
+            mutableMapOf(), mutableSetOf()))
+        // lost after 15 intervals of 10ms without an update
+        val liveness = RemoteNodeLiveness(10, 15, 1, timer) { nodeId ->
+            remoteNodes[nodeId]?.let { disconnectRemoteNode(it, sdListener) }
+        }
+        val advance = { millis: Long ->
+            now = millis
+            timer.advance()
+        }
+
+        liveness.heard(42L, 10, 0.0)
+        advance(100)
+        liveness.heard(42L, null, 0.0)
+        advance(240)
+        assertTrue(disconnected.isEmpty())
+        advance(260)
+        assertEquals(listOf(user1, user2), disconnected)
+        assertFalse(remoteNodes.getValue(42L).connected)
+
+        // told once, even if the node is lost again before it reconnects
+        liveness.heard(42L, null, 0.0)
+        advance(500)
+        assertEquals(listOf(user1, user2), disconnected)
+        timer.stop()
+    }
+}
@@ -0,0 +1,63 @@
+package mil.navy.nrl.xop.transport.reliable
+
+import edu.drexel.xop.core.ClientManager
+import edu.drexel.xop.packet.TransportPacketProcessor
+import org.xmpp.packet.JID
+import java.io.File
+import java.net.InetAddress
+
+/**
+ * Memory and join latency of 5, 50 and 500 rooms with a sender and a receiver session per room, and with all rooms
+ * over the shared room sessions: the resident set size and heap the rooms add, and how long creating the transport
+ * of a room takes, which is what joining a room waits for.
+ *
+ * NORM allocates the buffers of a session natively, so most of the difference shows in the resident set size. Needs
+ * libnorm on the java.library.path.
+ *
+ * Run with: java -cp <test and runtime classpath> mil.navy.nrl.xop.transport.reliable.SharedRoomSessionsBenchmark
+ * [interface] [multicast group] [port range]
+ */
+object SharedRoomSessionsBenchmark {
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val iface = if (args.isNotEmpty()) args[0] else "lo"
+        val multicastGroup = InetAddress.getByName(if (args.size > 1) args[1] else "225.0.87.4")
+        val portRange = if (args.size > 2) args[2] else "20000-40000"
+        val transportPacketProcessor = TransportPacketProcessor(ClientManager())
+
+        println("%-10s %6s %12s %12s %14s %14s".format("rooms", "count", "RSS MB", "heap MB", "join avg ms",
+            "join max ms"))
+        for (mode in listOf(ROOMS_PER_SESSION, ROOMS_SHARED)) {
+            for (count in intArrayOf(5, 50, 500)) {
+                val xopNormService = XopNormService(1L, iface, iface, multicastGroup, portRange,
+                    transportPacketProcessor, false, mode)
+                val rss = residentKb()
+                val heap = usedHeap()
+                var total = 0L
+                var max = 0L
+                for (i in 0 until count) {
+                    val start = System.nanoTime()
+                    xopNormService.createRoomTransport(JID("room$i@conference.proxy"), false)
+                    val nanos = System.nanoTime() - start
+                    total += nanos
+                    max = maxOf(max, nanos)
+                }
+                println("%-10s %6d %12.1f %12.1f %14.3f %14.3f".format(mode, count, (residentKb() - rss) / 1024.0,
+                    (usedHeap() - heap) / 1048576.0, total / 1e6 / count, max / 1e6))
+                xopNormService.shutdown()
+            }
+        }
+    }
+
+    private fun residentKb(): Long {
+        val line = File("/proc/self/status").readLines().firstOrNull { it.startsWith("VmRSS:") } ?: return 0
+        return line.substringAfter(":").trim().substringBefore(" ").toLong()
+    }
+
+    private fun usedHeap(): Long {
+        val runtime = Runtime.getRuntime()
+        System.gc()
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+}
@@ -0,0 +1,118 @@
+package mil.navy.nrl.xop.transport.reliable
+
+import edu.drexel.xop.core.ClientManager
+import edu.drexel.xop.packet.TransportPacketProcessor
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNotEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.xmpp.packet.JID
+import java.net.InetAddress
+
+internal class SharedRoomSessionsTest {
+    private val transportPacketProcessor = TransportPacketProcessor(ClientManager())
+
+    private fun roomTransport(roomJID: JID, shared: SharedRoomSessions?): NormTransport {
+        // no sessions, nothing is sent
+        return NormTransport(TransportType.MessageTransport, TransportSubType.GroupChat,
+            mutableMapOf(), mutableMapOf(), InetAddress.getLoopbackAddress(), 10000, transportPacketProcessor,
+            false, roomId = roomId(roomJID), sharedRooms = shared)
+    }
+
+    private fun info(roomJID: JID?, format: String = METADATA_BINARY): ByteArray {
+        val transportMetadata = TransportMetadata(System.currentTimeMillis(), TransportType.MessageTransport,
+            TransportSubType.GroupChat, roomId = if (roomJID == null) 0 else roomId(roomJID))
+        return transportMetadataToBytes(transportMetadata, false, format)
+    }
+
+    @Test
+    fun testRoomId() {
+        val ops = JID("ops@conference.proxy")
+        assertEquals(roomId(ops), roomId(JID("ops@conference.proxy/alice")))
+        assertEquals(roomId(ops), roomId(JID("OPS@Conference.Proxy")))
+        assertNotEquals(roomId(ops), roomId(JID("intel@conference.proxy")))
+        for (i in 0 until 1000) {
+            val id = roomId(JID("room$i@conference.proxy"))
+            assertTrue(id in 1..0x0fffffff, "room id $id")
+        }
+    }
+
+    @Test
+    fun testDemultiplex() {
+        val shared = SharedRoomSessions(emptyMap(), emptyMap(), 10000, false, filter = true)
+        val ops = JID("ops@conference.proxy")
+        val intel = JID("intel@conference.proxy")
+        val opsTransport = roomTransport(ops, shared)
+        val intelTransport = roomTransport(intel, shared)
+        shared.add(opsTransport.roomId, opsTransport)
+        shared.add(intelTransport.roomId, intelTransport)
+
+        assertSame(opsTransport, shared.transportFor(info(ops)))
+        assertSame(intelTransport, shared.transportFor(info(intel)))
+        assertSame(opsTransport, shared.transportFor(info(ops, METADATA_JSON)))
+        assertTrue(shared.isWanted(info(intel)))
+
+        // a room this node is not in, and an object without a room
+        val logistics = JID("logistics@conference.proxy")
+        assertFalse(shared.isWanted(info(logistics)))
+        assertNull(shared.transportFor(info(logistics)))
+        assertFalse(shared.isWanted(info(null)))
+        assertEquals(3, shared.getDelivered())
+        assertEquals(1, shared.getDropped())
+        assertEquals(2, shared.getCancelled())
+
+        // the sessions stay with the other room
+        intelTransport.close()
+        assertEquals(1, shared.getRooms())
+        assertNull(shared.transportFor(info(intel)))
+        assertSame(opsTransport, shared.transportFor(info(ops)))
+        assertTrue(shared.toString().contains("rooms=1"), shared.toString())
+    }
+
+    @Test
+    fun testSharedRoomId() {
+        val shared = SharedRoomSessions(emptyMap(), emptyMap(), 10000, false, filter = true)
+        val ops = JID("ops@conference.proxy")
+        // two rooms with the same id
+        val first = roomTransport(ops, shared)
+        val second = roomTransport(ops, shared)
+        shared.add(first.roomId, first)
+        shared.add(second.roomId, second)
+        assertEquals(2, shared.getRooms())
+        assertSame(first, shared.transportFor(info(ops)))
+
+        // the id stays with the other room
+        first.close()
+        assertEquals(1, shared.getRooms())
+        assertTrue(shared.isWanted(info(ops)))
+        assertSame(second, shared.transportFor(info(ops)))
+
+        second.close()
+        assertEquals(0, shared.getRooms())
+        assertFalse(shared.isWanted(info(ops)))
+        assertNull(shared.transportFor(info(ops)))
+    }
+
+    @Test
+    fun testNoFilter() {
+        val shared = SharedRoomSessions(emptyMap(), emptyMap(), 10000, false, filter = false)
+        assertTrue(shared.isWanted(info(JID("logistics@conference.proxy"))))
+        assertEquals(0, shared.getCancelled())
+    }
+
+    @Test
+    fun testForThisRoom() {
+        val ops = JID("ops@conference.proxy")
+        val transport = roomTransport(ops, null)
+        val metadata = TransportMetadata(0L, TransportType.MessageTransport, TransportSubType.GroupChat)
+        assertTrue(transport.isForThisRoom(metadata.copy(roomId = roomId(ops))))
+        // from a node that does not send room ids
+        assertTrue(transport.isForThisRoom(metadata))
+        // another room on the same port
+        assertFalse(transport.isForThisRoom(metadata.copy(roomId = roomId(JID("intel@conference.proxy")))))
+        transport.close()
+    }
+}
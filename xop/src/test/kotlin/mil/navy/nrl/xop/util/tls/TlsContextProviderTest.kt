@@ -0,0 +1,59 @@
+package mil.navy.nrl.xop.util.tls
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNotSame
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import javax.net.ssl.SSLContext
+
+internal class TlsContextProviderTest {
+
+    private var calls = 0
+    private var fail = false
+
+    private val provider = TlsContextProvider("test") {
+        calls++
+        if (fail) {
+            null
+        } else {
+            val context = SSLContext.getInstance("TLS")
+            context.init(null, null, null)
+            context
+        }
+    }
+
+    @Test
+    fun testContextBuiltOnce() {
+        val context = provider.getContext()
+        assertSame(context, provider.getContext())
+        assertSame(provider.getSocketFactory(), provider.getSocketFactory())
+        assertEquals(1, calls)
+        assertEquals(1L, provider.getLoads())
+    }
+
+    @Test
+    fun testReload() {
+        val context = provider.getContext()
+        assertTrue(provider.reload())
+        val reloaded = provider.getContext()
+        assertNotSame(context, reloaded)
+
+        // a failed reload keeps the current context
+        fail = true
+        assertFalse(provider.reload())
+        assertSame(reloaded, provider.getContext())
+        assertEquals(2L, provider.getLoads())
+    }
+
+    @Test
+    fun testFailedLoadRetried() {
+        fail = true
+        assertNull(provider.getContext())
+        fail = false
+        assertTrue(provider.getContext() != null)
+        assertEquals(2, calls)
+    }
+}
@@ -0,0 +1,120 @@
+package mil.navy.nrl.xop.util.xml
+
+import org.dom4j.Element
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.xml.sax.Attributes
+import org.xml.sax.SAXException
+import org.xml.sax.helpers.DefaultHandler
+import java.io.ByteArrayInputStream
+
+internal class XmppStanzaStreamTest {
+
+    private val streamHeader = "<?xml version='1.0'?><stream:stream to='localhost' version=\"1.0\" " +
+            "xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'> "
+
+    private class Collector : XmppStanzaStream.Listener {
+        val opened = mutableListOf<Map<String, String>>()
+        val stanzas = mutableListOf<Element>()
+        var closed = false
+
+        override fun onStreamOpen(name: XmlName, attributes: Map<String, String>) {
+            assertEquals("stream", name.localName)
+            assertEquals("http://etherx.jabber.org/streams", name.uri)
+            opened.add(attributes)
+        }
+
+        override fun onStanza(element: Element) {
+            stanzas.add(element)
+        }
+
+        override fun onStreamClose() {
+            closed = true
+        }
+    }
+
+    @Test
+    fun testStanzasSplitAcrossReads() {
+        val stream = streamHeader +
+                "<message to='a@localhost' id='x&gt;y'><body>1 &lt; 2 é中 <![CDATA[</message>]]></body>" +
+                "<!-- </message> --></message>\n" +
+                "<presence/><iq type='get' id=\"q\"><query xmlns='jabber:iq:roster'/></iq></stream:stream>"
+        val bytes = stream.toByteArray(Charsets.UTF_8)
+        val collector = Collector()
+        val stanzaStream = XmppStanzaStream(collector)
+
+        // feed one byte at a time, splitting tags, entities and multi-byte characters between reads
+        for (i in bytes.indices) stanzaStream.feed(bytes, i, 1)
+
+        assertEquals(1, collector.opened.size)
+        assertEquals("1.0", collector.opened[0]["version"])
+        assertEquals("localhost", collector.opened[0]["to"])
+        assertEquals(3, collector.stanzas.size)
+
+        val message = collector.stanzas[0]
+        assertEquals("message", message.name)
+        assertEquals("jabber:client", message.namespaceURI)
+        assertEquals("x>y", message.attributeValue("id"))
+        assertEquals("1 < 2 é中 </message>", message.elementText("body"))
+
+        assertEquals("presence", collector.stanzas[1].name)
+        val query = collector.stanzas[2].element("query")
+        assertEquals("jabber:iq:roster", query.namespaceURI)
+        assertTrue(collector.closed)
+    }
+
+    @Test
+    fun testResetRestartsStream() {
+        val collector = Collector()
+        val stanzaStream = XmppStanzaStream(collector)
+        stanzaStream.feed((streamHeader + "<auth xmlns='urn:ietf:params:xml:ns:xmpp-sasl'>AA==</auth>").toByteArray())
+        // as after SASL success, the client opens a new stream without closing the old one
+        stanzaStream.reset()
+        stanzaStream.feed((streamHeader + "<presence/>").toByteArray())
+
+        assertEquals(2, collector.opened.size)
+        assertEquals(listOf("auth", "presence"), collector.stanzas.map { it.name })
+    }
+
+    @Test
+    fun testMalformedInputRejected() {
+        val stanzaStream = XmppStanzaStream(Collector())
+        assertThrows(SAXException::class.java) {
+            stanzaStream.feed((streamHeader + "<message><body></message>").toByteArray())
+        }
+    }
+
+    @Test
+    fun testSaxHandlerAdapter() {
+        val events = mutableListOf<String>()
+        val handler = object : DefaultHandler() {
+            override fun startElement(uri: String, localName: String, qName: String, attributes: Attributes) {
+                events.add("start $qName $uri ${attributes.length}")
+            }
+
+            override fun characters(ch: CharArray, start: Int, length: Int) {
+                events.add("chars ${String(ch, start, length)}")
+            }
+
+            override fun endElement(uri: String, localName: String, qName: String) {
+                events.add("end $qName")
+            }
+        }
+        val stream = "<stream:stream xmlns='jabber:server' xmlns:db='jabber:server:dialback' " +
+                "xmlns:stream='http://etherx.jabber.org/streams' to='a' from='b'>" +
+                "<db:result to='a' from='b'>key</db:result>"
+
+        SaxHandlerAdapter(handler).parse(ByteArrayInputStream(stream.toByteArray()))
+
+        assertEquals(
+            listOf(
+                "start stream:stream http://etherx.jabber.org/streams 2",
+                "start db:result jabber:server:dialback 2",
+                "chars key",
+                "end db:result"
+            ), events
+        )
+    }
+}